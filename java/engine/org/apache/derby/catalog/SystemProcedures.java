@@ -1024,6 +1024,31 @@ public class SystemProcedures  {
         Factory.getDatabaseOfConnection().backup(backupDir, false);
     }
 
+    /**
+     * Backup the pages of the database changed since an earlier backup to a
+     * backup directory.
+     *
+     * The earlier backup may itself be an incremental backup. Restoring from
+     * the increment with the restoreFrom attribute first restores the backups
+     * it was taken on top of, so all of them must still be in place.
+     * This procedure waits for uncommitted unlogged operations like
+     * SYSCS_BACKUP_DATABASE does.
+     * 
+     * @param backupDir the name of the directory where the backup should be
+     *                  stored. This directory will be created if it 
+     *                  does not exist.
+     * @param baseDir   the backup copy of this database, made by one of the
+     *                  backup procedures, the increment is taken on top of.
+     * @exception SQLException if a database error occurs
+     */
+    public static void SYSCS_BACKUP_DATABASE_INCREMENTAL(String  backupDir,
+                                                         String  baseDir)
+        throws SQLException
+    {
+        Factory.getDatabaseOfConnection().backupIncremental(
+            backupDir, baseDir, true);
+    }
+
 
     /**
      * Backup the database to a backup directory and enable the log archive
@@ -72,6 +72,22 @@ public interface Database
     public void backup(String backupDir, boolean wait) 
         throws SQLException;
 
+    /**
+     * Backup the pages of the database changed since an earlier backup to a
+     * backup directory.
+     *
+     * @param backupDir the directory name where the database backup should
+     *         go.  This directory will be created if not it does not exist.
+     * @param baseBackupDir the backup copy of this database the increment
+     *         is taken on top of.
+     * @param wait if <tt>true</tt>, waits for  all the backup blocking 
+     *             operations in progress to finish.
+     * @exception SQLException Thrown on error
+     */
+    public void backupIncremental(String backupDir, String baseBackupDir,
+                                  boolean wait)
+        throws SQLException;
+
 
     /**
      * Backup the database to a backup directory and enable the log archive
@@ -0,0 +1,218 @@
+/*
+
+   Derby - Class org.apache.derby.diag.CompressProgressTable
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.diag;
+
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.sql.conn.LanguageConnectionContext;
+import org.apache.derby.iapi.sql.conn.ConnectionUtil;
+import org.apache.derby.impl.store.access.conglomerate.CompressProgress;
+
+import org.apache.derby.vti.VTITemplate;
+import org.apache.derby.vti.VTICosting;
+import org.apache.derby.vti.VTIEnvironment;
+
+import org.apache.derby.iapi.sql.ResultColumnDescriptor;
+import org.apache.derby.impl.jdbc.EmbedResultSetMetaData;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+/**
+	CompressProgressTable is a virtual table that shows the progress of the
+	in place compresses (SYSCS_UTIL.SYSCS_INPLACE_COMPRESS_TABLE) currently
+	running in the database.  There is a row for every conglomerate being
+	purged or defragmented.
+
+	This virtual table can be invoked by calling it
+	directly
+	<PRE> select * from SYSCS_DIAG.COMPRESS_PROGRESS </PRE>
+	To see the table an index belongs to, join it with
+	SYS.SYSCONGLOMERATES on CONGLOMERATENUMBER.
+
+	<P>The CompressProgressTable virtual table has the following columns:
+	<UL>
+	<LI>CONGLOMERATENUMBER BIGINT - not nullable.  The conglomerate being
+	compressed.</LI>
+	<LI>PHASE varchar(10) - not nullable.  PURGE or DEFRAGMENT.</LI>
+	<LI>PAGES_DONE BIGINT - not nullable.  The number of pages the phase
+	is done with.</LI>
+	<LI>ESTIMATED_PAGES BIGINT - not nullable.  The estimated number of
+	pages of the conglomerate when the phase started.  A defragment phase
+	usually finishes well before it has visited all of them.</LI>
+	<LI>STARTED TIMESTAMP - not nullable.  When the phase started.</LI>
+	<LI>PAGES_PER_SECOND INT - not nullable.  The rate limit, shared by all
+	the compresses in the database, set by derby.storage.inplaceCompressRate.
+	0 if there is no limit.</LI>
+	</UL>
+*/
+public class CompressProgressTable extends VTITemplate implements VTICosting {
+
+	private List<CompressProgress> progress;
+	private CompressProgress current;
+	private int currentRow;
+
+    public  CompressProgressTable()    throws StandardException
+    {
+        DiagUtil.checkAccess();
+    }
+
+	/**
+		@see java.sql.ResultSet#getMetaData
+	 */
+	public ResultSetMetaData getMetaData()
+	{
+		return metadata;
+	}
+
+	/**
+		@see java.sql.ResultSet#next
+		@exception SQLException if no transaction context can be found
+	 */
+	public boolean next() throws SQLException
+	{
+		if (progress == null)
+		{
+			LanguageConnectionContext lcc = ConnectionUtil.getCurrentLCC();
+
+			progress = CompressProgress.getProgress(
+				lcc.getTransactionExecute().getAccessManager());
+
+			currentRow = -1;
+		}
+
+		if (++currentRow < progress.size())
+		{
+			current = progress.get(currentRow);
+			return true;
+		}
+
+		current = null;
+		return false;
+	}
+
+	/**
+		@see java.sql.ResultSet#close
+	 */
+	public void close()
+	{
+		current = null;
+	}
+
+	/**
+		@see java.sql.ResultSet#getString
+	 */
+	public String getString(int columnNumber)
+	{
+		return (columnNumber == 2) ? current.getPhase() : null;
+	}
+
+	/**
+		@see java.sql.ResultSet#getLong
+	 */
+	public long getLong(int columnNumber)
+	{
+		switch(columnNumber)
+		{
+		case 1:
+			return current.getConglomerateNumber();
+		case 3:
+			return current.getPagesDone();
+		case 4:
+			return current.getEstimatedPages();
+		default:
+			return 0;
+		}
+	}
+
+	/**
+		@see java.sql.ResultSet#getInt
+	 */
+	public int getInt(int columnNumber)
+	{
+		return (columnNumber == 6) ? current.getRate() : 0;
+	}
+
+	/**
+		@see java.sql.ResultSet#getTimestamp
+	 */
+	public Timestamp getTimestamp(int columnNumber)
+	{
+		return (columnNumber == 5) ?
+			new Timestamp(current.getStartTime()) : null;
+	}
+
+	/**
+		@see java.sql.ResultSet#wasNull
+	 */
+	public boolean wasNull()
+	{
+		return false;
+	}
+
+
+	/**  VTI costing interface */
+
+	/**
+		@see VTICosting#getEstimatedRowCount
+	 */
+	public double getEstimatedRowCount(VTIEnvironment vtiEnvironment)
+	{
+		return VTICosting.defaultEstimatedRowCount;
+	}
+
+	/**
+		@see VTICosting#getEstimatedCostPerInstantiation
+	 */
+	public double getEstimatedCostPerInstantiation(VTIEnvironment vtiEnvironment)
+	{
+		return VTICosting.defaultEstimatedCost;
+	}
+
+	/**
+		@return false
+		@see VTICosting#supportsMultipleInstantiations
+	 */
+	public boolean supportsMultipleInstantiations(VTIEnvironment vtiEnvironment)
+	{
+		return false;
+	}
+
+
+	/*
+	** Metadata
+	*/
+	private static final ResultColumnDescriptor[] columnInfo = {
+
+		EmbedResultSetMetaData.getResultColumnDescriptor("CONGLOMERATENUMBER", Types.BIGINT,    false),
+		EmbedResultSetMetaData.getResultColumnDescriptor("PHASE",              Types.VARCHAR,   false, 10),
+		EmbedResultSetMetaData.getResultColumnDescriptor("PAGES_DONE",         Types.BIGINT,    false),
+		EmbedResultSetMetaData.getResultColumnDescriptor("ESTIMATED_PAGES",    Types.BIGINT,    false),
+		EmbedResultSetMetaData.getResultColumnDescriptor("STARTED",            Types.TIMESTAMP, false),
+		EmbedResultSetMetaData.getResultColumnDescriptor("PAGES_PER_SECOND",   Types.INTEGER,   false),
+	};
+
+    private static final ResultSetMetaData metadata =
+        new EmbedResultSetMetaData(columnInfo);
+}
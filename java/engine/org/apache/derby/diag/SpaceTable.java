@@ -90,6 +90,11 @@ import org.apache.derby.vti.VTIEnvironment;
 	<LI>ESTIMSPACESAVING bigint - not nullable.  The estimated space which 
     could possibly be saved by compressing the conglomerate, in bytes.</LI>
 	<LI>TABLEID char(36) - not nullable.  The UUID of the table.</LI>
+	<LI>COMPRESSIONRATIO double - not nullable.  The estimated ratio between
+    the size of the pages of the conglomerate and the space they take on
+    disk, based on the pages read or written since the conglomerate was
+    last opened. 1.0 if the conglomerate was not created with
+    derby.storage.pageCompression.</LI>
 	</UL>
 
 
@@ -304,6 +309,27 @@ public class SpaceTable extends VTITemplate implements VTICosting {
 		return longval;
     }
 
+    /**
+    @see java.sql.ResultSet#getDouble
+    */
+    public double getDouble(int columnNumber)
+	{
+        double doubleval;
+		switch(columnNumber)
+		{
+		    case 9:
+			    doubleval = spaceInfo.getCompressionRatio();
+                break;
+		    default:
+                if (SanityManager.DEBUG)
+                    SanityManager.THROWASSERT("SpaceTable column number " +
+                        columnNumber + " is not a double column");
+			    doubleval = 0;
+		}
+		wasNull = false;
+		return doubleval;
+    }
+
     /**
     @see java.sql.ResultSet#getShort
     */
@@ -373,6 +399,7 @@ public class SpaceTable extends VTITemplate implements VTICosting {
 		EmbedResultSetMetaData.getResultColumnDescriptor("PAGESIZE",          Types.INTEGER, false),
 		EmbedResultSetMetaData.getResultColumnDescriptor("ESTIMSPACESAVING",  Types.BIGINT, false),
 		EmbedResultSetMetaData.getResultColumnDescriptor("TABLEID",  Types.CHAR, false, 36),
+		EmbedResultSetMetaData.getResultColumnDescriptor("COMPRESSIONRATIO",  Types.DOUBLE, false),
 	};
 	
     private static final ResultSetMetaData metadata =
@@ -496,6 +496,32 @@ public interface Property {
      **/
 	public static final String ROW_LOCKING = "derby.storage.rowLocking";
 
+	/**
+		Property name for specifying the rate, in pages per second, at which
+		SYSCS_UTIL.SYSCS_INPLACE_COMPRESS_TABLE purges and defragments the
+		pages of a table and its indexes. The budget is shared by all the
+		in place compresses running in the database, so that they can be
+		run on a busy system without taking over the disk.
+		<BR>
+		The default value 0 means no limit.
+
+        Undocumented.
+	 */
+	public static final String INPLACE_COMPRESS_RATE = "derby.storage.inplaceCompressRate";
+
+	/**
+		Property name for specifying the number of threads on which
+		SYSCS_UTIL.SYSCS_INPLACE_COMPRESS_TABLE purges a table and its
+		indexes. Each thread purges one conglomerate at a time in its own
+		transaction.
+		<BR>
+		The default value 1 means that the conglomerates are purged one
+		after the other by the caller.
+
+        Undocumented.
+	 */
+	public static final String INPLACE_COMPRESS_THREADS = "derby.storage.inplaceCompressThreads";
+
 	/**
 		derby.storage.propertiesId
 		<BR>
@@ -514,6 +540,19 @@ public interface Property {
 		<P>
 	*/
 	String STORAGE_TEMP_DIRECTORY = "derby.storage.tempDirectory";
+
+	/**
+		derby.storage.memoryOffHeap
+		<BR>
+		If true, databases created with the memory subsubprotocol keep the
+		contents of their files in direct byte buffers outside of the Java
+		heap, rather than in byte arrays on it.  Read when a new in-memory
+		database is created; a database keeps the setting until it is
+		dropped.  The memory counts against -XX:MaxDirectMemorySize.
+		<P>
+		Defaults to false.
+	*/
+	String STORAGE_MEMORY_OFF_HEAP = "derby.storage.memoryOffHeap";
 	
     /**
      * derby.system.durability
@@ -1042,6 +1081,70 @@ public interface Property {
 	 */
 	public static final String CHECKPOINT_INTERVAL = "derby.storage.checkpointInterval";
 
+	/**
+		Property name for specifying the rate, in pages per second, at which
+		checkpoints started by the checkpoint daemon write dirty pages. Such
+		incremental checkpoints spread their writes out instead of flushing
+		the whole page cache at once, so that they don't compete with user
+		transactions for the disk. Checkpoints that someone waits for, like
+		the ones taken by backup or shutdown, are never throttled.
+		<BR>
+		The default value 0 means no limit.
+
+        Undocumented.
+	 */
+	public static final String CHECKPOINT_WRITE_RATE = "derby.storage.checkpointWriteRate";
+
+	/**
+		Property name for specifying the maximum time, in microseconds, that
+		a log sync requested by a committing transaction is held back so that
+		other transactions which commit at about the same time can be made
+		durable by the same sync (group commit). The delay is only applied
+		when syncs have recently been shared by more than one transaction.
+		<BR>
+		The default value 0 means that the log is synced right away.
+
+        Undocumented.
+	 */
+	public static final String LOG_COMMIT_DELAY = "derby.storage.logCommitDelay";
+
+	/**
+		Property name for specifying the number of threads which apply the
+		page level log records in the redo pass of crash recovery. The
+		records of a container are all applied by the same thread, in log
+		order.
+		<BR>
+		The default value 0 means that redo applies all records itself.
+
+        Undocumented.
+	 */
+	public static final String RECOVERY_REDO_THREADS = "derby.storage.recoveryRedoThreads";
+
+	/**
+		Property name for specifying whether full log buffers should be
+		written to the log file by a background thread, instead of by the
+		transaction which needs a free log buffer. Syncs of the log are
+		still done when transactions commit.
+		<BR>
+		The default value is false.
+
+        Undocumented.
+	 */
+	public static final String LOG_WRITER_THREAD = "derby.storage.logWriterThread";
+
+	/**
+		Property name for specifying the length, in bytes, from which log
+		records are compressed before they are written to the log. Only the
+		records that get noticeably smaller are logged compressed, such as
+		those of large updates and long columns. Has no effect on databases
+		which have not been upgraded to 10.14.
+		<BR>
+		The default value 0 means that log records are not compressed.
+
+        Undocumented.
+	 */
+	public static final String LOG_COMPRESSION_THRESHOLD = "derby.storage.logCompressionThreshold";
+
 	/**
 		Property name for specifying log Buffer Size
 
@@ -79,6 +79,13 @@ public enum Securable
              AliasInfo.ALIAS_TYPE_PROCEDURE_AS_CHAR
              ),
             
+        BACKUP_DATABASE_INCREMENTAL
+            (
+             SchemaDescriptor.SYSCS_UTIL_SCHEMA_UUID,
+             "SYSCS_BACKUP_DATABASE_INCREMENTAL",
+             AliasInfo.ALIAS_TYPE_PROCEDURE_AS_CHAR
+             ),
+            
         BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE
             (
              SchemaDescriptor.SYSCS_UTIL_SCHEMA_UUID,
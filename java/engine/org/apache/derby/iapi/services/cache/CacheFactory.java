@@ -25,6 +25,16 @@ package org.apache.derby.iapi.services.cache;
 	A factory for handing out caches.
 */
 public interface CacheFactory {
+
+	/** Name of the clock replacement policy, the default. */
+	public static final String CLOCK_POLICY = "clock";
+
+	/**
+		Name of the scan resistant 2Q replacement policy, which keeps
+		objects that are only used once (as by a large scan) from pushing
+		frequently used objects out of the cache.
+	*/
+	public static final String TWO_QUEUE_POLICY = "2Q";
 	
 	/**
 		Create a cache that uses the class represented by holderClass as
@@ -39,5 +49,24 @@ public interface CacheFactory {
 	
 	public CacheManager newCacheManager(CacheableFactory holderFactory, String name,
 										int initialSize, int maximumSize);
+
+	/**
+		Create a cache which is partitioned into a number of shards, each
+		holding an equal part of the maximum size of the cache and
+		replacing its objects independently of the others. Sharding
+		reduces contention between threads that bring objects into a
+		large, busy cache.
+
+		@param holderFactory The factory for the objects that are to be cached.
+		@param name			The name of the cache
+		@param initialSize	The initial capacity of the cache
+		@param maximumSize  The maximum number of objects the cache will hold
+		@param shardCount	The number of shards
+		@param policy		The replacement policy, CLOCK_POLICY or
+							TWO_QUEUE_POLICY (null means CLOCK_POLICY)
+	*/
+	public CacheManager newCacheManager(CacheableFactory holderFactory, String name,
+										int initialSize, int maximumSize,
+										int shardCount, String policy);
 }
 
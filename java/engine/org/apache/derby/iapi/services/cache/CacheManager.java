@@ -188,6 +188,27 @@ public interface CacheManager {
 	*/
 	public void cleanAll() throws StandardException;
 
+	/**
+		Clean all objects in the cache like cleanAll(), but clean at most
+		maxRate objects per second, so that the writes are spread out over
+		time instead of being issued in one burst.
+
+		@param maxRate the maximum number of objects to clean per second,
+		or 0 for no limit
+
+		@see #cleanAtFullSpeed
+
+		@exception StandardException Standard Derby error policy.
+	*/
+	public void cleanAll(int maxRate) throws StandardException;
+
+	/**
+		Lift the rate limit of a cleanAll(int) call that is in progress, so
+		that it finishes as soon as possible. Used when someone needs to wait
+		for the clean to complete.
+	*/
+	public void cleanAtFullSpeed();
+
 	/**
 		Clean all objects that match the partialKey (or exact key).
 		Any cached object that results in the partialKey.equals(Object)
@@ -237,6 +258,20 @@ public interface CacheManager {
 	*/
 	public void useDaemonService(DaemonService daemon);
 
+	/**
+		Let the background cleaner clean each batch of objects on this many
+		threads, the cleaner thread included.  The batch is split into runs
+		of consecutive keys, which are cleaned concurrently.  Only has an
+		effect once a DaemonService is used, and the clean method of the
+		cached objects must allow concurrent calls on different objects.
+		The caller must ensure that it has exclusive access to the cache
+		when this method is called.
+
+		@param threads the number of threads, 1 to clean the batches on the
+		cleaner thread alone
+	*/
+	public void useCleanerThreads(int threads);
+
 
 	/**
 		Discard all objects that match the partialKey (or exact key).
@@ -0,0 +1,51 @@
+/*
+
+   Derby - Class org.apache.derby.iapi.services.cache.GroupCleanable
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.iapi.services.cache;
+
+import org.apache.derby.iapi.error.StandardException;
+
+/**
+ * This interface extends the Cacheable interface (@see Cacheable) with a
+ * method that cleans many objects at once. When the cache manager cleans a
+ * batch of objects which implement this interface, it hands the whole batch
+ * to one of them, so that objects which are stored next to each other can
+ * be written with a single write instead of one write each.
+ *
+ * @see Cacheable
+ */
+
+public interface GroupCleanable extends Cacheable
+{
+
+    /**
+     * Clean a group of objects from the same cache. This has the same effect
+     * as calling <code>clean(false)</code> on each of them. If an exception
+     * is thrown, objects of the group may be left dirty, but none of them
+     * may be left in the middle of being cleaned.
+     *
+     * <BR> MT - thread safe, like <code>clean()</code>
+     *
+     * @param group the objects to clean, in the order of their identities
+     * @exception StandardException Standard Derby error policy.
+     */
+    public void cleanGroup(Cacheable[] group) throws StandardException;
+}
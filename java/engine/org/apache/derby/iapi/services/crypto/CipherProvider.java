@@ -97,4 +97,11 @@ public interface CipherProvider
 	 	Returns the encryption block size used during creation of the encrypted database
 	 */
 	public int getEncryptionBlockSize();
+
+	/**
+		Release the resources the provider holds on to between calls, when
+		the database shuts down.  The provider may still be used
+		afterwards.
+	 */
+	public void close();
 }
@@ -0,0 +1,120 @@
+/*
+
+   Derby - Class org.apache.derby.iapi.services.io.CRC32C
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.iapi.services.io;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.Checksum;
+
+/**
+  A CRC-32C (Castagnoli) checksum, as used for page and log checksums.
+  <P>
+  Use newInstance() rather than the constructor.  From Java 9 on it returns
+  the platform's java.util.zip.CRC32C, which the JIT compiles to the CRC32
+  instructions of the processor.  On older platforms it falls back on this
+  table driven implementation, which computes the same values.
+ */
+public final class CRC32C implements Checksum
+{
+    /** Reversed Castagnoli polynomial. */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[] TABLE = new int[256];
+
+    static
+    {
+        for (int i = 0; i < 256; i++)
+        {
+            int crc = i;
+            for (int j = 0; j < 8; j++)
+                crc = (crc >>> 1) ^ ((crc & 1) != 0 ? POLYNOMIAL : 0);
+            TABLE[i] = crc;
+        }
+    }
+
+    /** Constructor of java.util.zip.CRC32C, null if there is none. */
+    private static final Constructor<?> PLATFORM_CRC32C = findPlatformCRC32C();
+
+    private int crc = 0xFFFFFFFF;
+
+    private CRC32C()
+    {
+    }
+
+    /**
+     * Get a new CRC-32C checksum.
+     *
+     * @return the platform implementation if there is one, else an instance
+     *         of this class
+     */
+    public static Checksum newInstance()
+    {
+        if (PLATFORM_CRC32C != null)
+        {
+            try
+            {
+                return (Checksum) PLATFORM_CRC32C.newInstance();
+            }
+            catch (Exception e)
+            {
+                // fall back on our own
+            }
+        }
+
+        return new CRC32C();
+    }
+
+    private static Constructor<?> findPlatformCRC32C()
+    {
+        try
+        {
+            return Class.forName("java.util.zip.CRC32C").getConstructor();
+        }
+        catch (Exception e)
+        {
+            // not before Java 9
+            return null;
+        }
+    }
+
+    public void update(int b)
+    {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+    }
+
+    public void update(byte[] b, int off, int len)
+    {
+        int c = crc;
+        for (int end = off + len; off < end; off++)
+            c = (c >>> 8) ^ TABLE[(c ^ b[off]) & 0xFF];
+        crc = c;
+    }
+
+    public long getValue()
+    {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    public void reset()
+    {
+        crc = 0xFFFFFFFF;
+    }
+}
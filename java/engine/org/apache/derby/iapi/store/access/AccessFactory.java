@@ -292,6 +292,23 @@ public interface AccessFactory
     public void backup(String backupDir, boolean wait) 
         throws StandardException;
 
+	/**
+     * Backup the pages of the database changed since an earlier backup to
+     * backupDir.
+     *
+     * @param backupDir the name of the directory where the backup should be
+     *		             stored.
+     * @param baseBackupDir the backup copy of this database the increment
+     *                  is taken on top of.
+     * @param wait      if <tt>true</tt>, waits for  all the backup blocking 
+     *                  operations in progress to finish.
+     *
+     * @exception StandardException Thrown on error
+     */
+    public void backupIncremental(String backupDir, String baseBackupDir,
+                                  boolean wait)
+        throws StandardException;
+
 	
 	/**
      * Backup the database to a backup directory and enable the log archive
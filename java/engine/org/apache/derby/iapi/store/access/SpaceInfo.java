@@ -52,4 +52,10 @@ public interface SpaceInfo
      **/
     public int getPageSize();
 
+    /**
+     * Get the estimated ratio between the size of the pages and the space
+     * they take on disk, 1.0 if the pages are not compressed
+     **/
+    public double getCompressionRatio();
+
 }
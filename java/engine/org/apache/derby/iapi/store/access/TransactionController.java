@@ -1352,6 +1352,22 @@ public interface TransactionController
 	void purgeConglomerate(long conglomId)
 			throws StandardException;
 
+    /**
+     * Purge all committed deleted rows from several conglomerates.
+     * <p>
+     * Like calling purgeConglomerate() for each of the conglomerates, but
+     * the conglomerates are purged in parallel if the
+     * derby.storage.inplaceCompressThreads property asks for more than one
+     * thread.  The threads purge in transactions of their own, so the
+     * caller must not hold locks which conflict with the purge.
+     *
+     * @param conglomIds Ids of the conglomerates to purge.
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+	void purgeConglomerates(long[] conglomIds)
+			throws StandardException;
+
     /**
      * Return free space from the conglomerate back to the OS.
      * <p>
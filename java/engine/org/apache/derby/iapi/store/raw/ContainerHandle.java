@@ -83,6 +83,11 @@ import java.util.Properties;
 	wait for the container lock.  This flag only dictates whether the lock
 	should be waited for or not.  After the container is successfully opened,
 	whether this bit is set or not has no effect on the container handle.
+	<LI>MODE_LOGGED - If set, changes to an unlogged container (see
+	RawStoreFactory.UNLOGGED_PARAMETER) are logged like those to any other
+	container.  Otherwise a user transaction which opens an unlogged
+	container for update gets MODE_UNLOGGED and container locking, and a
+	rollback to before the open deallocates the pages allocated since.
 	</UL>
 	If neither or both of the {MODE_READONLY, MODE_FORUPDATE} modes are 
     specified then the behaviour of the container is unspecified.
@@ -145,6 +150,7 @@ public interface ContainerHandle
     public static final int MODE_SECONDARY_LOCKED      = 0x00002000; // external access
     public static final int MODE_BASEROW_INSERT_LOCKED = 0x00004000; // external access
     public static final int MODE_LOCK_ROW_NOWAIT       = 0x00008000;
+    public static final int MODE_LOGGED                = 0x00010000; // external access
 
 	public static final int TEMPORARY_SEGMENT = -1;
 
@@ -598,8 +604,16 @@ public interface ContainerHandle
     public SpaceInfo getSpaceInfo() throws StandardException;
 
 	/**
-	   Backup the container to the specified path.
+	   Backup the container to the specified path, recording the version of
+	   each page in versionPath. If baseVersionPath is not null, only the
+	   pages whose version differs from the versions recorded there are
+	   written to backupContainerPath. If compress is true the copy is
+	   compressed with GZIP and its name gets the suffix
+	   DataFactory.COMPRESSED_BACKUP_SUFFIX.
 	   @exception StandardException	Standard Derby error policy
 	*/
-	public void backupContainer(String backupContainerPath) throws StandardException;
+	public void backupContainer(String backupContainerPath,
+								String versionPath, String baseVersionPath,
+								boolean compress)
+		throws StandardException;
 }
@@ -32,12 +32,16 @@ import java.io.IOException;
 
 /**
 	A key that identifies a BasePage. Used as the key for the caching mechanism.
+	<P>
+	Page keys are ordered by segment, container and page number, that is,
+	in the order the pages are laid out on disk. The page cache uses this
+	order when it writes out many pages at once.
 
 	<BR> MT - Immutable :
 */
 
 
-public final class PageKey
+public final class PageKey implements Comparable<PageKey>
 {
 	private final ContainerKey	container;
 	private final long	pageNumber;		// page number
@@ -74,6 +78,27 @@ public final class PageKey
 	}
 
 
+	/*
+	** Methods of Comparable
+	*/
+
+	public int compareTo(PageKey other)
+	{
+		int c = compareLong(
+			container.getSegmentId(), other.container.getSegmentId());
+		if (c == 0)
+			c = compareLong(
+				container.getContainerId(), other.container.getContainerId());
+		if (c == 0)
+			c = compareLong(pageNumber, other.pageNumber);
+		return c;
+	}
+
+	private static int compareLong(long a, long b)
+	{
+		return (a < b) ? -1 : ((a == b) ? 0 : 1);
+	}
+
 	/*
 	** Methods of object
 	*/
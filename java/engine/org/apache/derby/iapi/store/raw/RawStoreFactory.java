@@ -111,6 +111,9 @@ public interface RawStoreFactory extends Corruptable {
     /** Derby Store Minor Version (10) **/
     public static final int DERBY_STORE_MINOR_VERSION_10   = 10;
 
+    /** Derby Store Minor Version (14) **/
+    public static final int DERBY_STORE_MINOR_VERSION_14   = 14;
+
     /** Derby 10 Store Major version */
     public static final int DERBY_STORE_MAJOR_VERSION_10   = 10;
 
@@ -149,6 +152,55 @@ public interface RawStoreFactory extends Corruptable {
     */
     public static final int PAGE_CACHE_SIZE_MAXIMUM = Integer.MAX_VALUE;
 
+    /** Property name for the number of shards the page cache is partitioned
+        into.  Each shard holds an equal part of the page cache and has its
+        own replacement clock, so that threads bringing different pages into
+        the cache do not all synchronize on the same clock.
+
+        The default of 1 keeps the page cache in one piece. 0 picks one
+        shard per processor, but never so many that a shard gets fewer than
+        PAGE_CACHE_AUTO_SHARD_SIZE pages.
+
+        Equal to 'derby.storage.pageCacheShards'
+    */
+    public static final String PAGE_CACHE_SHARDS_PARAMETER =
+        "derby.storage.pageCacheShards";
+
+    /**
+        Default value for PAGE_CACHE_SHARDS_PARAMETER (1, not sharded).
+    */
+    public static final int PAGE_CACHE_SHARDS_DEFAULT = 1;
+
+    /**
+        Minimum number of page cache shards we will accept (0).
+    */
+    public static final int PAGE_CACHE_SHARDS_MINIMUM = 0;
+
+    /**
+        Maximum number of page cache shards we will accept (256).
+    */
+    public static final int PAGE_CACHE_SHARDS_MAXIMUM = 256;
+
+    /**
+        Smallest shard size, in pages, when the number of page cache shards
+        is picked automatically (256).
+    */
+    public static final int PAGE_CACHE_AUTO_SHARD_SIZE = 256;
+
+    /** Property name for the replacement policy of the page cache.
+
+        "clock" (the default) evicts pages that have not been used since
+        the clock hand last passed them.  "2Q" is scan resistant: a page
+        only enters the protected part of the cache when it is requested
+        again some time after it was first read, so a large scan which
+        reads each page once does not push the working set out of the
+        cache.  Any other value means "clock".
+
+        Equal to 'derby.storage.pageReplacementPolicy'
+    */
+    public static final String PAGE_REPLACEMENT_POLICY_PARAMETER =
+        "derby.storage.pageReplacementPolicy";
+
 
     /** Property name for the number of open files to maintain associated with
         the page cache.  Internally this is referred to as the "ContainerCache".
@@ -199,6 +251,223 @@ public interface RawStoreFactory extends Corruptable {
     */
     public static final int CONTAINER_CACHE_SIZE_MAXIMUM = Integer.MAX_VALUE;
 
+    /** Property name for the number of pages to read ahead of a sequential
+        scan.  When a heap scan or a B-tree leaf scan is found to be walking
+        the pages of a container in ascending order, up to this many of the
+        following pages are read into the page cache by a background thread,
+        so that the scan does not have to wait for each page miss.
+
+        The default of 0 disables read-ahead.
+
+        Equal to 'derby.storage.readAheadPages'
+    */
+    public static final String READ_AHEAD_PAGES_PARAMETER =
+        "derby.storage.readAheadPages";
+
+    /**
+        Default value for READ_AHEAD_PAGES_PARAMETER (0, disabled).
+    */
+    public static final int READ_AHEAD_PAGES_DEFAULT = 0;
+
+    /**
+        Minimum read-ahead we will accept (0).
+    */
+    public static final int READ_AHEAD_PAGES_MINIMUM = 0;
+
+    /**
+        Maximum read-ahead we will accept (1024).
+    */
+    public static final int READ_AHEAD_PAGES_MAXIMUM = 1024;
+
+    /** Property name for the number of insert pages a heap may hand out to
+        concurrent inserters.  By default every insert into a heap goes to
+        the page that was last inserted into, so concurrent inserters queue
+        up on the latch of that page.  When this is greater than 1 and an
+        inserter finds that page latched by someone else, the container
+        switches to this many insert pages, and each thread keeps inserting
+        into a page of its own that is picked from the unfilled pages of
+        the container, or allocated if there is none.
+
+        The default of 1 keeps a single insert page.
+
+        Equal to 'derby.storage.insertPages'
+    */
+    public static final String INSERT_PAGES_PARAMETER =
+        "derby.storage.insertPages";
+
+    /**
+        Default value for INSERT_PAGES_PARAMETER (1, a single insert page).
+    */
+    public static final int INSERT_PAGES_DEFAULT = 1;
+
+    /**
+        Minimum number of insert pages we will accept (1).
+    */
+    public static final int INSERT_PAGES_MINIMUM = 1;
+
+    /**
+        Maximum number of insert pages we will accept (64).
+    */
+    public static final int INSERT_PAGES_MAXIMUM = 64;
+
+    /** Property name for the number of preallocation extents to keep ahead
+        of the last allocated page of a growing container.  An extent here
+        is one batch of derby.storage.pagePerAllocate pages.  Normally the
+        inserting transaction writes the next batch of empty pages and
+        syncs the file itself whenever it runs out of preallocated pages.
+        When this is greater than 0, a container with fewer than this many
+        extents of preallocated pages left queues itself with a background
+        thread, which writes that many extents of pages ahead, so that
+        inserts into a busy table do not wait for the file to grow.
+
+        The default of 0 disables background preallocation.
+
+        Equal to 'derby.storage.preallocateExtents'
+    */
+    public static final String PREALLOCATE_EXTENTS_PARAMETER =
+        "derby.storage.preallocateExtents";
+
+    /**
+        Default value for PREALLOCATE_EXTENTS_PARAMETER (0, disabled).
+    */
+    public static final int PREALLOCATE_EXTENTS_DEFAULT = 0;
+
+    /**
+        Minimum number of extents to preallocate ahead we will accept (0).
+    */
+    public static final int PREALLOCATE_EXTENTS_MINIMUM = 0;
+
+    /**
+        Maximum number of extents to preallocate ahead we will accept (64).
+    */
+    public static final int PREALLOCATE_EXTENTS_MAXIMUM = 64;
+
+    /** Property name for the algorithm of the checksums written on data
+        pages and in the transaction log, either CRC32 or CRC32C.  CRC32C
+        is much cheaper to compute on Java 9 and up, where the processor's
+        CRC32 instructions are used for it.
+
+        The checksum of every page and log block records the algorithm it
+        was computed with, so the property can be changed at any time and
+        affects new writes only.  CRC32C checksums are only written once
+        the database has been upgraded to 10.14, since older versions
+        cannot read them.
+
+        Defaults to CRC32.
+
+        Equal to 'derby.storage.checksumAlgorithm'
+    */
+    public static final String CHECKSUM_ALGORITHM_PARAMETER =
+        "derby.storage.checksumAlgorithm";
+
+    /** Value of CHECKSUM_ALGORITHM_PARAMETER selecting CRC32C. */
+    public static final String CHECKSUM_ALGORITHM_CRC32C = "CRC32C";
+
+    /** Property name for verifying the checksum of a page only the first
+        time it is read from disk after the database was booted, or after
+        its container was last opened.  Later reads of the same page, after
+        it was evicted from the page cache, are trusted, which saves
+        computing the checksum of every page of a scan over and over.
+        Corruption of a page on disk is still detected, as long as it
+        happened before the page was first read.
+
+        Defaults to false, every read of a page is verified.
+
+        Equal to 'derby.storage.verifyChecksumOnFirstRead'
+    */
+    public static final String VERIFY_CHECKSUM_ON_FIRST_READ =
+        "derby.storage.verifyChecksumOnFirstRead";
+
+    /** Property name for running databases stored in memory (the
+        "memory" subsubprotocol) without durable commits.  Such a database
+        never survives the JVM, so neither the log nor the data files are
+        synced, as with derby.system.durability=test, and in addition user
+        transactions commit without writing out the transaction log.  The
+        log is still written when its buffers fill up, since rollback reads
+        the undo information from it, and checkpoints still run to keep
+        its size bounded.
+
+        A database which is not shut down cleanly may lose its last
+        commits when it is booted again in the same JVM.  Has no effect on
+        databases stored on disk, or while the log is archived or
+        replicated.
+
+        Defaults to false.
+
+        Equal to 'derby.storage.nonDurableInMemory'
+    */
+    public static final String NON_DURABLE_IN_MEMORY =
+        "derby.storage.nonDurableInMemory";
+
+    /** Property name for serving page reads of a read-only database from
+        memory mapped container files.  When set to true and the database
+        is read-only (for instance, because it lives on read-only media),
+        each container file is mapped with FileChannel.map when first read,
+        and pages are copied out of the mapping instead of being read with
+        a system call.  Since the operating system then keeps the file
+        contents cached, the page cache can usually be made much smaller.
+
+        Has no effect on writable databases, or on databases in a jar file
+        or on the classpath, whose containers cannot be mapped.
+
+        Defaults to false.
+
+        Equal to 'derby.storage.mapReadOnlyContainers'
+    */
+    public static final String MAP_READ_ONLY_CONTAINERS =
+        "derby.storage.mapReadOnlyContainers";
+
+    /** Property name for reading and writing container pages with direct
+        I/O.  When set to true, pages are transferred between the page
+        cache and the container files through a channel opened with
+        O_DIRECT, so that they are not also kept in the operating system's
+        file cache.  On a dedicated database host the page cache (or the
+        off-heap page buffer pool) can then be sized to most of physical
+        memory.
+
+        Needs a Java runtime that supports
+        com.sun.nio.file.ExtendedOpenOption.DIRECT (Java 10 or later on
+        Linux) and a file system that accepts O_DIRECT, with a block size
+        that divides the page size.  Containers for which this is not the
+        case are read and written as usual.
+
+        Defaults to false.
+
+        Equal to 'derby.storage.directIO'
+    */
+    public static final String DIRECT_IO = "derby.storage.directIO";
+
+    /** Property name for the size, in megabytes, of the off-heap page
+        buffer pool.  Clean pages evicted from the page cache are copied
+        into direct byte buffers outside the Java heap, and copied back
+        when they are needed again instead of being read from disk.  This
+        allows most of the cached pages of a large database to be kept in
+        memory without the garbage collection cost of a very large page
+        cache, which should then be kept at a moderate size.
+
+        The default of 0 disables the pool.  The Java option
+        -XX:MaxDirectMemorySize may have to be raised to match.
+
+        Equal to 'derby.storage.pageBufferPoolSize'
+    */
+    public static final String PAGE_BUFFER_POOL_SIZE_PARAMETER =
+        "derby.storage.pageBufferPoolSize";
+
+    /**
+        Default value for PAGE_BUFFER_POOL_SIZE_PARAMETER (0, disabled).
+    */
+    public static final int PAGE_BUFFER_POOL_SIZE_DEFAULT = 0;
+
+    /**
+        Minimum page buffer pool size we will accept (0).
+    */
+    public static final int PAGE_BUFFER_POOL_SIZE_MINIMUM = 0;
+
+    /**
+        Maximum page buffer pool size we will accept (MAXINT megabytes).
+    */
+    public static final int PAGE_BUFFER_POOL_SIZE_MAXIMUM = Integer.MAX_VALUE;
+
     /**
         Maximum number of initial pages when a container is created
     */
@@ -257,6 +526,30 @@ public interface RawStoreFactory extends Corruptable {
     public static final String PAGE_REUSABLE_RECORD_ID = 
         "derby.storage.reusableRecordId";
 
+    /**
+        Property name for container which stores its pages compressed on
+        disk. Defaults to false. Like the page size, it is read when a
+        conglomerate is created and stays with the conglomerate for its
+        lifetime. Requires a database at the 10.14 level or higher.
+        Equal to 'derby.storage.pageCompression'
+    */
+    public static final String PAGE_COMPRESSION_PARAMETER = 
+        "derby.storage.pageCompression";
+
+    /**
+        Property name for container whose changes are not logged. Defaults
+        to false. It is only read from the create arguments of a
+        conglomerate, never from the database properties, and stays with the
+        conglomerate for its lifetime. Only the changes to the pages a
+        transaction allocates are not logged; a rollback, and crash recovery
+        of a transaction that was in flight, throw those pages away and keep
+        the committed rows. Requires a database at the 10.14 level or
+        higher.
+        Equal to 'derby.storage.unlogged'
+    */
+    public static final String UNLOGGED_PARAMETER =
+        "derby.storage.unlogged";
+
     /**
         Property name for buffer size to be used in the stream file container.
         Equal to 'derby.storage.streamFileBufferSize'
@@ -336,6 +629,64 @@ public interface RawStoreFactory extends Corruptable {
      */
     public static final String LOG_ENCRYPT_ALGORITHM_VERSION="log_encrypt_algorithm_version";
 
+    /**
+        Property name for the encryption algorithm of databases which are
+        encrypted without an encryptionAlgorithm attribute, for instance
+        AES/CBC/NoPadding, which runs many times faster than DES on
+        processors with AES instructions.  Only used when a database is
+        created encrypted or first encrypted; the algorithm is recorded in
+        service.properties, so the property is not needed to boot the
+        database again.
+
+        Defaults to DES/CBC/NoPadding.
+
+        Equal to 'derby.storage.defaultEncryptionAlgorithm'
+    */
+    public static final String DEFAULT_ENCRYPTION_ALGORITHM =
+        "derby.storage.defaultEncryptionAlgorithm";
+
+    /**
+        Property name for the number of threads the page cache cleaner
+        writes a batch of dirty pages on.  The pages of the batch are split
+        into runs of consecutive pages, one for each thread.  This mostly
+        pays off for encrypted databases, where each thread encrypts the
+        pages of its own run.
+
+        Defaults to 1, the batch is written by the cleaner thread alone.
+
+        Equal to 'derby.storage.pageCacheCleanerThreads'
+    */
+    public static final String PAGE_CACHE_CLEANER_THREADS =
+        "derby.storage.pageCacheCleanerThreads";
+
+    /**
+        Property name for the number of containers an online backup copies
+        at the same time.  Each container is copied on a thread of its own,
+        so a backup to fast storage is no longer bound by one thread reading,
+        encrypting and writing pages.
+
+        Defaults to 1, the containers are copied one after the other by the
+        thread calling the backup procedure.
+
+        Equal to 'derby.storage.backupThreads'
+    */
+    public static final String BACKUP_THREADS =
+        "derby.storage.backupThreads";
+
+    /**
+        Property name to compress the container copies of an online backup
+        with GZIP as they are written.  Restore recognizes the compressed
+        copies by their suffix, so a compressed backup is restored like any
+        other.  Ignored for encrypted databases, whose pages do not
+        compress.
+
+        Defaults to false.
+
+        Equal to 'derby.storage.backupCompression'
+    */
+    public static final String BACKUP_COMPRESSION =
+        "derby.storage.backupCompression";
+
     /**
         If dataEncryption is true, store the encrypted key in
         services.properties file. It is really the encrypted
@@ -839,6 +1190,25 @@ public interface RawStoreFactory extends Corruptable {
     String backupDir, 
     boolean wait) throws StandardException;
 
+    /**
+      * Backup the pages of the database changed since the backup in
+      * baseBackupDir to backupDir. The backup in baseBackupDir must have
+      * been made by this release, so that it recorded its page versions.
+      *
+      * @param backupDir the name of the directory where the backup should be
+      *                  stored.
+      * @param baseBackupDir the backup copy of this database the increment
+      *                  is taken on top of.
+      * @param wait      if <tt>true</tt>, waits for  all the backup blocking 
+      *                  operations in progress to finish.
+      * 
+      * @exception StandardException Thrown on error
+      */
+    public void backupIncremental(
+    String backupDir, 
+    String baseBackupDir,
+    boolean wait) throws StandardException;
+
         
     /**
      * Backup the database to a backup directory and enable the log archive
@@ -31,6 +31,8 @@ import org.apache.derby.iapi.error.StandardException;
 import org.apache.derby.iapi.store.raw.ContainerHandle;
 import org.apache.derby.iapi.store.raw.Corruptable;
 import org.apache.derby.iapi.store.raw.LockingPolicy;
+import org.apache.derby.iapi.store.raw.Loggable;
+import org.apache.derby.iapi.store.raw.PageKey;
 import org.apache.derby.iapi.store.raw.RawStoreFactory;
 import org.apache.derby.iapi.store.raw.StreamContainerHandle;
 import org.apache.derby.iapi.store.raw.xact.RawTransaction;
@@ -55,6 +57,36 @@ public interface DataFactory extends Corruptable {
 	 */
 	public static final String TEMP_SEGMENT_NAME = "tmp";
 
+	/**
+		The page versions and page checksums of every container, recorded by
+		a backup so that a later incremental backup can tell which pages
+		changed, are kept in a directory called "pageVersions" of the backup.
+	 */
+	public static final String PAGE_VERSIONS_DIRECTORY = "pageVersions";
+
+	/**
+		An incremental backup keeps the changed pages of the data segment in a
+		directory called "incseg0" instead of "seg0".
+	 */
+	public static final String INCREMENT_SEGMENT_NAME = "incseg0";
+
+	/**
+		An incremental backup records the backup it was taken on top of in
+		a file called "increment.properties".
+	 */
+	public static final String INCREMENT_BASE_FILE = "increment.properties";
+
+	/**
+		Property in INCREMENT_BASE_FILE holding the absolute path of the
+		backup an increment applies to.
+	 */
+	public static final String INCREMENT_BASE_PROPERTY = "derby.backup.base";
+
+	/**
+		Suffix of the container copies a backup compressed with GZIP.
+	 */
+	public static final String COMPRESSED_BACKUP_SUFFIX = ".gz";
+
 	/**
 		The database lock
 	 */
@@ -187,6 +219,39 @@ public interface DataFactory extends Corruptable {
 
 	public void checkpoint() throws StandardException;
 
+	/**
+		Checkpoint the data like checkpoint(), but write no more than
+		maxPagesPerSecond dirty pages per second, so that the writes are
+		spread out over time.
+
+		@param maxPagesPerSecond the write rate, or 0 for no limit
+
+		@exception StandardException Standard Derby Error policy
+	 */
+	public void checkpoint(int maxPagesPerSecond) throws StandardException;
+
+	/**
+		Make a rate limited checkpoint that is in progress finish its writes
+		as soon as possible.
+	 */
+	public void hurryCheckpoint();
+
+	/**
+		Get the page that the redo of a log operation changes, if it is
+		a page level operation.
+
+		@return the key of the page, or null if the operation is not
+		        bound to a single page
+	 */
+	public PageKey getRedoPage(Loggable op);
+
+	/**
+		Tell whether the redo of a log operation creates, drops, removes,
+		truncates or replaces a container file, so that no other thread
+		should touch containers while it is redone.
+	 */
+	public boolean redoChangesContainers(Loggable op);
+
 	public void idle() throws StandardException;
 
 	/**
@@ -346,9 +411,24 @@ public interface DataFactory extends Corruptable {
 	public void writeFinished();
 
 	/**
-	 * Back up the data segment of the database.
+	 * Back up the data segment of the database, recording the page version
+	 * of every page in versionDir.
+	 * <p>
+	 * If baseVersionDir is not null, it holds the page versions recorded by
+	 * an earlier backup and only the pages whose version differs from it are
+	 * written, in the increment format read by restore.
+	 *
+	 * @param rt             the transaction doing the backup
+	 * @param backupDir      where to write the containers
+	 * @param versionDir     where to record the page versions
+	 * @param baseVersionDir page versions of the base backup, or null for
+	 *                       a full backup
+	 *
+	 * @exception StandardException Standard Derby error policy
 	 */
-	public void backupDataFiles(Transaction rt, File backupDir) throws StandardException;
+	public void backupDataFiles(Transaction rt, File backupDir,
+								File versionDir, File baseVersionDir)
+		throws StandardException;
 
     /**
      * Return an id which can be used to create a container.
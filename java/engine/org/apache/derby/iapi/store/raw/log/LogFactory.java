@@ -218,6 +218,14 @@ public interface LogFactory extends Corruptable {
 	   @return true if the log is being archived.
 	*/
 	public boolean logArchived();
+
+	/**
+	   Can user transactions commit without flushing the log?  Only when
+	   derby.storage.nonDurableInMemory is set for a database whose log is
+	   kept in memory, which does not outlive the JVM anyway.
+	   @return true if commits need not flush the log.
+	*/
+	public boolean isNonDurable();
         
         /**
          * Used to determine if the replication master mode has been started,
@@ -291,6 +291,12 @@ public abstract class RawTransaction extends DerbyObservable implements Transact
 	*/
 	public abstract boolean handlesPostTerminationWork();
 
+	/**
+		Is this a user transaction, as opposed to an internal, a nested or
+		the recovery transaction.
+	*/
+	public abstract boolean isUserTransaction();
+
 	/**
 		Make this transaction aware that it is being used by recovery
 	 */
@@ -446,6 +446,21 @@ public class BasicDatabase implements ModuleControl, ModuleSupportable, Property
 		}
 	}
 
+    public void backupIncremental(String backupDir, String baseBackupDir,
+                                  boolean wait)
+        throws SQLException
+    {
+		try {
+			af.backupIncremental(backupDir, baseBackupDir, wait);
+            if ( luceneLoaded() )
+            {
+                backupLucene( backupDir );
+            }
+		} catch (StandardException se) {
+			throw PublicAPI.wrapStandardException(se);
+		}
+	}
+
 
     public void backupAndEnableLogArchiveMode(String  backupDir, 
                                               boolean deleteOnlineArchivedLogFiles,
@@ -27,6 +27,8 @@ import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.derby.iapi.reference.Property;
+import org.apache.derby.iapi.services.property.PropertyUtil;
 import org.apache.derby.impl.io.vfmem.PathUtil;
 import org.apache.derby.impl.io.vfmem.DataStore;
 import org.apache.derby.impl.io.vfmem.VirtualFile;
@@ -120,7 +122,9 @@ public class VFMemoryStorageFactory
                 if (dbData == null) {
                     if (uniqueName != null) {
                         // Create a new data store.
-                        this.dbData = new DataStore(canonicalName);
+                        this.dbData = new DataStore(canonicalName,
+                                PropertyUtil.getSystemBoolean(
+                                    Property.STORAGE_MEMORY_OFF_HEAP));
                         DATABASES.put(canonicalName, dbData);
                     } else {
                         // We have a database name, but no unique name.
@@ -21,6 +21,8 @@
 
 package org.apache.derby.impl.io.vfmem;
 
+import java.nio.ByteBuffer;
+
 import org.apache.derby.shared.common.sanity.SanityManager;
 
 /**
@@ -28,6 +30,12 @@ import org.apache.derby.shared.common.sanity.SanityManager;
  * blocks.
  * <p>
  * The blocked array is expanded and shrunk as required.
+ * <p>
+ * The blocks are either byte arrays on the Java heap, or direct byte buffers
+ * outside of it. Off-heap blocks keep a large in-memory database from adding
+ * to the live heap the garbage collector has to deal with, in addition to
+ * the page cache. Their memory is returned when the garbage collector finds
+ * the buffers unreachable, and counts against -XX:MaxDirectMemorySize.
  */
 public class BlockedByteArray {
 
@@ -50,8 +58,12 @@ public class BlockedByteArray {
      */
     private static final int MIN_HOLDER_GROWTH = 1024;
 
-    /** References to blocks of data. */
+    /** References to blocks of data, if they are on the heap. */
     private byte[][] blocks;
+    /** References to blocks of data, if they are off the heap. */
+    private ByteBuffer[] directBlocks;
+    /** Tells if the blocks are direct byte buffers. */
+    private final boolean offHeap;
     /** The size of a block of data (the allocation unit). */
     private int blockSize;
     /** The number of allocated blocks. */
@@ -68,7 +80,21 @@ public class BlockedByteArray {
      * @see #INITIAL_BLOCK_HOLDER_SIZE
      */
     public BlockedByteArray() {
-        blocks = new byte[INITIAL_BLOCK_HOLDER_SIZE][];
+        this(false);
+    }
+
+    /**
+     * Creates a new blocked byte array with the default number of slots to
+     * hold blocks, which are kept either on or off the Java heap.
+     * <p>
+     * No blocks are pre-allocated.
+     *
+     * @param offHeap whether to allocate the blocks as direct byte buffers
+     * @see #INITIAL_BLOCK_HOLDER_SIZE
+     */
+    public BlockedByteArray(boolean offHeap) {
+        this.offHeap = offHeap;
+        allocateHolder();
     }
 
     /**
@@ -81,6 +107,9 @@ public class BlockedByteArray {
         if (pos < length) {
             int block = (int)(pos / blockSize);
             int index = (int)(pos % blockSize);
+            if (offHeap) {
+                return (directBlocks[block].get(index) & 0xFF);
+            }
             return (blocks[block][index] & 0xFF);
         }
         return -1;
@@ -112,7 +141,16 @@ public class BlockedByteArray {
         int read = 0;
         while (read < len) {
             int toRead = Math.min(len - read, blockSize - index);
-            System.arraycopy(blocks[block], index, buf, offset + read, toRead);
+            if (offHeap) {
+                // Copy straight into the caller's buffer. The position of
+                // the block is only used while holding the monitor.
+                ByteBuffer src = directBlocks[block];
+                src.position(index);
+                src.get(buf, offset + read, toRead);
+            } else {
+                System.arraycopy(
+                        blocks[block], index, buf, offset + read, toRead);
+            }
             read += toRead;
             block++;
             index = 0;
@@ -151,12 +189,16 @@ public class BlockedByteArray {
             if (newLength <= 0L) {
                 // Just clear everything.
                 allocatedBlocks = 0;
-                blocks = new byte[INITIAL_BLOCK_HOLDER_SIZE][];
+                allocateHolder();
             } else {
                 // Nullify the surplus data.
                 int blocksToKeep = (int)(newLength / blockSize) +1;
                 for (int i=blocksToKeep; i <= allocatedBlocks; i++) {
-                    blocks[i] = null;
+                    if (offHeap) {
+                        directBlocks[i] = null;
+                    } else {
+                        blocks[i] = null;
+                    }
                 }
                 allocatedBlocks = Math.min(allocatedBlocks, blocksToKeep);
                 // We keep the holder slots around, since the overhead for
@@ -195,7 +237,13 @@ public class BlockedByteArray {
         int written = 0;
         while (written < len) {
             int toWrite = Math.min(len - written, blockSize - index);
-            System.arraycopy(buf, offset, blocks[block], index, toWrite);
+            if (offHeap) {
+                ByteBuffer dst = directBlocks[block];
+                dst.position(index);
+                dst.put(buf, offset, toWrite);
+            } else {
+                System.arraycopy(buf, offset, blocks[block], index, toWrite);
+            }
             written += toWrite;
             offset += toWrite;
             if (written < len) {
@@ -228,7 +276,11 @@ public class BlockedByteArray {
         // Calculate the block number and the index within this block.
         int block = (int)(pos / blockSize);
         int index = (int)(pos % blockSize);
-        blocks[block][index] = b;
+        if (offHeap) {
+            directBlocks[block].put(index, b);
+        } else {
+            blocks[block][index] = b;
+        }
         // Update the length if we wrote past the previous length.
         length = Math.max(length, pos +1);
         return 1; // The number of bytes written, always one.
@@ -262,9 +314,22 @@ public class BlockedByteArray {
      */
     synchronized void release() {
         blocks = null;
+        directBlocks = null;
         length = allocatedBlocks = -1;
     }
 
+    /**
+     * Allocates an empty block holder array of the default size.
+     */
+    //@GuardedBy("this")
+    private void allocateHolder() {
+        if (offHeap) {
+            directBlocks = new ByteBuffer[INITIAL_BLOCK_HOLDER_SIZE];
+        } else {
+            blocks = new byte[INITIAL_BLOCK_HOLDER_SIZE][];
+        }
+    }
+
     /**
      * Tries to optimize the block size by setting it equal to the the page
      * size used by the database.
@@ -302,23 +367,36 @@ public class BlockedByteArray {
         // Calculate required number of blocks, and create those lacking.
         // We may allocate one more array than required.
         final int blocksRequired = (int)((lastIndex) / blockSize) +1;
-        if (blocksRequired > blocks.length) {
+        final int holderLength =
+                offHeap ? directBlocks.length : blocks.length;
+        if (blocksRequired > holderLength) {
             // Grow the block holder array.
             // Make sure we have enough slots. Note that we only grow the block
             // holder array, we don't fill it with data blocks before needed.
             int growTo = Math.max(
                     // Grow at least ~33%.
-                    blocks.length + (blocks.length / 3),
+                    holderLength + (holderLength / 3),
                     // For cases where we need to grow more than 33%.
                     blocksRequired + MIN_HOLDER_GROWTH);
-            byte[][] tmpBlocks = blocks;
-            blocks = new byte[growTo][];
             // Copy the data array references.
-            System.arraycopy(tmpBlocks, 0, blocks, 0, allocatedBlocks);
+            if (offHeap) {
+                ByteBuffer[] tmpBlocks = directBlocks;
+                directBlocks = new ByteBuffer[growTo];
+                System.arraycopy(
+                        tmpBlocks, 0, directBlocks, 0, allocatedBlocks);
+            } else {
+                byte[][] tmpBlocks = blocks;
+                blocks = new byte[growTo][];
+                System.arraycopy(tmpBlocks, 0, blocks, 0, allocatedBlocks);
+            }
         }
         // Allocate new data arrays to accomodate lastIndex bytes.
         for (int i=allocatedBlocks; i < blocksRequired; i++) {
-            blocks[i] = new byte[blockSize];
+            if (offHeap) {
+                directBlocks[i] = ByteBuffer.allocateDirect(blockSize);
+            } else {
+                blocks[i] = new byte[blockSize];
+            }
         }
         allocatedBlocks = blocksRequired;
     }
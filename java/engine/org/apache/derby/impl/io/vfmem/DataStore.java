@@ -66,6 +66,8 @@ public final class DataStore {
     private long tmpFileCounter = 0;
     /** Tells if this store is scheduled for deletion. */
     private boolean deleteMe;
+    /** Tells if the data of the files is kept outside of the Java heap. */
+    private final boolean offHeap;
 
     /**
      * Creates a new data store.
@@ -74,7 +76,20 @@ public final class DataStore {
      *      the absolute path of the service root.
      */
     public DataStore(String databaseName) {
+        this(databaseName, false);
+    }
+
+    /**
+     * Creates a new data store.
+     *
+     * @param databaseName the name of the assoicated database, expected to be
+     *      the absolute path of the service root.
+     * @param offHeap whether the data of the files is kept outside of the
+     *      Java heap
+     */
+    public DataStore(String databaseName, boolean offHeap) {
         this.databaseName = databaseName;
+        this.offHeap = offHeap;
     }
 
     /**
@@ -126,7 +141,7 @@ public final class DataStore {
                     return null;
                 }
             }
-            DataStoreEntry newEntry = new DataStoreEntry(nPath, isDir);
+            DataStoreEntry newEntry = new DataStoreEntry(nPath, isDir, offHeap);
             files.put(nPath, newEntry);
             return newEntry;
         }
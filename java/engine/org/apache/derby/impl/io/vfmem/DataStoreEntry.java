@@ -48,12 +48,24 @@ public class DataStoreEntry {
      * @param isDir whether the entry is a directory or a regular file
      */
     public DataStoreEntry(String path, boolean isDir) {
+        this(path, isDir, false);
+    }
+
+    /**
+     * Creates a new data store entry.
+     *
+     * @param path the path of the entry
+     * @param isDir whether the entry is a directory or a regular file
+     * @param offHeap whether the data of a regular file is kept outside of
+     *      the Java heap
+     */
+    public DataStoreEntry(String path, boolean isDir, boolean offHeap) {
         this.path = path;
         this.isDir = isDir;
         if (isDir) {
             src = null;
         } else {
-            src = new BlockedByteArray();
+            src = new BlockedByteArray(offHeap);
         }
     }
 
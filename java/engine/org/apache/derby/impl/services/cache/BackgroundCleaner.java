@@ -21,12 +21,21 @@
 
 package org.apache.derby.impl.services.cache;
 
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.derby.iapi.error.StandardException;
 import org.apache.derby.iapi.services.context.ContextManager;
 import org.apache.derby.iapi.services.daemon.DaemonService;
 import org.apache.derby.iapi.services.daemon.Serviceable;
+import org.apache.derby.iapi.services.monitor.ModuleFactory;
+import org.apache.derby.iapi.services.monitor.Monitor;
 
 /**
  * A background cleaner that {@code ConcurrentCache} can use to clean {@code
@@ -36,9 +45,29 @@ import org.apache.derby.iapi.services.daemon.Serviceable;
  * background cleaner is asked to clean an item, it puts the item in a queue
  * and requests to be serviced by a <code>DaemonService</code> running in a
  * separate thread.
+ *
+ * <p>
+ *
+ * Each time the cleaner is serviced, it takes a batch of the queued entries
+ * and cleans them in the order of their keys. For the page cache, this
+ * means that the pages of a container are written in ascending order, so
+ * that pages which are next to each other on disk are written one right
+ * after the other and can be merged by the operating system.
+ *
+ * <p>
+ *
+ * The cleaner can be given worker threads, in which case the batch is split
+ * into runs of consecutive keys which are cleaned concurrently, one by the
+ * daemon thread and the others by the workers. Each run is still written in
+ * ascending order. This helps when cleaning is bound by the processor, for
+ * instance when the pages of an encrypted database are encrypted as they
+ * are written.
  */
 final class BackgroundCleaner implements Serviceable {
 
+    /** The maximum number of entries to clean each time we are serviced. */
+    private static final int MAX_BATCH_SIZE = 32;
+
     /** The service thread which performs the clean operations. */
     private final DaemonService daemonService;
 
@@ -65,6 +94,12 @@ final class BackgroundCleaner implements Serviceable {
     /** The cache manager owning this cleaner. */
     private final ConcurrentCache cacheManager;
 
+    /**
+     * Threads which clean runs of a batch along with the daemon thread, or
+     * {@code null} if the daemon thread cleans the whole batch.
+     */
+    private volatile ThreadPoolExecutor workers;
+
     /**
      * Create a background cleaner instance and subscribe it to a daemon
      * service.
@@ -124,16 +159,65 @@ final class BackgroundCleaner implements Serviceable {
         }
     }
 
+    /**
+     * Set the number of threads each batch is cleaned on.
+     *
+     * @param threads the number of threads, the daemon thread included
+     */
+    synchronized void useThreads(int threads) {
+        if (workers != null) {
+            shutdown(workers);
+            workers = null;
+        }
+        if (threads > 1) {
+            // Idle workers go away, so that a quiet database does not keep
+            // threads around.
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    threads - 1, threads - 1, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            return getMonitor().getDaemonThread(
+                                    r, "cacheCleaner", false);
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            workers = pool;
+        }
+    }
+
+    /**
+     * Shut down a pool of workers. Shutting down a pool requires the
+     * permission to modify its threads, which Derby may not have been
+     * granted when running under a security manager. The idle workers of
+     * the pool go away on their own after the keep-alive time then, since
+     * the pool lets its core threads time out.
+     *
+     * @param pool the workers to shut down
+     */
+    private static void shutdown(final ThreadPoolExecutor pool) {
+        try {
+            AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                public Void run() {
+                    pool.shutdown();
+                    return null;
+                }
+            });
+        } catch (SecurityException se) {
+            // no permission to modify the threads, let them time out
+        }
+    }
+
     /**
      * Stop subscribing to the daemon service.
      */
     void unsubscribe() {
         daemonService.unsubscribe(clientNumber);
+        useThreads(1);
     }
 
     /**
-     * Clean the first entry in the queue. If there is more work, re-request
-     * service from the daemon service.
+     * Clean a batch of entries from the queue. If there is more work,
+     * re-request service from the daemon service.
      *
      * @param context ignored
      * @return status for the performed work (normally
@@ -147,14 +231,17 @@ final class BackgroundCleaner implements Serviceable {
         // First, try to shrink the cache if requested.
         if (shrink) {
             shrink = false;
-            cacheManager.getReplacementPolicy().doShrink();
+            cacheManager.doShrink();
         }
 
         // See if there are objects waiting to be cleaned.
-        CacheEntry e = queue.poll();
-        if (e != null) {
+        ArrayList<CacheEntry> batch = new ArrayList<CacheEntry>();
+        queue.drainTo(batch, MAX_BATCH_SIZE);
+        if (!batch.isEmpty()) {
             try {
-                cacheManager.cleanEntry(e);
+                ThreadPoolExecutor pool = workers;
+                cacheManager.cleanEntries(batch, pool,
+                        pool == null ? 1 : pool.getMaximumPoolSize() + 1);
             } finally {
                 if (!queue.isEmpty() || shrink) {
                     // We have more work in the queue. Request service again.
@@ -183,4 +270,17 @@ final class BackgroundCleaner implements Serviceable {
         // implement it in order to satisfy the Serviceable interface.
         return false;
     }
+
+    /**
+     * Privileged Monitor lookup. Must be private so that user code
+     * can't call this entry point.
+     */
+    private static ModuleFactory getMonitor() {
+        return AccessController.doPrivileged(
+                new PrivilegedAction<ModuleFactory>() {
+                    public ModuleFactory run() {
+                        return Monitor.getMonitor();
+                    }
+                });
+    }
 }
@@ -146,10 +146,13 @@ final class ClockPolicy implements ReplacementPolicy {
      * <em>not recently used</em> object from the cache. If there are no
      * entries available for reuse, increase the size of the cache.
      *
+     * @param key the identity of the object being inserted (not used by the
+     * clock algorithm)
      * @param entry the entry to insert (must be locked)
      * @exception StandardException if an error occurs when inserting the entry
      */
-    public void insertEntry(CacheEntry entry) throws StandardException {
+    public void insertEntry(Object key, CacheEntry entry)
+            throws StandardException {
 
         final int size;
         synchronized (clock) {
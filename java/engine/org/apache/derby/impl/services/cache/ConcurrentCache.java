@@ -25,18 +25,31 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import org.apache.derby.iapi.error.StandardException;
 import org.apache.derby.iapi.reference.Module;
 import org.apache.derby.iapi.reference.SQLState;
+import org.apache.derby.iapi.services.cache.CacheFactory;
 import org.apache.derby.iapi.services.cache.CacheManager;
 import org.apache.derby.iapi.services.cache.Cacheable;
 import org.apache.derby.iapi.services.cache.CacheableFactory;
+import org.apache.derby.iapi.services.cache.GroupCleanable;
 import org.apache.derby.iapi.services.daemon.DaemonService;
 import org.apache.derby.iapi.services.jmx.ManagementService;
 import org.apache.derby.iapi.services.monitor.Monitor;
 import org.apache.derby.shared.common.sanity.SanityManager;
+import org.apache.derby.iapi.util.InterruptStatus;
 import org.apache.derby.iapi.util.Matchable;
 import org.apache.derby.mbeans.CacheManagerMBean;
 
@@ -55,9 +68,24 @@ import org.apache.derby.mbeans.CacheManagerMBean;
  * unlocked, all calls to <code>CacheEntry.lock()</code> should be followed by
  * a <code>try</code> block with a <code>finally</code> clause that unlocks the
  * entry.
+ *
+ * <p>
+ *
+ * The cache may be partitioned into a number of shards. Each key belongs to
+ * one shard, determined by its hash code, and each shard has its own
+ * replacement policy and a fixed part of the maximum size of the cache.
+ * Threads that insert objects into different shards therefore do not
+ * contend for the same replacement data structures when looking for
+ * entries to evict.
  */
 final class ConcurrentCache implements CacheManager {
 
+    /**
+     * The number of objects cleaned at a time by <code>cleanAll()</code>
+     * and <code>clean()</code>. They are kept until the whole batch is done.
+     */
+    private static final int CLEAN_BATCH_SIZE = 32;
+
     /** Map with all the cached objects. */
     private final ConcurrentHashMap<Object, CacheEntry> cache;
     /** Factory which creates <code>Cacheable</code>s. */
@@ -66,8 +94,10 @@ final class ConcurrentCache implements CacheManager {
     private final String name;
     /** The maximum size (number of elements) for this cache. */
     private final int maxSize;
-    /** Replacement policy to be used for this cache. */
-    private final ReplacementPolicy replacementPolicy;
+    /** Replacement policies to be used for this cache, one per shard. */
+    private final ReplacementPolicy[] shards;
+    /** Name of the replacement policy used by the shards. */
+    private final String policyName;
 
     // Fields used by the MBean that monitors this instance.
 
@@ -79,8 +109,8 @@ final class ConcurrentCache implements CacheManager {
     private final AtomicLong hits = new AtomicLong();
     /** The number of cache misses. */
     private final AtomicLong misses = new AtomicLong();
-    /** The number of evictions from the cache. */
-    private final AtomicLong evictions = new AtomicLong();
+    /** The number of evictions from each shard of the cache. */
+    private final AtomicLongArray evictions;
 
     /**
      * Flag that indicates whether this cache instance has been shut down. When
@@ -91,12 +121,23 @@ final class ConcurrentCache implements CacheManager {
      */
     private volatile boolean stopped;
 
+    /**
+     * Flag that tells a rate limited <code>cleanAll()</code> that is in
+     * progress to ignore its limit and finish as soon as possible.
+     */
+    private volatile boolean cleanAtFullSpeed;
+
     /**
      * Background cleaner which can be used to clean cached objects in a
      * separate thread to avoid blocking the user threads.
      */
     private BackgroundCleaner cleaner;
 
+    /**
+     * The number of threads the background cleaner cleans a batch on.
+     */
+    private int cleanerThreads = 1;
+
     /**
      * Creates a new cache manager.
      *
@@ -107,20 +148,73 @@ final class ConcurrentCache implements CacheManager {
      */
     ConcurrentCache(CacheableFactory holderFactory, String name,
                     int initialSize, int maxSize) {
-        cache = new ConcurrentHashMap<Object, CacheEntry>(initialSize);
-        replacementPolicy = new ClockPolicy(this, initialSize, maxSize);
+        this(holderFactory, name, initialSize, maxSize, 1, null);
+    }
+
+    /**
+     * Creates a new cache manager which is partitioned into shards.
+     *
+     * @param holderFactory factory which creates <code>Cacheable</code>s
+     * @param name the name of the cache
+     * @param initialSize the initial capacity of the cache
+     * @param maxSize maximum number of elements in the cache
+     * @param shardCount the number of shards (reduced if there are more
+     * shards than elements)
+     * @param policy the name of the replacement policy, or
+     * <code>null</code> for the default clock policy
+     */
+    ConcurrentCache(CacheableFactory holderFactory, String name,
+                    int initialSize, int maxSize, int shardCount,
+                    String policy) {
+        shardCount = Math.max(1, Math.min(shardCount, maxSize));
+        cache = new ConcurrentHashMap<Object, CacheEntry>(
+                initialSize, 0.75f, Math.max(16, shardCount));
+        boolean twoQueue =
+            CacheFactory.TWO_QUEUE_POLICY.equalsIgnoreCase(policy);
+        policyName =
+            twoQueue ? CacheFactory.TWO_QUEUE_POLICY : CacheFactory.CLOCK_POLICY;
+        shards = new ReplacementPolicy[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            // Spread the sizes evenly, the first (maxSize % shardCount)
+            // shards get one extra element.
+            int shardInitial = initialSize / shardCount;
+            int shardMax =
+                maxSize / shardCount + (i < maxSize % shardCount ? 1 : 0);
+            shards[i] = twoQueue ?
+                new TwoQueuePolicy(this, shardInitial, shardMax) :
+                new ClockPolicy(this, shardInitial, shardMax);
+        }
+        evictions = new AtomicLongArray(shardCount);
         this.holderFactory = holderFactory;
         this.name = name;
         this.maxSize = maxSize;
     }
 
     /**
-     * Return the <code>ReplacementPolicy</code> instance for this cache.
+     * Find the shard that an object belongs to.
      *
-     * @return replacement policy
+     * @param key the identity of the object
+     * @return the index of the shard
+     */
+    private int shardFor(Object key) {
+        if (shards.length == 1) {
+            return 0;
+        }
+        // Mix in the high bits, since keys such as page keys tend to differ
+        // mostly in the low bits of their hash codes.
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % shards.length;
+    }
+
+    /**
+     * Try to shrink the shards of the cache that have exceeded their
+     * maximum size.
      */
-    ReplacementPolicy getReplacementPolicy() {
-        return replacementPolicy;
+    void doShrink() {
+        for (ReplacementPolicy shard : shards) {
+            shard.doShrink();
+        }
     }
 
     /**
@@ -207,7 +301,7 @@ final class ConcurrentCache implements CacheManager {
         CacheEntry entry = cache.remove(key);
         entry.getCacheable().clearIdentity();
         entry.setCacheable(null);
-        countEviction();
+        countEviction(key);
     }
 
     /**
@@ -226,7 +320,7 @@ final class ConcurrentCache implements CacheManager {
             throws StandardException {
 
         try {
-            replacementPolicy.insertEntry(entry);
+            shards[shardFor(key)].insertEntry(key, entry);
         } catch (StandardException se) {
             // Failed to insert the entry into the replacement policy. Make
             // sure that it's also removed from the hash table.
@@ -485,7 +579,32 @@ final class ConcurrentCache implements CacheManager {
      * or may not be cleaned.
      */
     public void cleanAll() throws StandardException {
-        cleanCache(null);
+        cleanCache(null, 0);
+    }
+
+    /**
+     * Clean all dirty objects in the cache, but no more than
+     * <code>maxRate</code> objects per second. The limit is lifted if
+     * <code>cleanAtFullSpeed()</code> is called while the objects are being
+     * cleaned.
+     *
+     * @param maxRate the maximum number of objects to clean per second, or
+     * 0 for no limit
+     */
+    public void cleanAll(int maxRate) throws StandardException {
+        try {
+            cleanCache(null, maxRate);
+        } finally {
+            cleanAtFullSpeed = false;
+        }
+    }
+
+    /**
+     * Make a rate limited <code>cleanAll()</code> that is in progress finish
+     * as soon as possible.
+     */
+    public void cleanAtFullSpeed() {
+        cleanAtFullSpeed = true;
     }
 
     /**
@@ -494,7 +613,7 @@ final class ConcurrentCache implements CacheManager {
      * @param partialKey the partial (or exact) key to match
      */
     public void clean(Matchable partialKey) throws StandardException {
-        cleanCache(partialKey);
+        cleanCache(partialKey, 0);
     }
 
     /**
@@ -503,10 +622,17 @@ final class ConcurrentCache implements CacheManager {
      *
      * @param partialKey the partial (or exact) key to match, or
      * <code>null</code> to match all keys
+     * @param maxRate the maximum number of objects to clean per second, or
+     * 0 for no limit
      */
-    private void cleanCache(Matchable partialKey) throws StandardException {
+    private void cleanCache(Matchable partialKey, int maxRate)
+            throws StandardException {
+        // First collect the identities of the dirty objects, then clean them
+        // in key order. For the page cache, that writes the pages of each
+        // container in ascending page number order, rather than in the
+        // random order of the hash table.
+        ArrayList<Object> dirtyKeys = new ArrayList<Object>();
         for (CacheEntry entry : cache.values()) {
-            final Cacheable dirtyObject;
             entry.lock();
             try {
                 if (!entry.isValid()) {
@@ -518,48 +644,247 @@ final class ConcurrentCache implements CacheManager {
                     // don't clean objects that don't match the partial key
                     continue;
                 }
-                if (!c.isDirty()) {
-                    // already clean
-                    continue;
+                if (c.isDirty()) {
+                    dirtyKeys.add(c.getIdentity());
                 }
+            } finally {
+                entry.unlock();
+            }
+        }
 
-                // Increment the keep count for this entry to prevent others
-                // from removing it. Then release the lock on the entry to
-                // avoid blocking others when the object is cleaned.
-                entry.keep(false);
-                dirtyObject = c;
+        sortKeys(dirtyKeys);
+
+        // Clean the objects in batches, so that objects which are next to
+        // each other can be written together.
+        final long start = System.nanoTime();
+        int cleaned = 0;
+        ArrayList<CacheEntry> batch = new ArrayList<CacheEntry>();
+        for (int i = 0; i < dirtyKeys.size(); i++) {
+            CacheEntry entry = cache.get(dirtyKeys.get(i));
+            if (entry != null) {
+                batch.add(entry);
+            }
+            // else evicted (and therefore cleaned) or removed since we looked
+
+            if (batch.size() == CLEAN_BATCH_SIZE ||
+                    (i == dirtyKeys.size() - 1 && !batch.isEmpty())) {
+                cleanEntries(batch, null, 1);
+                cleaned += batch.size();
+                batch.clear();
+                if (maxRate > 0) {
+                    throttle(start, cleaned, maxRate);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until it is time to clean the next object in a rate limited
+     * clean. Returns immediately if the clean is behind schedule, or if it
+     * has been asked to finish at full speed.
+     *
+     * @param start the time the clean started, from
+     * <code>System.nanoTime()</code>
+     * @param cleaned the number of objects cleaned so far
+     * @param maxRate the maximum number of objects to clean per second
+     */
+    private void throttle(long start, int cleaned, int maxRate) {
+        final long due = start + cleaned * 1000000000L / maxRate;
+        long wait;
+        // Sleep in short steps, so that a request to hurry up, or a shutdown,
+        // is noticed soon.
+        while (!cleanAtFullSpeed && !stopped &&
+                (wait = (due - System.nanoTime()) / 1000000L) > 0) {
+            try {
+                Thread.sleep(Math.min(wait, 100L));
+            } catch (InterruptedException ie) {
+                InterruptStatus.setInterrupted();
+                return;
+            }
+        }
+    }
 
+    /**
+     * Sort a list of keys in their natural order, if they have one. Lists
+     * of keys that are not <code>Comparable</code> are left alone.
+     *
+     * @param keys the keys to sort
+     */
+    @SuppressWarnings("unchecked")
+    private static void sortKeys(List<?> keys) {
+        for (Object key : keys) {
+            if (!(key instanceof Comparable)) {
+                return;
+            }
+        }
+        Collections.sort((List<Comparable<Object>>) keys);
+    }
+
+    /**
+     * Clean a batch of entries in the cache, in the order of their keys.
+     * <p>
+     * If there are worker threads, the sorted batch is split into runs of
+     * consecutive keys. The calling thread cleans the first run, and each
+     * of the others is handed to a worker. All the runs are done when this
+     * method returns, even if one of them failed.
+     *
+     * @param entries the entries to clean
+     * @param workers the threads to clean the runs of the batch on, or
+     * {@code null} to clean the whole batch on the calling thread
+     * @param runs the number of runs to split the batch into
+     * @exception StandardException if an error occurs while cleaning
+     */
+    void cleanEntries(List<CacheEntry> entries,
+                      ExecutorService workers, int runs)
+            throws StandardException {
+        // Keep the entries that still hold an object, and find their keys.
+        final HashMap<Object, CacheEntry> byKey =
+                new HashMap<Object, CacheEntry>();
+        final HashMap<Object, Cacheable> items =
+                new HashMap<Object, Cacheable>();
+        for (CacheEntry entry : entries) {
+            entry.lock();
+            try {
+                Cacheable item = entry.getCacheable();
+                if (!entry.isValid() || item.getIdentity() == null ||
+                        byKey.containsKey(item.getIdentity())) {
+                    // nothing to do, or queued twice
+                    continue;
+                }
+                entry.keep(false);
+                byKey.put(item.getIdentity(), entry);
+                items.put(item.getIdentity(), item);
             } finally {
                 entry.unlock();
             }
+        }
+
+        ArrayList<Object> keys = new ArrayList<Object>(byKey.keySet());
+        sortKeys(keys);
+
+        if (workers == null || runs <= 1 || keys.size() <= 1) {
+            cleanRun(keys, byKey, items);
+            return;
+        }
+
+        final int runLength = (keys.size() + runs - 1) / runs;
+        ArrayList<Future<Void>> others = new ArrayList<Future<Void>>();
+        for (int start = runLength; start < keys.size(); start += runLength) {
+            final List<Object> run = keys.subList(
+                    start, Math.min(start + runLength, keys.size()));
+            try {
+                others.add(workers.submit(new Callable<Void>() {
+                    public Void call() throws StandardException {
+                        cleanRun(run, byKey, items);
+                        return null;
+                    }
+                }));
+            } catch (RejectedExecutionException ree) {
+                // The workers are being shut down, clean the run below.
+                others.add(null);
+            }
+        }
+
+        StandardException error = null;
+        try {
+            cleanRun(keys.subList(0, runLength), byKey, items);
+        } catch (StandardException se) {
+            error = se;
+        }
+
+        for (int i = 0; i < others.size(); i++) {
+            int start = (i + 1) * runLength;
+            List<Object> run = keys.subList(
+                    start, Math.min(start + runLength, keys.size()));
+            try {
+                if (others.get(i) == null) {
+                    cleanRun(run, byKey, items);
+                } else {
+                    waitFor(others.get(i));
+                }
+            } catch (StandardException se) {
+                if (error == null) {
+                    error = se;
+                }
+            }
+        }
 
-            // Clean the object and decrement the keep count.
-            cleanAndUnkeepEntry(entry, dirtyObject);
+        if (error != null) {
+            throw error;
         }
     }
 
     /**
-     * Clean an entry in the cache.
+     * Wait for a worker to finish cleaning a run of a batch.
      *
-     * @param entry the entry to clean
+     * @param run the result of the worker
+     * @exception StandardException the error the worker ran into, if any
+     */
+    private static void waitFor(Future<Void> run) throws StandardException {
+        while (true) {
+            try {
+                run.get();
+                return;
+            } catch (InterruptedException ie) {
+                InterruptStatus.setInterrupted();
+            } catch (ExecutionException ee) {
+                Throwable t = ee.getCause();
+                if (t instanceof StandardException) {
+                    throw (StandardException) t;
+                }
+                throw StandardException.plainWrapException(t);
+            }
+        }
+    }
+
+    /**
+     * Clean a run of the entries of a batch, in the order of their keys. The
+     * entries must be kept, and are unkept when they are done with, even if
+     * cleaning one of them fails. If the cached objects are
+     * <code>GroupCleanable</code>, the whole run is cleaned with one call,
+     * so that objects which are next to each other can be written together.
+     *
+     * @param keys the keys of the entries to clean
+     * @param byKey the entries of the batch by key
+     * @param items the cached objects of the batch by key
      * @exception StandardException if an error occurs while cleaning
      */
-    void cleanEntry(CacheEntry entry) throws StandardException {
-        // Fetch the cacheable while having exclusive access to the entry.
-        // Release the lock before cleaning to avoid blocking others.
-        Cacheable item;
-        entry.lock();
+    private void cleanRun(List<Object> keys, Map<Object, CacheEntry> byKey,
+                          Map<Object, Cacheable> items)
+            throws StandardException {
         try {
-            item = entry.getCacheable();
-            if (item == null) {
-                // nothing to do
-                return;
+            Cacheable[] group = new Cacheable[keys.size()];
+            for (int i = 0; i < group.length; i++) {
+                group[i] = items.get(keys.get(i));
+            }
+            // All the objects in a cache are of the same kind.
+            if (group.length > 0 && group[0] instanceof GroupCleanable) {
+                ((GroupCleanable) group[0]).cleanGroup(group);
+            } else {
+                for (Cacheable item : group) {
+                    item.clean(false);
+                }
             }
-            entry.keep(false);
         } finally {
-            entry.unlock();
+            // Don't leave any of the entries kept, even if cleaning failed.
+            for (Object key : keys) {
+                CacheEntry entry = byKey.get(key);
+                entry.lock();
+                try {
+                    if (SanityManager.DEBUG) {
+                        // Since the entry is kept, the Cacheable shouldn't
+                        // have changed.
+                        SanityManager.ASSERT(
+                                entry.getCacheable() == items.get(key),
+                                "CacheEntry didn't contain the expected " +
+                                "Cacheable");
+                    }
+                    entry.unkeep();
+                } finally {
+                    entry.unlock();
+                }
+            }
         }
-        cleanAndUnkeepEntry(entry, item);
     }
 
     /**
@@ -644,6 +969,21 @@ final class ConcurrentCache implements CacheManager {
         // Create a background cleaner that can queue up 1/10 of the elements
         // in the cache.
         cleaner = new BackgroundCleaner(this, daemon, Math.max(maxSize/10, 1));
+        cleaner.useThreads(cleanerThreads);
+    }
+
+    /**
+     * Specify the number of threads the background cleaner cleans each
+     * batch on. Callers must provide enough synchronization so that they
+     * have exclusive access to the cache when this method is called.
+     *
+     * @param threads the number of threads, the cleaner thread included
+     */
+    public void useCleanerThreads(int threads) {
+        cleanerThreads = Math.max(threads, 1);
+        if (cleaner != null) {
+            cleaner.useThreads(cleanerThreads);
+        }
     }
 
     BackgroundCleaner getBackgroundCleaner() {
@@ -756,9 +1096,9 @@ final class ConcurrentCache implements CacheManager {
     }
 
     /** Count an eviction from the cache. */
-    private void countEviction() {
+    private void countEviction(Object key) {
         if (collectAccessCounts) {
-            evictions.getAndIncrement();
+            evictions.getAndIncrement(shardFor(key));
         }
     }
 
@@ -782,9 +1122,28 @@ final class ConcurrentCache implements CacheManager {
         return misses.get();
     }
 
+    /**
+     * Get the part of the counted cache accesses that were hits, or 0 if no
+     * accesses have been counted.
+     */
+    double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return (total == 0) ? 0.0 : ((double) h) / total;
+    }
+
+    /** Get the name of the replacement policy used by the cache. */
+    String getReplacementPolicy() {
+        return policyName;
+    }
+
     /** Get the number of evictions from the cache. */
     long getEvictionCount() {
-        return evictions.get();
+        long count = 0;
+        for (int i = 0; i < evictions.length(); i++) {
+            count += evictions.get(i);
+        }
+        return count;
     }
 
     /** Get the maximum number of entries in the cache. */
@@ -794,13 +1153,40 @@ final class ConcurrentCache implements CacheManager {
 
     /** Get the number of allocated entries in the cache. */
     long getAllocatedEntries() {
-        return replacementPolicy.size();
+        long count = 0;
+        for (ReplacementPolicy shard : shards) {
+            count += shard.size();
+        }
+        return count;
     }
 
     /** Get the number of cached objects. */
     long getUsedEntries() {
         return cache.size();
     }
+
+    /** Get the number of shards the cache is partitioned into. */
+    int getShardCount() {
+        return shards.length;
+    }
+
+    /** Get the number of allocated entries in each shard. */
+    long[] getShardAllocatedEntries() {
+        long[] counts = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            counts[i] = shards[i].size();
+        }
+        return counts;
+    }
+
+    /** Get the number of evictions from each shard. */
+    long[] getShardEvictionCounts() {
+        long[] counts = new long[evictions.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = evictions.get(i);
+        }
+        return counts;
+    }
     
     /**
      * Privileged module lookup. Must be private so that user code
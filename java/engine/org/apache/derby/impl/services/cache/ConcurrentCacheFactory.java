@@ -45,4 +45,25 @@ public class ConcurrentCacheFactory implements CacheFactory {
         return new ConcurrentCache(holderFactory, name,
                                    initialSize, maximumSize);
     }
+
+    /**
+     * Create a new <code>ConcurrentCache</code> instance which is
+     * partitioned into shards and uses the specified replacement policy.
+     *
+     * @param holderFactory factory which creates <code>Cacheable</code>s
+     * @param name name of the cache
+     * @param initialSize initial capacity of the cache (number of objects)
+     * @param maximumSize maximum size of the cache (number of objects)
+     * @param shardCount number of shards
+     * @param policy name of the replacement policy
+     * @return a <code>ConcurrentCache</code> instance
+     */
+    public CacheManager newCacheManager(CacheableFactory holderFactory,
+                                        String name,
+                                        int initialSize, int maximumSize,
+                                        int shardCount, String policy) {
+        return new ConcurrentCache(holderFactory, name,
+                                   initialSize, maximumSize, shardCount,
+                                   policy);
+    }
 }
@@ -62,6 +62,18 @@ final class ConcurrentCacheMBeanImpl implements CacheManagerMBean {
         return cache.getMissCount();
     }
 
+    @Override
+    public double getHitRatio() {
+        checkPermission();
+        return cache.getHitRatio();
+    }
+
+    @Override
+    public String getReplacementPolicy() {
+        checkPermission();
+        return cache.getReplacementPolicy();
+    }
+
     @Override
     public long getEvictionCount() {
         checkPermission();
@@ -86,6 +98,24 @@ final class ConcurrentCacheMBeanImpl implements CacheManagerMBean {
         return cache.getUsedEntries();
     }
 
+    @Override
+    public int getShardCount() {
+        checkPermission();
+        return cache.getShardCount();
+    }
+
+    @Override
+    public long[] getShardAllocatedEntries() {
+        checkPermission();
+        return cache.getShardAllocatedEntries();
+    }
+
+    @Override
+    public long[] getShardEvictionCounts() {
+        checkPermission();
+        return cache.getShardEvictionCounts();
+    }
+
     private static void checkPermission() {
         if (System.getSecurityManager() != null) {
             try {
@@ -41,13 +41,14 @@ interface ReplacementPolicy {
      * use to communicate back to the replacement policy events (for instance,
      * that it has been accessed or become invalid).
      *
+     * @param key the identity of the object being inserted
      * @param entry the entry to insert
      * @exception StandardException if an error occurs while inserting the
      * entry
      *
      * @see CacheEntry#setCallback(ReplacementPolicy.Callback)
      */
-    void insertEntry(CacheEntry entry) throws StandardException;
+    void insertEntry(Object key, CacheEntry entry) throws StandardException;
 
     /**
      * Try to shrink the cache if it has exceeded its maximum size. It is not
@@ -0,0 +1,678 @@
+/*
+
+   Derby - Class org.apache.derby.impl.services.cache.TwoQueuePolicy
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.services.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.services.cache.Cacheable;
+import org.apache.derby.shared.common.sanity.SanityManager;
+
+/**
+ * Implementation of a scan resistant replacement policy based on the 2Q
+ * algorithm (Johnson and Shasha, VLDB 1994). The cached objects are kept in
+ * two queues:
+ *
+ * <ul>
+ *
+ * <li>The <em>probation</em> queue (A1in in the paper) is a FIFO queue which
+ * receives objects that are brought into the cache for the first time.
+ * Accesses to an object shortly after it entered this queue are ignored,
+ * since they are typically correlated (for instance, a scan reading every row
+ * on a page). An object which is accessed again after this <em>correlated
+ * reference period</em> is moved to the protected queue when it reaches the
+ * end of the probation queue, instead of being evicted.</li>
+ *
+ * <li>The <em>protected</em> queue (Am in the paper) holds objects that have
+ * proved to be used repeatedly. It is managed like the clock in
+ * {@code ClockPolicy}: an object which has been accessed since the last time
+ * it was looked at gets a second chance.</li>
+ *
+ * </ul>
+ *
+ * The identities of the objects most recently evicted from the probation
+ * queue are remembered in a <em>ghost</em> queue (A1out in the paper). When
+ * an object whose identity is in the ghost queue is brought back into the
+ * cache, it goes straight into the protected queue. Objects are evicted from
+ * the probation queue as long as it holds more than its share of the cache,
+ * so a large scan which touches each page only once will cycle through the
+ * probation queue and leave the objects in the protected queue alone.
+ *
+ * <p>
+ *
+ * Synchronization follows the same rules as in {@code ClockPolicy}:
+ * <code>CacheEntry</code> objects must be locked before they can be used,
+ * all accesses to the queues and to the links and queue membership of the
+ * holders are synchronized on <code>queues</code>, and no thread may obtain
+ * any other synchronization lock while it holds the monitor on
+ * <code>queues</code>. The association between a holder and its entry is only
+ * changed by a thread which has locked that entry.
+ */
+final class TwoQueuePolicy implements ReplacementPolicy {
+
+    /**
+     * The minimum number of items to check before we decide to give up
+     * looking for evictable entries.
+     */
+    private static final int MIN_ITEMS_TO_CHECK = 20;
+
+    /**
+     * How large part of the cache to look at before giving up finding an
+     * evictable entry in {@code insertEntry()}.
+     */
+    private static final float MAX_ROTATION = 0.2f;
+
+    /**
+     * How large part of the cache to look at before giving up finding
+     * an evictable entry in {@code shrinkMe()}.
+     */
+    private static final float PART_OF_CACHE_FOR_SHRINK = 0.1f;
+
+    /**
+     * The part of the cache that the probation queue may fill before objects
+     * are evicted from it rather than from the protected queue (Kin in the
+     * paper, which recommends 25%).
+     */
+    private static final float PROBATION_SHARE = 0.25f;
+
+    /**
+     * The number of identities remembered in the ghost queue, relative to
+     * the size of the cache (Kout in the paper, which recommends 50%).
+     */
+    private static final float GHOST_SHARE = 0.5f;
+
+    /**
+     * The length of the correlated reference period, as a part of the
+     * maximum size of the probation queue. An access to an object in the
+     * probation queue only counts as a re-reference if at least this many
+     * objects have been inserted into the cache since the object was.
+     */
+    private static final float CORRELATED_PERIOD_SHARE = 0.5f;
+
+    /** Holder is not in any queue. */
+    private static final int NO_QUEUE = 0;
+    /** Holder is in the probation queue. */
+    private static final int PROBATION = 1;
+    /** Holder is in the protected queue. */
+    private static final int PROTECTED = 2;
+    /** Holder is free and in the free list. */
+    private static final int FREE = 3;
+
+    /** The cache manager for which this replacement policy is used. */
+    private final ConcurrentCache cacheManager;
+
+    /**
+     * The maximum size of the cache. When this size is exceeded, entries must
+     * be evicted before new ones are inserted.
+     */
+    private final int maxSize;
+
+    /** Maximum number of holders in the probation queue. */
+    private final int maxProbation;
+
+    /** Length of the correlated reference period, in insertions. */
+    private final long correlatedPeriod;
+
+    /**
+     * The queues. All of the fields in this object, and the links and the
+     * queue membership of the holders, must only be accessed when
+     * synchronized on this object.
+     */
+    private final Queues queues;
+
+    /**
+     * Tells whether there currently is a thread in the {@code doShrink()}
+     * method. If this variable is {@code true} a call to {@code doShrink()}
+     * will be a no-op.
+     */
+    private final AtomicBoolean isShrinking = new AtomicBoolean();
+
+    /**
+     * Create a new <code>TwoQueuePolicy</code> instance.
+     *
+     * @param cacheManager the cache manager that requests this policy
+     * @param initialSize the initial capacity of the cache (unused, the
+     * queues are linked lists)
+     * @param maxSize the maximum size of the cache
+     */
+    TwoQueuePolicy(ConcurrentCache cacheManager,
+                   int initialSize, int maxSize) {
+        this.cacheManager = cacheManager;
+        this.maxSize = maxSize;
+        this.maxProbation = Math.max(1, (int) (maxSize * PROBATION_SHARE));
+        this.correlatedPeriod =
+            Math.max(1, (long) (maxProbation * CORRELATED_PERIOD_SHARE));
+        this.queues = new Queues(Math.max(1, (int) (maxSize * GHOST_SHARE)));
+    }
+
+    @Override
+    public int size() {
+        synchronized (queues) {
+            return queues.size();
+        }
+    }
+
+    /**
+     * Insert an entry into the cache. A free holder is reused if there is
+     * one. Otherwise, if the cache is full, an object is evicted from the
+     * probation queue if that queue holds more than its share of the cache,
+     * and from the protected queue if not. If no object can be evicted, the
+     * cache grows.
+     *
+     * @param key the identity of the object being inserted
+     * @param entry the entry to insert (must be locked)
+     * @exception StandardException if an error occurs when inserting the entry
+     */
+    public void insertEntry(Object key, CacheEntry entry)
+            throws StandardException {
+
+        final int size;
+        synchronized (queues) {
+            Holder h = queues.free.removeLast();
+            if (h != null) {
+                // Reuse a holder from an object that has been removed.
+                h.attach(key, entry);
+                return;
+            }
+
+            size = queues.size();
+            if (size < maxSize) {
+                // Not full yet, make room by growing.
+                new Holder().attach(key, entry);
+                return;
+            }
+        }
+
+        if (size > maxSize) {
+            // Maximum size is exceeded. Shrink the cache in the background
+            // cleaner, if we have one; otherwise, shrink it in the current
+            // thread.
+            BackgroundCleaner cleaner = cacheManager.getBackgroundCleaner();
+            if (cleaner != null) {
+                cleaner.scheduleShrink();
+            } else {
+                doShrink();
+            }
+        }
+
+        if (!replaceVictim(key, entry)) {
+            // didn't find a victim, so we need to grow
+            synchronized (queues) {
+                new Holder().attach(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Holder class which represents an entry in the cache. It links the entry
+     * into one of the queues, and implements the <code>Callback</code>
+     * interface so that <code>ConcurrentCache</code> can notify the policy
+     * about accesses and removals.
+     */
+    private class Holder implements Callback {
+        /**
+         * Flag indicating whether or not this entry has been accessed since
+         * it was last looked at in the protected queue. Should only be
+         * accessed/modified when the current thread has locked the
+         * <code>CacheEntry</code> object stored in the <code>entry</code>
+         * field.
+         */
+        boolean recentlyUsed;
+
+        /**
+         * Flag indicating whether or not this entry has been accessed after
+         * the correlated reference period. Protected by the entry lock, like
+         * <code>recentlyUsed</code>.
+         */
+        boolean reReferenced;
+
+        /**
+         * The value of <code>queues.insertions</code> when the current entry
+         * was inserted. Only changed when the entry is locked.
+         */
+        long insertedAt;
+
+        /**
+         * The entry held by this object, or <code>null</code> if the holder
+         * is free or has been evicted. Guarded by <code>queues</code>. A
+         * thread is only allowed to change the reference if it also has
+         * locked the entry that the reference points to (if non-null).
+         */
+        CacheEntry entry;
+
+        /** The identity of the object held. Guarded by <code>queues</code>. */
+        Object key;
+
+        /**
+         * Cacheable object from a removed object, which can be reused by the
+         * next entry that takes this holder. Guarded by <code>queues</code>.
+         */
+        Cacheable freedCacheable;
+
+        /** The queue this holder is in. Guarded by <code>queues</code>. */
+        int queue = NO_QUEUE;
+
+        /** Links in the queue. Guarded by <code>queues</code>. */
+        Holder prev, next;
+
+        /**
+         * Associate this holder with an entry which is being inserted into
+         * the cache, and put it into the queue where the entry belongs. The
+         * caller must have locked the entry, and hold the monitor on
+         * <code>queues</code>. The holder must not be in a queue.
+         *
+         * @param k the identity of the object being inserted
+         * @param e the entry being inserted
+         */
+        void attach(Object k, CacheEntry e) {
+            if (SanityManager.DEBUG) {
+                SanityManager.ASSERT(Thread.holdsLock(queues));
+                SanityManager.ASSERT(queue == NO_QUEUE || queue == FREE,
+                                     "Attaching a holder which is in use");
+            }
+            e.setCacheable(freedCacheable);
+            e.setCallback(this);
+            freedCacheable = null;
+            entry = e;
+            key = k;
+            recentlyUsed = false;
+            reReferenced = false;
+            insertedAt = ++queues.insertions;
+            if (queues.ghosts.remove(k) != null) {
+                // Seen recently enough to be a real re-reference.
+                queues.protectedQueue.addFirst(this);
+            } else {
+                queues.probation.addFirst(this);
+            }
+        }
+
+        /**
+         * Mark this entry as recently used. Caller must have locked
+         * <code>entry</code>.
+         */
+        public void access() {
+            recentlyUsed = true;
+            if (queues.insertions - insertedAt > correlatedPeriod) {
+                reReferenced = true;
+            }
+        }
+
+        /**
+         * Mark this object as free and reusable. Caller must have locked
+         * <code>entry</code>.
+         */
+        public void free() {
+            synchronized (queues) {
+                queues.unlink(this);
+                freedCacheable = entry.getCacheable();
+                entry = null;
+                key = null;
+                queues.free.addFirst(this);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked queue of holders, with the most recently added holder
+     * first. Must only be used while synchronized on <code>queues</code>.
+     */
+    private final class HolderQueue {
+        /** Sentinel whose <code>next</code> is first and <code>prev</code> is
+         * last in the queue. */
+        private final Holder head = new Holder();
+        /** The id of the queue, stored in the holders it contains. */
+        private final int id;
+        /** The number of holders in the queue. */
+        int size;
+
+        HolderQueue(int id) {
+            this.id = id;
+            head.next = head;
+            head.prev = head;
+        }
+
+        void addFirst(Holder h) {
+            h.next = head.next;
+            h.prev = head;
+            head.next.prev = h;
+            head.next = h;
+            h.queue = id;
+            size++;
+        }
+
+        void remove(Holder h) {
+            if (SanityManager.DEBUG) {
+                SanityManager.ASSERT(h.queue == id, "Holder in wrong queue");
+            }
+            h.prev.next = h.next;
+            h.next.prev = h.prev;
+            h.prev = h.next = null;
+            h.queue = NO_QUEUE;
+            size--;
+        }
+
+        /** Get the oldest holder in the queue, or null if empty. */
+        Holder last() {
+            return (head.prev == head) ? null : head.prev;
+        }
+
+        /** Remove and return the oldest holder, or null if empty. */
+        Holder removeLast() {
+            Holder h = last();
+            if (h != null) {
+                remove(h);
+            }
+            return h;
+        }
+
+        /** Move a holder to the front of the queue. */
+        void moveToFirst(Holder h) {
+            remove(h);
+            addFirst(h);
+        }
+    }
+
+    /** The queues of the policy. */
+    private final class Queues {
+        final HolderQueue probation = new HolderQueue(PROBATION);
+        final HolderQueue protectedQueue = new HolderQueue(PROTECTED);
+        final HolderQueue free = new HolderQueue(FREE);
+        /**
+         * The number of entries inserted so far. Only updated when
+         * synchronized on this object, but read without synchronization.
+         */
+        volatile long insertions;
+        /** Identities of the objects recently evicted from probation. */
+        final Map<Object, Boolean> ghosts;
+
+        Queues(final int maxGhosts) {
+            ghosts = new LinkedHashMap<Object, Boolean>() {
+                protected boolean removeEldestEntry(
+                        Map.Entry<Object, Boolean> eldest) {
+                    return size() > maxGhosts;
+                }
+            };
+        }
+
+        /** Number of holders in the cache, including free ones. */
+        int size() {
+            return probation.size + protectedQueue.size + free.size;
+        }
+
+        /** Remove a holder from the queue it's in. */
+        void unlink(Holder h) {
+            switch (h.queue) {
+            case PROBATION:
+                probation.remove(h);
+                break;
+            case PROTECTED:
+                protectedQueue.remove(h);
+                break;
+            case FREE:
+                free.remove(h);
+                break;
+            default:
+                if (SanityManager.DEBUG) {
+                    SanityManager.THROWASSERT("Holder not in a queue");
+                }
+            }
+        }
+
+        /**
+         * Pick the next candidate for eviction and move it to the front of
+         * its queue, so that the next call looks at another holder if this
+         * one cannot be evicted.
+         *
+         * @return a holder in the probation or the protected queue, or
+         * <code>null</code> if both are empty
+         */
+        Holder nextCandidate() {
+            HolderQueue q =
+                (probation.size > maxProbation || protectedQueue.size == 0) ?
+                probation : protectedQueue;
+            Holder h = q.last();
+            if (h != null) {
+                q.moveToFirst(h);
+            }
+            return h;
+        }
+
+        /**
+         * Remove a holder whose entry is being evicted from its queue, and
+         * remember its identity if it was evicted from probation.
+         */
+        void evict(Holder h) {
+            if (h.queue == PROBATION) {
+                ghosts.put(h.key, Boolean.TRUE);
+            }
+            unlink(h);
+            h.entry = null;
+            h.key = null;
+        }
+    }
+
+    /**
+     * Check if an entry can be evicted. Only entries that are still held by
+     * the holder, are not kept, and have not been re-referenced (in the
+     * probation queue) or recently used (in the protected queue) can be
+     * evicted. The caller must hold the lock on the entry.
+     *
+     * @param e the entry to check
+     * @param h the holder which holds the entry
+     * @param clearRecentlyUsedFlag tells whether or not the recently used flag
+     * should be cleared on the entry, and re-referenced entries be moved to
+     * the protected queue ({@code true} only when called as part of a normal
+     * search for an entry to replace)
+     * @return whether or not this entry can be evicted (provided that its
+     * {@code Cacheable} is cleaned first)
+     */
+    private boolean isEvictable(CacheEntry e, Holder h,
+                                boolean clearRecentlyUsedFlag) {
+        final boolean inProtected;
+        synchronized (queues) {
+            if (h.entry != e) {
+                // Someone else evicted or removed this entry before we
+                // obtained the lock.
+                return false;
+            }
+            inProtected = (h.queue == PROTECTED);
+            if (!inProtected && h.reReferenced) {
+                // Used again after the correlated reference period, so it
+                // has earned a place in the protected queue.
+                if (clearRecentlyUsedFlag) {
+                    queues.probation.remove(h);
+                    queues.protectedQueue.addFirst(h);
+                }
+                return false;
+            }
+        }
+
+        if (e.isKept()) {
+            // The entry is in use and cannot be evicted.
+            return false;
+        }
+
+        if (SanityManager.DEBUG) {
+            SanityManager.ASSERT(e.isValid(), "Holder contains invalid entry");
+        }
+
+        if (inProtected && h.recentlyUsed) {
+            // Give protected objects a second chance, like the clock does.
+            if (clearRecentlyUsedFlag) {
+                h.recentlyUsed = false;
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Look for an object to evict, and give its holder and
+     * <code>Cacheable</code> to the entry that is being inserted.
+     *
+     * @param key the identity of the object being inserted
+     * @param entry the entry to insert (must be locked)
+     * @return <code>true</code> if an object was evicted and the entry has
+     * been inserted, <code>false</code> if no evictable object was found
+     */
+    private boolean replaceVictim(Object key, CacheEntry entry)
+            throws StandardException {
+
+        int itemsToCheck = Math.max(MIN_ITEMS_TO_CHECK,
+                                    (int) (size() * MAX_ROTATION));
+
+        while (itemsToCheck-- > 0) {
+
+            final Holder h;
+            final CacheEntry e;
+            synchronized (queues) {
+                h = queues.nextCandidate();
+                if (h == null) {
+                    return false;
+                }
+                e = h.entry;
+            }
+
+            // This variable will hold a dirty cacheable that should be cleaned
+            // after the try/finally block.
+            final Cacheable dirty;
+
+            e.lock();
+            try {
+                if (!isEvictable(e, h, true)) {
+                    continue;
+                }
+
+                Cacheable c = e.getCacheable();
+                if (!c.isDirty()) {
+                    // Not in use and not dirty. Take over the holder.
+                    synchronized (queues) {
+                        queues.evict(h);
+                        h.freedCacheable = c;
+                        h.attach(key, entry);
+                    }
+                    cacheManager.evictEntry(c.getIdentity());
+                    return true;
+                }
+
+                // Ask the background cleaner to clean the entry.
+                BackgroundCleaner cleaner = cacheManager.getBackgroundCleaner();
+                if (cleaner != null && cleaner.scheduleClean(e)) {
+                    // Move on to the next entry instead of waiting for the
+                    // clean operation to finish.
+                    continue;
+                }
+
+                // Clean the object ourselves. Mark the entry as kept to
+                // prevent eviction until we have cleaned it, but don't mark
+                // it as accessed.
+                e.keep(false);
+                dirty = c;
+
+            } finally {
+                e.unlock();
+            }
+
+            // Clean the entry and unkeep it. As in ClockPolicy, don't reuse
+            // it right away, but move on to the next candidate.
+            cacheManager.cleanAndUnkeepEntry(e, dirty);
+        }
+
+        return false;
+    }
+
+    /**
+     * Try to shrink the cache if it's larger than its maximum size.
+     */
+    public void doShrink() {
+        // If we're already performing a shrink, ignore this request.
+        if (isShrinking.compareAndSet(false, true)) {
+            try {
+                shrinkMe();
+            } finally {
+                isShrinking.set(false);
+            }
+        }
+    }
+
+    /**
+     * Perform the shrinking of the cache. Free holders are dropped first,
+     * then clean, unused objects are evicted in the same order as when
+     * making room for new objects. This method should only be called by a
+     * single thread at a time.
+     */
+    private void shrinkMe() {
+
+        if (SanityManager.DEBUG) {
+            SanityManager.ASSERT(isShrinking.get(),
+                    "Called shrinkMe() without ensuring exclusive access");
+        }
+
+        // Max number of candidates to look at (always at least 1).
+        int maxLooks = Math.max(1, (int) (maxSize * PART_OF_CACHE_FOR_SHRINK));
+
+        while (maxLooks-- > 0) {
+
+            final Holder h;
+            final CacheEntry e;
+            synchronized (queues) {
+                if (queues.size() <= maxSize) {
+                    break;
+                }
+                if (queues.free.removeLast() != null) {
+                    // Dropped a free holder, its cacheable is garbage.
+                    continue;
+                }
+                h = queues.nextCandidate();
+                if (h == null) {
+                    break;
+                }
+                e = h.entry;
+            }
+
+            e.lock();
+            try {
+                if (!isEvictable(e, h, false)) {
+                    continue;
+                }
+
+                final Cacheable c = e.getCacheable();
+                if (c.isDirty()) {
+                    // Don't evict dirty entries.
+                    continue;
+                }
+
+                synchronized (queues) {
+                    queues.evict(h);
+                }
+
+                // remove from cache manager
+                cacheManager.evictEntry(c.getIdentity());
+
+            } finally {
+                e.unlock();
+            }
+        }
+    }
+}
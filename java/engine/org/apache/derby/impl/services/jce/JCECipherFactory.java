@@ -24,6 +24,7 @@ package org.apache.derby.impl.services.jce;
 import org.apache.derby.iapi.security.SecurityUtil;
 import org.apache.derby.iapi.services.crypto.CipherFactory;
 import org.apache.derby.iapi.services.crypto.CipherProvider;
+import org.apache.derby.iapi.services.property.PropertyUtil;
 
 import org.apache.derby.iapi.error.StandardException;
 
@@ -436,7 +437,24 @@ final class JCECipherFactory implements CipherFactory
 
         cryptoAlgorithm = properties.getProperty(Attribute.CRYPTO_ALGORITHM);
         if (cryptoAlgorithm == null)
-            cryptoAlgorithm = DEFAULT_ALGORITHM;
+        {
+            if (create)
+            {
+                // A new database may get a different default algorithm.
+                // It has to be recorded even when an external key is
+                // used, since the database would otherwise be booted
+                // with DES again.
+                cryptoAlgorithm = PropertyUtil.getSystemProperty(
+                        RawStoreFactory.DEFAULT_ENCRYPTION_ALGORITHM);
+                if (cryptoAlgorithm != null)
+                {
+                    provider_or_algo_specified = true;
+                    storeProperties = true;
+                }
+            }
+            if (cryptoAlgorithm == null)
+                cryptoAlgorithm = DEFAULT_ALGORITHM;
+        }
         else {
             provider_or_algo_specified = true;
 
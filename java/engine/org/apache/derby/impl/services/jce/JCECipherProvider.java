@@ -34,6 +34,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchProviderException;
 
+import java.util.ArrayList;
+
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.SecretKeyFactory;
@@ -42,14 +44,26 @@ import javax.crypto.SecretKey;
 
 
 /**
-	This is a wrapper for a Cipher
+	This is a wrapper for a Cipher.
+	<P>
+	The same provider is shared across the entire raw store.  Rather than
+	serializing all encryption and decryption on one Cipher, the provider
+	keeps a pool of idle Ciphers.  A thread takes one from the pool for
+	each encrypt or decrypt, or creates one if the pool is empty, and puts
+	it back afterwards, so the pool holds as many Ciphers as threads have
+	used the provider at the same time.  The constructor's Cipher is the
+	first one in the pool.  The pool goes away with the provider, and is
+	emptied when the database is shut down, see close().
 
 	@see CipherFactory
  */
 class JCECipherProvider implements CipherProvider
 {
-	private Cipher cipher;
-	private int mode;
+	/** The idle Ciphers, ready for use. MT - synchronized on itself. */
+	private final ArrayList<Cipher> idleCiphers = new ArrayList<Cipher>();
+	private final String algorithm;
+	private final String provider;
+	private final int mode;
     private boolean ivUsed = true;
     private final IvParameterSpec ivspec;
     private final int encryptionBlockSize;
@@ -63,9 +77,22 @@ class JCECipherProvider implements CipherProvider
 	{
 		Throwable t;
 		ivspec = new IvParameterSpec(iv);
+		this.mode = mode;
+		this.algorithm = algorithm;
+
+		/* The BouncyCastle encryption provider is named "BC".
+		 * The full "BouncyCastleProvider" name used to work until
+		 * version 103 came out.  (ie. Beta3 and Beta4 works fine)
+		 * This trick is so that Cipher.getInstance(algo, prov) will
+		 * not throw an exception.  Resolve 3765.
+		 */
+		if ("BouncyCastleProvider".equals(provider))
+			provider = "BC";
+		this.provider = provider;
+
 		try
 		{
-
+			Cipher cipher;
 
 			if (provider == null)
 			{
@@ -86,17 +113,6 @@ class JCECipherProvider implements CipherProvider
 				{
 					sunjce = true;
 				}
-				else
-				{
-					/* The BouncyCastle encryption provider is named "BC".
-					 * The full "BouncyCastleProvider" name used to work until
-					 * version 103 came out.  (ie. Beta3 and Beta4 works fine)
-					 * This trick is so that Cipher.getInstance(algo, prov) will
-					 * not throw an exception.  Resolve 3765.
-					 */
-					if( provider.equals( "BouncyCastleProvider" ) )
-						provider = "BC";
-				}
 
 				cipher = Cipher.getInstance(algorithm,provider);
 			}
@@ -105,7 +121,6 @@ class JCECipherProvider implements CipherProvider
 			// to do appropriate padding
 			encryptionBlockSize = cipher.getBlockSize();
 
-			this.mode = mode;
 			try {
 
 				// ECB feedback mode does not require an IV
@@ -165,6 +180,8 @@ class JCECipherProvider implements CipherProvider
             if (cipher.getIV() == null)
                 ivUsed = false;
 
+            idleCiphers.add(cipher);
+
             if (SanityManager.DEBUG)
                 SanityManager.ASSERT(verifyIV(iv));
 
@@ -216,41 +233,10 @@ class JCECipherProvider implements CipherProvider
 		int retval = 0;
 		try
 		{
-			// this same cipher is shared across the entire raw store, make it
-			// MT safe
-			synchronized(this)
-			{
-                if( !sunjce )
-                {
-                    // this code is a workaround for other providers
-                    try
-                    {
-			            //ivspec = new IvParameterSpec(cipher.getIV());
-    			        if (mode == CipherFactory.ENCRYPT)
-    			        {
-							if (ivUsed)
-	    			        	cipher.init(Cipher.ENCRYPT_MODE, cryptixKey, ivspec);
-	    			        else
-	    			    		cipher.init(Cipher.ENCRYPT_MODE,cryptixKey);
-						}
-	    			    else if (mode == CipherFactory.DECRYPT)
-	    			    {
-							if (ivUsed)
-			    	        	cipher.init(Cipher.DECRYPT_MODE, cryptixKey, ivspec);
-			    	    	else
-								cipher.init(Cipher.DECRYPT_MODE, cryptixKey);
-						}
-
-                    }
-            		catch (InvalidKeyException ike)
-		            {
-						System.out.println("A " + ike);
-			            throw StandardException.newException(SQLState.CRYPTO_EXCEPTION, ike);
-		            }
-                }
-
-				retval = cipher.doFinal(cleartext, offset, length, ciphertext, outputOffset);
-			}
+			Cipher cipher = getCipher();
+			retval = cipher.doFinal(cleartext, offset, length,
+									ciphertext, outputOffset);
+			releaseCipher(cipher);
 		}
 		catch (IllegalStateException ise)
 		{
@@ -296,43 +282,10 @@ class JCECipherProvider implements CipherProvider
 		int retval = 0;
 		try
 		{
-			// this same cipher is shared across the entire raw store, make it
-			// MT safe
-			synchronized(this)
-			{
-                if( !sunjce )
-                {
-                    // this code is a workaround for other providers
-                    try
-                    {
-			            //ivspec = new IvParameterSpec(cipher.getIV());
-
-			            if (mode == CipherFactory.ENCRYPT)
-						{
-							if (ivUsed)
-								cipher.init(Cipher.ENCRYPT_MODE, cryptixKey, ivspec);
-							else
-								cipher.init(Cipher.ENCRYPT_MODE,cryptixKey);
-						}
-						else if (mode == CipherFactory.DECRYPT)
-						{
-							if (ivUsed)
-								cipher.init(Cipher.DECRYPT_MODE, cryptixKey, ivspec);
-							else
-								cipher.init(Cipher.DECRYPT_MODE, cryptixKey);
-						}
-
-                    }
-            		catch (InvalidKeyException ike)
-		            {
-						System.out.println("C " + ike);
-			            throw StandardException.newException(SQLState.CRYPTO_EXCEPTION, ike);
-		            }
-
-                }
-
-				retval = cipher.doFinal(ciphertext, offset, length, cleartext, outputOffset);
-			}
+			Cipher cipher = getCipher();
+			retval = cipher.doFinal(ciphertext, offset, length,
+									cleartext, outputOffset);
+			releaseCipher(cipher);
 		}
 		catch (IllegalStateException ise)
 		{
@@ -355,9 +308,100 @@ class JCECipherProvider implements CipherProvider
 		return retval;
 	}
 
+	/**
+		Take an idle Cipher from the pool, or create one if there is none,
+		ready for a doFinal call.  The caller puts it back with
+		releaseCipher() when done with it.  A Cipher which failed is not
+		put back.
+
+		@exception GeneralSecurityException if the Cipher cannot be created
+		or initialized
+	 */
+	private Cipher getCipher() throws GeneralSecurityException
+	{
+		Cipher cipher = null;
+
+		synchronized (idleCiphers)
+		{
+			int last = idleCiphers.size() - 1;
+			if (last >= 0)
+				cipher = idleCiphers.remove(last);
+		}
+
+		if (cipher == null)
+		{
+			if (provider == null)
+				cipher = Cipher.getInstance(algorithm);
+			else
+				cipher = Cipher.getInstance(algorithm, provider);
+
+			initCipher(cipher);
+		}
+		else if (!sunjce)
+		{
+			/* The Sun encryption provider does not need to re-init the cipher
+			 * after each encrypt/decrypt.  Other crypto providers needs this
+			 * because the encrypt/decrypt ciphers becomes out of sync after
+			 * an encrypt/decrypt operation.
+			 */
+			initCipher(cipher);
+		}
+
+		return cipher;
+	}
+
+	/**
+		Put a Cipher taken with getCipher() back into the pool.
+	 */
+	private void releaseCipher(Cipher cipher)
+	{
+		synchronized (idleCiphers)
+		{
+			idleCiphers.add(cipher);
+		}
+	}
+
+	/**
+		Empty the pool of idle Ciphers.  The provider stays usable, it
+		creates new Ciphers as they are needed.
+
+		@see CipherProvider#close
+	 */
+	public void close()
+	{
+		synchronized (idleCiphers)
+		{
+			idleCiphers.clear();
+		}
+	}
+
+	/**
+		Initialize a Cipher with the key and the IV of this provider.
+	 */
+	private void initCipher(Cipher cipher) throws GeneralSecurityException
+	{
+		int cipherMode = (mode == CipherFactory.ENCRYPT) ?
+			Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+
+		if (ivUsed)
+			cipher.init(cipherMode, cryptixKey, ivspec);
+		else
+			cipher.init(cipherMode, cryptixKey);
+	}
+
 	boolean verifyIV(byte[] IV)
 	{
-		byte[] myIV = cipher.getIV();
+		byte[] myIV;
+		try
+		{
+			Cipher cipher = getCipher();
+			myIV = cipher.getIV();
+			releaseCipher(cipher);
+		}
+		catch (GeneralSecurityException gse)
+		{
+			return false;
+		}
         // null IV is OK only if IV is not used
         if (myIV == null)
             return !ivUsed;
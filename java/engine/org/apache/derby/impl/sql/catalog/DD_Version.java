@@ -552,6 +552,10 @@ public	class DD_Version implements	Formatable
 		{
 			// On upgrade from versions before 10.13, add AUTOINCCYCLE column in SYSCOLUMNS
 			bootingDictionary.upgrade_SYSCOLUMNS_AUTOINCCYCLE(tc);
+
+            // On upgrade from versions before 10.14, create system procedures
+            // added in 10.14.
+            bootingDictionary.create_10_14_system_procedures( tc, newlyCreatedRoutines );
 		}
 
         // Grant PUBLIC access to some system routines
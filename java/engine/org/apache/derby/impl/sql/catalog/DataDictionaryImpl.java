@@ -11510,6 +11510,8 @@ public final class	DataDictionaryImpl
         create_10_12_system_procedures( tc, newlyCreatedRoutines );
         // add 10.13 specific system procedures
         create_10_13_system_procedures( tc, newlyCreatedRoutines );
+        // add 10.14 specific system procedures
+        create_10_14_system_procedures( tc, newlyCreatedRoutines );
     }
 
     /**
@@ -13608,6 +13610,52 @@ public final class	DataDictionaryImpl
 
 	
 
+    }
+
+    /**
+     * <p>
+     * Create system procedures that are part of the SYSCS_UTIL schema, added in version 10.14.
+     * </p>
+     *
+     * @param tc an instance of the Transaction Controller.
+     * @param newlyCreatedRoutines set of routines we are creating (used to add permissions later on)
+     **/
+    void create_10_14_system_procedures( TransactionController   tc, HashSet<String> newlyCreatedRoutines )
+        throws StandardException
+    {
+        UUID  sysUtilUUID = getSystemUtilSchemaDescriptor().getUUID();
+
+        // void SYSCS_UTIL.SYSCS_BACKUP_DATABASE_INCREMENTAL(
+        //     IN BACKUPDIR        VARCHAR(Limits.DB2_VARCHAR_MAXWIDTH),
+        //     IN BASEDIR          VARCHAR(Limits.DB2_VARCHAR_MAXWIDTH)
+        //     )
+        
+        {
+            // procedure argument names
+            String[] arg_names = {"BACKUPDIR", "BASEDIR"};
+
+            // procedure argument types
+            TypeDescriptor[] arg_types = {
+                DataTypeDescriptor.getCatalogType(
+                    Types.VARCHAR, Limits.DB2_VARCHAR_MAXWIDTH),
+                DataTypeDescriptor.getCatalogType(
+                    Types.VARCHAR, Limits.DB2_VARCHAR_MAXWIDTH)
+            };
+
+            createSystemProcedureOrFunction(
+                "SYSCS_BACKUP_DATABASE_INCREMENTAL",
+                sysUtilUUID,
+                arg_names,
+                arg_types,
+                0,
+                0,
+                RoutineAliasInfo.MODIFIES_SQL_DATA,
+                false,
+                false,
+                (TypeDescriptor) null,
+                newlyCreatedRoutines,
+                tc);
+        }
     }
 
 
@@ -14072,6 +14120,7 @@ public final class	DataDictionaryImpl
 			{"LOCK_TABLE", "org.apache.derby.diag.LockTable"},
 			{"STATEMENT_CACHE", "org.apache.derby.diag.StatementCache"},
 			{"TRANSACTION_TABLE", "org.apache.derby.diag.TransactionTable"},
+			{"COMPRESS_PROGRESS", "org.apache.derby.diag.CompressProgressTable"},
 			{"ERROR_MESSAGES", "org.apache.derby.diag.ErrorMessages"},
 	};
 	
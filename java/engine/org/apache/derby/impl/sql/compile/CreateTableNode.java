@@ -38,6 +38,7 @@ import org.apache.derby.iapi.sql.dictionary.DataDictionary;
 import org.apache.derby.iapi.sql.dictionary.SchemaDescriptor;
 import org.apache.derby.iapi.sql.dictionary.TableDescriptor;
 import org.apache.derby.iapi.sql.execute.ConstantAction;
+import org.apache.derby.iapi.store.raw.RawStoreFactory;
 import org.apache.derby.iapi.types.DataTypeDescriptor;
 import org.apache.derby.impl.sql.execute.ColumnInfo;
 import org.apache.derby.impl.sql.execute.CreateConstraintConstantAction;
@@ -53,6 +54,7 @@ class CreateTableNode extends DDLStatementNode
 	private char				lockGranularity;
 	private boolean				onCommitDeleteRows; //If true, on commit delete rows else on commit preserve rows of temporary table.
 	private boolean				onRollbackDeleteRows; //If true, on rollback delete rows from temp table if it was logically modified in that UOW. true is the only supported value
+	private boolean				unlogged; //If true, changes to the pages a transaction adds to the table are not logged
 	private Properties			properties;
 	private TableElementList	tableElementList;
 	protected int	tableType; //persistent table or global temporary table
@@ -68,6 +70,8 @@ class CreateTableNode extends DDLStatementNode
 	 * @param properties		The optional list of properties associated with
 	 *							the table.
 	 * @param lockGranularity	The lock granularity.
+	 * @param unlogged			If true, changes to the table are not logged
+	 *							(NOT LOGGED).
      * @param cm                The context manager
 	 *
 	 * @exception StandardException		Thrown on error
@@ -77,11 +81,13 @@ class CreateTableNode extends DDLStatementNode
             TableElementList tableElementList,
             Properties       properties,
             char             lockGranularity,
+            boolean          unlogged,
             ContextManager   cm) throws StandardException
 	{
         super(tableName, cm);
         this.tableType = TableDescriptor.BASE_TABLE_TYPE;
         this.lockGranularity = lockGranularity;
+        this.unlogged = unlogged;
         this.implicitCreateSchema = true;
 
 		if (SanityManager.DEBUG)
@@ -207,7 +213,8 @@ class CreateTableNode extends DDLStatementNode
 					(properties != null ?
 					 "properties: " + "\n" + properties + "\n" :
 					 "") +
-					"lockGranularity: " + lockGranularity + "\n";
+					"lockGranularity: " + lockGranularity + "\n" +
+					"unlogged: " + unlogged + "\n";
 			return super.toString() +  tempString;
 		}
 		else
@@ -553,6 +560,15 @@ class CreateTableNode extends DDLStatementNode
             }
         }
 
+        if (unlogged)
+        {
+            // tell the store not to log changes to the heap
+            if (properties == null)
+                properties = new Properties();
+
+            properties.put(RawStoreFactory.UNLOGGED_PARAMETER, "true");
+        }
+
 		return(
             getGenericConstantActionFactory().getCreateTableConstantAction(
                 sd.getSchemaName(),
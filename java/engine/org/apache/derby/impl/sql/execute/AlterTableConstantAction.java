@@ -1136,7 +1136,8 @@ class AlterTableConstantAction extends DDLSingleTableConstantAction
      * <p>
      * Scans the table and purges any committed deleted rows from the 
      * table.  If all rows on a page are purged then page is also 
-     * reclaimed.
+     * reclaimed.  The indexes of the table are purged as well, on
+     * separate threads if derby.storage.inplaceCompressThreads is set.
      * <p>
      *
      * @param tc                transaction controller to use to do updates.
@@ -1159,12 +1160,31 @@ class AlterTableConstantAction extends DDLSingleTableConstantAction
             ConglomerateDescriptor[] conglom_descriptors = 
                 td.getConglomerateDescriptors();
 
+            // the table and its indexes may be purged in parallel, so
+            // purge conglomerates shared by several indexes only once.
+            long[] conglom_ids = new long[conglom_descriptors.length];
+            int    num_congloms = 0;
+
             for (int cd_idx = 0; cd_idx < conglom_descriptors.length; cd_idx++)
             {
-                ConglomerateDescriptor cd = conglom_descriptors[cd_idx];
+                long conglom_id = 
+                    conglom_descriptors[cd_idx].getConglomerateNumber();
 
-                tc.purgeConglomerate(cd.getConglomerateNumber());
+                boolean seen = false;
+                for (int i = 0; i < num_congloms; i++)
+                {
+                    if (conglom_ids[i] == conglom_id)
+                        seen = true;
+                }
+
+                if (!seen)
+                    conglom_ids[num_congloms++] = conglom_id;
             }
+
+            long[] to_purge = new long[num_congloms];
+            System.arraycopy(conglom_ids, 0, to_purge, 0, num_congloms);
+
+            tc.purgeConglomerates(to_purge);
           }
         }
     }
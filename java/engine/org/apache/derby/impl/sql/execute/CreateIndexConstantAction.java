@@ -53,6 +53,7 @@ import org.apache.derby.iapi.store.access.RowLocationRetRowSource;
 import org.apache.derby.iapi.store.access.SortController;
 import org.apache.derby.iapi.store.access.SortObserver;
 import org.apache.derby.iapi.store.access.TransactionController;
+import org.apache.derby.iapi.store.raw.RawStoreFactory;
 import org.apache.derby.iapi.types.DataTypeDescriptor;
 import org.apache.derby.iapi.types.DataValueDescriptor;
 import org.apache.derby.iapi.types.RowLocation;
@@ -395,6 +396,25 @@ class CreateIndexConstantAction extends IndexConstantAction
 		 */
 		lockTableForDDL(tc, td.getHeapConglomerateId(), false);
 
+		// A rollback or a crash empties an unlogged table behind the back
+		// of its indexes, so it cannot have any.
+		ConglomerateController heapCC = tc.openConglomerate(
+				td.getHeapConglomerateId(),
+				false,
+				0,
+				TransactionController.MODE_TABLE,
+				TransactionController.ISOLATION_SERIALIZABLE);
+		Properties heapProperties = new Properties();
+		heapCC.getInternalTablePropertySet(heapProperties);
+		heapCC.close();
+
+		if (Boolean.parseBoolean(
+				heapProperties.getProperty(RawStoreFactory.UNLOGGED_PARAMETER)))
+		{
+			throw StandardException.newException(
+				SQLState.LANG_NO_INDEX_ON_UNLOGGED_TABLE, indexName, tableName);
+		}
+
 		// invalidate any prepared statements that
 		// depended on this table (including this one)
 		if (! forCreateTable)
@@ -0,0 +1,166 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.access.ParallelPurge
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.access;
+
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.services.context.ContextManager;
+import org.apache.derby.iapi.services.context.ContextService;
+import org.apache.derby.iapi.services.monitor.ModuleFactory;
+import org.apache.derby.iapi.store.access.AccessFactory;
+import org.apache.derby.iapi.store.access.AccessFactoryGlobals;
+import org.apache.derby.iapi.store.access.TransactionController;
+import org.apache.derby.iapi.util.InterruptStatus;
+
+/**
+ * Purges the committed deleted rows of a set of conglomerates, typically a
+ * table and its indexes, on a number of threads.
+ * <p>
+ * Each thread takes the next conglomerate not purged yet, and purges it in
+ * a user transaction of its own, just like the caller would have done in a
+ * transaction nested in its own.  The caller waits for all the threads to
+ * finish, and gets the first error any of them ran into.  Once a thread
+ * has failed, the others do not start on new conglomerates.
+ * <p>
+ * The purge of a conglomerate waits for locks held by the caller's
+ * transaction, rather than failing as a nested transaction would.  So the
+ * caller must not hold locks on the base table that conflict with the
+ * intended exclusive table lock of the purge.
+ */
+final class ParallelPurge {
+
+    private final AccessFactory accessFactory;
+    private final ContextService contextService;
+    private final long[] conglomIds;
+    private final Thread[] workers;
+
+    /** Index of the next conglomerate to purge. */
+    private int next;
+
+    /** The first error a worker ran into, if any. */
+    private Throwable error;
+
+    /**
+     * Create the threads which purge the conglomerates.
+     *
+     * @param accessFactory the access factory to start the transactions of
+     * the threads with
+     * @param contextService the context service used to give each thread
+     * its own context manager
+     * @param monitor the monitor used to create the threads
+     * @param conglomIds the conglomerates to purge
+     * @param threads the number of threads
+     */
+    ParallelPurge(AccessFactory accessFactory, ContextService contextService,
+                  ModuleFactory monitor, long[] conglomIds, int threads) {
+        this.accessFactory = accessFactory;
+        this.contextService = contextService;
+        this.conglomIds = conglomIds;
+
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = monitor.getDaemonThread(new Runnable() {
+                public void run() {
+                    runWithContext();
+                }
+            }, "derby.inplaceCompress-" + i, false);
+        }
+    }
+
+    /**
+     * Purge the conglomerates, and wait for it to be done.
+     *
+     * @exception StandardException the first error a thread ran into
+     */
+    void run() throws StandardException {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].start();
+        }
+
+        for (int i = 0; i < workers.length; i++) {
+            while (workers[i].isAlive()) {
+                try {
+                    workers[i].join();
+                } catch (InterruptedException ie) {
+                    InterruptStatus.setInterrupted();
+                }
+            }
+        }
+
+        if (error instanceof StandardException) {
+            throw (StandardException) error;
+        } else if (error != null) {
+            throw StandardException.plainWrapException(error);
+        }
+    }
+
+    /**
+     * Get the next conglomerate to purge.
+     *
+     * @return the index of the conglomerate, or -1 if there is nothing left
+     * to do
+     */
+    private synchronized int nextConglomerate() {
+        if (error != null || next == conglomIds.length) {
+            return -1;
+        }
+        return next++;
+    }
+
+    private synchronized void setError(Throwable t) {
+        if (error == null) {
+            error = t;
+        }
+    }
+
+    /**
+     * Set up a context manager for the current thread and purge
+     * conglomerates until there are none left.
+     */
+    private void runWithContext() {
+        ContextManager cm = contextService.newContextManager();
+        contextService.setCurrentContextManager(cm);
+        TransactionController tc = null;
+        try {
+            tc = accessFactory.getAndNameTransaction(
+                    cm, AccessFactoryGlobals.USER_TRANS_NAME);
+
+            for (int i; (i = nextConglomerate()) != -1; ) {
+                tc.purgeConglomerate(conglomIds[i]);
+                tc.commitNoSync(TransactionController.RELEASE_LOCKS);
+            }
+        } catch (Throwable t) {
+            setError(t);
+            if (tc != null) {
+                try {
+                    tc.abort();
+                } catch (StandardException se) {
+                    // the first error is the one to report
+                }
+            }
+        } finally {
+            if (tc != null) {
+                tc.destroy();
+            }
+            contextService.resetCurrentContextManager(cm);
+        }
+    }
+}
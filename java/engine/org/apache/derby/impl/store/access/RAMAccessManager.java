@@ -666,6 +666,23 @@ public abstract class RAMAccessManager
 		return rawstore.getLockFactory();
 	}
 
+    /**
+     * Purge committed deleted rows from conglomerates on several threads,
+     * each with a transaction of its own.
+     *
+     * @param conglomIds    the conglomerates to purge
+     * @param threads       the number of threads to use
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+    void purgeConglomerates(long[] conglomIds, int threads)
+        throws StandardException
+    {
+        new ParallelPurge(
+            this, getContextService(), getMonitor(),
+            conglomIds, threads).run();
+    }
+
 
     public TransactionController getTransaction(
     ContextManager cm)
@@ -968,6 +985,18 @@ public abstract class RAMAccessManager
 		rawstore.backup(backupDir, wait);
 	}
 
+    public void backupIncremental(
+    String  backupDir, 
+    String  baseBackupDir,
+    boolean wait) 
+        throws StandardException
+	{
+        // make sure that application code doesn't bypass security checks
+        // by calling this public entry point
+        SecurityUtil.authorize( Securable.BACKUP_DATABASE_INCREMENTAL );
+		rawstore.backupIncremental(backupDir, baseBackupDir, wait);
+	}
+
 
     public void backupAndEnableLogArchiveMode(
     String  backupDir, 
@@ -26,11 +26,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Properties;
 
+import org.apache.derby.iapi.reference.Property;
 import org.apache.derby.iapi.reference.SQLState;
 
 import org.apache.derby.iapi.services.context.ContextManager;
 
 import org.apache.derby.iapi.services.io.Storable;
+import org.apache.derby.iapi.services.property.PropertyUtil;
 
 import org.apache.derby.iapi.services.daemon.Serviceable;
 import org.apache.derby.iapi.services.locks.CompatibilitySpace;
@@ -1434,6 +1436,35 @@ public class RAMTransaction
 		return;
     }
 
+    /**
+     * Purge all committed deleted rows from several conglomerates.
+     * <p>
+     * @see TransactionController#purgeConglomerates
+     *
+     * @param conglomIds Ids of the conglomerates to purge.
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+    public void purgeConglomerates(
+    long[]  conglomIds)
+        throws StandardException
+    {
+        int threads = 
+            PropertyUtil.getServiceInt(
+                this, Property.INPLACE_COMPRESS_THREADS, 1, 64, 1);
+
+        if (threads > 1 && conglomIds.length > 1)
+        {
+            accessmanager.purgeConglomerates(
+                conglomIds, Math.min(threads, conglomIds.length));
+        }
+        else
+        {
+            for (int i = 0; i < conglomIds.length; i++)
+                purgeConglomerate(conglomIds[i]);
+        }
+    }
+
     /**
      * Return free space from the conglomerate back to the OS.
      * <p>
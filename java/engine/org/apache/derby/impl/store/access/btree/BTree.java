@@ -36,15 +36,19 @@ import org.apache.derby.iapi.store.access.ConglomerateController;
 import org.apache.derby.iapi.store.access.DynamicCompiledOpenConglomInfo;
 import org.apache.derby.iapi.store.access.RowLocationRetRowSource;
 import org.apache.derby.iapi.store.access.StaticCompiledOpenConglomInfo;
+import org.apache.derby.iapi.store.access.TransactionController;
+import org.apache.derby.iapi.store.access.conglomerate.LogicalUndo;
 
 import org.apache.derby.iapi.store.raw.LockingPolicy;
 import org.apache.derby.iapi.store.raw.RawStoreFactory;
 import org.apache.derby.iapi.store.raw.ContainerHandle;
 import org.apache.derby.iapi.store.raw.Transaction;
 import org.apache.derby.iapi.store.raw.ContainerKey;
+import org.apache.derby.iapi.store.raw.Page;
 
 import org.apache.derby.iapi.types.DataValueDescriptor;
 
+import org.apache.derby.impl.store.access.conglomerate.CompressProgress;
 import org.apache.derby.impl.store.access.conglomerate.ConglomerateUtil;
 import org.apache.derby.impl.store.access.conglomerate.GenericConglomerate;
 import org.apache.derby.impl.store.access.conglomerate.OpenConglomerateScratchSpace;
@@ -571,6 +575,141 @@ public abstract class BTree extends GenericConglomerate
         return(this.id.getContainerId());
     }
 
+    /**
+     * Purge committed deleted rows from the leaf pages of the btree.
+     * <p>
+     * Visits every page of the btree in page number order, and purges the
+     * deleted rows of the leaf pages whose base table row can be locked,
+     * just like the row level post commit work does for a single page.
+     * The work is done in a nested user transaction which is committed
+     * after every page rows were purged from, so that the latch on the
+     * page is held until its purges are committed, and no longer.
+     * <p>
+     * The btree is not shrunk, leaf pages left empty stay in the tree until
+     * a split or the post commit work reclaims them.
+     *
+     * @param xact_manager  The transaction to nest the purge in, which must
+     *                      not hold conflicting locks on the base table.
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+    protected void purgeCommittedDeletes(
+    TransactionManager  xact_manager)
+        throws StandardException
+    {
+        TransactionManager  nested_xact = null;
+        OpenBTree           open_btree  = null;
+        CompressProgress    progress    = null;
+
+        try
+        {
+            nested_xact = (TransactionManager)
+                xact_manager.startNestedUserTransaction(false, true);
+
+            long pageno = ContainerHandle.INVALID_PAGE_NUMBER;
+
+            while (true)
+            {
+                if (open_btree == null)
+                    open_btree = openForPurge(nested_xact);
+
+                if (progress == null)
+                {
+                    progress =
+                        CompressProgress.start(
+                            xact_manager, getContainerid(),
+                            CompressProgress.PURGE,
+                            open_btree.getContainer().getEstimatedPageCount(0));
+                }
+
+                Page page =
+                    (pageno == ContainerHandle.INVALID_PAGE_NUMBER) ?
+                        open_btree.getContainer().getFirstPage() :
+                        open_btree.getContainer().getNextPage(pageno);
+
+                if (page == null)
+                    break;
+
+                pageno = page.getPageNumber();
+
+                ControlRow control_row =
+                    ControlRow.getControlRowForPage(
+                        open_btree.getContainer(), page);
+
+                if (control_row instanceof LeafControlRow &&
+                    BTreePostCommit.purgeRowLevelCommittedDeletes(
+                        open_btree, (LeafControlRow) control_row))
+                {
+                    // the commit releases the latch, which has to be held
+                    // until then to make sure the purges can be undone.
+                    open_btree.close();
+                    open_btree = null;
+                    nested_xact.commitNoSync(
+                        TransactionController.RELEASE_LOCKS);
+                }
+                else
+                {
+                    page.unlatch();
+                }
+
+                progress.pageDone();
+            }
+        }
+        finally
+        {
+            if (progress != null)
+                progress.finish();
+            if (open_btree != null)
+                open_btree.close();
+            if (nested_xact != null)
+            {
+                nested_xact.commitNoSync(TransactionController.RELEASE_LOCKS);
+                nested_xact.destroy();
+            }
+        }
+    }
+
+    /**
+     * Open the btree for a row level purge, with an intended exclusive lock
+     * on the base table.
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+    private OpenBTree openForPurge(
+    TransactionManager  xact_manager)
+        throws StandardException
+    {
+        OpenBTree open_btree = new OpenBTree();
+
+        ConglomerateController base_cc =
+            lockTable(
+                xact_manager,
+                ContainerHandle.MODE_FORUPDATE,
+                TransactionController.MODE_RECORD,
+                TransactionController.ISOLATION_REPEATABLE_READ);
+
+        open_btree.init(
+            (TransactionManager) null,
+            xact_manager,
+            (ContainerHandle) null,           // open the container
+            xact_manager.getRawStoreXact(),
+            false,
+            ContainerHandle.MODE_FORUPDATE,
+            TransactionController.MODE_RECORD,
+            getBtreeLockingPolicy(
+                xact_manager.getRawStoreXact(),
+                TransactionController.MODE_RECORD,
+                LockingPolicy.MODE_RECORD,
+                TransactionController.ISOLATION_REPEATABLE_READ,
+                base_cc,
+                open_btree),
+            this,
+            (LogicalUndo) null,              // No logical undo necessry.
+            (DynamicCompiledOpenConglomInfo) null);
+
+        return(open_btree);
+    }
+
     /**
      * Return dynamic information about the conglomerate to be dynamically 
      * reused in repeated execution of a statement.
@@ -477,6 +477,36 @@ class BTreePostCommit implements Serviceable
         if (leaf == null)
             return;
 
+        purgeRowLevelCommittedDeletes(open_btree, leaf);
+
+        // need to maintain latch on leaf until xact is committed.  The
+        // commit will clear the latch as part of releasing all 
+        // locks/latches associated with a transaction.
+    }
+
+    /**
+     * Purge the committed deleted rows from a latched leaf page with row
+     * locking.
+     * <p>
+     * Does the work of purgeRowLevelCommittedDeletes(OpenBTree) for a leaf
+     * the caller already has latched.  If any row was purged, the latch
+     * must be kept until the transaction is committed.
+     *
+     * @param open_btree The already open btree, which has been locked with IX
+     *                   table lock.
+     * @param leaf       The latched leaf page.
+     *
+     * @return true if any row was purged
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+    static boolean purgeRowLevelCommittedDeletes(
+    OpenBTree           open_btree,
+    LeafControlRow      leaf)
+        throws StandardException
+    {
+        boolean purged = false;
+
         BTreeLockingPolicy  btree_locking_policy = 
             open_btree.getLockingPolicy();
 
@@ -521,16 +551,13 @@ class BTreePostCommit implements Serviceable
                         // because the row they are positioned on may have
                         // disappeared.
                         page.setRepositionNeeded();
+                        purged = true;
                     }
                 }
             }
 
         }
 
-        // need to maintain latch on leaf until xact is committed.  The
-        // commit will clear the latch as part of releasing all 
-        // locks/latches associated with a transaction.
-
-        return;
+        return(purged);
     }
 }
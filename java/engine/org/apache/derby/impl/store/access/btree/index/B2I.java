@@ -908,9 +908,9 @@ public class B2I extends BTree
     Transaction                     rawtran)
         throws StandardException
     {
-        // currently on work to do in btree's for purge rows, purging
-        // happens best when split is about to happen.
-        return;
+        // purging also happens when a split is about to happen, and by
+        // post commit work queued by deletes which empty a page.
+        purgeCommittedDeletes(xact_manager);
     }
 
 	public void compressConglomerate(
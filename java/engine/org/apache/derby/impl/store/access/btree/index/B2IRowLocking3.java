@@ -663,12 +663,21 @@ class B2IRowLocking3 implements BTreeLockingPolicy
         leaf.getPage().fetchFromSlot(
             (RecordHandle) null, slot_no, template, lock_fetch_desc, true);
 
-        // Request the lock NOWAIT, return status
-        return(
-            base_cc.lockRow(row_loc, 
-                ConglomerateController.LOCK_UPD,
-                false /* NOWAIT */, 
-                TransactionManager.LOCK_COMMIT_DURATION));
+        // Request the lock NOWAIT, return status.  A purge run in a nested
+        // transaction gets a self deadlock rather than a timeout if the
+        // parent holds the lock, which just means the row is not committed.
+        try {
+            return(
+                base_cc.lockRow(row_loc, 
+                    ConglomerateController.LOCK_UPD,
+                    false /* NOWAIT */, 
+                    TransactionManager.LOCK_COMMIT_DURATION));
+        }
+        catch (StandardException se)
+        {
+            if ( se.isSelfDeadlock() ) { return false; }
+            else { throw se; }
+        }
     }
 
     /**
@@ -0,0 +1,233 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.access.conglomerate.CompressProgress
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.access.conglomerate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.reference.Property;
+import org.apache.derby.iapi.services.property.PropertyUtil;
+import org.apache.derby.iapi.store.access.AccessFactory;
+import org.apache.derby.iapi.store.access.TransactionController;
+import org.apache.derby.iapi.util.InterruptStatus;
+
+/**
+ * The progress of one pass of an in place compress over one conglomerate.
+ * <p>
+ * The conglomerate implementations create one of these when they start a
+ * purge or defragment pass, tell it about every page they are done with,
+ * and finish it when the pass is over.  While the pass runs, it shows up in
+ * the SYSCS_DIAG.COMPRESS_PROGRESS virtual table.
+ * <p>
+ * pageDone() also holds the pass to derby.storage.inplaceCompressRate
+ * pages per second.  The rate is a budget for the whole database, so each
+ * of the passes running at the same time gets an equal share of it.
+ * <p>
+ * MT - the pass itself is run by a single thread, the counters may be read
+ * by any thread.
+ **/
+public final class CompressProgress
+{
+    /** Name of the phase which purges committed deleted rows. */
+    public static final String PURGE = "PURGE";
+
+    /** Name of the phase which moves rows towards the front of a table. */
+    public static final String DEFRAGMENT = "DEFRAGMENT";
+
+    /** The passes in progress, in all databases. */
+    private static final List<CompressProgress> active =
+        new ArrayList<CompressProgress>();
+
+    private final AccessFactory owner;
+    private final long          conglomId;
+    private final String        phase;
+    private final long          estimatedPages;
+    private final long          startTime;
+    private final int           rate;
+
+    private volatile long       pagesDone;
+
+    /** When the last page was due, in nanoseconds. */
+    private long                lastDue;
+
+    private CompressProgress(
+    AccessFactory   owner,
+    long            conglomId,
+    String          phase,
+    long            estimatedPages,
+    int             rate)
+    {
+        this.owner          = owner;
+        this.conglomId      = conglomId;
+        this.phase          = phase;
+        this.estimatedPages = estimatedPages;
+        this.rate           = rate;
+        this.startTime      = System.currentTimeMillis();
+        this.lastDue        = System.nanoTime();
+    }
+
+    /**
+     * Start tracking a pass over a conglomerate.
+     *
+     * @param tc             the transaction to read the rate property with
+     * @param conglomId      the conglomerate
+     * @param phase          PURGE or DEFRAGMENT
+     * @param estimatedPages the estimated number of pages of the
+     *                       conglomerate
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+    public static CompressProgress start(
+    TransactionController   tc,
+    long                    conglomId,
+    String                  phase,
+    long                    estimatedPages)
+        throws StandardException
+    {
+        int rate =
+            PropertyUtil.getServiceInt(
+                tc, Property.INPLACE_COMPRESS_RATE, 0, Integer.MAX_VALUE, 0);
+
+        CompressProgress progress =
+            new CompressProgress(
+                tc.getAccessManager(), conglomId, phase, estimatedPages, rate);
+
+        synchronized (active)
+        {
+            active.add(progress);
+        }
+
+        return(progress);
+    }
+
+    /**
+     * Stop tracking the pass.
+     **/
+    public void finish()
+    {
+        synchronized (active)
+        {
+            active.remove(this);
+        }
+    }
+
+    /**
+     * Count a page as done, and wait if the pass is ahead of its share of
+     * the rate.
+     **/
+    public void pageDone()
+    {
+        pagesDone++;
+
+        if (rate <= 0)
+            return;
+
+        int passes;
+        synchronized (active)
+        {
+            passes = 0;
+            for (CompressProgress p : active)
+            {
+                if (p.owner == owner)
+                    passes++;
+            }
+        }
+
+        // Don't save up time while the pass was slower than its share, or
+        // it would make up for it with a burst.
+        long now = System.nanoTime();
+        long due =
+            Math.max(lastDue + Math.max(passes, 1) * 1000000000L / rate, now);
+        lastDue = due;
+
+        long wait;
+        while ((wait = (due - System.nanoTime()) / 1000000L) > 0)
+        {
+            try
+            {
+                Thread.sleep(Math.min(wait, 100L));
+            }
+            catch (InterruptedException ie)
+            {
+                InterruptStatus.setInterrupted();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the passes in progress in a database.
+     *
+     * @param owner the access factory of the database
+     **/
+    public static List<CompressProgress> getProgress(AccessFactory owner)
+    {
+        List<CompressProgress> list = new ArrayList<CompressProgress>();
+
+        synchronized (active)
+        {
+            for (CompressProgress p : active)
+            {
+                if (p.owner == owner)
+                    list.add(p);
+            }
+        }
+
+        return(list);
+    }
+
+    public long getConglomerateNumber()
+    {
+        return(conglomId);
+    }
+
+    public String getPhase()
+    {
+        return(phase);
+    }
+
+    public long getPagesDone()
+    {
+        return(pagesDone);
+    }
+
+    public long getEstimatedPages()
+    {
+        return(estimatedPages);
+    }
+
+    public long getStartTime()
+    {
+        return(startTime);
+    }
+
+    /**
+     * Get the rate limit of the whole database, in pages per second.
+     *
+     * @return the rate, 0 if there is no limit
+     **/
+    public int getRate()
+    {
+        return(rate);
+    }
+}
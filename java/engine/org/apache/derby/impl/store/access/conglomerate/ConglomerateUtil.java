@@ -67,6 +67,7 @@ public final class ConglomerateUtil
      *     derby.storage.minimumRecordSize
      *     derby.storage.pageReservedSpace
      *     derby.storage.pageSize 
+     *     derby.storage.pageCompression
 	 *     derby.storage.reusableRecordId
      *     
      * <p>
@@ -96,6 +97,8 @@ public final class ConglomerateUtil
      *     derby.storage.minimumRecordSize
      *     derby.storage.pageReservedSpace
      *     derby.storage.pageSize 
+     *     derby.storage.pageCompression
+     *     derby.storage.unlogged
      *     
      * <p>
      *
@@ -113,6 +116,8 @@ public final class ConglomerateUtil
         prop.put(RawStoreFactory.MINIMUM_RECORD_SIZE_PARAMETER, "");
         prop.put(RawStoreFactory.PAGE_RESERVED_SPACE_PARAMETER, "");
         prop.put(RawStoreFactory.CONTAINER_INITIAL_PAGES,       "");
+        prop.put(RawStoreFactory.PAGE_COMPRESSION_PARAMETER,    "");
+        prop.put(RawStoreFactory.UNLOGGED_PARAMETER,            "");
 
         return(prop);
     }
@@ -68,6 +68,7 @@ import org.apache.derby.iapi.types.StringDataValue;
 
 import org.apache.derby.iapi.services.cache.ClassSize;
 
+import org.apache.derby.impl.store.access.conglomerate.CompressProgress;
 import org.apache.derby.impl.store.access.conglomerate.ConglomerateUtil;
 import org.apache.derby.impl.store.access.conglomerate.GenericConglomerate;
 import org.apache.derby.impl.store.access.conglomerate.OpenConglomerate;
@@ -323,7 +324,9 @@ public class Heap
                 rawtran.openContainer(
                     id, (LockingPolicy) null, 
                     ContainerHandle.MODE_FORUPDATE | 
-                        (isTemporary() ? ContainerHandle.MODE_TEMP_IS_KEPT : 0));
+                        (isTemporary() ? 
+                            ContainerHandle.MODE_TEMP_IS_KEPT : 
+                            ContainerHandle.MODE_LOGGED));
 
             // row in slot 0 of heap page 1 which is just a single column with
             // the heap entry.
@@ -415,7 +418,9 @@ public class Heap
                         LockingPolicy.MODE_CONTAINER,
                         TransactionController.ISOLATION_SERIALIZABLE, true),
                     ContainerHandle.MODE_FORUPDATE | 
-                        (isTemporary() ? ContainerHandle.MODE_TEMP_IS_KEPT : 0));
+                        (isTemporary() ? 
+                            ContainerHandle.MODE_TEMP_IS_KEPT : 
+                            ContainerHandle.MODE_LOGGED));
 
             // DERBY-6774 - temp disabling this ASSERT while working on
             // why it is firing in trunk.   The hope is that trunk tests
@@ -890,6 +895,7 @@ public class Heap
         OpenConglomerate        open_for_ddl_lock   = null;
         HeapController          heapcontroller      = null;
         TransactionManager      nested_xact         = null;
+        CompressProgress        progress            = null;
 
         try
         {
@@ -956,6 +962,11 @@ public class Heap
 
             heapcontroller.init(open_conglom);
 
+            progress = 
+                CompressProgress.start(
+                    xact_manager, id.getContainerId(), CompressProgress.PURGE,
+                    open_conglom.getContainer().getEstimatedPageCount(0));
+
             Page page   = open_conglom.getContainer().getFirstPage();
 
             boolean purgingDone = false;
@@ -990,11 +1001,16 @@ public class Heap
                     page = null;
                 }
 
+                // the page is unlatched, so throttling holds up nobody else
+                progress.pageDone();
+
                 page = open_conglom.getContainer().getNextPage(pageno);
             }
         }
         finally
         {
+            if (progress != null)
+                progress.finish();
             if (open_for_ddl_lock != null)
                 open_for_ddl_lock.close();
             if (heapcontroller != null)
@@ -27,6 +27,7 @@ import org.apache.derby.iapi.error.StandardException;
 
 import org.apache.derby.iapi.store.access.SpaceInfo;
 
+import org.apache.derby.impl.store.access.conglomerate.CompressProgress;
 import org.apache.derby.impl.store.access.conglomerate.RowPosition;
 
 import org.apache.derby.iapi.store.raw.ContainerHandle;
@@ -54,6 +55,9 @@ class HeapCompressScan
      */
     private long pagenum_to_start_moving_rows = -1;
 
+    /** progress of the scan, and its throttle */
+    private CompressProgress progress;
+
 
 
     /**************************************************************************
@@ -86,6 +90,23 @@ class HeapCompressScan
                     row_array, old_rowloc_array, new_rowloc_array));
     }
 
+    /**
+     * Close the scan, and stop showing its progress.
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+    public void close()
+        throws StandardException
+	{
+        if (progress != null)
+        {
+            progress.finish();
+            progress = null;
+        }
+
+        super.close();
+    }
+
     /**
      * Fetch the next N rows from the table.
      * <p>
@@ -130,6 +151,16 @@ class HeapCompressScan
 
             pagenum_to_start_moving_rows = info.getNumAllocatedPages();
 
+            if (progress == null)
+            {
+                progress = 
+                    CompressProgress.start(
+                        open_conglom.getXactMgr(),
+                        open_conglom.getConglomerate().getContainerid(),
+                        CompressProgress.DEFRAGMENT,
+                        info.getNumAllocatedPages());
+            }
+
             positionAtStartForForwardScan(scan_position);
         }
         else if (getScanState() == SCAN_HOLD_INPROGRESS)
@@ -298,6 +329,8 @@ class HeapCompressScan
                 scan_position.unlatch();
             }
 
+            if (progress != null)
+                progress.pageDone();
 
             if (ret_row_count > 0)
             {
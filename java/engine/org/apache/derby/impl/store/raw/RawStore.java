@@ -76,6 +76,7 @@ import java.util.Date;
 import java.util.Properties;
 import java.io.Serializable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
@@ -152,6 +153,8 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
     private static final int COPY_STORAGE_FILE_TO_STORAGE_ACTION = 17;
     private static final int STORAGE_FILE_DELETE_ACTION = 18;
     private static final int README_FILE_OUTPUTSTREAM_WRITER_ACTION = 19;
+    private static final int REGULAR_FILE_SAVE_PROPERTIES_ACTION = 20;
+    private Properties actionProperties;
 
 	public RawStore() {
 	}
@@ -356,11 +359,20 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
             }
 		}
 
+		// Stopping the daemon waits for the work it is doing, and that may
+		// be a checkpoint which writes its pages at a limited rate. Make
+		// sure it doesn't keep the shutdown waiting.
+		if (dataFactory != null)
+			dataFactory.hurryCheckpoint();
+
 		if (rawStoreDaemon != null)
 			rawStoreDaemon.stop();
 
 		if (logFactory == null)
+		{
+			closeCipherEngines();
 			return;
+		}
 
 		try {
 
@@ -379,6 +391,21 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
 			// checkpoint failed, stop all factory from shutting down normally
 			markCorrupt(se);
 		}
+
+		closeCipherEngines();
+	}
+
+	/**
+		Let go of the Ciphers the encryption and decryption engines keep
+		for the threads which used them, once the last pages have been
+		written.
+	*/
+	private void closeCipherEngines()
+	{
+		if (encryptionEngine != null)
+			encryptionEngine.close();
+		if (decryptionEngine != null)
+			decryptionEngine.close();
 	}
 
 	/*
@@ -631,6 +658,36 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
      */
     public void backup(String backupDir, boolean wait) 
         throws StandardException 
+    {
+        backup(backupDir, null, wait);
+    }
+
+    /**
+     * Backup the pages of the database changed since an earlier backup to a
+     * backup directory.
+     *
+     * @param backupDir the name of the directory where the backup should be
+     *                  stored. This directory will be created if it 
+     *                  does not exist.
+     * @param baseBackupDir the backup copy of this database the increment
+     *                  is taken on top of.
+     * @param wait if <tt>true</tt>, waits for  all the backup blocking 
+     *             operations in progress to finish.
+     * @exception StandardException thrown on error
+     */
+    public void backupIncremental(String backupDir, String baseBackupDir,
+                                  boolean wait)
+        throws StandardException
+    {
+        backup(backupDir, baseBackupDir == null ? "" : baseBackupDir, wait);
+    }
+
+    /**
+     * Backup the database, or the pages of it changed since baseBackupDir
+     * if that is not null, to a backup directory.
+     */
+    private void backup(String backupDir, String baseBackupDir, boolean wait)
+        throws StandardException
     {
 		if (backupDir == null || backupDir.equals(""))
         {
@@ -638,15 +695,17 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
                 SQLState.RAWSTORE_CANNOT_CREATE_BACKUP_DIRECTORY, (File)null);
         }
 
-		// in case this is an URL form
-		String backupDirURL = null;
-		try {
-			URL url = new URL(backupDir);
-			backupDirURL = url.getFile();
-		} catch (MalformedURLException ex) {}
+        if (baseBackupDir != null && baseBackupDir.equals(""))
+        {
+            throw StandardException.newException(
+                SQLState.BACKUP_BASE_NOT_USABLE, (File)null);
+        }
 
-		if (backupDirURL != null)
-			backupDir = backupDirURL;
+		// in case this is an URL form
+        backupDir = fileOfURL(backupDir);
+        File baseBackup = null;
+        if (baseBackupDir != null)
+            baseBackup = new File(fileOfURL(baseBackupDir));
 
 
 		// find the user transaction, it is necessary for online backup 
@@ -679,7 +738,7 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
             }
 
             // perform backup
-            backup(t, new File(backupDir));
+            backup(t, new File(backupDir), baseBackup);
         }finally {
             // let the xactfatory know that backup is done, so that
             // it can allow backup blocking operations. 
@@ -703,6 +762,19 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
 	public synchronized void backup(Transaction t, File backupDir) 
         throws StandardException
 	{
+        backup(t, backupDir, null);
+    }
+
+    /**
+     * Backup the database. If baseBackup is not null it is an earlier backup
+     * copy of this database, and only the pages changed since it was taken
+     * are copied into the INCREMENT_SEGMENT_NAME directory of the backup in
+     * place of seg0. Restore applies such an increment on top of its base.
+     */
+    private synchronized void backup(Transaction t, File backupDir,
+                                     File baseBackup)
+        throws StandardException
+    {
         if (!privExists(backupDir))
 		{
             // if backup dir does not exist, go ahead and create it.
@@ -743,6 +815,36 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
         StorageFile dbHistoryFile = null;
         File backupHistoryFile = null;
 		LogInstant backupInstant = logFactory.getFirstUnflushedInstant();
+
+        // an increment can only be taken on top of a backup which recorded
+        // its page versions, and not on top of the copy it is replacing.
+        File baseVersions = null;
+        String basePath = null;
+        if (baseBackup != null)
+        {
+            baseVersions =
+                new File(baseBackup, DataFactory.PAGE_VERSIONS_DIRECTORY);
+            File target;
+            try
+            {
+                target = new File(backupDir, StringUtil.shortDBName(
+                    storageFactory.getCanonicalName(),
+                    storageFactory.getSeparator()));
+            }
+            catch (IOException ioe)
+            {
+                throw StandardException.newException(
+                    SQLState.RAWSTORE_UNEXPECTED_EXCEPTION, ioe);
+            }
+
+            basePath = privGetCanonicalPath(baseBackup);
+            if (!privIsDirectory(baseVersions) || basePath == null ||
+                basePath.equals(privGetCanonicalPath(target)))
+            {
+                throw StandardException.newException(
+                    SQLState.BACKUP_BASE_NOT_USABLE, baseBackup);
+            }
+        }
         
 		try
 		{
@@ -973,13 +1075,31 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
 			// start the transaction log  backup. 
             logFactory.startLogBackup(logBackup);
 
-			File segBackup = new File(backupcopy, "seg0");
+			File segBackup = new File(backupcopy,
+                baseBackup == null ?
+                "seg0" : DataFactory.INCREMENT_SEGMENT_NAME);
 			
 			// Create the data segment directory
             createBackupDirectory(segBackup);
 
+            File versionBackup =
+                new File(backupcopy, DataFactory.PAGE_VERSIONS_DIRECTORY);
+            createBackupDirectory(versionBackup);
+
+            // record which backup the increment has to be applied to.
+            if (baseBackup != null)
+            {
+                Properties increment = new Properties();
+                increment.setProperty(DataFactory.INCREMENT_BASE_PROPERTY,
+                                      basePath);
+                privSaveProperties(
+                    new File(backupcopy, DataFactory.INCREMENT_BASE_FILE),
+                    increment);
+            }
+
 			// backup all the information in the data segment.
-			dataFactory.backupDataFiles(t, segBackup);
+			dataFactory.backupDataFiles(
+                t, segBackup, versionBackup, baseVersions);
 
             logHistory(historyFile,
                    MessageService.getTextMessage(
@@ -1073,6 +1193,17 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
 
 	}
 
+    /**
+     * Return the file part of a path given in URL form, or the path itself.
+     */
+    private static String fileOfURL(String path) {
+        try {
+            return new URL(path).getFile();
+        } catch (MalformedURLException ex) {
+            return path;
+        }
+    }
+
     /**
      * Create a directory for backup.
      *
@@ -2469,6 +2600,27 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
     }
 
 
+    private synchronized void privSaveProperties(File file, Properties props)
+        throws IOException
+    {
+        actionCode = REGULAR_FILE_SAVE_PROPERTIES_ACTION;
+        actionRegularFile = file;
+        actionProperties = props;
+
+        try
+        {
+            AccessController.doPrivileged( this);
+        }
+        catch (PrivilegedActionException pae) {
+            throw (IOException) pae.getCause();
+        }
+        finally
+        {
+            actionRegularFile = null;
+            actionProperties = null;
+        }
+    }
+
     private synchronized boolean privIsDirectory( File file)
     {
         actionCode = REGULAR_FILE_IS_DIRECTORY_ACTION;
@@ -2792,6 +2944,23 @@ public final class RawStore implements RawStoreFactory, ModuleControl, ModuleSup
             return (String)(actionStorageFile.getCanonicalPath());
         case README_FILE_OUTPUTSTREAM_WRITER_ACTION:
         	return(new OutputStreamWriter(actionStorageFile.getOutputStream(),"UTF8"));
+
+        case REGULAR_FILE_SAVE_PROPERTIES_ACTION:
+        {
+            // SECURITY PERMISSION - OP4
+            FileOutputStream out = new FileOutputStream(actionRegularFile);
+            try
+            {
+                actionProperties.store(out, null);
+                out.getFD().sync();
+            }
+            finally
+            {
+                out.close();
+            }
+            FileUtil.limitAccessToOwner(actionRegularFile);
+            return null;
+        }
         }
         return null;
     } // end of run
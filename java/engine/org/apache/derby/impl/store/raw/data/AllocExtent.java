@@ -77,7 +77,9 @@ import java.io.ObjectInput;
                         when a logical page has exhausted all recordId or for
                         logical pages that has been shrunk out.
 		preAllocLength(int)  the number of pages that have been preallocated
-		reserved1(int)
+		reserved1(int)	PARTLY_FILLED_PAGE_MAP if a partlyFilledPages bitmap
+				follows unFilledPages, 0 otherwise.  Versions which do not
+				know about that bitmap write 0 and leave it out.
 		reserved2(long)	reserved for future use
 		reserved3(long)	reserved for future use
 		FreePages(bit)	bitmap of free pages
@@ -89,6 +91,11 @@ import java.io.ObjectInput;
 		]
 		unFilledPages(bit)	bitmap of pages that has free space
 				Bit[i] is ON if page i is likely to be < 1/2 full
+		[
+		    if reserved1 == PARTLY_FILLED_PAGE_MAP
+				partlyFilledPages(bit) bitmap of pages that has some free space
+				Bit[i] is ON if page i is likely to be >= 1/2 and < 3/4 full
+		]
 
 		org.apache.derby.iapi.services.io.FormatableBitSet is used to store the bit map.  
             FormatableBitSet is an externalizable class.
@@ -144,6 +151,9 @@ public class AllocExtent implements Externalizable
 	private static final int NO_DEALLOC_PAGE_MAP = 0x20000000;
 	private static final int RETIRED = 0x8;
 
+	// value of reserved1 if the partly filled page map is kept on disk
+	private static final int PARTLY_FILLED_PAGE_MAP = 1;
+
 	/**
 		public Per Page status
 	*/
@@ -151,11 +161,21 @@ public class AllocExtent implements Externalizable
 	protected static final int DEALLOCATED_PAGE = 1;
 	protected static final int FREE_PAGE = 2;
 
+	/**
+		Free space classes of an allocated head page.  unFilledPages and
+		partlyFilledPages bucket the pages by these, and together they
+		make up the persistent part of the free space map of the container.
+	*/
+	protected static final int PAGE_FILLED = 0;
+	protected static final int PAGE_PARTLY_FILLED = 1;
+	protected static final int PAGE_UNFILLED = 2;
+
 
 	// a page which is not a freePage is a regular old
 	// allocated page.  Only an allocated page can be unFilled.
 	FormatableBitSet freePages;
 	FormatableBitSet unFilledPages;
+	FormatableBitSet partlyFilledPages;
 
 	/**
 		Statically calculates how many pages this extent can manage given the
@@ -228,6 +248,7 @@ public class AllocExtent implements Externalizable
 
 		freePages = new FormatableBitSet(numbits);
 		unFilledPages = new FormatableBitSet(numbits);
+		partlyFilledPages = new FormatableBitSet(numbits);
 
 		// by definition, all pages are free to begin with, no pages are
 		// deallocated and no page is unfilled
@@ -249,6 +270,7 @@ public class AllocExtent implements Externalizable
 
 		freePages = new FormatableBitSet(original.freePages);
 		unFilledPages = new FormatableBitSet(original.unFilledPages);
+		partlyFilledPages = new FormatableBitSet(original.partlyFilledPages);
 	}
 
 
@@ -262,6 +284,28 @@ public class AllocExtent implements Externalizable
 
 	public void writeExternal(ObjectOutput out) throws IOException
 	{
+		writeExternal(out, Integer.MAX_VALUE);
+	}
+
+	/**
+		Write the extent out, leaving out the partly filled page map if
+		the extent would not fit into availspace with it.  The bit maps
+		only take a third of the space each that MAX_RANGE set aside for
+		them, but alloc pages of containers created before DERBY-3116
+		may have been given a bigger range than their space allows.
+
+		@param availspace the space the extent may take
+		@exception IOException error writing the extent
+	*/
+	protected void writeExternal(ObjectOutput out, int availspace)
+		 throws IOException
+	{
+		// 56 bytes of bookkeeping as counted by MAX_RANGE, and the bits
+		// and the length of each bit map
+		boolean writePartlyFilledPages =
+			(56 + 12 + freePages.getLengthInBytes() +
+			 unFilledPages.getLengthInBytes() +
+			 partlyFilledPages.getLengthInBytes()) <= availspace;
 
 		// any change to this routine must change maxRange
 		out.writeLong(extentOffset);
@@ -270,12 +314,14 @@ public class AllocExtent implements Externalizable
 		out.writeInt(extentLength);
 		out.writeInt(extentStatus);
 		out.writeInt(preAllocLength);
-		out.writeInt(0);		// reserved1
+		out.writeInt(writePartlyFilledPages ? PARTLY_FILLED_PAGE_MAP : 0);
 		out.writeLong(0);		// reserved2
 		out.writeLong(0);		// reserved3
 
 		freePages.writeExternal(out);
 		unFilledPages.writeExternal(out);
+		if (writePartlyFilledPages)
+			partlyFilledPages.writeExternal(out);
 	}
 
 	public void readExternal(ObjectInput in)
@@ -316,6 +362,17 @@ public class AllocExtent implements Externalizable
 			unFilledPages = new FormatableBitSet(freePages.getLength());
 			extentStatus |= KEEP_UNFILLED_PAGES; // now we keep track of them
 		}
+
+		if (reserved1 == PARTLY_FILLED_PAGE_MAP)
+		{
+			partlyFilledPages = new FormatableBitSet();
+			partlyFilledPages.readExternal(in);
+		}
+		else					// written without the partly filled page map
+		{
+			partlyFilledPages =
+				new FormatableBitSet(unFilledPages.getLength());
+		}
 		
 	}
 
@@ -383,6 +440,7 @@ public class AllocExtent implements Externalizable
 
 			freePages.grow(numbits);
 			unFilledPages.grow(numbits);
+			partlyFilledPages.grow(numbits);
 		}
 
 		// the first page to be allocated has pagenum == extentStart.
@@ -420,6 +478,7 @@ public class AllocExtent implements Externalizable
 
 		freePages.set(bitnum);
 		unFilledPages.clear(bitnum); // deallocated page is never unfilled
+		partlyFilledPages.clear(bitnum);
 
 		setExtentFreePageStatus(true);
 	}
@@ -578,6 +637,7 @@ public class AllocExtent implements Externalizable
         {
             freePages.shrink(new_highest_page + 1);
             unFilledPages.shrink(new_highest_page + 1);
+            partlyFilledPages.shrink(new_highest_page + 1);
 
             // This routine assumes the caller
             // will be doing the truncate, and just updates the data structures.
@@ -611,6 +671,7 @@ public class AllocExtent implements Externalizable
         {
             freePages.shrink(new_highest_page + 1);
             unFilledPages.shrink(new_highest_page + 1);
+            partlyFilledPages.shrink(new_highest_page + 1);
             preAllocLength = extentLength = (new_highest_page + 1);
         }
 
@@ -804,6 +865,28 @@ public class AllocExtent implements Externalizable
 	}
 
 
+	/**
+		Take over the free space bit maps of the copy of this extent that
+		the allocation cache kept when the alloc page was thrown out of the
+		page cache.  Both extents share the bit maps afterwards, so later
+		changes made through the cache show up here too.
+
+		@return false if the copy does not describe the same pages
+	 */
+	protected boolean shareFreeSpaceInfo(AllocExtent cachedExtent)
+	{
+		if (cachedExtent == null ||
+			cachedExtent.extentStart != extentStart ||
+			cachedExtent.unFilledPages.getLength() !=
+				unFilledPages.getLength())
+			return false;
+
+		unFilledPages = cachedExtent.unFilledPages;
+		partlyFilledPages = cachedExtent.partlyFilledPages;
+		extentStatus |= HAS_UNFILLED_PAGES;
+		return true;
+	}
+
 	/*
 	  Get the logical page number that is bigger than prevPageNumber
 	  and is a valid page.  If no such page in this extent, return
@@ -881,6 +964,7 @@ public class AllocExtent implements Externalizable
 		//		unFilledPages = new FormatableBitSet(inputExtent.unFilledPages);
 		// Right now, just reference it directly
 		unFilledPages = inputExtent.unFilledPages;
+		partlyFilledPages = inputExtent.partlyFilledPages;
 
 		if (unFilledPages.anySetBit() >= 0)
 			extentStatus |= HAS_UNFILLED_PAGES;
@@ -889,16 +973,18 @@ public class AllocExtent implements Externalizable
 	}
 
 	/*
-		Keep track of unfilled pages, if the extent changed, returns true.
+		Keep track of the free space class of a page, if the extent changed,
+		returns true.
 	 */
-	protected boolean trackUnfilledPage(long pagenumber, boolean unfilled)
+	protected boolean trackPageSpace(long pagenumber, int spaceClass)
 	{
 		checkInRange(pagenumber);
 
 		int bitnum = (int)(pagenumber-extentStart);
+		boolean changed = false;
 
-		boolean bitSet = unFilledPages.isSet(bitnum);
-		if (unfilled != bitSet)
+		boolean unfilled = (spaceClass == PAGE_UNFILLED);
+		if (unfilled != unFilledPages.isSet(bitnum))
 		{
 			if (unfilled)
 			{
@@ -907,10 +993,66 @@ public class AllocExtent implements Externalizable
 			}
 			else
 				unFilledPages.clear(bitnum);
-			return true;
+			changed = true;
 		}
 
-		return false;
+		boolean partlyFilled = (spaceClass == PAGE_PARTLY_FILLED);
+		if (partlyFilled != partlyFilledPages.isSet(bitnum))
+		{
+			if (partlyFilled)
+				partlyFilledPages.set(bitnum);
+			else
+				partlyFilledPages.clear(bitnum);
+			changed = true;
+		}
+
+		return changed;
+	}
+
+	/**
+		Get the free space class of a page as tracked by this extent.
+		Pages outside the extent and free pages are PAGE_FILLED.
+	 */
+	protected int getPageSpaceClass(long pagenum)
+	{
+		if (pagenum < extentStart || pagenum >= extentStart+extentLength)
+			return PAGE_FILLED;
+
+		int bitnum = (int)(pagenum-extentStart);
+
+		if (bitnum < freePages.getLength() && freePages.isSet(bitnum))
+			return PAGE_FILLED;
+		if (bitnum < unFilledPages.getLength() && unFilledPages.isSet(bitnum))
+			return PAGE_UNFILLED;
+		if (bitnum < partlyFilledPages.getLength() &&
+			partlyFilledPages.isSet(bitnum))
+			return PAGE_PARTLY_FILLED;
+
+		return PAGE_FILLED;
+	}
+
+	/**
+		Add the pages of a free space class to a free space map, up to the
+		room the map has left for that class.
+
+		@return false if the map ran out of room
+	 */
+	protected boolean loadPageSpace(FreeSpaceMap map, int spaceClass)
+	{
+		FormatableBitSet bits = (spaceClass == PAGE_UNFILLED) ?
+			unFilledPages : partlyFilledPages;
+
+		for (int i = bits.anySetBit(); i != -1; i = bits.anySetBit(i))
+		{
+			if (i >= extentLength)
+				break;
+			if (i < freePages.getLength() && freePages.isSet(i))
+				continue;
+			if (!map.add(spaceClass, extentStart + i))
+				return false;
+		}
+
+		return true;
 	}
 
 	/**
@@ -947,6 +1089,27 @@ public class AllocExtent implements Externalizable
 
 	}
 
+	/**
+		Get the first unfilled page with a page number greater than pagenum.
+		Unlike getUnfilledPageNumber, repeated calls walk all the unfilled
+		pages of the extent in page number order.
+
+		@param pagenum the page to search beyond, or INVALID_PAGE_NUMBER
+		to get the first unfilled page of the extent
+		@return the page number, or INVALID_PAGE_NUMBER if there is none
+	 */
+	protected long getNextUnfilledPageNumber(long pagenum)
+	{
+		if ((extentStatus & HAS_UNFILLED_PAGES) == 0)
+			return ContainerHandle.INVALID_PAGE_NUMBER;
+
+		int i = (pagenum < extentStart) ?
+			unFilledPages.anySetBit() :
+			unFilledPages.anySetBit((int) (pagenum - extentStart));
+
+		return (i == -1) ? ContainerHandle.INVALID_PAGE_NUMBER : i + extentStart;
+	}
+
 	/**
 		Get the number of used page in this extent
 	 */
@@ -504,7 +504,7 @@ public class AllocPage extends StoredPage
 	{
 		// rawDataOut and logicalDataOut are defined by StoredPage
 		rawDataOut.setPosition(offset);
-		extent.writeExternal(logicalDataOut);
+		extent.writeExternal(logicalDataOut, getMaxFreeSpace());
 	}
 
 	/*
@@ -735,6 +735,31 @@ public class AllocPage extends StoredPage
 
 	}
 
+	/**
+		Mark the page dirty after the allocation cache changed the free
+		space bit maps of its extent, so that they are written out with the
+		page and outlive a restart.  The cache normally shares the extent
+		with this page, but it keeps its copy when the page is thrown out
+		of the page cache, so a page read in again takes over the bit maps
+		of the cached extent.
+		The bit maps are hints which are not logged, so no log record is
+		in flight and preDirty is left alone.  The page need not be latched,
+		a concurrent write at worst loses the hint.
+
+		@param cachedExtent the extent of this page in the allocation cache
+	 */
+	protected void setFreeSpaceDirty(AllocExtent cachedExtent)
+	{
+		synchronized (this)
+		{
+			if (cachedExtent != extent &&
+				!extent.shareFreeSpaceInfo(cachedExtent))
+				return;
+
+			isDirty = true;
+		}
+	}
+
 	public boolean canAddFreePage(long lastAllocatedPage)
 	{
 		if (SanityManager.DEBUG)
@@ -839,6 +864,19 @@ public class AllocPage extends StoredPage
 		return extent.getLastPreallocPagenum();
 	}
 
+	/*
+	 * record pages preallocated by the background preallocator, see
+	 * FileContainer#takeBackgroundPreallocation
+	 */
+	protected void setLastPreallocPagenum(long lastPreallocPagenum)
+	{
+		if (SanityManager.DEBUG)
+			SanityManager.ASSERT(isLatched());
+
+		// unlogged, like preAllocatePage
+		extent.setLastPreallocPagenum(lastPreallocPagenum);
+	}
+
 
 	protected int getPageStatus(long pageNumber)
 	{
@@ -36,6 +36,9 @@ import org.apache.derby.impl.store.raw.data.BaseContainerHandle;
 	<LI>hiRange[i] is the largest page number managed by extent i
 	</OL>
 	<P>
+	It also holds the in memory part of the free space map of the
+	container, see FreeSpaceMap.
+	<P>
 	Note thate extentPageNums and lowRange does not change once the extent has
 	been created, but hiRange will change for the last extent as more pages are
 	allocated.
@@ -58,6 +61,9 @@ class AllocationCache
 	private long[] extentPageNums;
 	private boolean isValid;
 
+	// candidate pages for insert, by free space class
+	private final FreeSpaceMap freeSpaceMap = new FreeSpaceMap();
+
 	protected AllocationCache()
 	{
 		numExtents = 0;
@@ -69,6 +75,7 @@ class AllocationCache
 	{
 		numExtents = 0;
 		isValid = false;
+		freeSpaceMap.clear();
 
 		if (lowRange != null)
 		{
@@ -124,15 +131,20 @@ class AllocationCache
 	}
 
 	/**
-	  Set the page number to be unfilled
+	  Set the free space class of a page, one of the AllocExtent PAGE_*
+	  space classes.  If the page enters a class with room for inserts, it
+	  becomes a candidate of the free space map.
+
+	  @return the page number of the alloc page whose extent changed, or
+	  INVALID_PAGE_NUMBER if nothing changed
 	 */
-	protected void trackUnfilledPage(long pagenumber, boolean unfilled)
+	protected long trackPageSpace(long pagenumber, int spaceClass)
 	{
 		// do not validate the alloc cache just for the purpose of updating the
 		// unfilled bit
 		if (!isValid ||  numExtents <= 0)
 		{
-			return;
+			return ContainerHandle.INVALID_PAGE_NUMBER;
 		}
 
 		// we are calling this without getting the allocCache semaphore - be
@@ -143,15 +155,39 @@ class AllocationCache
 			{
 				AllocExtent ext = extents[i];
 				if (ext != null &&
-					ext.trackUnfilledPage(pagenumber, unfilled) &&
-					extents[i] != null)
+					ext.trackPageSpace(pagenumber, spaceClass))
 				{
-					isDirty[i] = true;
+					if (extents[i] != null)
+						isDirty[i] = true;
+
+					if (spaceClass != AllocExtent.PAGE_FILLED)
+						freeSpaceMap.track(spaceClass, pagenumber);
+
+					return extentPageNums[i];
 				}
 					
 				break;
 			}
 		}
+
+		return ContainerHandle.INVALID_PAGE_NUMBER;
+	}
+
+	/**
+	  Get the cached extent of an alloc page.
+
+	  @return the extent, or null if it is not in the cache
+	 */
+	protected AllocExtent getExtent(long allocPagenum)
+	{
+		// called without the allocCache semaphore, extents[i] may go null
+		for (int i = 0; i < numExtents; i++)
+		{
+			if (extentPageNums[i] == allocPagenum)
+				return extents[i];
+		}
+
+		return null;
 	}
 
 	protected long getUnfilledPageNumber(BaseContainerHandle handle, 
@@ -188,6 +224,110 @@ class AllocationCache
 		return ContainerHandle.INVALID_PAGE_NUMBER;
 	}
 
+	/**
+		Get the first unfilled page after pagenum, searching the extents in
+		page number order.  Used to hand out distinct insert pages to
+		concurrent inserters.
+
+		@param pagenum the page to search beyond, or INVALID_PAGE_NUMBER to
+		get the first unfilled page of the container
+		@exception StandardException Standard Derby error policy
+	*/
+	protected long getNextUnfilledPageNumber(BaseContainerHandle handle, 
+											 long firstAllocPageNumber,
+											 long pagenum)
+		 throws StandardException
+	{
+		if (!isValid)
+		{
+			validate(handle, firstAllocPageNumber);
+		}
+
+		for (int i = 0; i < numExtents; i++)
+		{
+			if (pagenum < hiRange[i] && extents[i] != null)
+			{
+				long next = extents[i].getNextUnfilledPageNumber(pagenum);
+				if (next != ContainerHandle.INVALID_PAGE_NUMBER)
+					return next;
+			}
+		}
+
+		return ContainerHandle.INVALID_PAGE_NUMBER;
+	}
+
+	/**
+		Get a page with room for an insert from the free space map,
+		preferring unfilled pages over partly filled ones.
+
+		@param pagenum the page that was last rejected, it is not returned
+		@return the page number, or INVALID_PAGE_NUMBER if no page with free
+		space is known
+		@exception StandardException Standard Derby error policy
+	*/
+	protected long getFreeSpacePageNumber(BaseContainerHandle handle, 
+										  long firstAllocPageNumber,
+										  long pagenum)
+		 throws StandardException
+	{
+		if (!isValid)
+		{
+			validate(handle, firstAllocPageNumber);
+		}
+
+		for (int spaceClass = AllocExtent.PAGE_UNFILLED;
+			 spaceClass >= AllocExtent.PAGE_PARTLY_FILLED;
+			 spaceClass--)
+		{
+			if (freeSpaceMap.needsLoad(spaceClass))
+				loadFreeSpaceMap(spaceClass);
+
+			for (int pos = freeSpaceMap.getTop(spaceClass); pos >= 0; pos--)
+			{
+				long candidate = freeSpaceMap.get(spaceClass, pos);
+
+				if (candidate == ContainerHandle.INVALID_PAGE_NUMBER)
+					continue;
+
+				if (getPageSpaceClass(candidate) != spaceClass)
+					freeSpaceMap.remove(spaceClass, pos, candidate);
+				else if (candidate != pagenum)
+					return candidate;
+			}
+		}
+
+		return ContainerHandle.INVALID_PAGE_NUMBER;
+	}
+
+	/* the free space class of a page as tracked by its extent */
+	private int getPageSpaceClass(long pagenum)
+	{
+		for (int i = 0; i < numExtents; i++)
+		{
+			if (lowRange[i] <= pagenum && pagenum <= hiRange[i])
+			{
+				AllocExtent ext = extents[i];
+				return (ext == null) ?
+					AllocExtent.PAGE_FILLED : ext.getPageSpaceClass(pagenum);
+			}
+		}
+
+		return AllocExtent.PAGE_FILLED;
+	}
+
+	/* load the candidates of a free space class from the extents */
+	private void loadFreeSpaceMap(int spaceClass)
+	{
+		for (int i = 0; i < numExtents; i++)
+		{
+			if (extents[i] != null &&
+				!extents[i].loadPageSpace(freeSpaceMap, spaceClass))
+				return;
+		}
+
+		freeSpaceMap.setComplete(spaceClass);
+	}
+
     /**
     returns estimated number of allocated pages
     **/
@@ -271,6 +411,10 @@ class AllocationCache
 
 		isValid = false;
 
+		// the unfilled page information of the extents was not written
+		// back, the bit maps may not match the free space map anymore
+		freeSpaceMap.clear();
+
 	}
 
 	/* invalidate the extent that is managed by this alloc page */
@@ -102,6 +102,13 @@ abstract class BaseContainer implements Lockable {
 	*/
 	protected boolean isReusableRecordId = false;
 
+	/**
+		Is unlogged.  Changes to the pages of an unlogged container made by
+		user transactions are not logged, see
+		RawStoreFactory.UNLOGGED_PARAMETER.
+	*/
+	protected boolean isUnlogged = false;
+
 	BaseContainer() {
 	}
 
@@ -197,7 +204,8 @@ abstract class BaseContainer implements Lockable {
 		if ((mode & ContainerHandle.MODE_CREATE_UNLOGGED) == 0 &&
 			(mode & ContainerHandle.MODE_UNLOGGED) ==
 						ContainerHandle.MODE_UNLOGGED) 
-			mode &= ~ContainerHandle.MODE_UNLOGGED;
+			mode &= ~(ContainerHandle.MODE_UNLOGGED |
+					  ContainerHandle.MODE_FLUSH_ON_COMMIT);
 
 		// make a handle which is tied to the ntt, not to the user transaction 
         // this handle is tied to.  The container is already locked by the 
@@ -267,6 +275,19 @@ abstract class BaseContainer implements Lockable {
 		@exception StandardException Standard Derby error policy
 	*/
 	public Page addPage(BaseContainerHandle handle, boolean isOverflow) throws StandardException {
+
+		// a page added by a transaction changing an unlogged container is
+		// allocated by the transaction itself, so that its rollback
+		// deallocates the page, see UnloggedActions.  The container is
+		// exclusively locked by the transaction.
+		if (!isOverflow && handle.getActionSet() instanceof UnloggedActions)
+		{
+			BasePage newPage = newPage(handle, (RawTransaction) null,
+									   handle, isOverflow);
+			((UnloggedActions) handle.getActionSet()).pageAdded(
+				newPage.getPageNumber());
+			return newPage;
+		}
 		
 		RawTransaction ntt = handle.getTransaction().startNestedTopTransaction();
 
@@ -287,7 +308,8 @@ abstract class BaseContainer implements Lockable {
 		if ((mode & ContainerHandle.MODE_CREATE_UNLOGGED) == 0 &&
 			(mode & ContainerHandle.MODE_UNLOGGED) ==
 						ContainerHandle.MODE_UNLOGGED) 
-			mode &= ~ContainerHandle.MODE_UNLOGGED;
+			mode &= ~(ContainerHandle.MODE_UNLOGGED |
+					  ContainerHandle.MODE_FLUSH_ON_COMMIT);
 
 		// make a handle which is tied to the ntt, not to the user transaction this
 		// handle is tied to.  The container is already locked by the user transaction,
@@ -516,6 +538,32 @@ abstract class BaseContainer implements Lockable {
 		return getNextHeadPage(handle, pageNumber, true /* wait */);
 	}
 
+	/**
+		Note that a page has been fetched through a handle by getPage() or
+		getNextPage(), giving the container a chance to read ahead of a
+		sequential scan. The default is to do nothing.
+
+		@exception StandardException Standard Derby error policy
+	*/
+	protected void pageFetched(BaseContainerHandle handle, long pageNumber)
+		 throws StandardException
+	{
+	}
+
+	/**
+		Note that rows were purged from a head page, giving the container a
+		chance to make the freed space known to inserts. The default is to
+		do nothing.
+
+		@param page the latched page
+
+		@exception StandardException Standard Derby error policy
+	*/
+	protected void spaceFreed(BasePage page)
+		 throws StandardException
+	{
+	}
+
 	/*
 		utility to latch a page
 	*/
@@ -599,6 +647,11 @@ abstract class BaseContainer implements Lockable {
 		return isReusableRecordId;
 	}
 
+	protected boolean isUnlogged()
+	{
+		return isUnlogged;
+	}
+
 	public int getContainerStatus()
 	{
 		if (getCommittedDropState())
@@ -798,6 +851,12 @@ abstract class BaseContainer implements Lockable {
 		}
 	}
 
+	protected void removeUnloggedPages(int position) {
+		if (SanityManager.DEBUG) {
+			SanityManager.THROWASSERT("removeUnloggedPages not supported");
+		}
+	}
+
 	/**
 		Mark the container as drop or not drop depending on the input value.
 
@@ -871,10 +930,18 @@ abstract class BaseContainer implements Lockable {
      * 
      * @param handle the container handle.
      * @param backupContainerPath  location of the backup container. 
+     * @param versionPath  where to record the page versions.
+     * @param baseVersionPath  page versions of the base backup, or null to
+     *                         back up every page.
+     * @param compress  whether to compress the copy.
      * @exception StandardException Standard Derby error policy 
      */
 	protected abstract void  backupContainer(BaseContainerHandle handle, 
-											 String backupContainerPath) throws StandardException ;
+											 String backupContainerPath,
+											 String versionPath,
+											 String baseVersionPath,
+											 boolean compress)
+		throws StandardException ;
 
 
     /**
@@ -914,6 +981,11 @@ abstract class BaseContainer implements Lockable {
 		this.isReusableRecordId = isReusableRecordId;
 	}
 
+	protected void setUnloggedState(boolean isUnlogged)
+	{
+		this.isUnlogged = isUnlogged;
+	}
+
 	//protected void setPageSize(int pageSize) {
 	//	identity.setPageSize(pageSize);
 	//}
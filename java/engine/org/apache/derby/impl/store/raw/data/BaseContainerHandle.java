@@ -123,6 +123,20 @@ public class BaseContainerHandle extends DerbyObservable
 	private PageActions		            actionsSet;
 	private AllocationActions           allocActionsSet;
 
+    /**
+        Read-ahead state, maintained by the container to detect that this
+        handle is being used for a sequential scan: the last page fetched
+        with getPage() or getNextPage(), how many fetches in a row have moved
+        forward, and the page number up to which read-ahead has already been
+        requested.
+
+		<BR> MT - Mutable : scoped
+    */
+    long                                lastFetchedPage =
+                                            ContainerHandle.INVALID_PAGE_NUMBER;
+    int                                 sequentialFetches;
+    long                                readAheadLimit;
+
 
 	/*
 	** Constructor
@@ -316,7 +330,12 @@ public class BaseContainerHandle extends DerbyObservable
 
 		checkOpen();
 
-		return container.getPage(this, pageNumber, true);
+		Page page = container.getPage(this, pageNumber, true);
+
+		if (page != null)
+			container.pageFetched(this, pageNumber);
+
+		return page;
 	}
 
 
@@ -327,6 +346,19 @@ public class BaseContainerHandle extends DerbyObservable
 		return container.getAllocPage(this, pageNumber, true);
 	}
 
+	/**
+		Tell the container that rows were purged from a head page.
+
+		@param page the latched page
+
+		@exception StandardException Standard Derby error policy
+	*/
+	protected void spaceFreed(BasePage page)
+		 throws StandardException
+	{
+		container.spaceFreed(page);
+	}
+
 	public Page getUserPageNoWait(long pageNumber) 
         throws StandardException 
     {
@@ -361,7 +393,12 @@ public class BaseContainerHandle extends DerbyObservable
     {
 		checkOpen();
 
-		return container.getNextPage(this, pageNumber);
+		Page page = container.getNextPage(this, pageNumber);
+
+		if (page != null)
+			container.pageFetched(this, page.getPageNumber());
+
+		return page;
 	}
 
 	public Page getPageForInsert(int flag) 
@@ -1023,12 +1060,20 @@ public class BaseContainerHandle extends DerbyObservable
 	/**
      * Backup the container to the specified path.
      * @param backupContainerPath  location of the backup container.
+     * @param versionPath  where to record the page versions.
+     * @param baseVersionPath  page versions of the base backup, or null to
+     *                         back up every page.
+     * @param compress  whether to compress the copy.
 	 *  @exception StandardException	Standard Derby error policy
      */
-	public void backupContainer(String backupContainerPath) throws StandardException 
+	public void backupContainer(String backupContainerPath,
+								String versionPath, String baseVersionPath,
+								boolean compress)
+		throws StandardException
     {
 		checkOpen();
-		container.backupContainer(this, backupContainerPath);
+		container.backupContainer(this, backupContainerPath,
+								  versionPath, baseVersionPath, compress);
 	}
 
 
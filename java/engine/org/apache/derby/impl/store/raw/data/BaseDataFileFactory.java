@@ -32,6 +32,7 @@ import org.apache.derby.iapi.services.cache.CacheManager;
 import org.apache.derby.iapi.services.cache.Cacheable;
 import org.apache.derby.iapi.services.cache.CacheableFactory;
 import org.apache.derby.iapi.services.context.ContextManager;
+import org.apache.derby.iapi.services.daemon.DaemonFactory;
 import org.apache.derby.iapi.services.daemon.DaemonService;
 import org.apache.derby.iapi.services.daemon.Serviceable;
 import org.apache.derby.iapi.services.monitor.ModuleControl;
@@ -55,6 +56,7 @@ import org.apache.derby.iapi.store.raw.log.LogInstant;
 import org.apache.derby.iapi.store.raw.ContainerHandle;
 import org.apache.derby.iapi.store.raw.ContainerKey;
 import org.apache.derby.iapi.store.raw.LockingPolicy;
+import org.apache.derby.iapi.store.raw.Loggable;
 import org.apache.derby.iapi.store.raw.Page;
 import org.apache.derby.iapi.store.raw.PageKey;
 import org.apache.derby.iapi.store.raw.RawStoreFactory;
@@ -81,12 +83,30 @@ import org.apache.derby.iapi.services.io.FileUtil;
 import org.apache.derby.iapi.services.property.PropertyUtil;
 
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 import java.util.Hashtable;
 import java.util.Enumeration;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.net.URL;
 
@@ -133,6 +153,39 @@ public class BaseDataFileFactory
 	private     CacheManager	pageCache;
 	private     CacheManager	containerCache;
 
+    // number of pages to read ahead of a sequential scan, 0 if disabled
+    private     int             readAheadPages;
+
+    // number of insert pages a heap hands out to concurrent inserters
+    private     int             insertPages;
+
+    // number of preallocation extents kept ahead of growing containers by
+    // the background preallocator, 0 if it is disabled
+    private     int             preallocateExtents;
+    private     PagePreallocator pagePreallocator;
+    private     DaemonService   preallocDaemon;
+
+    // checksum pages with CRC32C rather than CRC32, if the database
+    // version allows it
+    private     boolean         crc32cChecksums;
+
+    // only verify the checksum of a page the first time it is read
+    private     boolean         verifyChecksumOnFirstRead;
+
+    // background reader for read-ahead, null if read-ahead is disabled
+    private     PageReadAhead   pageReadAhead;
+    private     DaemonService   readAheadDaemon;
+
+    // serve page reads from memory mapped files in a read-only database
+    private     boolean         mapReadOnlyContainers;
+
+    // read and write pages with O_DIRECT, bypassing the file cache
+    private     boolean         directIO;
+
+    // off-heap copies of clean pages evicted from the page cache, null if
+    // the pool is disabled
+    private     PageBufferPool  pageBufferPool;
+
 	private     LogFactory	    logFactory;
 
 	private     ProductVersionHolder jbmsVersion;
@@ -202,6 +255,11 @@ public class BaseDataFileFactory
 
 	private Hashtable<String,StorageFile> postRecoveryRemovedFiles;
 
+	// the pages allocated by the transactions changing unlogged containers,
+	// see UnloggedPages
+	private final Hashtable<ContainerKey,UnloggedPages> unloggedPages =
+		new Hashtable<ContainerKey,UnloggedPages>();
+
     // PrivilegedAction actions
     private int actionCode;
     private static final int REMOVE_TEMP_DIRECTORY_ACTION           = 2;
@@ -435,9 +493,30 @@ public class BaseDataFileFactory
                     RawStoreFactory.PAGE_CACHE_SIZE_MINIMUM,
                     RawStoreFactory.PAGE_CACHE_SIZE_MAXIMUM);
 
+	    int pageCacheShards = getIntParameter(
+					RawStoreFactory.PAGE_CACHE_SHARDS_PARAMETER,
+                    null,
+                    RawStoreFactory.PAGE_CACHE_SHARDS_DEFAULT,
+                    RawStoreFactory.PAGE_CACHE_SHARDS_MINIMUM,
+                    RawStoreFactory.PAGE_CACHE_SHARDS_MAXIMUM);
+
+        if (pageCacheShards == 0)
+        {
+            // one shard per processor, unless that makes the shards so
+            // small that an uneven spread of pages between them matters
+            pageCacheShards = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors(),
+                pageCacheSize / RawStoreFactory.PAGE_CACHE_AUTO_SHARD_SIZE));
+        }
+
+        String pagePolicy = PropertyUtil.getSystemProperty(
+                    RawStoreFactory.PAGE_REPLACEMENT_POLICY_PARAMETER,
+                    CacheFactory.CLOCK_POLICY);
+
 		pageCache =
             cf.newCacheManager(
-                this, "PageCache", pageCacheSize / 2, pageCacheSize);
+                this, "PageCache", pageCacheSize / 2, pageCacheSize,
+                pageCacheShards, pagePolicy);
 
         // Initialize the container cache
 	    int fileCacheSize = getIntParameter(
@@ -456,6 +535,78 @@ public class BaseDataFileFactory
         pageCache.registerMBean(dataDirectory);
         containerCache.registerMBean(dataDirectory);
 
+        // Start the read-ahead thread if sequential scans should read ahead.
+        // It gets a daemon of its own so that reads never queue up behind
+        // checkpoints and post commit work on the raw store daemon.
+        readAheadPages = getIntParameter(
+                    RawStoreFactory.READ_AHEAD_PAGES_PARAMETER,
+                    null,
+                    RawStoreFactory.READ_AHEAD_PAGES_DEFAULT,
+                    RawStoreFactory.READ_AHEAD_PAGES_MINIMUM,
+                    RawStoreFactory.READ_AHEAD_PAGES_MAXIMUM);
+
+        if (readAheadPages > 0)
+        {
+            DaemonFactory daemonFactory = (DaemonFactory)
+                startSystemModule(
+                    org.apache.derby.iapi.reference.Module.DaemonFactory);
+            readAheadDaemon = daemonFactory.createNewDaemon("readAheadDaemon");
+            pageReadAhead = 
+                new PageReadAhead(this, readAheadDaemon, 4 * readAheadPages);
+        }
+
+        insertPages = getIntParameter(
+                    RawStoreFactory.INSERT_PAGES_PARAMETER,
+                    null,
+                    RawStoreFactory.INSERT_PAGES_DEFAULT,
+                    RawStoreFactory.INSERT_PAGES_MINIMUM,
+                    RawStoreFactory.INSERT_PAGES_MAXIMUM);
+
+        // Start the preallocation thread if growing containers should be
+        // extended in the background. Like read-ahead it has a daemon of
+        // its own, a checkpoint must not hold up file growth.
+        preallocateExtents = getIntParameter(
+                    RawStoreFactory.PREALLOCATE_EXTENTS_PARAMETER,
+                    null,
+                    RawStoreFactory.PREALLOCATE_EXTENTS_DEFAULT,
+                    RawStoreFactory.PREALLOCATE_EXTENTS_MINIMUM,
+                    RawStoreFactory.PREALLOCATE_EXTENTS_MAXIMUM);
+
+        if (preallocateExtents > 0)
+        {
+            DaemonFactory daemonFactory = (DaemonFactory)
+                startSystemModule(
+                    org.apache.derby.iapi.reference.Module.DaemonFactory);
+            preallocDaemon = daemonFactory.createNewDaemon("preallocDaemon");
+            pagePreallocator = new PagePreallocator(this, preallocDaemon);
+        }
+
+        mapReadOnlyContainers = PropertyUtil.getSystemBoolean(
+                    RawStoreFactory.MAP_READ_ONLY_CONTAINERS);
+
+        directIO = PropertyUtil.getSystemBoolean(RawStoreFactory.DIRECT_IO);
+
+        crc32cChecksums = 
+            RawStoreFactory.CHECKSUM_ALGORITHM_CRC32C.equalsIgnoreCase(
+                PropertyUtil.getSystemProperty(
+                    RawStoreFactory.CHECKSUM_ALGORITHM_PARAMETER));
+
+        verifyChecksumOnFirstRead = PropertyUtil.getSystemBoolean(
+                    RawStoreFactory.VERIFY_CHECKSUM_ON_FIRST_READ);
+
+        int pageBufferPoolSize = getIntParameter(
+                    RawStoreFactory.PAGE_BUFFER_POOL_SIZE_PARAMETER,
+                    null,
+                    RawStoreFactory.PAGE_BUFFER_POOL_SIZE_DEFAULT,
+                    RawStoreFactory.PAGE_BUFFER_POOL_SIZE_MINIMUM,
+                    RawStoreFactory.PAGE_BUFFER_POOL_SIZE_MAXIMUM);
+
+        if (pageBufferPoolSize > 0)
+        {
+            pageBufferPool =
+                new PageBufferPool(pageBufferPoolSize * 1024L * 1024L);
+        }
+
 		if (create)
 		{
 			String noLog =
@@ -504,6 +655,15 @@ public class BaseDataFileFactory
                     "set to true.");
 		}
 
+        // a database in memory need not be synced, it does not outlive
+        // the JVM, so do as for derby.system.durability=test
+        if (storageFactory.isFast() &&
+            PropertyUtil.getSystemBoolean(
+                RawStoreFactory.NON_DURABLE_IN_MEMORY))
+        {
+            dataNotSyncedAtCheckpoint = true;
+        }
+
         fileHandler = new RFResource( this);
 	} // end of boot
 
@@ -518,6 +678,18 @@ public class BaseDataFileFactory
 				rawStoreDaemon.stop();
 		}
 
+		if (readAheadDaemon != null)
+		{
+			pageReadAhead.unsubscribe();
+			readAheadDaemon.stop();
+		}
+
+		if (preallocDaemon != null)
+		{
+			pagePreallocator.unsubscribe();
+			preallocDaemon.stop();
+		}
+
 		boolean logBootTrace = PropertyUtil.getSystemBoolean(Property.LOG_BOOT_TRACE);
 		logMsg(LINE);
 		logMsg(new Date() +
@@ -539,6 +711,8 @@ public class BaseDataFileFactory
             {
 				if (pageCache != null && containerCache != null) 
                 {
+                    // no point in saving the pages that are shut down
+                    pageBufferPool = null;
 					pageCache.shutdown();
 					containerCache.shutdown();
 
@@ -686,6 +860,10 @@ public class BaseDataFileFactory
 
 		BaseContainerHandle c;
 
+		// whether the open has to be logged because the container is
+		// unlogged, see ContainerOperation.UNLOGGED
+		boolean logUnloggedOpen = false;
+
 		// see if the container exists	
 		FileContainer container = (FileContainer) containerCache.find(identity);
 		if (container == null)
@@ -737,6 +915,35 @@ public class BaseDataFileFactory
 
 				} else {
 
+					// changes made by a user transaction to an unlogged
+					// container are not logged.  Opens which want no actions
+					// at commit are from rollback and post commit actions,
+					// which must leave things as they are.
+					if (container.isUnlogged() &&
+						((mode & ContainerHandle.MODE_FORUPDATE) ==
+						 ContainerHandle.MODE_FORUPDATE) &&
+						((mode & (ContainerHandle.MODE_UNLOGGED |
+								  ContainerHandle.MODE_CREATE_UNLOGGED |
+								  ContainerHandle.MODE_NO_ACTIONS_ON_COMMIT |
+								  ContainerHandle.MODE_LOGGED))
+						 == 0) &&
+						t.isUserTransaction())
+					{
+						mode |= ContainerHandle.MODE_UNLOGGED;
+						logUnloggedOpen = true;
+
+						// no one else may change the pages while they are
+						// not logged, lock the whole container.
+						if (locking != null &&
+							locking.getMode() == LockingPolicy.MODE_RECORD)
+						{
+							locking = t.newLockingPolicy(
+								LockingPolicy.MODE_CONTAINER,
+								TransactionController.ISOLATION_SERIALIZABLE,
+								true);
+						}
+					}
+
 					// block the online backup if the container is being 
 					// opened in unlogged mode, if the backup is already 
 					// running then convert all unlogged opens to logged ones,
@@ -753,6 +960,7 @@ public class BaseDataFileFactory
                             // to logged mode.
 							mode &= ~(ContainerHandle.MODE_UNLOGGED |
 									  ContainerHandle.MODE_CREATE_UNLOGGED);
+							logUnloggedOpen = false;
 						}
 					}
 
@@ -775,11 +983,25 @@ public class BaseDataFileFactory
 		PageActions       pageActions  = null;
 		AllocationActions allocActions = null;
 
+		// the number of pages of the container the transaction had
+		// allocated before this open, see ContainerOperation.UNLOGGED
+		int unloggedPosition = 0;
+
 		if ((mode & ContainerHandle.MODE_FORUPDATE) ==
 			ContainerHandle.MODE_FORUPDATE)  
 		{
 
-			if ((mode & ContainerHandle.MODE_UNLOGGED) == 0)
+			if (logUnloggedOpen)
+			{
+				// only the pages allocated by the transaction are changed
+				// without logging, allocation itself is always logged
+				UnloggedPages pages = getUnloggedPages(t, identity);
+				unloggedPosition = pages.size();
+				pageActions  = new UnloggedActions(
+					pages, getLoggablePageActions());
+				allocActions = getLoggableAllocationActions();
+			}
+			else if ((mode & ContainerHandle.MODE_UNLOGGED) == 0)
 			{
 				// get the current loggable actions
 				pageActions  = getLoggablePageActions();
@@ -813,6 +1035,21 @@ public class BaseDataFileFactory
 			throw se;
 		}
 
+		if (logUnloggedOpen)
+		{
+			// log before any unlogged change is made, so that rolling back
+			// to before this point throws away the pages allocated since.
+			try
+			{
+				t.logAndDo(new ContainerOperation(c, unloggedPosition));
+			}
+			catch (StandardException se)
+			{
+				c.close();
+				throw se;
+			}
+		}
+
 		return c;
 	}
 
@@ -891,10 +1128,14 @@ public class BaseDataFileFactory
 				mode |= ContainerHandle.MODE_TEMP_IS_KEPT;
 			}
 
-			// open no-locking as we already have the container locked
+			// open no-locking as we already have the container locked.
+			// The creation of an unlogged container is logged like that of
+			// any other container.
 			containerHdl = 
                 t.openContainer(
-                    identity, null, (ContainerHandle.MODE_FORUPDATE | mode)); 
+                    identity, null, 
+                    (ContainerHandle.MODE_FORUPDATE | 
+                     ContainerHandle.MODE_LOGGED | mode)); 
 
 			// we just added it, containerHdl should not be null
             if (SanityManager.DEBUG)
@@ -1260,10 +1501,59 @@ public class BaseDataFileFactory
      **/
 	public void checkpoint() throws StandardException 
     {
-		pageCache.cleanAll();
+		checkpoint(0);
+	}
+
+    /**
+     * Implement an incremental checkpoint, which writes the dirty pages at
+     * a limited rate instead of in one burst (the problem described in
+     * DERBY-799 above). The pages are written in the same order as by a
+     * full checkpoint, and the files are synced at the end as usual, so
+     * the checkpoint guarantees the same things once it returns, it just
+     * takes longer to get there. Pages that are dirtied while it runs are
+     * not waited for, since the redo low water mark of the checkpoint was
+     * taken before it started.
+     *
+     * @param maxPagesPerSecond the write rate, or 0 for no limit
+	 * @exception  StandardException  Standard exception policy.
+     **/
+	public void checkpoint(int maxPagesPerSecond) throws StandardException 
+    {
+		pageCache.cleanAll(maxPagesPerSecond);
 		containerCache.cleanAll();
 	}
 
+    /**
+     * Make an incremental checkpoint that is in progress write the rest of
+     * its pages without waiting.
+     */
+	public void hurryCheckpoint()
+    {
+		pageCache.cleanAtFullSpeed();
+	}
+
+	public PageKey getRedoPage(Loggable op)
+	{
+		// compress space operations truncate the file, they are handled
+		// as container level operations
+		if (op instanceof PageBasicOperation &&
+			!(op instanceof CompressSpacePageOperation))
+		{
+			return ((PageBasicOperation) op).getPageId();
+		}
+		return null;
+	}
+
+	public boolean redoChangesContainers(Loggable op)
+	{
+		return op instanceof ContainerBasicOperation ||
+			op instanceof ContainerUndoOperation ||
+			op instanceof RemoveFileOperation ||
+			op instanceof EncryptContainerOperation ||
+			op instanceof EncryptContainerUndoOperation ||
+			op instanceof CompressSpacePageOperation;
+	}
+
 	public void idle() throws StandardException 
     {
 		pageCache.ageOut();
@@ -1346,6 +1636,9 @@ public class BaseDataFileFactory
 			if (pageCache != null)
 				pageCache.discard(null);
 
+            // don't hand out any more pages from the buffer pool either
+            pageBufferPool = null;
+
 			if (containerCache != null)
 				containerCache.discard(null);
 
@@ -1470,6 +1763,180 @@ public class BaseDataFileFactory
 		return pageCache;
 	}
 
+	/**
+		Get the number of pages to read ahead of a sequential scan.
+
+		@return the read-ahead window in pages, 0 if read-ahead is disabled
+	*/
+	int getReadAheadPages()
+	{
+		return readAheadPages;
+	}
+
+	/**
+		Get the number of insert pages a container may hand out to
+		concurrent inserters.
+
+		@return the number of insert pages, 1 if every inserter should use
+		the same page
+	*/
+	int getInsertPages()
+	{
+		return insertPages;
+	}
+
+	/**
+		Get the number of preallocation extents that growing containers
+		should keep ahead of their last allocated page.
+
+		@return the number of extents, 0 if background preallocation is
+		disabled
+	*/
+	int getPreallocateExtents()
+	{
+		return pagePreallocator == null ? 0 : preallocateExtents;
+	}
+
+	/**
+		Should pages be checksummed with CRC32C rather than CRC32?  Only
+		once the database is at 10.14, older versions cannot read them.
+
+		@exception StandardException Standard Derby error policy
+	*/
+	boolean useCRC32CChecksums() throws StandardException
+	{
+		return crc32cChecksums && logFactory != null &&
+			logFactory.checkVersion(
+				RawStoreFactory.DERBY_STORE_MAJOR_VERSION_10,
+				RawStoreFactory.DERBY_STORE_MINOR_VERSION_14,
+				null);
+	}
+
+	/**
+		Should the checksum of a page only be verified the first time it is
+		read from disk?
+	*/
+	boolean verifyChecksumOnFirstRead()
+	{
+		return verifyChecksumOnFirstRead;
+	}
+
+	/**
+		Should containers map their files into memory and serve page reads
+		from the mapping?  Only done when the database is read-only, since
+		the files of a read-only database never change under the mapping.
+	*/
+	boolean mapReadOnlyContainers()
+	{
+		return mapReadOnlyContainers && readOnly;
+	}
+
+	/**
+		Should containers read and write their pages with direct I/O,
+		bypassing the operating system's file cache?
+	*/
+	boolean directIO()
+	{
+		return directIO;
+	}
+
+	/**
+		Get the off-heap pool of clean pages evicted from the page cache.
+
+		@return the pool, or null if it is disabled
+	*/
+	PageBufferPool getPageBufferPool()
+	{
+		return pageBufferPool;
+	}
+
+	/**
+		Drop the pages of a container from the off-heap page buffer pool.
+		Called after the pages of the container have been discarded from
+		the page cache, when the container file is being removed,
+		truncated or replaced.
+	*/
+	void discardBufferedPages(ContainerKey identity)
+	{
+		PageBufferPool pool = pageBufferPool;
+		if (pool != null)
+			pool.discard(identity);
+	}
+
+	/**
+		Ask the read-ahead thread to bring a page into the page cache.
+
+		@return false if read-ahead is disabled or its queue is full, in
+		        which case the caller should stop scheduling pages for now
+	*/
+	boolean scheduleReadAhead(PageKey key)
+	{
+		return pageReadAhead != null && pageReadAhead.scheduleRead(key);
+	}
+
+	/**
+		Ask the preallocation thread to write the pages a container has
+		reserved for background preallocation.
+
+		@return false if background preallocation is disabled or its queue
+		        is full, in which case the caller should drop its reservation
+	*/
+	boolean schedulePreallocation(ContainerKey identity)
+	{
+		return pagePreallocator != null &&
+			pagePreallocator.schedulePreallocation(identity);
+	}
+
+	/**
+		Write the reserved pages of a container on behalf of the
+		preallocation thread. Does nothing if the container no longer exists.
+
+		@exception StandardException Standard Derby error policy
+	*/
+	void preallocateContainer(ContainerKey identity)
+		 throws StandardException
+	{
+		FileContainer container = 
+			(FileContainer) containerCache.find(identity);
+
+		if (container == null)
+			return;
+
+		try
+		{
+			container.preallocateInBackground();
+		}
+		finally
+		{
+			containerCache.release(container);
+		}
+	}
+
+	/**
+		Read a page into the page cache on behalf of the read-ahead thread.
+		Does nothing if the container no longer exists.
+
+		@exception StandardException Standard Derby error policy
+	*/
+	void readAheadPage(PageKey key)
+		 throws StandardException
+	{
+		FileContainer container = 
+			(FileContainer) containerCache.find(key.getContainerId());
+
+		if (container == null)
+			return;
+
+		try
+		{
+			container.readAheadPage(key.getPageNumber());
+		}
+		finally
+		{
+			containerCache.release(container);
+		}
+	}
+
 	/**
 		Ask the log factory to flush up to this log instant.
 
@@ -1527,6 +1994,53 @@ public class BaseDataFileFactory
         return new RAFContainer(factory);
     }
 
+	/**
+		Get the pages of an unlogged container allocated by a transaction,
+		starting to keep track of them if the transaction has not changed
+		the container yet.
+	*/
+	private UnloggedPages getUnloggedPages(
+    RawTransaction  t,
+    ContainerKey    identity)
+	{
+		synchronized (unloggedPages)
+		{
+			UnloggedPages pages = unloggedPages.get(identity);
+			if (pages == null)
+			{
+				pages = new UnloggedPages(this, identity);
+				unloggedPages.put(identity, pages);
+				t.addObserver(pages);
+			}
+			return pages;
+		}
+	}
+
+	/**
+		Get the pages of an unlogged container allocated by the transaction
+		rolling back changes to it.
+
+		@return the pages, or null if none are known, as after an abort or
+		in recovery
+	*/
+	UnloggedPages findUnloggedPages(ContainerKey identity)
+	{
+		return unloggedPages.get(identity);
+	}
+
+	/**
+		Stop keeping track of the pages of an unlogged container, because
+		the transaction committed or aborted.
+	*/
+	void forgetUnloggedPages(ContainerKey identity, UnloggedPages pages)
+	{
+		synchronized (unloggedPages)
+		{
+			if (unloggedPages.get(identity) == pages)
+				unloggedPages.remove(identity);
+		}
+	}
+
 	/*
 	 * Get the loggable page action that is associated with this implementation
 	 *
@@ -2397,10 +2911,14 @@ public class BaseDataFileFactory
 
     /**
      * Set up the cache cleaner for the container cache and the page cache.
+     * The page cache cleaner may write its batches on several threads, see
+     * RawStoreFactory.PAGE_CACHE_CLEANER_THREADS.
      */
     public void setupCacheCleaner(DaemonService daemon) {
         containerCache.useDaemonService(daemon);
         pageCache.useDaemonService(daemon);
+        pageCache.useCleanerThreads(PropertyUtil.getSystemInt(
+                RawStoreFactory.PAGE_CACHE_CLEANER_THREADS, 1, 64, 1));
     }
 
 	public void freezePersistentStore() throws StandardException
@@ -2496,9 +3014,13 @@ public class BaseDataFileFactory
 
 	/*
 	 *  Find all the all the containers stored in the seg0 directory and 
-	 *  backup each container to the specified backup location.
+	 *  backup each container to the specified backup location, recording
+	 *  the page versions in versionDir. If baseVersionDir is not null only
+	 *  the pages changed since that backup are written.
 	 */
-	public void backupDataFiles(Transaction rt, File backupDir) throws StandardException
+	public void backupDataFiles(Transaction rt, File backupDir,
+								File versionDir, File baseVersionDir)
+		throws StandardException
 	{
 				
 		/*
@@ -2520,54 +3042,112 @@ public class BaseDataFileFactory
 															false);
 			long segmentId = 0;
 
-			// loop through all the files in seg0 and backup all valid containers.
-			for (int f = files.length-1; f >= 0 ; f--) {
-				long containerId;
-				try	{
-					containerId = 
-						Long.parseLong(files[f].substring(1, (files[f].length() -4)), 16);
+			final String backupPath = backupDir.getPath();
+			final String versionPath = versionDir.getPath();
+			final String baseVersionPath =
+				baseVersionDir == null ? null : baseVersionDir.getPath();
+			// encrypted pages do not compress
+			final boolean compress = !databaseEncrypted() &&
+				PropertyUtil.getSystemBoolean(
+					RawStoreFactory.BACKUP_COMPRESSION);
+
+			// The containers are opened and closed by this thread, which
+			// owns the transaction, and copied by the workers. A few more
+			// containers than there are workers are kept open so that the
+			// workers do not wait for this thread.
+			int threads = PropertyUtil.getSystemInt(
+				RawStoreFactory.BACKUP_THREADS, 1, 64, 1);
+			ThreadPoolExecutor workers =
+				threads > 1 ? newBackupWorkers(threads) : null;
+			LinkedHashMap<ContainerHandle, Future<Void>> copying =
+				new LinkedHashMap<ContainerHandle, Future<Void>>();
+
+			try {
+
+				// loop through all the files in seg0 and backup all valid containers.
+				for (int f = files.length-1; f >= 0 ; f--) {
+					long containerId;
+					try	{
+						containerId = 
+							Long.parseLong(files[f].substring(1, (files[f].length() -4)), 16);
+					}
+					catch (Throwable t)
+					{
+						// ignore errors from parse, it just means that someone put
+						// a file in seg0 that we didn't expect.  Continue with the
+						// next one.
+						continue;
+					}
+
+					ContainerKey identity = new ContainerKey(segmentId, containerId);
+
+					/* Not necessary to get the container thru the transaction.
+					 * Backup opens in container in read only mode , No need to 
+					 * transition the transaction to active state. 
+					 * 
+					 *  dropped container stubs also has to be backed up 
+					 *  for restore to work correctly. That is 
+					 *  why we are using a open call that let us
+					 *  open dropped containers.
+					 */
+
+					ContainerHandle containerHdl = openDroppedContainer((RawTransaction)rt, 
+																		identity, lockPolicy, 
+																		ContainerHandle.MODE_READONLY);
+					/*
+					 * Note 1:
+					 * If a container creation is  in progress , open call will wait 
+					 * until it is complete; It will never return a handle to a 
+					 * container that is partially created. (see cache manager code
+					 * for more details)
+					 *
+					 * Note 2: 
+					 * if a container creation failed in the middle after the list 
+					 * of the names are read from seg0, it will not exist in
+					 * the database any more, so nothing to backup.  Attempt 
+					 * to open such container will return null.
+					 * 
+					 */
+
+					if( containerHdl !=  null) {
+						if (workers == null) {
+							containerHdl.backupContainer(
+								backupPath, versionPath, baseVersionPath, compress);
+							containerHdl.close();
+						} else {
+							if (copying.size() >= 2 * threads) {
+								finishBackup(copying);
+							}
+							final ContainerHandle handle = containerHdl;
+							copying.put(handle, workers.submit(
+								new Callable<Void>() {
+									public Void call() throws StandardException {
+										handle.backupContainer(
+											backupPath, versionPath,
+											baseVersionPath, compress);
+										return null;
+									}
+								}));
+						}
+					}
 				}
-				catch (Throwable t)
-				{
-					// ignore errors from parse, it just means that someone put
-					// a file in seg0 that we didn't expect.  Continue with the
-					// next one.
-					continue;
+
+				while (!copying.isEmpty()) {
+					finishBackup(copying);
 				}
 
-				ContainerKey identity = new ContainerKey(segmentId, containerId);
-
-				/* Not necessary to get the container thru the transaction.
-				 * Backup opens in container in read only mode , No need to 
-				 * transition the transaction to active state. 
-				 * 
-				 *  dropped container stubs also has to be backed up 
-				 *  for restore to work correctly. That is 
-				 *  why we are using a open call that let us
-				 *  open dropped containers.
-				 */
-
-				ContainerHandle containerHdl = openDroppedContainer((RawTransaction)rt, 
-																	identity, lockPolicy, 
-																	ContainerHandle.MODE_READONLY);
-				/*
-				 * Note 1:
-				 * If a container creation is  in progress , open call will wait 
-				 * until it is complete; It will never return a handle to a 
-				 * container that is partially created. (see cache manager code
-				 * for more details)
-				 *
-				 * Note 2: 
-				 * if a container creation failed in the middle after the list 
-				 * of the names are read from seg0, it will not exist in
-				 * the database any more, so nothing to backup.  Attempt 
-				 * to open such container will return null.
-				 * 
-				 */
-
-				if( containerHdl !=  null) {
-					containerHdl.backupContainer(backupDir.getPath());
-					containerHdl.close();
+			} finally {
+				if (workers != null) {
+					// after an error, let the copies in progress finish
+					// before their containers are closed
+					while (!copying.isEmpty()) {
+						try {
+							finishBackup(copying);
+						} catch (StandardException se) {
+							// the first error is the one reported
+						}
+					}
+					shutdownBackupWorkers(workers);
 				}
 			}
 		} else
@@ -2577,6 +3157,80 @@ public class BaseDataFileFactory
 		}
 	}
 
+	/**
+	 * Create the threads containers are copied on by an online backup.
+	 * Idle threads go away after a few seconds, even if the pool cannot be
+	 * shut down, see shutdownBackupWorkers().
+	 */
+	private static ThreadPoolExecutor newBackupWorkers(int threads)
+	{
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(
+			threads, threads, 5L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					return getMonitor().getDaemonThread(r, "backup", false);
+				}
+			});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Shut down the threads of an online backup once all the copies are
+	 * done. Shutting down a pool needs the permission to modify its
+	 * threads, which Derby may not be granted under a security manager;
+	 * the idle threads then time out on their own.
+	 */
+	private static void shutdownBackupWorkers(final ThreadPoolExecutor pool)
+	{
+		try {
+			AccessController.doPrivileged(new PrivilegedAction<Void>() {
+				public Void run() {
+					pool.shutdown();
+					return null;
+				}
+			});
+		} catch (SecurityException se) {
+			// no permission to modify the threads, let them time out
+		}
+	}
+
+	/**
+	 * Wait for the oldest container copy in progress to finish and close its
+	 * container.
+	 *
+	 * @param copying the containers being copied, oldest first
+	 * @exception StandardException the error the copy ran into, if any
+	 */
+	private static void finishBackup(
+		LinkedHashMap<ContainerHandle, Future<Void>> copying)
+		throws StandardException
+	{
+		Iterator<Map.Entry<ContainerHandle, Future<Void>>> it =
+			copying.entrySet().iterator();
+		Map.Entry<ContainerHandle, Future<Void>> oldest = it.next();
+		it.remove();
+
+		try {
+			while (true) {
+				try {
+					oldest.getValue().get();
+					return;
+				} catch (InterruptedException ie) {
+					InterruptStatus.setInterrupted();
+				} catch (ExecutionException ee) {
+					Throwable t = ee.getCause();
+					if (t instanceof StandardException) {
+						throw (StandardException) t;
+					}
+					throw StandardException.plainWrapException(t);
+				}
+			}
+		} finally {
+			oldest.getKey().close();
+		}
+	}
+
 	/**
      * get all the names of the files in seg 0.
      * MT - This method needs to be synchronized to avoid conflicts 
@@ -2633,8 +3287,10 @@ public class BaseDataFileFactory
             boolean segmentexist = false;
             for (int i = 0; i < bfilelist.length; i++) 
             {
-                //check if it is a  seg* directory
-                if(bfilelist[i].startsWith("seg"))
+                //check if it is a  seg* directory, or the changed pages of
+                //an incremental backup
+                if(bfilelist[i].startsWith("seg") ||
+                   bfilelist[i].equals(INCREMENT_SEGMENT_NAME))
                 {
                     // Segment directory in the backup
                     final File bsegdir = new File(backupRoot , bfilelist[i]);
@@ -2724,6 +3380,34 @@ public class BaseDataFileFactory
             }
         }
 
+        copyDataDirectory(backupRoot, bfilelist);
+
+    } // end of privRestoreDataDirectory
+
+    /**
+     * Copy the seg* directories of a backup to the current database home.
+     * <p>
+     * If the backup is an incremental backup, the backup it was taken on
+     * top of is copied first and the changed pages of the increment are
+     * then written over it.
+     */
+    private void copyDataDirectory(File backupRoot, String[] bfilelist)
+        throws StandardException
+    {
+        StorageFile csegdir;	//segment directory in the current db home
+
+        File baseRoot = getIncrementBase(backupRoot);
+        if (baseRoot != null)
+        {
+            String[] baselist = baseRoot.list();
+            if (baselist == null)
+            {
+                throw StandardException.newException(
+                    SQLState.DATA_DIRECTORY_NOT_FOUND_IN_BACKUP, baseRoot);
+            }
+            copyDataDirectory(baseRoot, baselist);
+        }
+
         //copy the seg* directories from backup to current database home
         for (int i = 0; i < bfilelist.length; i++) 
         {
@@ -2732,14 +3416,45 @@ public class BaseDataFileFactory
             {
                 csegdir = storageFactory.newStorageFile( bfilelist[i]);
                 File bsegdir1 = new java.io.File(backupRoot, bfilelist[i]);
+
+                // an increment carries the whole directory, replacing the
+                // one of its base
+                if (csegdir.exists() && !csegdir.deleteAll())
+                {
+                    throw
+                      StandardException.newException(
+                          SQLState.UNABLE_TO_REMOVE_DATA_DIRECTORY, 
+                          csegdir);
+                }
+
+                // containers compressed by the backup are inflated on
+                // their way into the database, the rest is copied as is
+                String[] compressed = null;
+                if (bfilelist[i].startsWith("seg"))
+                {
+                    compressed = bsegdir1.list(new FilenameFilter() {
+                        public boolean accept(File dir, String name) {
+                            return name.endsWith(COMPRESSED_BACKUP_SUFFIX);
+                        }
+                    });
+                }
+
                 if (!FileUtil.copyDirectory( 
-                        writableStorageFactory, bsegdir1, csegdir))
+                        writableStorageFactory, bsegdir1, csegdir,
+                        null, compressed))
                 {
                     throw
                       StandardException.newException(
                           SQLState.UNABLE_TO_COPY_DATA_DIRECTORY, 
                           bsegdir1, csegdir);
                 }
+
+                for (int j = 0; compressed != null && j < compressed.length;
+                     j++)
+                {
+                    inflateContainer(new File(bsegdir1, compressed[j]),
+                                     csegdir);
+                }
             }
             else if (databaseEncrypted && 
                      bfilelist[i].startsWith(
@@ -2762,9 +3477,217 @@ public class BaseDataFileFactory
                             bfilelist[i], toFile);
                 }
             }
+            else if (bfilelist[i].equals(INCREMENT_SEGMENT_NAME))
+            {
+                applyIncrement(new File(backupRoot, bfilelist[i]));
+            }
         }
+    }
 
-    } // end of privRestoreDataDirectory
+    /**
+     * Inflate a container copy compressed by backup into a data directory.
+     */
+    private void inflateContainer(File from, StorageFile segdir)
+        throws StandardException
+    {
+        String name = from.getName();
+        StorageFile to = storageFactory.newStorageFile(segdir,
+            name.substring(0,
+                name.length() - COMPRESSED_BACKUP_SUFFIX.length()));
+
+        InputStream in = null;
+        OutputStream out = null;
+        try
+        {
+            in = new GZIPInputStream(new FileInputStream(from));
+            out = to.getOutputStream();
+
+            byte[] buf = new byte[64 * 1024];
+            for (int n = in.read(buf); n != -1; n = in.read(buf))
+                out.write(buf, 0, n);
+
+            writableStorageFactory.sync(out, false);
+        }
+        catch (IOException ioe)
+        {
+            throw StandardException.newException(
+                SQLState.UNABLE_TO_COPY_DATA_DIRECTORY, ioe, from, to);
+        }
+        finally
+        {
+            try
+            {
+                if (in != null)
+                    in.close();
+                if (out != null)
+                    out.close();
+            }
+            catch (IOException ioe)
+            {
+                throw StandardException.newException(
+                    SQLState.UNABLE_TO_COPY_DATA_DIRECTORY, ioe, from, to);
+            }
+        }
+    }
+
+    /**
+     * Return the name of the container a backup copy is of.
+     */
+    private static String containerFileName(String copyName)
+    {
+        return copyName.endsWith(COMPRESSED_BACKUP_SUFFIX) ?
+            copyName.substring(
+                0, copyName.length() - COMPRESSED_BACKUP_SUFFIX.length()) :
+            copyName;
+    }
+
+    /**
+     * Return the backup an incremental backup was taken on top of, or null
+     * if backupRoot is a full backup.
+     */
+    private File getIncrementBase(File backupRoot) throws StandardException
+    {
+        File incrementFile = new File(backupRoot, INCREMENT_BASE_FILE);
+        if (!incrementFile.exists())
+            return null;
+
+        Properties increment = new Properties();
+        try
+        {
+            InputStream in = new FileInputStream(incrementFile);
+            try
+            {
+                increment.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            throw StandardException.newException(
+                SQLState.DATA_DIRECTORY_NOT_FOUND_IN_BACKUP, ioe, backupRoot);
+        }
+
+        String base = increment.getProperty(INCREMENT_BASE_PROPERTY);
+        if (base == null)
+        {
+            throw StandardException.newException(
+                SQLState.BACKUP_BASE_NOT_USABLE, backupRoot);
+        }
+        return new File(base);
+    }
+
+    /**
+     * Write the containers of an incremental backup over seg0, which holds
+     * the containers of its base. Containers the increment does not have
+     * were dropped, or their creation did not complete, after the base was
+     * taken and are removed. Stubs are copied whole, the other containers
+     * get the pages written by RAFContainer.backupContainer and are cut to
+     * the length they had when the increment was taken. The pages of a
+     * compressed container are read through GZIP.
+     */
+    private void applyIncrement(File incrementDir) throws StandardException
+    {
+        StorageFile segdir = storageFactory.newStorageFile("seg0");
+        String[] incfiles = incrementDir.list();
+        if (incfiles == null)
+        {
+            throw StandardException.newException(
+                SQLState.DATA_DIRECTORY_NOT_FOUND_IN_BACKUP, incrementDir);
+        }
+
+        HashSet<String> incset = new HashSet<String>();
+        for (int i = 0; i < incfiles.length; i++)
+            incset.add(containerFileName(incfiles[i]));
+
+        String[] segfiles = segdir.list();
+        if (segfiles != null)
+        {
+            for (int i = 0; i < segfiles.length; i++)
+            {
+                if ((segfiles[i].startsWith("c") ||
+                     segfiles[i].startsWith("d")) &&
+                    segfiles[i].endsWith(".dat") &&
+                    !incset.contains(segfiles[i]))
+                {
+                    StorageFile old =
+                        storageFactory.newStorageFile(segdir, segfiles[i]);
+                    if (!old.delete())
+                    {
+                        throw StandardException.newException(
+                            SQLState.UNABLE_TO_DELETE_FILE, old);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < incfiles.length; i++)
+        {
+            File from = new File(incrementDir, incfiles[i]);
+            StorageFile to = storageFactory.newStorageFile(
+                segdir, containerFileName(incfiles[i]));
+
+            if (incfiles[i].startsWith("d"))
+            {
+                if (!FileUtil.copyFile(writableStorageFactory, from, to))
+                {
+                    throw StandardException.newException(
+                        SQLState.UNABLE_TO_COPY_DATA_DIRECTORY, from, to);
+                }
+                continue;
+            }
+
+            DataInputStream in = null;
+            StorageRandomAccessFile out = null;
+            try
+            {
+                InputStream fin = new FileInputStream(from);
+                in = new DataInputStream(
+                    incfiles[i].endsWith(COMPRESSED_BACKUP_SUFFIX) ?
+                    new GZIPInputStream(fin, 64 * 1024) :
+                    new BufferedInputStream(fin));
+                out = to.getRandomAccessFile("rw");
+
+                int pageSize = in.readInt();
+                long lastPageNumber = in.readLong();
+                byte[] page = new byte[pageSize];
+
+                for (long pageNumber = in.readLong();
+                     pageNumber != ContainerHandle.INVALID_PAGE_NUMBER;
+                     pageNumber = in.readLong())
+                {
+                    in.readFully(page);
+                    out.seek(pageNumber * pageSize);
+                    out.write(page, 0, pageSize);
+                }
+
+                out.setLength((lastPageNumber + 1) * pageSize);
+                out.sync();
+            }
+            catch (IOException ioe)
+            {
+                throw StandardException.newException(
+                    SQLState.UNABLE_TO_COPY_DATA_DIRECTORY, ioe, from, to);
+            }
+            finally
+            {
+                try
+                {
+                    if (in != null)
+                        in.close();
+                    if (out != null)
+                        out.close();
+                }
+                catch (IOException ioe)
+                {
+                    throw StandardException.newException(
+                        SQLState.UNABLE_TO_COPY_DATA_DIRECTORY, ioe, from, to);
+                }
+            }
+        }
+    }
 
 	/**
 		Is the store read-only.
@@ -1280,6 +1280,8 @@ abstract class BasePage implements Page, DerbyObserver, TypedFormat
 
 		owner.getActionSet().actionPurge(t, this, slot, numpurges, recordIds, needDataLogged);
 
+		// let inserts find the space the purge freed
+		owner.spaceFreed(this);
 	}
 
 	/**
@@ -2830,6 +2832,13 @@ abstract class BasePage implements Page, DerbyObserver, TypedFormat
 	*/
 	public abstract boolean unfilled();
 
+	/**
+		Returns the free space class of the page, which decides the bucket
+		of the free space map of the container the page is kept in.  One of
+		the AllocExtent PAGE_* space classes.
+	*/
+	protected abstract int getSpaceClass();
+
 	/**
 		Set the number of rows in the container - the page uses this to decide
 		whether it needs to aggressive set the container's row count when it
@@ -25,9 +25,11 @@ import org.apache.derby.iapi.reference.SQLState;
 
 import org.apache.derby.iapi.store.raw.log.LogInstant;
 import org.apache.derby.iapi.store.raw.PageKey;
+import org.apache.derby.iapi.store.raw.ContainerHandle;
 
 import org.apache.derby.iapi.services.cache.Cacheable;
 import org.apache.derby.iapi.services.cache.CacheManager;
+import org.apache.derby.iapi.services.cache.GroupCleanable;
 
 import org.apache.derby.iapi.services.monitor.Monitor;
 
@@ -41,6 +43,7 @@ import org.apache.derby.iapi.error.ExceptionSeverity;
 import org.apache.derby.iapi.util.InterruptStatus;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
 	A base page that is cached.
@@ -50,8 +53,21 @@ import java.io.IOException;
 
 */
 
-public abstract class CachedPage extends BasePage implements Cacheable
+public abstract class CachedPage extends BasePage implements GroupCleanable
 {
+	/**
+		Debug flag which makes cleanGroup() describe the writes it does.
+	*/
+	public static final String TRACE_CLEAN_GROUP =
+		SanityManager.DEBUG ? "CleanGroup" : null;
+
+	/*
+	 * the outcomes of startClean()
+	 */
+	private static final int CLEAN_STARTED = 0;
+	private static final int CLEAN_NOT_NEEDED = 1;
+	private static final int CLEAN_BUSY = 2;
+
 	protected boolean   alreadyReadPage;    // true when page read by another 
                                             // class
 
@@ -511,8 +527,8 @@ public abstract class CachedPage extends BasePage implements Cacheable
 
 						// since I have the container, might as well update the
 						// unfilled information
-						myContainer.trackUnfilledPage(
-                            identity.getPageNumber(), unfilled());
+						myContainer.trackPageSpace(
+                            identity.getPageNumber(), getSpaceClass());
 					}
 				}
 				catch (StandardException se)
@@ -550,16 +566,61 @@ public abstract class CachedPage extends BasePage implements Cacheable
      **/
 	public void clean(boolean remove) throws StandardException 
     {
+		if (startClean(true) != CLEAN_STARTED)
+			return;
+
+		try
+		{
+			writePage(getPageId(), false);
+		}
+		catch(StandardException se)
+		{
+            // If we get an error while trying to write a page, current
+            // recovery system requires that entire DB is shutdown.  Then
+            // when system is rebooted we will run redo recovery which 
+            // if it does not encounter disk errors will guarantee to recover
+            // to a transaction consistent state.  If this write is a 
+            // persistent device problem, redo recovery will likely fail
+            // attempting to the same I/O.  Mark corrupt will stop all further
+            // writes of data and log by the system.
+			throw dataFactory.markCorrupt(se);
+		}
+		finally
+		{
+			// if there is something wrong in writing out the page, 
+            // do not leave it inClean state or it will block the next cleaner 
+            // forever
 
+			endClean();
+		}
+	}
+
+	/**
+	 * Start cleaning the page: wait until no one else is cleaning it and it
+	 * is not latched, and then mark it as being cleaned, which keeps others
+	 * from latching it until <code>endClean()</code> is called.
+	 *
+	 * @param block whether to wait for another cleaner or for the holder of
+	 *      the latch, or to give up at once
+	 * @return <code>CLEAN_STARTED</code> if the page must be written and is
+	 *      now being cleaned by the caller, <code>CLEAN_NOT_NEEDED</code> if
+	 *      there is nothing to write, or <code>CLEAN_BUSY</code> if
+	 *      <code>block</code> is false and someone else has the page
+	 */
+	private int startClean(boolean block)
+	{
 		// must wait for the page to be unlatched
 		synchronized (this) 
         {
 			if (!isDirty())
-				return;
+				return CLEAN_NOT_NEEDED;
 
 			// is someone else cleaning it
 			while (inClean) 
             {
+				if (!block)
+					return CLEAN_BUSY;
+
 				try 
                 {
 					wait();
@@ -573,7 +634,10 @@ public abstract class CachedPage extends BasePage implements Cacheable
             // page is not "inClean" by other thread at this point.
 
 			if (!isDirty())
-				return;
+				return CLEAN_NOT_NEEDED;
+
+			if (!block && (owner != null) && !preLatch)
+				return CLEAN_BUSY;
 
 			inClean = true;
 
@@ -603,43 +667,224 @@ public abstract class CachedPage extends BasePage implements Cacheable
 				preDirty = false; 
 				inClean  = false;
 				notifyAll();
-				return;
+				return CLEAN_NOT_NEEDED;
 			}
 		}
 
-		try
+		return CLEAN_STARTED;
+	}
+
+	/**
+	 * Finish cleaning the page, successfully or not, and let others latch
+	 * or clean it again.
+	 */
+	private void endClean()
+	{
+		synchronized (this) 
+        {
+			inClean = false;
+			notifyAll();
+		}
+	}
+
+    /**
+     * Clean a group of pages, given in the order of their page keys. A run
+     * of pages which are next to each other in a container is written with
+     * a single write.
+     * <p>
+     * The pages of a run are all held in the clean state until the run has
+     * been written. To avoid waiting for a page while holding others, a page
+     * which is latched, or which is being cleaned by someone else, ends the
+     * run and is then cleaned by itself.
+     *
+	 * @exception  StandardException  Error writing the pages.
+     *
+     * @see GroupCleanable#cleanGroup
+     **/
+	public void cleanGroup(Cacheable[] group) throws StandardException
+	{
+		ArrayList<CachedPage> run = new ArrayList<CachedPage>();
+		StringBuilder trace = null;
+		if (SanityManager.DEBUG)
 		{
-			writePage(getPageId(), false);
+			if (SanityManager.DEBUG_ON(TRACE_CLEAN_GROUP))
+				trace = new StringBuilder("Cleaned group:");
 		}
-		catch(StandardException se)
+
+		try
 		{
-            // If we get an error while trying to write a page, current
-            // recovery system requires that entire DB is shutdown.  Then
-            // when system is rebooted we will run redo recovery which 
-            // if it does not encounter disk errors will guarantee to recover
-            // to a transaction consistent state.  If this write is a 
-            // persistent device problem, redo recovery will likely fail
-            // attempting to the same I/O.  Mark corrupt will stop all further
-            // writes of data and log by the system.
-			throw dataFactory.markCorrupt(se);
+			for (int i = 0; i < group.length; i++)
+			{
+				CachedPage page = (CachedPage) group[i];
+
+				if (!run.isEmpty() && !page.follows(run.get(run.size() - 1)))
+					writeRun(run, trace);
+
+				// The first alloc page is always written by itself, since the
+				// container header is written into it.
+				int state =
+					(page.getPageId().getPageNumber() ==
+						FileContainer.FIRST_ALLOC_PAGE_NUMBER) ?
+					CLEAN_BUSY : page.startClean(run.isEmpty());
+
+				if (state == CLEAN_STARTED)
+				{
+					run.add(page);
+				}
+				else if (state == CLEAN_BUSY)
+				{
+					writeRun(run, trace);
+					page.clean(false);
+					if (trace != null)
+						trace.append(' ').append(runString(page, 1));
+				}
+			}
+
+			writeRun(run, trace);
 		}
 		finally
 		{
-			// if there is something wrong in writing out the page, 
-            // do not leave it inClean state or it will block the next cleaner 
-            // forever
+			// only if the run was never written
+			for (CachedPage page : run)
+				page.endClean();
+		}
 
-			synchronized (this) 
-            {
-				inClean = false;
-				notifyAll();
+		if (SanityManager.DEBUG)
+		{
+			if (trace != null)
+				SanityManager.DEBUG(TRACE_CLEAN_GROUP, trace.toString());
+		}
+	}
+
+	/**
+	 * Is this page the page right after another page in the same container?
+	 */
+	private boolean follows(CachedPage other)
+	{
+		return identity.getPageNumber() ==
+				other.identity.getPageNumber() + 1 &&
+			identity.getContainerId().equals(other.identity.getContainerId());
+	}
+
+	/**
+	 * Write a run of pages which are being cleaned by the current thread,
+	 * and end the cleaning of all of them. The run is empty afterwards.
+	 *
+	 * @param run pages next to each other in a container, in page order
+	 * @param trace where to describe the write, or <code>null</code>
+	 *
+	 * @exception  StandardException  Error writing the pages.
+	 */
+	private static void writeRun(ArrayList<CachedPage> run,
+								 StringBuilder trace)
+		throws StandardException
+	{
+		if (run.isEmpty())
+			return;
+
+		CachedPage first = run.get(0);
+		try
+		{
+			if (run.size() == 1)
+			{
+				first.writePage(first.getPageId(), false);
 			}
+			else
+			{
+				byte[][] pages = new byte[run.size()][];
+				for (int i = 0; i < pages.length; i++)
+				{
+					CachedPage page = run.get(i);
+					page.prepareWrite(page.getPageId());
+					pages[i] = page.pageData;
+				}
+
+				PageKey firstId = first.getPageId();
+				FileContainer myContainer = first.findContainer(firstId);
+				try
+				{
+					myContainer.writePages(firstId.getPageNumber(), pages);
+
+					for (CachedPage page : run)
+						page.pageWritten(myContainer, page.getPageId());
+				}
+				catch (IOException ioe)
+				{
+					// pages cannot be written
+					throw StandardException.newException(
+						SQLState.FILE_WRITE_PAGE_EXCEPTION,
+						ioe, firstId);
+				}
+				finally
+				{
+					first.containerCache.release(myContainer);
+				}
+
+				for (CachedPage page : run)
+				{
+					synchronized (page) 
+					{
+						// change page state to not dirty after the
+						// successful write
+						page.isDirty  = false;
+						page.preDirty = false;
+					}
+				}
+			}
+
+			if (trace != null)
+				trace.append(' ').append(runString(first, run.size()));
+		}
+		catch(StandardException se)
+		{
+			// as in clean(), a failed write requires the entire database
+			// to be shut down and recovered
+			throw first.dataFactory.markCorrupt(se);
 		}
+		finally
+		{
+			for (CachedPage page : run)
+				page.endClean();
+			run.clear();
+		}
+	}
+
+	/**
+	 * Describe a run of pages for the clean group trace, as
+	 * <code>segment.container:first-last</code>.
+	 */
+	private static String runString(CachedPage first, int pages)
+	{
+		PageKey id = first.getPageId();
+		return id.getContainerId().getSegmentId() + "." +
+			id.getContainerId().getContainerId() + ":" +
+			id.getPageNumber() + "-" + (id.getPageNumber() + pages - 1);
 	}
 
 	public void clearIdentity() 
     {
 		alreadyReadPage = false;
+
+        // Temporary containers are not kept in the pool, neither is the
+        // first alloc page, whose borrowed space the container header is
+        // written to directly on disk.
+        PageBufferPool pool = dataFactory.getPageBufferPool();
+        if (pool != null && identity != null && pageData != null &&
+            identity.getPageNumber() !=
+                FileContainer.FIRST_ALLOC_PAGE_NUMBER &&
+            identity.getContainerId().getSegmentId() !=
+                ContainerHandle.TEMPORARY_SEGMENT)
+        {
+            // A clean page leaving the cache is the same as on disk, keep a
+            // copy off the heap. Anything else must not be found in the
+            // pool later, and a page that is not valid (for instance one
+            // read ahead that turned out to be free) is not worth keeping.
+            if (isDirty() || getPageStatus() != VALID_PAGE)
+                pool.remove(identity);
+            else
+                pool.put(identity, pageData);
+        }
+
 		super.clearIdentity();
 	}
 
@@ -666,6 +911,11 @@ public abstract class CachedPage extends BasePage implements Cacheable
         // cache does support caching various sized pages.
 		setPageArray(pagesize);
 
+        // the page may have been evicted to the page buffer pool earlier
+        PageBufferPool pool = dataFactory.getPageBufferPool();
+        if (pool != null && pool.take(newIdentity, pageData))
+            return;
+
 		for (int io_retry_count = 0;;)
         {
 			try 
@@ -747,7 +997,49 @@ public abstract class CachedPage extends BasePage implements Cacheable
     boolean syncMe) 
 		 throws StandardException 
 	{
+		prepareWrite(identity);
 
+		// find the container and file access object
+		FileContainer myContainer = findContainer(identity);
+
+		try
+		{
+			myContainer.writePage(
+				identity.getPageNumber(), pageData, syncMe);
+
+			pageWritten(myContainer, identity);
+		}
+		catch (IOException ioe)
+		{
+			// page cannot be written
+			throw StandardException.newException(
+				SQLState.FILE_WRITE_PAGE_EXCEPTION,
+				ioe, identity);
+		}
+		finally
+		{
+			containerCache.release(myContainer);
+			myContainer = null;
+		}
+
+		synchronized (this) 
+        {
+            // change page state to not dirty after the successful write
+			isDirty     = false;
+			preDirty    = false;
+		}
+	}
+
+    /**
+     * Get the page ready to be written: bring the page data array up to
+     * date, and force the log up to the last change of the page (WAL).
+     *
+     * @param identity indentity (ie. page number) of the page
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+	private void prepareWrite(PageKey identity) throws StandardException
+	{
         // make subclass write the page format
 		writeFormatId(identity); 
 
@@ -766,9 +1058,19 @@ public abstract class CachedPage extends BasePage implements Cacheable
         {					
 			clearLastLogInstant();
 		}
+	}
 
-
-		// find the container and file access object
+    /**
+     * Find the container of a page which is about to be written. The caller
+     * must release the container.
+     *
+     * @param identity indentity (ie. page number) of the page
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+	private FileContainer findContainer(PageKey identity)
+		 throws StandardException 
+	{
 		FileContainer myContainer = 
             (FileContainer) containerCache.find(identity.getContainerId());
 
@@ -784,65 +1086,49 @@ public abstract class CachedPage extends BasePage implements Cacheable
 					identity));
 		}
 
-		try
+		return myContainer;
+	}
+
+    /**
+     * Do some in memory unlogged bookkeeping tasks after the page has been
+     * written, while we have the container.
+     *
+     * @param myContainer the container of the page
+     * @param identity indentity (ie. page number) of the page
+     *
+	 * @exception  StandardException  Standard exception policy.
+     **/
+	private void pageWritten(FileContainer myContainer, PageKey identity)
+		 throws StandardException 
+	{
+		if (!isOverflowPage() && isDirty())
 		{
-			myContainer.writePage(
-				identity.getPageNumber(), pageData, syncMe);
 
+			// let the container knows whether this page is a not
+			// filled, non-overflow page
+			myContainer.trackPageSpace(
+				identity.getPageNumber(), getSpaceClass());
+
+			// if this is not an overflow page, see if the page's row
+			// count has changed since it come into the cache.
 			//
-			// Do some in memory unlogged bookkeeping tasks while we have
-			// the container.
+			// if the page is not invalid, row count is 0.	Otherwise,
+			// count non-deleted records on page.
 			//
+			// Cannot call nonDeletedRecordCount because the page is
+			// unlatched now even though nobody is changing it
+			int currentRowCount = internalNonDeletedRecordCount();
 
-			if (!isOverflowPage() && isDirty())
+			if (currentRowCount != initialRowCount)
 			{
+				myContainer.updateEstimatedRowCount(
+					currentRowCount - initialRowCount);
 
-				// let the container knows whether this page is a not
-				// filled, non-overflow page
-				myContainer.trackUnfilledPage(
-					identity.getPageNumber(), unfilled());
-
-				// if this is not an overflow page, see if the page's row
-				// count has changed since it come into the cache.
-				//
-				// if the page is not invalid, row count is 0.	Otherwise,
-				// count non-deleted records on page.
-				//
-				// Cannot call nonDeletedRecordCount because the page is
-				// unlatched now even though nobody is changing it
-				int currentRowCount = internalNonDeletedRecordCount();
-
-				if (currentRowCount != initialRowCount)
-				{
-					myContainer.updateEstimatedRowCount(
-						currentRowCount - initialRowCount);
-
-					setContainerRowCount(
-						myContainer.getEstimatedRowCount(0));
+				setContainerRowCount(
+					myContainer.getEstimatedRowCount(0));
 
-					initialRowCount = currentRowCount;
-				}
+				initialRowCount = currentRowCount;
 			}
-
-		}
-		catch (IOException ioe)
-		{
-			// page cannot be written
-			throw StandardException.newException(
-				SQLState.FILE_WRITE_PAGE_EXCEPTION,
-				ioe, identity);
-		}
-		finally
-		{
-			containerCache.release(myContainer);
-			myContainer = null;
-		}
-
-		synchronized (this) 
-        {
-            // change page state to not dirty after the successful write
-			isDirty     = false;
-			preDirty    = false;
 		}
 	}
 
@@ -39,6 +39,8 @@ import org.apache.derby.iapi.error.StandardException;
 
 import org.apache.derby.iapi.util.ByteArray;
 
+import org.apache.derby.iapi.services.io.CompressedNumber;
+
 import java.io.ObjectOutput;
 import java.io.InputStream;
 import java.io.ObjectInput;
@@ -46,7 +48,8 @@ import java.io.IOException;
 import org.apache.derby.iapi.services.io.LimitObjectInput;
 
 /**
-	Log operation to create, drop or remove a container.
+	Log operation to create, drop or remove a container, or to record that
+	a user transaction is about to change an unlogged container.
 
 	Both the doMe or the undoMe of a create actually caused the container
 	header to be modified and flushed before the log record is flushed.  This
@@ -66,10 +69,24 @@ import org.apache.derby.iapi.services.io.LimitObjectInput;
 	case of remove, the stub is flushed for a different reason - that of
 	ensuring disk space.
 
+	An unlogged operation does nothing by itself.  It is logged each time a
+	user transaction opens an unlogged container for update, before any of
+	the unlogged changes are made, with the number of pages the transaction
+	had allocated in the container so far.  Only the pages the transaction
+	allocates are changed without logging, see UnloggedActions.  Their
+	allocation is logged by the transaction, so a rollback to before this
+	point, at runtime or during recovery, deallocates them, and undoes the
+	logged changes to the other pages as usual.  Undoing the unlogged
+	operation then only forgets the pages allocated since.
+
 */
 public class ContainerOperation extends ContainerBasicOperation implements Undoable
 {
-	protected byte operation;		// create, drop, or remove
+	protected byte operation;		// create, drop, remove or unlogged
+
+	// the number of pages allocated by the transaction before an unlogged
+	// operation
+	protected int unloggedPosition;
 
 	// in previous version of contianerOperation, there may not
 	// be a createByteArray
@@ -81,6 +98,7 @@ public class ContainerOperation extends ContainerBasicOperation implements Undoa
 	protected static final byte CREATE = (byte)1;
 	protected static final byte DROP = (byte)2;
 	protected static final byte REMOVE = (byte)4;
+	protected static final byte UNLOGGED = (byte)8;
 
 	protected ContainerOperation(RawContainerHandle hdl, byte operation) 
 		 throws StandardException
@@ -89,6 +107,22 @@ public class ContainerOperation extends ContainerBasicOperation implements Undoa
 		this.operation = operation;
 	}
 
+	/**
+		Make an unlogged operation.
+
+		@param hdl the container handle
+		@param unloggedPosition the number of pages of the container the
+		transaction has allocated so far, see UnloggedPages
+
+		@exception StandardException Standard Derby error policy
+	*/
+	protected ContainerOperation(RawContainerHandle hdl, int unloggedPosition)
+		 throws StandardException
+	{
+		this(hdl, UNLOGGED);
+		this.unloggedPosition = unloggedPosition;
+	}
+
 	/*
 	 * Formatable methods
 	 */
@@ -114,6 +148,10 @@ public class ContainerOperation extends ContainerBasicOperation implements Undoa
 					
 			createByteArray.writeExternal(out);
 		}
+		else if (operation == UNLOGGED)
+		{
+			CompressedNumber.writeInt(out, unloggedPosition);
+		}
 	}
 
 	/**
@@ -131,6 +169,10 @@ public class ContainerOperation extends ContainerBasicOperation implements Undoa
 			createByteArray = new ByteArray();
 			createByteArray.readExternal(in);
 		}
+		else if (operation == UNLOGGED)
+		{
+			unloggedPosition = CompressedNumber.readInt(in);
+		}
 	}
 
 	/**
@@ -197,6 +239,10 @@ public class ContainerOperation extends ContainerBasicOperation implements Undoa
 			// nothing to do with create container, it has already been synced to
 			// disk.  If the container is subsequently dropped or even removed,
 			// that's fine too.  Don't bother to find it.
+
+		case UNLOGGED:
+			break;
+			// nothing to do, the changes which follow are not logged.
 		}
 
 		releaseResource(tran);
@@ -242,6 +288,16 @@ public class ContainerOperation extends ContainerBasicOperation implements Undoa
 				SanityManager.THROWASSERT("cannot undo REMOVE, should not have generated a CLR in the first place");
 			}
 			break;
+
+		case UNLOGGED:
+			if (SanityManager.DEBUG) {
+				SanityManager.ASSERT(hdl != null, "container handle is null");
+			}
+			// the pages allocated since have been deallocated, the
+			// changes to them were not logged and are gone with them
+			((BaseContainerHandle) hdl).container.removeUnloggedPages(
+				unloggedPosition);
+			break;
 		}
 		releaseResource(tran);
 
@@ -288,6 +344,9 @@ public class ContainerOperation extends ContainerBasicOperation implements Undoa
 				break;
 			case REMOVE: str += " REMOVE container " + containerId;
 				break;
+			case UNLOGGED: str += " UNLOGGED container " + containerId +
+							   " after " + unloggedPosition + " pages";
+				break;
 			}
 			return str;
 		}
@@ -215,6 +215,7 @@ public class EncryptOrDecryptData implements PrivilegedAction<Boolean> {
                                           "container " + ckey  +
                                           " from the page cache");
         }
+        dataFactory.discardBufferedPages(ckey);
 
 
         // get rid of the container entry from conatainer cache
@@ -41,7 +41,6 @@ import org.apache.derby.iapi.util.InterruptDetectedException;
 import org.apache.derby.iapi.error.StandardException;
 import org.apache.derby.iapi.store.raw.ContainerHandle;
 import org.apache.derby.iapi.store.raw.ContainerKey;
-import org.apache.derby.iapi.store.raw.Page;
 import org.apache.derby.iapi.store.raw.PageKey;
 import org.apache.derby.iapi.store.raw.RecordHandle;
 import org.apache.derby.iapi.store.raw.RawStoreFactory;
@@ -65,8 +64,11 @@ import java.io.DataInput;
 import java.security.PrivilegedAction;
 import java.security.AccessController;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Properties;
 import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
 
 import org.apache.derby.io.StorageRandomAccessFile;
 
@@ -134,6 +136,15 @@ abstract class FileContainer
 	private static final int DEFAULT_PRE_ALLOC_SIZE = 8;
 	private static final int MAX_PRE_ALLOC_SIZE     = 1000;
 
+	// how long newPage waits for the background preallocation thread, in
+	// milliseconds, before it withdraws the reservation and preallocates
+	// inline
+	private static final long BACKGROUND_PREALLOC_WAIT = 100L;
+
+	// number of forward page fetches in a row on a handle before the
+	// container starts reading ahead for it
+	private static final int SEQUENTIAL_FETCH_THRESHOLD = 2;
+
 	/* 
 	** Mutable fields, only valid when the identity is valid.
 	*/
@@ -157,6 +168,12 @@ abstract class FileContainer
 	 **/
 	private long reusableRecordIdSequenceNumber;
 
+	/**
+	 * Compresses and decompresses the pages of this container, or null if
+	 * the pages are stored uncompressed.
+	 **/
+	private PageCompressor pageCompressor;
+
 
 	/**
 		The page that was last inserted into.  Use this for getPageForInsert.
@@ -164,9 +181,13 @@ abstract class FileContainer
 		memory only.
 		Use Get/Set method to access this field except when we know it is
 		being single thread access.
+		<BR>
+		Normally there is one such page.  In multi-page insert mode (see
+		derby.storage.insertPages) there is one per slot, and each thread
+		uses the slot picked by its thread id, so that concurrent inserters
+		do not all wait for the latch of the same page.
 	 */
 	private long lastInsertedPage[];
-	private int  lastInsertedPage_index;
 
 	/** 
 		The last unfilled page found.  Use this for getPageForInsert.
@@ -183,6 +204,57 @@ abstract class FileContainer
 	 */
 	private long lastAllocatedPage;
 
+	/**
+		Background preallocation (derby.storage.preallocateExtents).
+		<BR>
+		newPage reserves the pages that follow the last preallocated page of
+		the alloc page it has latched, and queues the container with the
+		preallocation thread, which writes and syncs them without the alloc
+		page latch. Until it is done no page after the reserved base may be
+		allocated, since the thread may still overwrite it with an empty
+		page. When it is done, the next newPage on the same alloc page
+		records the new last preallocated page in the alloc page, provided
+		nothing else changed it in the meantime.
+		<BR>
+		The thread writes the pages an extent at a time. A newPage that
+		needs the reserved pages waits for it only a short while, then
+		withdraws the reservation and preallocates inline; the thread stops
+		after the extent it is writing, and the extents it has synced are
+		still recorded.
+		<BR>
+		MT - Access is synchronized on backgroundPrealloc.
+	 */
+	private final Object backgroundPrealloc = new Object();
+
+	// set from the reservation until the pages have been written or the
+	// reservation is withdrawn
+	private boolean backgroundPreallocPending;
+
+	// set while the preallocation thread writes an extent
+	private boolean backgroundPreallocWriting;
+
+	// counts the reservations, so that the thread notices when the one it
+	// works on has been replaced
+	private long backgroundPreallocReservation;
+
+	// the reservation: alloc page, last preallocated page of the alloc page
+	// when the pages were reserved, and the number of pages reserved
+	private long backgroundPreallocAllocPage =
+		ContainerHandle.INVALID_PAGE_NUMBER;
+	private long backgroundPreallocBase;
+	private int backgroundPreallocSize;
+
+	// last page written by the preallocation thread, still to be recorded
+	// in the alloc page, or INVALID_PAGE_NUMBER
+	private long backgroundPreallocDone = ContainerHandle.INVALID_PAGE_NUMBER;
+
+	/**
+		The pages whose checksum has been verified since the container was
+		opened, when derby.storage.verifyChecksumOnFirstRead is set.
+		Access is synchronized on the set itself.
+	 */
+	private final BitSet verifiedPages = new BitSet();
+
 	/**
 		An estimated page count. Use this for getEstimatedPagecount.
 		Remember it in memory only.
@@ -300,9 +372,23 @@ abstract class FileContainer
 	// recordId in this container can be reused when a page is reused.
 	private static final int FILE_REUSABLE_RECORDID = 0x8;
 
+	// pages other than the first alloc page are compressed on disk.
+	private static final int FILE_COMPRESSED_PAGES = 0x10;
+
+	// changes to the pages of this container are not logged.
+	private static final int FILE_UNLOGGED = 0x20;
+
 	protected static final String SPACE_TRACE = 
         (SanityManager.DEBUG ? "SpaceTrace" : null);
 
+	/** Trace the insert pages of the threads in multi-page insert mode. */
+	protected static final String INSERT_PAGES_TRACE = 
+        (SanityManager.DEBUG ? "InsertPagesTrace" : null);
+
+	/** Trace the work of the background preallocation thread. */
+	protected static final String PREALLOC_TRACE = 
+        (SanityManager.DEBUG ? "PreallocTrace" : null);
+
 	FileContainer(BaseDataFileFactory factory) 
     {
 		dataFactory = factory;
@@ -325,6 +411,9 @@ abstract class FileContainer
                 allocCache.getAllPageCounts(handle,firstAllocPageNumber);
         }
         spaceInfo.setPageSize(pageSize);
+        PageCompressor compressor = pageCompressor;
+        if (compressor != null)
+            spaceInfo.setCompressionRatio(compressor.getCompressionRatio());
         return spaceInfo;
     }
 
@@ -452,7 +541,7 @@ abstract class FileContainer
 					}
 				}
 
-				createInfoFromProp((Properties)createParameter);
+				createInfoFromProp(newIdentity, (Properties)createParameter);
 			}
 		}
 		else
@@ -493,6 +582,19 @@ abstract class FileContainer
 		lastUnfilledPage = ContainerHandle.INVALID_PAGE_NUMBER;
 		lastAllocatedPage = ContainerHandle.INVALID_PAGE_NUMBER;
 
+		synchronized (verifiedPages)
+		{
+			verifiedPages.clear();
+		}
+
+		synchronized (backgroundPrealloc)
+		{
+			backgroundPreallocPending = false;
+			backgroundPreallocReservation++;
+			backgroundPreallocDone = ContainerHandle.INVALID_PAGE_NUMBER;
+			backgroundPrealloc.notifyAll();
+		}
+
 		canUpdate = false;
 		super.clearIdentity();
 	}
@@ -631,6 +733,7 @@ abstract class FileContainer
      *     derby.storage.minimumRecordSize
      *     derby.storage.reusableRecordId
      *     derby.storage.initialPages
+     *     derby.storage.pageCompression
      * <p>
      * To get the value of a particular property add it to the property list,
      * and on return the value of the property will be set to it's current 
@@ -695,6 +798,20 @@ abstract class FileContainer
 					 Integer.toString(initialPages));
 		}
 
+		// derby.storage.pageCompression
+		if (prop.getProperty(RawStoreFactory.PAGE_COMPRESSION_PARAMETER) != null)
+		{
+			prop.put(RawStoreFactory.PAGE_COMPRESSION_PARAMETER,
+					 Boolean.toString(pageCompressor != null));
+		}
+
+		// derby.storage.unlogged
+		if (prop.getProperty(RawStoreFactory.UNLOGGED_PARAMETER) != null)
+		{
+			prop.put(RawStoreFactory.UNLOGGED_PARAMETER,
+					 Boolean.toString(isUnlogged()));
+		}
+
     }
 
 	/**
@@ -761,6 +878,8 @@ abstract class FileContainer
 		setDroppedState(false);
 		setCommittedDropState(false);
 		setReusableRecordIdState(false);
+		setCompressedPagesState(false);
+		setUnloggedState(false);
 
 		// instance variables that are not stored on disk
 		lastLogInstant = null;
@@ -849,6 +968,8 @@ abstract class FileContainer
 		setDroppedState((status & FILE_DROPPED) != 0);
 		setCommittedDropState((status & FILE_COMMITTED_DROP) != 0);
 		setReusableRecordIdState((status & FILE_REUSABLE_RECORDID) != 0);
+		setCompressedPagesState((status & FILE_COMPRESSED_PAGES) != 0);
+		setUnloggedState((status & FILE_UNLOGGED) != 0);
 	}
 
 
@@ -1010,6 +1131,8 @@ abstract class FileContainer
 		if (getDroppedState()) status |= FILE_DROPPED;
 		if (getCommittedDropState()) status |= FILE_COMMITTED_DROP;
 		if (isReusableRecordId()) status |= FILE_REUSABLE_RECORDID;
+		if (pageCompressor != null) status |= FILE_COMPRESSED_PAGES;
+		if (isUnlogged()) status |= FILE_UNLOGGED;
 
 		a_out.setPosition(0);
 		a_out.setLimit(CONTAINER_INFO_SIZE);
@@ -1073,6 +1196,7 @@ abstract class FileContainer
 		minimumRecordSize
 		isReusableRecordId
 		initialPages
+		page compression
 
 	 */
 	private void createInfoFromLog(ByteArray byteArray) 
@@ -1124,6 +1248,12 @@ abstract class FileContainer
 		// set reusable record id property
 		setReusableRecordIdState((status & FILE_REUSABLE_RECORDID) != 0);
 
+		// set page compression property
+		setCompressedPagesState((status & FILE_COMPRESSED_PAGES) != 0);
+
+		// set unlogged property
+		setUnloggedState((status & FILE_UNLOGGED) != 0);
+
 		// sanity check to make sure we are not encoutering any
 		// dropped Container 
 		if (SanityManager.DEBUG)
@@ -1143,12 +1273,15 @@ abstract class FileContainer
 		minimumRecordSize
 		isReusableRecordId
 		initialPages
+		page compression
 
 		RESOLVE - in the future setting parameters should be overridable
 		by sub-class, e.g. one implementation of Container may require a
 		minimum page size of 4k.
 	 */
-	private void createInfoFromProp(Properties createArgs)
+	private void createInfoFromProp(
+    ContainerKey    newIdentity, 
+    Properties      createArgs)
 		 throws StandardException
 	{
 		// Need a TransactionController to get database/service wide properties.
@@ -1219,13 +1352,55 @@ abstract class FileContainer
 					RawStoreFactory.MINIMUM_RECORD_SIZE_DEFAULT);
 		}
 
+		// whether or not pages are compressed on disk, temporary containers
+		// are never compressed.
+		if (newIdentity.getSegmentId() != ContainerHandle.TEMPORARY_SEGMENT)
+		{
+			String compressionParameter = (createArgs == null) ? null :
+				createArgs.getProperty(
+                    RawStoreFactory.PAGE_COMPRESSION_PARAMETER);
+			if (compressionParameter == null)
+				compressionParameter = PropertyUtil.getServiceProperty(tc,
+					RawStoreFactory.PAGE_COMPRESSION_PARAMETER);
+
+			if (PropertyUtil.booleanProperty(
+					RawStoreFactory.PAGE_COMPRESSION_PARAMETER,
+					compressionParameter, false))
+			{
+				// older versions cannot read compressed pages
+				dataFactory.getLogFactory().checkVersion(
+					RawStoreFactory.DERBY_STORE_MAJOR_VERSION_10,
+					RawStoreFactory.DERBY_STORE_MINOR_VERSION_14,
+					RawStoreFactory.PAGE_COMPRESSION_PARAMETER);
+
+				setCompressedPagesState(true);
+			}
+		}
+
 		// For the following properties, do not check value set in global
 		// properties, we only listen to what access has to say about them.
 		//
 		// whether or not container's recordIds can be reused
 		// if container is to be created with a large number of pages
+		// whether or not changes to the container are logged
 		if (createArgs != null)
 		{
+			if (newIdentity.getSegmentId() != ContainerHandle.TEMPORARY_SEGMENT &&
+				PropertyUtil.booleanProperty(
+					RawStoreFactory.UNLOGGED_PARAMETER,
+					createArgs.getProperty(RawStoreFactory.UNLOGGED_PARAMETER),
+					false))
+			{
+				// older versions do not know to leave the changes of user
+				// transactions unlogged
+				dataFactory.getLogFactory().checkVersion(
+					RawStoreFactory.DERBY_STORE_MAJOR_VERSION_10,
+					RawStoreFactory.DERBY_STORE_MINOR_VERSION_14,
+					RawStoreFactory.UNLOGGED_PARAMETER);
+
+				setUnloggedState(true);
+			}
+
 			String reusableRecordIdParameter = 
 				createArgs.getProperty(RawStoreFactory.PAGE_REUSABLE_RECORD_ID);
 			if (reusableRecordIdParameter != null)
@@ -1335,6 +1510,22 @@ abstract class FileContainer
 
 	}
 
+	/**
+		Forget the pages of an unlogged container which the transaction
+		rolling back allocated after the first <code>position</code> ones.
+		The rollback has deallocated them, see UnloggedPages.
+
+		@param position the number of pages to keep
+	*/
+	protected void removeUnloggedPages(int position)
+	{
+		// the pages are forgotten as a whole when a transaction aborts, and
+		// recovery does not know about them
+		UnloggedPages pages = dataFactory.findUnloggedPages(identity);
+		if (pages != null)
+			pages.removeFrom(position);
+	}
+
 	/**
 	  Compress free space from container.
 
@@ -1406,6 +1597,11 @@ abstract class FileContainer
         }
 
         
+        // the preallocation thread must not extend the file again after it
+        // has been truncated.  No new reservation can be made while we hold
+        // the exclusive table lock.
+        cancelBackgroundPreallocation();
+
         // make sure we don't execute redo recovery on any page
         // which is getting truncated.  At this point we have an exclusive
         // table lock on the table, so after checkpoint no page change
@@ -1484,6 +1680,7 @@ abstract class FileContainer
             // get rid of truncated pages, iterface allows one page or
             // all pages.
             pageCache.discard(identity);
+            dataFactory.discardBufferedPages(identity);
         }
 	}
 
@@ -1826,6 +2023,15 @@ abstract class FileContainer
                     (allocHandle.getMode() & ContainerHandle.MODE_UNLOGGED) ==
                         ContainerHandle.MODE_UNLOGGED;
 
+			    // Pick up pages written by the preallocation thread, waiting
+			    // for it if it is still writing the page we want, or if we
+			    // are about to preallocate a large number of pages ourselves.
+			    if (!noIO)
+			    {
+				    lastPreallocPage = takeBackgroundPreallocation(
+                        allocPage, pageNumber, bulkIncreaseContainerSize);
+			    }
+
 			    // If we do not need the I/O (either because we are in a
 			    // create_unlogged mode or we are dealing with a temp table), 
                 // don't do any preallocation.  Otherwise, see if we should be
@@ -1850,6 +2056,12 @@ abstract class FileContainer
 			    lastPreallocPage = allocPage.getLastPreallocPagenum();
 			    boolean prealloced = pageNumber <= lastPreallocPage;
 
+			    if (!noIO && !reuse)
+			    {
+				    scheduleBackgroundPreallocation(
+                        allocPage, pageNumber, lastPreallocPage);
+			    }
+
 			    // Argument to the create is an array of ints.
 			    // The array is only used for new page creation or for creating
                 // a preallocated page, not for reuse.
@@ -2011,7 +2223,7 @@ abstract class FileContainer
 		}
 
 		if (!isOverflow && page != null)
-			setLastInsertedPage(pageNumber);
+			claimInsertPage(pageNumber);
 
 
 		// increase estimated page count - without any synchronization or
@@ -2049,6 +2261,7 @@ abstract class FileContainer
 	protected void prepareForBulkLoad(BaseContainerHandle handle, int numPage)
 	{
 		clearPreallocThreshold();
+		cancelBackgroundPreallocation();
 		RawTransaction tran = handle.getTransaction();
 
 		// find the last allocation page - do not invalidate the alloc cache,
@@ -2572,10 +2785,62 @@ abstract class FileContainer
 		return page;
 	}
 
-	protected void trackUnfilledPage(long pagenumber, boolean unfilled)
+	/**
+		Record the free space class of a page in the free space map.
+
+		@param spaceClass one of the AllocExtent PAGE_* space classes
+	*/
+	protected void trackPageSpace(long pagenumber, int spaceClass)
+		 throws StandardException
+	{
+		trackPageSpace(pagenumber, spaceClass, false);
+	}
+
+	/**
+		Record the free space class of a page in the free space map, and
+		get the changed extent written out by the next checkpoint.
+
+		@param spaceClass one of the AllocExtent PAGE_* space classes
+		@param readAllocPage read the alloc page into the page cache if it
+		is not there.  Page cleaning must not, if the alloc page is not in
+		the page cache the change is then written back the next time the
+		allocation cache invalidates the extent.
+	*/
+	private void trackPageSpace(long pagenumber, int spaceClass,
+								boolean readAllocPage)
+		 throws StandardException
 	{
-		if (!dataFactory.isReadOnly())
-			allocCache.trackUnfilledPage(pagenumber, unfilled);
+		if (dataFactory.isReadOnly())
+			return;
+
+		long allocPageNum = allocCache.trackPageSpace(pagenumber, spaceClass);
+
+		if (allocPageNum != ContainerHandle.INVALID_PAGE_NUMBER)
+		{
+			PageKey allocKey = new PageKey(identity, allocPageNum);
+			Cacheable allocPage = readAllocPage ?
+				pageCache.find(allocKey) : pageCache.findCached(allocKey);
+
+			if (allocPage != null)
+			{
+				if (allocPage instanceof AllocPage)
+					((AllocPage) allocPage).setFreeSpaceDirty(
+						allocCache.getExtent(allocPageNum));
+				pageCache.release(allocPage);
+			}
+		}
+	}
+
+	/**
+		Make the space freed by a purge known to inserts right away,
+		rather than when the page is next written out.
+
+		@see BaseContainer#spaceFreed
+	*/
+	protected void spaceFreed(BasePage page)
+		 throws StandardException
+	{
+		trackPageSpace(page.getPageNumber(), page.getSpaceClass(), true);
 	}
 
 	/**
@@ -2868,6 +3133,137 @@ abstract class FileContainer
 	}
 
 
+	/**
+		Read ahead of a sequential scan.
+		<p>
+		Keeps track of the pages fetched through the handle.  Once the handle
+		has moved forward through the container on SEQUENTIAL_FETCH_THRESHOLD
+		fetches in a row, the next valid pages up to the read-ahead window
+		are handed to the read-ahead thread so that they are in the page
+		cache by the time the scan gets there.  A new batch is requested when
+		the scan has consumed half of the previous one.
+		<p>
+		Only valid pages are scheduled: a free or preallocated page must not
+		be brought into the cache since newPage() expects to create it there.
+
+		<BR> MT - the handle state is only used by the thread owning the
+		handle.
+
+		@exception StandardException Standard Derby error policy
+	*/
+	protected void pageFetched(BaseContainerHandle handle, long pageNumber)
+		 throws StandardException
+	{
+		int window = dataFactory.getReadAheadPages();
+
+		if (window == 0 ||
+			identity.getSegmentId() == ContainerHandle.TEMPORARY_SEGMENT)
+		{
+			return;
+		}
+
+		long lastPage = handle.lastFetchedPage;
+
+		// A scan which gives up the latch between groups of rows gets the
+		// page it was on again, that does not break the sequence.
+		if (pageNumber == lastPage)
+			return;
+
+		handle.lastFetchedPage = pageNumber;
+
+		if (lastPage == ContainerHandle.INVALID_PAGE_NUMBER ||
+			pageNumber <= lastPage || pageNumber - lastPage > window)
+		{
+			// random access, start over
+			handle.sequentialFetches = 0;
+			handle.readAheadLimit = pageNumber;
+			return;
+		}
+
+		if (++handle.sequentialFetches < SEQUENTIAL_FETCH_THRESHOLD)
+			return;
+
+		if (handle.readAheadLimit - pageNumber > window / 2)
+			return;		// still far enough ahead of the scan
+
+		long limit = pageNumber + window;
+		long nextPage = Math.max(pageNumber, handle.readAheadLimit);
+
+		synchronized(allocCache)
+		{
+			while (true)
+			{
+				nextPage = allocCache.getNextValidPage(
+							handle, nextPage, firstAllocPageNumber);
+
+				if (nextPage == ContainerHandle.INVALID_PAGE_NUMBER ||
+					nextPage > limit)
+				{
+					break;
+				}
+
+				if (!dataFactory.scheduleReadAhead(
+						new PageKey(identity, nextPage)))
+				{
+					// queue is full, try again on a later fetch
+					limit = nextPage - 1;
+					break;
+				}
+			}
+		}
+
+		handle.readAheadLimit = limit;
+	}
+
+	/**
+		Read a page into the page cache for the read-ahead thread.
+		<p>
+		The page was valid when the scan scheduled it, but it may have been
+		deallocated or even truncated away since.  Pages that are no longer
+		on disk are skipped, and a page which turns out not to be a valid
+		page is removed from the cache again rather than left behind for
+		newPage() to trip over.
+
+		@exception StandardException Standard Derby error policy
+	*/
+	protected void readAheadPage(long pageNumber)
+		 throws StandardException
+	{
+		if (getCommittedDropState() || !pageOnDisk(pageNumber))
+			return;
+
+		PageKey pageKey = new PageKey(identity, pageNumber);
+
+		BasePage page = (BasePage) pageCache.findCached(pageKey);
+
+		if (page != null)
+		{
+			// already cached, nothing to do
+			pageCache.release((Cacheable) page);
+			return;
+		}
+
+		page = (BasePage) pageCache.find(pageKey);
+
+		if (page == null)
+			return;
+
+		if (page.getPageStatus() == BasePage.VALID_PAGE)
+			pageCache.release((Cacheable) page);
+		else
+			pageCache.remove((Cacheable) page);
+	}
+
+	/**
+		Tell whether a page lies within what is currently on disk for this
+		container.  Used to avoid read-ahead past the end of the file.
+		The default is to say no, which disables read-ahead.
+	*/
+	protected boolean pageOnDisk(long pageNumber)
+	{
+		return false;
+	}
+
 	private BasePage getInsertablePage(BaseContainerHandle handle,
 									   long pageNumber,
 									   boolean wait,
@@ -2888,7 +3284,7 @@ abstract class FileContainer
 
                 // it is too full, make sure we are tracking it so we won't
                 // see it again.
-                allocCache.trackUnfilledPage(pageNumber, false);
+                trackPageSpace(pageNumber, AllocExtent.PAGE_FILLED);
             }
 		}
         /*
@@ -2906,7 +3302,7 @@ abstract class FileContainer
 		{
 			// it is not a user page, make sure we are tracking its fillness so
 			// we won't consider it as a 1/2 filled page ever
-			allocCache.trackUnfilledPage(pageNumber, false);
+			allocCache.trackPageSpace(pageNumber, AllocExtent.PAGE_FILLED);
 		}
         */
 		return p;
@@ -3035,8 +3431,10 @@ abstract class FileContainer
                 {
                     // most likely we could not get the latch NOWAIT, try again
                     // with a new page, and tell the system to switch to 
-                    // multi-page mode.
-                    /* switchToMultiInsertPageMode(handle); */
+                    // multi-page mode.  After the switch this thread may
+                    // have no insert page of its own yet, in which case it
+                    // goes on to look for an unfilled page below.
+                    switchToMultiInsertPageMode();
 
                     localLastInsertedPage = getLastInsertedPage();
 
@@ -3066,10 +3464,18 @@ abstract class FileContainer
 		else					// get a relatively unfilled page that is not
 		{						// the last Inserted page
 			long localLastUnfilledPage = getLastUnfilledPage();
+			long[] insertPages = getInsertPagesInUse();
 
-			if (localLastUnfilledPage == ContainerHandle.INVALID_PAGE_NUMBER ||
+			if (insertPages != null)
+			{
+				// multi-page mode, pick an unfilled page which no other
+				// thread is inserting into.
+				localLastUnfilledPage = getUnusedUnfilledPageNumber(
+					handle, getLastInsertedPage(), insertPages);
+			}
+			else if (localLastUnfilledPage == ContainerHandle.INVALID_PAGE_NUMBER ||
 				localLastUnfilledPage == getLastInsertedPage())
-				localLastUnfilledPage = getUnfilledPageNumber(handle, localLastUnfilledPage);
+				localLastUnfilledPage = getFreeSpacePageNumber(handle, localLastUnfilledPage);
 
 			if (localLastUnfilledPage != ContainerHandle.INVALID_PAGE_NUMBER)
 			{
@@ -3078,25 +3484,28 @@ abstract class FileContainer
 				// found does not have enough space for the insert and the
 				// client wants to get a brand new page.
 				p = getInsertablePage(handle, localLastUnfilledPage, true, false);
+				p = claimInsertablePage(p, localLastUnfilledPage);
 
 				// try again
 				if (p == null)
 				{
-					localLastUnfilledPage = getUnfilledPageNumber(handle, localLastUnfilledPage);
+					localLastUnfilledPage = (insertPages != null) ?
+						getUnusedUnfilledPageNumber(
+							handle, localLastUnfilledPage,
+							getInsertPagesInUse()) :
+						getFreeSpacePageNumber(handle, localLastUnfilledPage);
 					if (localLastUnfilledPage != ContainerHandle.INVALID_PAGE_NUMBER)
 					{
 						p = getInsertablePage(handle, localLastUnfilledPage, true,
 											  false);
+						p = claimInsertablePage(p, localLastUnfilledPage);
 					}
 				}
 			}
 
 			// return this page for insert
 			if (p != null)
-			{
 				setLastUnfilledPage(localLastUnfilledPage);
-				setLastInsertedPage(localLastUnfilledPage);
-			}
 		}
 
 		return p;
@@ -3104,6 +3513,25 @@ abstract class FileContainer
 	}
 
 
+	/**
+	 * Make a latched insertable page the insert page of the current thread.
+	 * If another thread made it its insert page while the page was being
+	 * latched, the page is unlatched again.
+	 *
+	 * @param p the latched page, or null
+	 * @param pageNumber the page number of the page
+	 * @return the page, or null if it is the insert page of another thread
+	 */
+	private BasePage claimInsertablePage(BasePage p, long pageNumber)
+	{
+		if (p != null && !claimInsertPage(pageNumber))
+		{
+			p.unlatch();
+			p = null;
+		}
+		return p;
+	}
+
 	/** 
 	 *  Get a latched page. Incase of backup page Latch is necessary to 
 	 *  prevent modification to the page when it is being written to the backup.
@@ -3149,6 +3577,85 @@ abstract class FileContainer
 		}
 	}		
 
+	/**
+		Get a page with room for an insert from the free space map.
+
+		@param pagenum the page that was last rejected
+		@return the page number, or INVALID_PAGE_NUMBER if none was found
+		@exception StandardException Standard Derby error policy
+	*/
+	private long getFreeSpacePageNumber(BaseContainerHandle handle,
+										long pagenum)
+		 throws StandardException
+	{
+		synchronized(allocCache)
+		{
+			return allocCache.
+				getFreeSpacePageNumber(handle, firstAllocPageNumber, pagenum);
+		}
+	}
+
+	/**
+		Get an unfilled page that is not the insert page of any thread, for
+		multi-page insert mode.  The search starts after pagenum and wraps
+		around to the start of the container once.  Only as many candidates
+		are looked at as there are insert pages, so this does not turn into
+		a walk of the whole container.
+
+		@param pagenum the page to search beyond
+		@param insertPages the insert pages in use
+		@return the page number, or INVALID_PAGE_NUMBER if none was found
+		@exception StandardException Standard Derby error policy
+	*/
+	private long getUnusedUnfilledPageNumber(BaseContainerHandle handle,
+											 long pagenum,
+											 long[] insertPages)
+		 throws StandardException
+	{
+		synchronized(allocCache)
+		{
+			long candidate = pagenum;
+			boolean wrapped = (pagenum == ContainerHandle.INVALID_PAGE_NUMBER);
+
+			for (int i = 0; i <= insertPages.length; i++)
+			{
+				candidate = allocCache.getNextUnfilledPageNumber(
+								handle, firstAllocPageNumber, candidate);
+
+				if (candidate == ContainerHandle.INVALID_PAGE_NUMBER)
+				{
+					if (wrapped)
+						break;
+					wrapped = true;
+					candidate = allocCache.getNextUnfilledPageNumber(
+								handle, firstAllocPageNumber,
+								ContainerHandle.INVALID_PAGE_NUMBER);
+					if (candidate == ContainerHandle.INVALID_PAGE_NUMBER)
+						break;
+				}
+
+				if (wrapped && pagenum != ContainerHandle.INVALID_PAGE_NUMBER &&
+					candidate >= pagenum)
+					break;
+
+				boolean inUse = false;
+				for (int j = 0; j < insertPages.length; j++)
+				{
+					if (insertPages[j] == candidate)
+					{
+						inUse = true;
+						break;
+					}
+				}
+
+				if (!inUse)
+					return candidate;
+			}
+		}
+
+		return ContainerHandle.INVALID_PAGE_NUMBER;
+	}
+
 	/*
 		Cost estimates
 	*/
@@ -3251,9 +3758,164 @@ abstract class FileContainer
 	protected abstract void writePage(long pageNumber, byte[] pageData, boolean syncPage) 
 		throws IOException, StandardException;
 
+	/**
+		Write a run of pages which are next to each other in the container,
+		as if by writePage() without sync for each of them. This
+		implementation writes them one by one, containers which can write
+		them with a single write override it.
+
+		<BR> MT - thread safe
+		@param firstPageNumber the page number of the first page of the run
+		@param pageData the page data arrays of the pages, in page order
+		@exception IOException error writing the pages
+		@exception StandardException Standard Derby error policy
+	*/
+	protected void writePages(long firstPageNumber, byte[][] pageData)
+		throws IOException, StandardException
+	{
+		for (int i = 0; i < pageData.length; i++)
+			writePage(firstPageNumber + i, pageData[i], false);
+	}
+
+	/**
+		Does the checksum of a page read from disk need to be verified?
+		Always true, unless derby.storage.verifyChecksumOnFirstRead is set
+		and the page has already been verified since the container was
+		opened.
+
+		<BR> MT - thread safe
+	*/
+	boolean needsChecksumVerification(long pageNumber)
+	{
+		if (!dataFactory.verifyChecksumOnFirstRead() ||
+			pageNumber > Integer.MAX_VALUE)
+		{
+			return true;
+		}
+
+		synchronized (verifiedPages)
+		{
+			return !verifiedPages.get((int) pageNumber);
+		}
+	}
+
+	/**
+		Remember that the checksum of a page has been verified, so that it
+		is trusted when the page is read again.
+
+		<BR> MT - thread safe
+	*/
+	void checksumVerified(long pageNumber)
+	{
+		if (!dataFactory.verifyChecksumOnFirstRead() ||
+			pageNumber > Integer.MAX_VALUE)
+		{
+			return;
+		}
+
+		synchronized (verifiedPages)
+		{
+			verifiedPages.set((int) pageNumber);
+		}
+	}
+
 	/*
 	 * Encryption/decryption
 	 */
+	/**
+		Turn compression of the pages of this container on or off.
+
+		<BR> MT - single thread required - Enforced by caller.
+	 */
+	private void setCompressedPagesState(boolean compressedPages)
+	{
+		if (compressedPages && pageCompressor == null)
+		{
+			pageCompressor = new PageCompressor();
+		}
+		else if (!compressedPages && pageCompressor != null)
+		{
+			pageCompressor.close();
+			pageCompressor = null;
+		}
+	}
+
+	/**
+		Compress a page which is about to be written, if the pages of this
+		container are stored compressed.
+
+		<BR> MT - MT safe.
+
+		@return the page image to write, either pageData itself or a new
+		array holding the compressed page
+	 */
+	protected byte[] compressPage(byte[] pageData)
+	{
+		PageCompressor compressor = pageCompressor;
+		return (compressor == null) ?
+			pageData : compressor.compress(pageData, pageSize);
+	}
+
+	/**
+		Decompress a page that has been read (and decrypted), if it has been
+		stored compressed.
+
+		<BR> MT - MT safe.
+
+		@exception StandardException Standard Derby error policy
+	 */
+	protected void decompressPage(long pageNumber, byte[] pageData)
+		 throws StandardException
+	{
+		PageCompressor compressor = pageCompressor;
+		if (compressor == null || pageNumber == FIRST_ALLOC_PAGE_NUMBER)
+			return;
+
+		try
+		{
+			compressor.decompress(pageData, pageSize);
+		}
+		catch (DataFormatException dfe)
+		{
+			throw dataFactory.markCorrupt(
+				StandardException.newException(
+					SQLState.DATA_CORRUPT_PAGE, dfe,
+					new PageKey(identity, pageNumber)));
+		}
+	}
+
+	/**
+		Get the number of bytes of a page image, as returned by
+		updatePageArray, that have to be written to disk if the page slot
+		already exists in the file. Only the head of an unencrypted
+		compressed page needs to be written, for other pages this is the page
+		size.
+
+		<BR> MT - MT safe.
+	 */
+	protected int getStoredPageLength(long pageNumber, byte[] dataToWrite)
+	{
+		PageCompressor compressor = pageCompressor;
+		if (compressor == null ||
+			pageNumber == FIRST_ALLOC_PAGE_NUMBER ||
+			dataFactory.databaseEncrypted())
+		{
+			return pageSize;
+		}
+		return compressor.storedLength(dataToWrite, pageSize);
+	}
+
+	/**
+		Are pages of this container written to disk as compressed images,
+		of which only the head is written? See getStoredPageLength().
+
+		<BR> MT - MT safe.
+	 */
+	protected boolean writesCompressedPages()
+	{
+		return pageCompressor != null && !dataFactory.databaseEncrypted();
+	}
+
 	/**
 		Decrypts a page
 
@@ -3366,6 +4028,269 @@ abstract class FileContainer
 	*/
 	protected abstract int preAllocate(long lastPreallocPagenum, int preAllocSize);
 
+	/**
+		Record the pages written by the preallocation thread in the alloc
+		page, if they belong to it.  If a reservation is pending on the
+		alloc page and the new page lies past the reserved base, or the
+		caller is about to preallocate pages itself, first wait for the
+		preallocation thread to finish, see
+		waitForBackgroundPreallocation.  If it does not finish in time, the
+		new page lies past the returned last preallocated page and newPage
+		preallocates inline.
+
+		<BR>MT - The alloc page must be latched.
+
+		@param allocPage the latched alloc page the new page belongs to
+		@param pageNumber the number of the new page
+		@param wait wait for a pending reservation on the alloc page even if
+				the new page lies before the reserved base
+		@return the last preallocated page of the alloc page
+	*/
+	private long takeBackgroundPreallocation(AllocPage allocPage,
+											 long pageNumber,
+											 boolean wait)
+	{
+		synchronized (backgroundPrealloc)
+		{
+			long lastPrealloc = allocPage.getLastPreallocPagenum();
+			long allocPageNumber = allocPage.getPageNumber();
+
+			if (backgroundPreallocAllocPage != allocPageNumber)
+				return lastPrealloc;
+
+			if (wait || pageNumber > lastPrealloc)
+				waitForBackgroundPreallocation();
+
+			if (backgroundPreallocDone != ContainerHandle.INVALID_PAGE_NUMBER)
+			{
+				// If the last preallocated page moved since the pages were
+				// reserved, the alloc page was compressed or someone
+				// preallocated inline; then don't trust what was written.
+				if (backgroundPreallocBase == lastPrealloc &&
+					backgroundPreallocDone > lastPrealloc)
+				{
+					allocPage.setLastPreallocPagenum(backgroundPreallocDone);
+					lastPrealloc = allocPage.getLastPreallocPagenum();
+
+					if (SanityManager.DEBUG)
+					{
+						if (SanityManager.DEBUG_ON(PREALLOC_TRACE))
+						{
+							SanityManager.DEBUG(PREALLOC_TRACE,
+								"recorded background preallocation " +
+								getIdentity() + " alloc page " +
+								allocPageNumber + " last page " +
+								lastPrealloc);
+						}
+					}
+				}
+				backgroundPreallocDone = ContainerHandle.INVALID_PAGE_NUMBER;
+			}
+
+			return lastPrealloc;
+		}
+	}
+
+	/**
+		Reserve pages for the preallocation thread if fewer than
+		derby.storage.preallocateExtents extents of preallocated pages are
+		left after a newly allocated page.
+
+		<BR>MT - The alloc page must be latched.
+
+		@param allocPage the latched alloc page the new page belongs to
+		@param pageNumber the number of the new page
+		@param lastPrealloc the last preallocated page of the alloc page
+	*/
+	private void scheduleBackgroundPreallocation(AllocPage allocPage,
+												 long pageNumber,
+												 long lastPrealloc)
+	{
+		int extents = dataFactory.getPreallocateExtents();
+
+		// only for containers that grow beyond the point where inline
+		// preallocation would kick in
+		if (extents == 0 || pageNumber <= PreAllocThreshold)
+			return;
+
+		long size = (long) extents * PreAllocSize;
+		if (lastPrealloc - pageNumber >= size)
+			return;
+
+		// don't preallocate beyond what the alloc page can handle, see
+		// AllocPage.preAllocatePage
+		size = Math.min(size, allocPage.getMaxPagenum() - lastPrealloc);
+		if (size <= 0)
+			return;
+
+		synchronized (backgroundPrealloc)
+		{
+			if (backgroundPreallocPending)
+				return;
+
+			backgroundPreallocPending = true;
+			backgroundPreallocReservation++;
+			backgroundPreallocAllocPage = allocPage.getPageNumber();
+			backgroundPreallocBase = lastPrealloc;
+			backgroundPreallocSize = (int) size;
+			backgroundPreallocDone = ContainerHandle.INVALID_PAGE_NUMBER;
+		}
+
+		if (!dataFactory.schedulePreallocation(identity))
+		{
+			synchronized (backgroundPrealloc)
+			{
+				backgroundPreallocPending = false;
+				backgroundPrealloc.notifyAll();
+			}
+		}
+	}
+
+	/**
+		Wait for the preallocation thread to finish with this container and
+		forget what it wrote.  Called before the pages at the end of the
+		container are changed by other means than newPage.
+	*/
+	private void cancelBackgroundPreallocation()
+	{
+		synchronized (backgroundPrealloc)
+		{
+			waitForBackgroundPreallocation();
+			backgroundPreallocAllocPage = ContainerHandle.INVALID_PAGE_NUMBER;
+			backgroundPreallocDone = ContainerHandle.INVALID_PAGE_NUMBER;
+		}
+	}
+
+	/**
+		Wait at most BACKGROUND_PREALLOC_WAIT milliseconds for the
+		preallocation thread to write the reserved pages, and withdraw the
+		reservation if it has not by then.  Either way the thread is no longer writing when this
+		returns; after a withdrawal it finishes at most the extent it was
+		writing.
+
+		<BR>MT - Must be called synchronized on backgroundPrealloc.
+	*/
+	private void waitForBackgroundPreallocation()
+	{
+		long deadline = System.currentTimeMillis() + BACKGROUND_PREALLOC_WAIT;
+
+		while (backgroundPreallocPending || backgroundPreallocWriting)
+		{
+			long timeout = deadline - System.currentTimeMillis();
+
+			if (timeout <= 0 && backgroundPreallocPending)
+			{
+				backgroundPreallocPending = false;
+
+				if (SanityManager.DEBUG)
+				{
+					if (SanityManager.DEBUG_ON(PREALLOC_TRACE))
+					{
+						SanityManager.DEBUG(PREALLOC_TRACE,
+							"withdrew background preallocation " +
+							getIdentity());
+					}
+				}
+				continue;
+			}
+
+			try
+			{
+				backgroundPrealloc.wait(
+					timeout > 0 ? timeout : BACKGROUND_PREALLOC_WAIT);
+			}
+			catch (InterruptedException ie)
+			{
+				InterruptStatus.setInterrupted();
+			}
+		}
+	}
+
+	/**
+		Write the pages reserved for background preallocation, on behalf of
+		the preallocation thread.  Does nothing if there is no reservation.
+		The pages are written and synced an extent at a time, and the
+		thread stops early if the reservation is withdrawn.
+	*/
+	void preallocateInBackground()
+	{
+		long base;
+		int size;
+		long reservation;
+
+		synchronized (backgroundPrealloc)
+		{
+			if (!backgroundPreallocPending)
+				return;
+
+			base = backgroundPreallocBase;
+			size = backgroundPreallocSize;
+			reservation = backgroundPreallocReservation;
+		}
+
+		int n = 0;
+		try
+		{
+			while (n < size && canUpdate && !getCommittedDropState())
+			{
+				int extent = Math.min(PreAllocSize, size - n);
+				int written = 0;
+
+				synchronized (backgroundPrealloc)
+				{
+					if (!backgroundPreallocPending ||
+						backgroundPreallocReservation != reservation)
+					{
+						break;
+					}
+					backgroundPreallocWriting = true;
+				}
+
+				try
+				{
+					written = preAllocate(base + n, extent);
+				}
+				finally
+				{
+					synchronized (backgroundPrealloc)
+					{
+						backgroundPreallocWriting = false;
+						if (written > 0)
+						{
+							n += written;
+							if (backgroundPreallocReservation == reservation)
+								backgroundPreallocDone = base + n;
+						}
+						backgroundPrealloc.notifyAll();
+					}
+				}
+
+				if (written < extent)
+					break;
+			}
+		}
+		finally
+		{
+			synchronized (backgroundPrealloc)
+			{
+				if (backgroundPreallocReservation == reservation)
+					backgroundPreallocPending = false;
+				backgroundPrealloc.notifyAll();
+			}
+		}
+
+		if (SanityManager.DEBUG)
+		{
+			if (SanityManager.DEBUG_ON(PREALLOC_TRACE))
+			{
+				SanityManager.DEBUG(PREALLOC_TRACE,
+					"background preallocation " + getIdentity() +
+					" after page " + base + " wrote " + n + " of " + size +
+					" pages");
+			}
+		}
+	}
+
 	/**
 		Preallocate the pages - actually doing it, called by subclass only
 	*/
@@ -3434,22 +4359,32 @@ abstract class FileContainer
 		return minimumRecordSize;
 	}
 
-	private synchronized void switchToMultiInsertPageMode(
-    BaseContainerHandle handle)
-        throws StandardException
+	/**
+	 * Switch to multi-page insert mode, if concurrent inserters may use
+	 * insert pages of their own (derby.storage.insertPages) and the
+	 * container is not in that mode already.  The current insert page is
+	 * kept in the first slot, the other slots start out empty and are
+	 * filled as their threads find or allocate pages to insert into.
+	 */
+	private synchronized void switchToMultiInsertPageMode()
     {
-        if (lastInsertedPage.length == 1)
+        int size = dataFactory.getInsertPages();
+
+        if (lastInsertedPage.length == 1 && size > 1)
         {
             long last = lastInsertedPage[0];
 
-            lastInsertedPage = new long[4];
+            initializeLastInsertedPage(size);
             lastInsertedPage[0] = last;
 
-            for (int i = 3; i > 0; i--)
+            if (SanityManager.DEBUG)
             {
-                Page page = addPage(handle, false);
-                lastInsertedPage[i] = page.getPageNumber();
-                page.unlatch();
+                if (SanityManager.DEBUG_ON(INSERT_PAGES_TRACE))
+                {
+                    SanityManager.DEBUG(INSERT_PAGES_TRACE,
+                        "multi-page insert mode " + getIdentity() +
+                        " slots " + size);
+                }
             }
         }
     }
@@ -3458,30 +4393,41 @@ abstract class FileContainer
 	 * Setting and getting lastInserted Page and lastUnfilledPage in a thead
 	 * safe manner. 
 	 */
+
+	/**
+	 * The slot of lastInsertedPage that the current thread uses.
+	 */
+	private int insertPageSlot()
+	{
+        return (int) (Thread.currentThread().getId() % lastInsertedPage.length);
+	}
+
 	private synchronized long getLastInsertedPage()
 	{
         if (lastInsertedPage.length == 1)
         {
-            if (SanityManager.DEBUG)
-                SanityManager.ASSERT(lastInsertedPage_index == 0);
-
             // optimize the usual case where no concurrent insert has kicked us
             // into multi-page mode - ie. only ONE last page.  
             return(lastInsertedPage[0]);
         }
         else
         {
-            long ret = lastInsertedPage[lastInsertedPage_index++];
-
-            if (lastInsertedPage_index > (lastInsertedPage.length - 1))
-            {
-                lastInsertedPage_index = 0;
-            }
-
-            return(ret);
+            return(lastInsertedPage[insertPageSlot()]);
         }
 	}
 
+	/**
+	 * Get a copy of the insert pages of all threads in multi-page insert
+	 * mode.
+	 *
+	 * @return the insert pages, or null if not in multi-page insert mode
+	 */
+	private synchronized long[] getInsertPagesInUse()
+	{
+        return (lastInsertedPage.length == 1) ?
+            null : (long[]) lastInsertedPage.clone();
+	}
+
 	private synchronized long getLastUnfilledPage()
 	{
 		return lastUnfilledPage;
@@ -3493,13 +4439,51 @@ abstract class FileContainer
 
         for (int i = lastInsertedPage.length - 1; i >= 0; i--)
             lastInsertedPage[i] = ContainerHandle.INVALID_PAGE_NUMBER;
-
-        lastInsertedPage_index = 0;
 	}
 
 	private synchronized void setLastInsertedPage(long val)
 	{
-		lastInsertedPage[lastInsertedPage_index] = val;
+		lastInsertedPage[(lastInsertedPage.length == 1) ? 0 : insertPageSlot()]
+            = val;
+	}
+
+	/**
+	 * Make a page the insert page of the current thread, unless another
+	 * thread made it its insert page first in multi-page insert mode.  The
+	 * threads pick their pages from a copy of the insert pages in use, so
+	 * two of them may pick the same page.
+	 *
+	 * @param val the page number
+	 * @return false if the page is the insert page of another slot
+	 */
+	private synchronized boolean claimInsertPage(long val)
+	{
+        if (lastInsertedPage.length == 1)
+        {
+            lastInsertedPage[0] = val;
+            return true;
+        }
+
+        int slot = insertPageSlot();
+        for (int i = 0; i < lastInsertedPage.length; i++)
+        {
+            if (i != slot && lastInsertedPage[i] == val)
+                return false;
+        }
+        lastInsertedPage[slot] = val;
+
+        if (SanityManager.DEBUG)
+        {
+            if (SanityManager.DEBUG_ON(INSERT_PAGES_TRACE))
+            {
+                SanityManager.DEBUG(INSERT_PAGES_TRACE,
+                    "insert page " + getIdentity() +
+                    " slot " + slot + " page " + val +
+                    " slots " + Arrays.toString(lastInsertedPage));
+            }
+        }
+
+        return true;
 	}
 
 	private synchronized void setLastUnfilledPage(long val)
@@ -3544,10 +4528,17 @@ abstract class FileContainer
      * 
      * @param handle the container handle.
      * @param backupLocation location of the backup container. 
+     * @param versionLocation where to record the page versions.
+     * @param baseVersionLocation page versions of the base backup, or null
+     *                            to back up every page.
+     * @param compress whether to compress the copy.
      * @exception StandardException Standard Derby error policy 
      */
 	protected abstract void backupContainer(BaseContainerHandle handle,	
-                                            String backupLocation)
+                                            String backupLocation,
+                                            String versionLocation,
+                                            String baseVersionLocation,
+                                            boolean compress)
 	    throws StandardException;
     
     /**
@@ -0,0 +1,190 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.data.FreeSpaceMap
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.data;
+
+import org.apache.derby.iapi.store.raw.ContainerHandle;
+
+/**
+	The in memory part of the free space map of a container, which lets the
+	allocation cache find a page with room for an insert without walking
+	the bit maps of the alloc extents.
+	<P>
+	The alloc extents bucket every head page by its free space class (see
+	AllocExtent.PAGE_UNFILLED and AllocExtent.PAGE_PARTLY_FILLED), and keep
+	the buckets on disk as bit maps.  For each free space class this keeps
+	a stack of candidate pages: the pages found in the bit maps when the
+	stack was loaded, and the pages which entered the class since.  A page
+	is not taken off the stack when it leaves the class.  Instead the
+	allocation cache checks a candidate against the bit maps when it looks
+	at it, and removes it if it is stale.  Since every candidate is removed
+	at most once, picking a page is O(1) amortized.
+	<P>
+	A stack holds at most MAX_CANDIDATES pages.  If pages are left out
+	because of that, the stack is marked incomplete, and is loaded from the
+	bit maps again once it runs empty.
+	<P>
+	MT - MT safe.  Pages are added by page cleaning and by purges, which do
+	not hold the allocation cache semaphore.  Lookups and removals are done
+	by the allocation cache with its semaphore held, so positions handed
+	out by getTop() only move down when a concurrent add() runs out of
+	room, and get() and remove() check the page number to notice that.
+*/
+class FreeSpaceMap
+{
+	/** The most candidates kept for a free space class. */
+	private static final int MAX_CANDIDATES = 4096;
+
+	private final long[][] candidates;
+	private final int[] counts;
+	private final boolean[] complete;
+
+	FreeSpaceMap()
+	{
+		int classes = AllocExtent.PAGE_UNFILLED + 1;
+		candidates = new long[classes][];
+		counts = new int[classes];
+		complete = new boolean[classes];
+	}
+
+	/**
+		Forget all candidates, so that the stacks are loaded from the bit
+		maps of the alloc extents the next time they are needed.
+	*/
+	synchronized void clear()
+	{
+		for (int i = 0; i < counts.length; i++)
+		{
+			candidates[i] = null;
+			counts[i] = 0;
+			complete[i] = false;
+		}
+	}
+
+	/**
+		Does the stack of a free space class need to be loaded from the bit
+		maps of the alloc extents?  That is the case when it is empty and
+		pages of the class may have been left out of it.
+	*/
+	synchronized boolean needsLoad(int spaceClass)
+	{
+		return counts[spaceClass] == 0 && !complete[spaceClass];
+	}
+
+	/**
+		Mark the stack of a free space class as holding every page of the
+		class, after all the alloc extents were loaded into it.
+	*/
+	synchronized void setComplete(int spaceClass)
+	{
+		complete[spaceClass] = true;
+	}
+
+	/**
+		Add a page found in the bit maps of an alloc extent.
+
+		@return false if there is no room for the page
+	*/
+	synchronized boolean add(int spaceClass, long pagenum)
+	{
+		if (counts[spaceClass] == MAX_CANDIDATES)
+			return false;
+
+		push(spaceClass, pagenum);
+		return true;
+	}
+
+	/**
+		Add a page which just entered a free space class.  If the stack is
+		full, its older half is dropped to make room, since recently freed
+		space is the most likely to still be there.
+	*/
+	synchronized void track(int spaceClass, long pagenum)
+	{
+		if (counts[spaceClass] == MAX_CANDIDATES)
+		{
+			int keep = MAX_CANDIDATES / 2;
+			System.arraycopy(candidates[spaceClass], MAX_CANDIDATES - keep,
+							 candidates[spaceClass], 0, keep);
+			counts[spaceClass] = keep;
+			complete[spaceClass] = false;
+		}
+
+		push(spaceClass, pagenum);
+	}
+
+	private void push(int spaceClass, long pagenum)
+	{
+		long[] stack = candidates[spaceClass];
+		int count = counts[spaceClass];
+
+		if (stack == null || count == stack.length)
+		{
+			long[] grown = new long[(stack == null) ? 16 :
+									Math.min(2 * stack.length, MAX_CANDIDATES)];
+			if (stack != null)
+				System.arraycopy(stack, 0, grown, 0, count);
+			candidates[spaceClass] = stack = grown;
+		}
+
+		stack[count] = pagenum;
+		counts[spaceClass] = count + 1;
+	}
+
+	/**
+		Get the position of the most recent candidate of a free space class.
+
+		@return the position, -1 if there is no candidate
+	*/
+	synchronized int getTop(int spaceClass)
+	{
+		return counts[spaceClass] - 1;
+	}
+
+	/**
+		Get the candidate at a position.
+
+		@return the page number, or INVALID_PAGE_NUMBER if the position is
+		no longer in use
+	*/
+	synchronized long get(int spaceClass, int position)
+	{
+		return (position < counts[spaceClass]) ?
+			candidates[spaceClass][position] :
+			ContainerHandle.INVALID_PAGE_NUMBER;
+	}
+
+	/**
+		Remove a stale candidate, unless it has moved from its position.
+	*/
+	synchronized void remove(int spaceClass, int position, long pagenum)
+	{
+		int count = counts[spaceClass];
+
+		if (position < count && candidates[spaceClass][position] == pagenum)
+		{
+			System.arraycopy(candidates[spaceClass], position + 1,
+							 candidates[spaceClass], position,
+							 count - position - 1);
+			counts[spaceClass] = count - 1;
+		}
+	}
+}
@@ -190,6 +190,8 @@ final class InputStreamContainer extends FileContainer  {
 		{
 			decryptPage(pageData, pageSize);
 		}
+
+		decompressPage(pageNumber, pageData);
 	}
 
 	/**
@@ -247,7 +249,10 @@ final class InputStreamContainer extends FileContainer  {
      * 
      * @exception StandardException Standard Derby error policy 
      */
-	protected void backupContainer(BaseContainerHandle handle,	String backupLocation)
+	protected void backupContainer(BaseContainerHandle handle,	String backupLocation,
+								   String versionLocation,
+								   String baseVersionLocation,
+								   boolean compress)
 	    throws StandardException
 	{
         throw StandardException.newException(
@@ -0,0 +1,297 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.data.PageBufferPool
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.data;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.derby.iapi.store.raw.ContainerKey;
+import org.apache.derby.iapi.store.raw.PageKey;
+
+/**
+ * A pool of page images kept outside the Java heap, in direct
+ * <code>ByteBuffer</code> slabs (derby.storage.pageBufferPoolSize).
+ * <p>
+ * The pool is a second level below the page cache. When a clean page is
+ * evicted from the page cache, its image is copied into a slot of the pool,
+ * and when the page is needed again, it is copied back from the pool instead
+ * of being read from disk. A page is never in the pool and in the page cache
+ * at the same time, so the pool holds no copies which can get out of date
+ * when the page is changed. The heap only holds a map from page key to slot
+ * for each page in the pool, which is much smaller than the page itself, so
+ * a large pool does not make garbage collection slower.
+ * <p>
+ * The pool is split into stripes by page key to reduce contention, and each
+ * stripe keeps separate slabs for each page size. Slabs are allocated on
+ * demand until the memory of the pool is used up, after that the least
+ * recently stored page in a stripe and page size is replaced.
+ * <p>
+ * MT - thread safe. Each stripe is only used while holding its monitor.
+ */
+final class PageBufferPool {
+
+    /** Number of stripes. */
+    private static final int STRIPES = 16;
+
+    /** Largest slab to allocate at once. */
+    private static final int MAX_SLAB_SIZE = 8 * 1024 * 1024;
+
+    /** Maximum number of bytes to allocate for slabs. */
+    private final long capacity;
+
+    /** Number of bytes allocated for slabs so far. */
+    private final AtomicLong allocated = new AtomicLong();
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Create a pool.
+     *
+     * @param capacity the number of bytes the pool may allocate
+     */
+    PageBufferPool(long capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Store the image of a clean page which leaves the page cache. If the
+     * pool is full, a page that has been in the pool for a long time is
+     * dropped to make room. If there is no room for pages of this size at
+     * all, the page is not stored.
+     *
+     * @param key the identity of the page
+     * @param pageData the page image
+     */
+    void put(PageKey key, byte[] pageData) {
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            s.sizeClass(pageData.length).put(key, pageData);
+        }
+    }
+
+    /**
+     * Move a page from the pool into a page buffer.
+     *
+     * @param key the identity of the page
+     * @param pageData the buffer to copy the page into
+     * @return <code>true</code> if the page was in the pool and has been
+     * copied, <code>false</code> if it must be read from disk
+     */
+    boolean take(PageKey key, byte[] pageData) {
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            SizeClass sc = s.sizes.get(pageData.length);
+            return sc != null && sc.take(key, pageData);
+        }
+    }
+
+    /**
+     * Drop a page from the pool, if it is there.
+     *
+     * @param key the identity of the page
+     */
+    void remove(PageKey key) {
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            for (SizeClass sc : s.sizes.values()) {
+                sc.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drop all the pages of a container from the pool. Must be called
+     * whenever the pages of a container are discarded from the page cache
+     * because the container file is going away or being replaced.
+     *
+     * @param container the identity of the container, or <code>null</code>
+     * to drop all pages
+     */
+    void discard(ContainerKey container) {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                for (SizeClass sc : s.sizes.values()) {
+                    sc.discard(container);
+                }
+            }
+        }
+    }
+
+    private Stripe stripeFor(PageKey key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % STRIPES];
+    }
+
+    /**
+     * Reserve memory for a new slab.
+     *
+     * @param size the size of the slab
+     * @return the slab, or <code>null</code> if the pool is full
+     */
+    private ByteBuffer allocateSlab(int size) {
+        if (allocated.addAndGet(size) > capacity) {
+            allocated.addAndGet(-size);
+            return null;
+        }
+        try {
+            return ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError oome) {
+            // Direct memory is limited by -XX:MaxDirectMemorySize. Don't
+            // try to grow any further, but use what we have.
+            allocated.set(capacity);
+            return null;
+        }
+    }
+
+    /** A stripe of the pool. */
+    private final class Stripe {
+        /** The pages in the stripe, by page size. */
+        final HashMap<Integer, SizeClass> sizes =
+            new HashMap<Integer, SizeClass>();
+
+        SizeClass sizeClass(int pageSize) {
+            SizeClass sc = sizes.get(pageSize);
+            if (sc == null) {
+                sc = new SizeClass(pageSize);
+                sizes.put(pageSize, sc);
+            }
+            return sc;
+        }
+    }
+
+    /**
+     * The pages of one size in a stripe. Must only be used while holding the
+     * monitor of the stripe.
+     */
+    private final class SizeClass {
+        private final int pageSize;
+        private final int slotsPerSlab;
+        private final ArrayList<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+        /** The slot of each page, in the order they were stored. */
+        private final LinkedHashMap<PageKey, Integer> slots =
+            new LinkedHashMap<PageKey, Integer>();
+
+        /** Slots that are not in use. */
+        private int[] freeSlots = new int[16];
+        private int freeCount;
+
+        SizeClass(int pageSize) {
+            this.pageSize = pageSize;
+            long slabSize = Math.min(MAX_SLAB_SIZE, capacity / STRIPES);
+            this.slotsPerSlab = (int) Math.max(1, slabSize / pageSize);
+        }
+
+        void put(PageKey key, byte[] pageData) {
+            Integer slot = slots.remove(key);
+            if (slot == null) {
+                slot = findSlot();
+                if (slot == null) {
+                    return;
+                }
+            }
+            // (re)insert last, so that the oldest page is first
+            slots.put(key, slot);
+            ByteBuffer slab = slabs.get(slot / slotsPerSlab);
+            slab.position((slot % slotsPerSlab) * pageSize);
+            slab.put(pageData, 0, pageSize);
+        }
+
+        boolean take(PageKey key, byte[] pageData) {
+            Integer slot = slots.remove(key);
+            if (slot == null) {
+                return false;
+            }
+            ByteBuffer slab = slabs.get(slot / slotsPerSlab);
+            slab.position((slot % slotsPerSlab) * pageSize);
+            slab.get(pageData, 0, pageSize);
+            freeSlot(slot);
+            return true;
+        }
+
+        void remove(PageKey key) {
+            Integer slot = slots.remove(key);
+            if (slot != null) {
+                freeSlot(slot);
+            }
+        }
+
+        void discard(ContainerKey container) {
+            for (Iterator<Map.Entry<PageKey, Integer>> it =
+                     slots.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<PageKey, Integer> e = it.next();
+                if (container == null ||
+                        container.equals(e.getKey().getContainerId())) {
+                    freeSlot(e.getValue());
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * Find a slot for a new page: a free slot, a slot in a new slab, or
+         * the slot of the oldest page.
+         *
+         * @return the slot, or <code>null</code> if there is none
+         */
+        private Integer findSlot() {
+            if (freeCount > 0) {
+                return freeSlots[--freeCount];
+            }
+
+            ByteBuffer slab = allocateSlab(slotsPerSlab * pageSize);
+            if (slab != null) {
+                slabs.add(slab);
+                int first = (slabs.size() - 1) * slotsPerSlab;
+                for (int i = slotsPerSlab - 1; i > 0; i--) {
+                    freeSlot(first + i);
+                }
+                return first;
+            }
+
+            Iterator<Integer> oldest = slots.values().iterator();
+            if (oldest.hasNext()) {
+                Integer slot = oldest.next();
+                oldest.remove();
+                return slot;
+            }
+            return null;
+        }
+
+        private void freeSlot(int slot) {
+            if (freeCount == freeSlots.length) {
+                int[] a = new int[freeSlots.length * 2];
+                System.arraycopy(freeSlots, 0, a, 0, freeCount);
+                freeSlots = a;
+            }
+            freeSlots[freeCount++] = slot;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.data.PageCompressor
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.data;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses the page images of a container whose pages
+ * are stored compressed on disk (derby.storage.pageCompression).
+ * <p>
+ * A compressed page image occupies the same page slot in the file as an
+ * uncompressed page, and has the following layout:
+ * <PRE>
+ *   4 bytes int   format marker, FORMAT_V1
+ *   4 bytes int   length of the compressed data
+ *   n bytes       the page, compressed with the deflate algorithm
+ *   ...           zeros up to the end of the page
+ * </PRE>
+ * Pages that do not compress well enough to save at least one
+ * <code>BLOCK_SIZE</code> block are stored uncompressed, so a container with
+ * compressed pages may hold a mix of both kinds. The two are told apart by
+ * the first two bytes, which hold the format id in an uncompressed page and
+ * can never be a valid page format id in a compressed one.
+ * <p>
+ * MT - thread safe. The codecs are not, so each of them is only used while
+ * holding its monitor.
+ */
+final class PageCompressor {
+
+    /**
+     * Marker of version 1 of the compressed page format. The last byte is
+     * the version number, the first three bytes are the same for all
+     * versions.
+     */
+    static final int FORMAT_V1 = 0x44435001;
+
+    /** Size of the header in front of the compressed data. */
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * The granularity of compressed page writes. Only this many bytes,
+     * rounded up, are written for a compressed page.
+     */
+    static final int BLOCK_SIZE = 512;
+
+    private final Deflater deflater =
+        new Deflater(Deflater.BEST_SPEED, true /* no zlib wrapper */);
+    private final Inflater inflater = new Inflater(true /* no zlib wrapper */);
+
+    /** Total size of the pages read or written, uncompressed. */
+    private long pageBytes;
+
+    /** Total size of the same pages as stored on disk. */
+    private long storedBytes;
+
+    /**
+     * Compress a page.
+     *
+     * @param pageData the page in clear text
+     * @param pageSize the size of the page
+     * @return a new array of <code>pageSize</code> bytes holding the
+     * compressed image of the page, or <code>pageData</code> if the page
+     * should be stored uncompressed
+     */
+    byte[] compress(byte[] pageData, int pageSize) {
+        byte[] image = new byte[pageSize];
+        int length;
+
+        synchronized (deflater) {
+            deflater.reset();
+            deflater.setInput(pageData, 0, pageSize);
+            deflater.finish();
+
+            // Leave out the last block, a page which doesn't save at least
+            // one block is not worth the cost of decompressing it.
+            length = deflater.deflate(
+                image, HEADER_SIZE, pageSize - HEADER_SIZE - BLOCK_SIZE);
+            if (!deflater.finished()) {
+                length = -1;
+            }
+        }
+
+        if (length < 0) {
+            countPage(pageSize, pageSize);
+            return pageData;
+        }
+
+        writeInt(image, 0, FORMAT_V1);
+        writeInt(image, 4, length);
+        countPage(pageSize, roundToBlock(length));
+        return image;
+    }
+
+    /**
+     * Decompress a page in place, if it holds a compressed image.
+     *
+     * @param pageData the page as read from disk (after decryption)
+     * @param pageSize the size of the page
+     * @exception DataFormatException if the compressed image is corrupt
+     */
+    void decompress(byte[] pageData, int pageSize)
+        throws DataFormatException
+    {
+        if (readInt(pageData, 0) != FORMAT_V1) {
+            // stored uncompressed
+            countPage(pageSize, pageSize);
+            return;
+        }
+
+        int length = readInt(pageData, 4);
+        if (length <= 0 || length > pageSize - HEADER_SIZE) {
+            throw new DataFormatException(
+                "bad compressed page length " + length);
+        }
+
+        // The page is decompressed into the array it is read from, so take
+        // the compressed data out first.
+        byte[] compressed = new byte[length];
+        System.arraycopy(pageData, HEADER_SIZE, compressed, 0, length);
+
+        synchronized (inflater) {
+            inflater.reset();
+            inflater.setInput(compressed);
+            int read = inflater.inflate(pageData, 0, pageSize);
+            if (read != pageSize || !inflater.finished()) {
+                throw new DataFormatException(
+                    "compressed page expanded to " + read + " bytes");
+            }
+        }
+
+        countPage(pageSize, roundToBlock(length));
+    }
+
+    /**
+     * Get the number of bytes of a page image which have to be written to
+     * disk. The rest of a compressed image is zeros, and need not be written
+     * if the page slot already exists in the file.
+     *
+     * @param image the page image in clear text, as returned by
+     * {@link #compress}
+     * @param pageSize the size of the page
+     * @return the number of bytes to write
+     */
+    int storedLength(byte[] image, int pageSize) {
+        if (readInt(image, 0) != FORMAT_V1) {
+            return pageSize;
+        }
+        return roundToBlock(readInt(image, 4));
+    }
+
+    /**
+     * Get the ratio between the size of the pages read or written through
+     * this compressor and the space they take on disk.
+     *
+     * @return the compression ratio, or 1.0 if no pages have been seen
+     */
+    synchronized double getCompressionRatio() {
+        return (storedBytes == 0) ? 1.0 : ((double) pageBytes) / storedBytes;
+    }
+
+    /**
+     * Release the native resources held by the codecs. The compressor must
+     * not be used afterwards.
+     */
+    void close() {
+        synchronized (deflater) {
+            deflater.end();
+        }
+        synchronized (inflater) {
+            inflater.end();
+        }
+    }
+
+    private synchronized void countPage(int pageSize, int stored) {
+        pageBytes += pageSize;
+        storedBytes += stored;
+    }
+
+    private static int roundToBlock(int length) {
+        return ((HEADER_SIZE + length + BLOCK_SIZE - 1) / BLOCK_SIZE) *
+            BLOCK_SIZE;
+    }
+
+    private static int readInt(byte[] a, int offset) {
+        return ((a[offset] & 0xff) << 24) |
+               ((a[offset + 1] & 0xff) << 16) |
+               ((a[offset + 2] & 0xff) << 8) |
+               (a[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] a, int offset, int value) {
+        a[offset]     = (byte) (value >>> 24);
+        a[offset + 1] = (byte) (value >>> 16);
+        a[offset + 2] = (byte) (value >>> 8);
+        a[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.data.PagePreallocator
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.services.context.ContextManager;
+import org.apache.derby.iapi.services.daemon.DaemonService;
+import org.apache.derby.iapi.services.daemon.Serviceable;
+import org.apache.derby.iapi.store.raw.ContainerKey;
+
+/**
+ * A background writer which extends growing containers ahead of the
+ * inserting transactions. When a container finds that few preallocated
+ * pages are left after the page it has just allocated, it reserves the
+ * pages that follow and queues its key here, and a separate
+ * <code>DaemonService</code> thread writes and syncs those pages while
+ * the inserts go on with the pages that are already there.
+ * <p>
+ * Each container has at most one reservation, so it is queued at most
+ * once. If the queue is full the container drops its reservation and
+ * preallocates inline as usual when it runs out of pages.
+ */
+final class PagePreallocator implements Serviceable {
+
+    /** Maximum number of containers waiting for preallocation. */
+    private static final int QUEUE_SIZE = 64;
+
+    /** The service thread which performs the preallocation. */
+    private final DaemonService daemonService;
+
+    /** Subscription number for this <code>Serviceable</code>. */
+    private final int clientNumber;
+
+    /**
+     * Flag which tells whether the preallocator has a still unprocessed job
+     * scheduled with the daemon service.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** A queue of containers which have pages reserved for preallocation. */
+    private final ArrayBlockingQueue<ContainerKey> queue =
+        new ArrayBlockingQueue<ContainerKey>(QUEUE_SIZE);
+
+    /** The data factory owning the container cache. */
+    private final BaseDataFileFactory dataFactory;
+
+    /**
+     * Create a preallocator and subscribe it to a daemon service.
+     *
+     * @param factory the data factory whose containers should be extended
+     * @param daemon the daemon service which performs the preallocation
+     */
+    PagePreallocator(BaseDataFileFactory factory, DaemonService daemon) {
+        daemonService = daemon;
+        dataFactory = factory;
+        // subscribe with the onDemandOnly flag
+        clientNumber = daemon.subscribe(this, true);
+    }
+
+    /**
+     * Try to schedule the reserved pages of a container to be preallocated.
+     *
+     * @param identity the container which has reserved pages
+     * @return <code>true</code> if the preallocation has been scheduled,
+     * <code>false</code> if the queue is full
+     */
+    boolean schedulePreallocation(ContainerKey identity) {
+        final boolean queued = queue.offer(identity);
+        if (queued) {
+            requestService();
+        }
+        return queued;
+    }
+
+    /**
+     * Notify the daemon service that the preallocator needs to be serviced.
+     */
+    private void requestService() {
+        // Same protocol as PageReadAhead: only call serviceNow() if there
+        // is no outstanding request already.
+        if (scheduled.compareAndSet(false, true)) {
+            daemonService.serviceNow(clientNumber);
+        }
+    }
+
+    /**
+     * Stop subscribing to the daemon service and forget any pending work.
+     */
+    void unsubscribe() {
+        daemonService.unsubscribe(clientNumber);
+        queue.clear();
+    }
+
+    /**
+     * Preallocate the reserved pages of all the containers currently in the
+     * queue.
+     *
+     * @param context ignored
+     * @return <code>Serviceable.DONE</code>
+     */
+    public int performWork(ContextManager context) {
+        // allow others to schedule more work
+        scheduled.set(false);
+
+        ContainerKey identity;
+        while ((identity = queue.poll()) != null) {
+            try {
+                dataFactory.preallocateContainer(identity);
+            } catch (StandardException se) {
+                // Ignore, preallocation is an optimization only. The
+                // container will allocate its pages inline if it needs them.
+            }
+        }
+        return Serviceable.DONE;
+    }
+
+    /**
+     * Indicate that we want to be serviced ASAP.
+     * @return <code>true</code>
+     */
+    public boolean serviceASAP() {
+        return true;
+    }
+
+    /**
+     * Indicate that we don't want the work to happen immediately in the
+     * user thread.
+     * @return <code>false</code>
+     */
+    public boolean serviceImmediately() {
+        return false;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.data.PageReadAhead
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.services.context.ContextManager;
+import org.apache.derby.iapi.services.daemon.DaemonService;
+import org.apache.derby.iapi.services.daemon.Serviceable;
+import org.apache.derby.iapi.store.raw.PageKey;
+
+/**
+ * A background reader which brings pages into the page cache ahead of a
+ * sequential scan. When a container detects that a handle is walking its
+ * pages in ascending order, it queues the keys of the next few valid pages
+ * here, and a separate <code>DaemonService</code> thread reads them from
+ * disk while the scanning thread is still working on the current page.
+ * <p>
+ * Read-ahead is a hint only. Requests are dropped when the queue is full,
+ * and any error reading a page is ignored, since the user thread will read
+ * the page again (and report the error) if it really needs it.
+ */
+final class PageReadAhead implements Serviceable {
+
+    /** The service thread which performs the reads. */
+    private final DaemonService daemonService;
+
+    /** Subscription number for this <code>Serviceable</code>. */
+    private final int clientNumber;
+
+    /**
+     * Flag which tells whether the reader has a still unprocessed job
+     * scheduled with the daemon service.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** A queue of pages that should be read into the page cache. */
+    private final ArrayBlockingQueue<PageKey> queue;
+
+    /** The data factory owning the page cache and the container cache. */
+    private final BaseDataFileFactory dataFactory;
+
+    /**
+     * Create a read-ahead instance and subscribe it to a daemon service.
+     *
+     * @param factory the data factory whose page cache should be filled
+     * @param daemon the daemon service which performs the reads
+     * @param queueSize the maximum number of pages to keep in the queue
+     * (must be greater than 0)
+     */
+    PageReadAhead(
+            BaseDataFileFactory factory, DaemonService daemon, int queueSize) {
+        queue = new ArrayBlockingQueue<PageKey>(queueSize);
+        daemonService = daemon;
+        dataFactory = factory;
+        // subscribe with the onDemandOnly flag
+        clientNumber = daemon.subscribe(this, true);
+    }
+
+    /**
+     * Try to schedule a page to be read ahead.
+     *
+     * @param key the page that should be read into the cache
+     * @return <code>true</code> if the read has been scheduled,
+     * <code>false</code> if the queue is full
+     */
+    boolean scheduleRead(PageKey key) {
+        final boolean queued = queue.offer(key);
+        if (queued) {
+            requestService();
+        }
+        return queued;
+    }
+
+    /**
+     * Notify the daemon service that the reader needs to be serviced.
+     */
+    private void requestService() {
+        // Same protocol as the cache's BackgroundCleaner: only call
+        // serviceNow() if there is no outstanding request already.
+        if (scheduled.compareAndSet(false, true)) {
+            daemonService.serviceNow(clientNumber);
+        }
+    }
+
+    /**
+     * Stop subscribing to the daemon service and forget any pending reads.
+     */
+    void unsubscribe() {
+        daemonService.unsubscribe(clientNumber);
+        queue.clear();
+    }
+
+    /**
+     * Read all the pages currently in the queue into the page cache.
+     *
+     * @param context ignored
+     * @return <code>Serviceable.DONE</code>
+     */
+    public int performWork(ContextManager context) {
+        // allow others to schedule more work
+        scheduled.set(false);
+
+        PageKey key;
+        while ((key = queue.poll()) != null) {
+            try {
+                dataFactory.readAheadPage(key);
+            } catch (StandardException se) {
+                // Ignore, read-ahead is only a hint. The page will be read
+                // again by the scan if it is needed.
+            }
+        }
+        return Serviceable.DONE;
+    }
+
+    /**
+     * Indicate that we want to be serviced ASAP.
+     * @return <code>true</code>
+     */
+    public boolean serviceASAP() {
+        return true;
+    }
+
+    /**
+     * Indicate that we don't want the work to happen immediately in the
+     * user thread.
+     * @return <code>false</code>
+     */
+    public boolean serviceImmediately() {
+        return false;
+    }
+}
@@ -33,12 +33,20 @@ import org.apache.derby.iapi.error.StandardException;
 
 import org.apache.derby.iapi.store.raw.ContainerHandle;
 import org.apache.derby.iapi.store.raw.ContainerKey;
+import org.apache.derby.iapi.store.raw.data.DataFactory;
 import org.apache.derby.iapi.store.raw.log.LogInstant;
 
 import org.apache.derby.io.StorageFile;
 import org.apache.derby.io.StorageRandomAccessFile;
 import org.apache.derby.iapi.services.io.FileUtil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -47,6 +55,9 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.security.PrivilegedActionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /**
 	RAFContainer (short for RandomAccessFileContainer) is a concrete subclass of FileContainer
@@ -84,6 +95,9 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
 
 	private boolean inBackup = false;
 	private boolean inRemove = false;
+
+    /** Size of the buffer the pages of a backup copy are written through. */
+    private static final int BACKUP_BUFFER_SIZE = 64 * 1024;
         private String fileName;
 
 
@@ -136,6 +150,7 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
 
 		// discard all of my pages in the cache
 		pageCache.discard(identity);
+		dataFactory.discardBufferedPages(identity);
 		stubbify(instant);
 		}finally
 		{	
@@ -194,6 +209,25 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
 		{
 			decryptPage(pageData, pageSize);
 		}
+
+		decompressPage(pageNumber, pageData);
+	}
+
+	/**
+		Tell whether a page lies within the current length of the file.
+
+		<BR> MT - thread safe
+	*/
+	protected boolean pageOnDisk(long pageNumber)
+	{
+		synchronized (this) {
+			try {
+				return fileData != null &&
+					(pageNumber + 1) * pageSize <= fileData.length();
+			} catch (IOException ioe) {
+				return false;
+			}
+		}
 	}
 
 	/**
@@ -321,7 +355,9 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
 
     /**
      * Updates the page array with container header if the page is a first
-     * allocation page and encrypts the page data if the database is encrypted.
+     * allocation page, compresses the page data if the pages of the container
+     * are stored compressed, and encrypts the page data if the database is
+     * encrypted.
      *
      * @param pageNumber the page number of the page
      * @param pageData  byte array that has the actual page data.
@@ -359,17 +395,19 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
         } 
         else 
         {
+            byte[] pageImage = compressPage(pageData);
+
             if (encryptionBuf != null &&
                     (dataFactory.databaseEncrypted() || encryptWithNewEngine))
             {
-                return encryptPage(pageData, 
+                return encryptPage(pageImage, 
                                    pageSize, 
                                    encryptionBuf, 
                                    encryptWithNewEngine);
             } 
             else
             {
-                return pageData;
+                return pageImage;
             }
         }
     }
@@ -1036,20 +1074,45 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
      * Compress is blocked when backup is in progesss, so truncation of the
      * container can not happen when backup is in progess. No need to
      * synchronize backup of the container with truncation. 
-     * 
+     * <p>
+     * The version of every page copied is recorded in a file of the same
+     * name in versionLocation, together with a checksum of the page: pages
+     * allocated again after an in place compress truncated the container
+     * start over at version 0, so the version alone could match a page of
+     * the base backup which has different contents. For an incremental
+     * backup (baseVersionLocation not null) only the pages whose version or
+     * checksum differs from the ones recorded by the base backup are
+     * written, each preceded by its page number,
+     * after a header holding the page size and the last page number of the
+     * container. The first page carries the unlogged container header and is
+     * always written. A stub is always copied whole.
+     * <p>
+     * If compress is true the pages are written through a GZIP stream to
+     * a file with the suffix DataFactory.COMPRESSED_BACKUP_SUFFIX. Stubs are
+     * never compressed.
      * 
      * @param handle the container handle.
      * @param backupLocation location of the backup container. 
+     * @param versionLocation where to record the page versions.
+     * @param baseVersionLocation page versions of the base backup, or null to
+     *                            back up every page.
+     * @param compress whether to compress the copy.
      * @exception StandardException Derby Standard error policy
      *
      */
     protected void backupContainer(BaseContainerHandle handle,
-                                   String backupLocation)
+                                   String backupLocation,
+                                   String versionLocation,
+                                   String baseVersionLocation,
+                                   boolean compress)
         throws StandardException 
     {
         boolean backupCompleted = false;
         File backupFile = null;
-        RandomAccessFile backupRaf = null;
+        FileOutputStream backupFileOut = null;
+        File versionFile = null;
+        FileOutputStream versionFileOut = null;
+        DataInputStream baseVersions = null;
         boolean isStub = false;
         BasePage page = null; 
 
@@ -1102,8 +1165,42 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
                         getFileName(
                             (ContainerKey)getIdentity(), false, false, true);
 
-                    backupFile = new File(backupLocation , file.getName());
-                    backupRaf  = getRandomAccessFile(backupFile);
+                    backupFile = new File(backupLocation , compress ?
+                        file.getName() + DataFactory.COMPRESSED_BACKUP_SUFFIX :
+                        file.getName());
+                    backupFileOut = getFileOutputStream(backupFile);
+
+                    versionFile = new File(versionLocation, file.getName());
+                    versionFileOut = getFileOutputStream(versionFile);
+                    DataOutputStream versionOut = new DataOutputStream(
+                        new BufferedOutputStream(versionFileOut));
+
+                    GZIPOutputStream gzipOut = null;
+                    DataOutputStream backupOut;
+                    if (compress) {
+                        // favour speed, the backup should not be held up
+                        // by the compression
+                        gzipOut = new GZIPOutputStream(
+                            backupFileOut, BACKUP_BUFFER_SIZE) {
+                            {
+                                def.setLevel(Deflater.BEST_SPEED);
+                            }
+                        };
+                        backupOut = new DataOutputStream(gzipOut);
+                    } else {
+                        backupOut = new DataOutputStream(
+                            new BufferedOutputStream(
+                                backupFileOut, BACKUP_BUFFER_SIZE));
+                    }
+
+                    boolean incremental = (baseVersionLocation != null);
+                    CRC32 pageChecksum = new CRC32();
+                    if (incremental) {
+                        baseVersions = openBaseVersions(
+                            new File(baseVersionLocation, file.getName()));
+                        backupOut.writeInt(pageSize);
+                        backupOut.writeLong(lastPageNumber);
+                    }
 
                     byte[] encryptionBuf = null;
                     if (dataFactory.databaseEncrypted()) {
@@ -1121,18 +1218,46 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
                     for (long pageNumber = FIRST_ALLOC_PAGE_NUMBER; 
                          pageNumber <= lastPageNumber; pageNumber++) {
                         page = getLatchedPage(handle, pageNumber);
-                        
-                        // update the page array before writing to the disk 
-                        // with container header and encrypt it if the database 
-                        // is encrypted. 
-                        
-                        byte[] dataToWrite = 
-                            updatePageArray(
-                                pageNumber, 
-                                                             page.getPageArray(), 
-                                encryptionBuf, 
-                                false);
-                        backupRaf.write(dataToWrite, 0, pageSize);
+
+                        long pageVersion = page.getPageVersion();
+                        pageChecksum.reset();
+                        pageChecksum.update(page.getPageArray(), 0, pageSize);
+                        long pageSum = pageChecksum.getValue();
+                        versionOut.writeLong(pageVersion);
+                        versionOut.writeLong(pageSum);
+
+                        // an incremental backup skips the pages which have
+                        // not changed since the base backup. A page missing
+                        // from the base versions is always written.
+                        boolean changed = true;
+                        if (baseVersions != null) {
+                            try {
+                                long baseVersion = baseVersions.readLong();
+                                long baseSum = baseVersions.readLong();
+                                changed = baseVersion != pageVersion ||
+                                    baseSum != pageSum ||
+                                    pageNumber == FIRST_ALLOC_PAGE_NUMBER;
+                            } catch (EOFException eofe) {
+                                baseVersions.close();
+                                baseVersions = null;
+                            }
+                        }
+
+                        if (changed) {
+                            // update the page array before writing to the
+                            // disk with container header and encrypt it if
+                            // the database is encrypted.
+                            byte[] dataToWrite = 
+                                updatePageArray(
+                                    pageNumber, 
+                                    page.getPageArray(), 
+                                    encryptionBuf, 
+                                    false);
+                            if (incremental) {
+                                backupOut.writeLong(pageNumber);
+                            }
+                            backupOut.write(dataToWrite, 0, pageSize);
+                        }
 
                         // unlatch releases page from cache, see 
                         // StoredPage.releaseExclusive()
@@ -1151,14 +1276,27 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
 							}
 						}
 					}
+
+                    if (incremental) {
+                        backupOut.writeLong(
+                            ContainerHandle.INVALID_PAGE_NUMBER);
+                    }
+                    if (gzipOut != null) {
+                        gzipOut.finish();
+                    }
+                    backupOut.flush();
+                    versionOut.flush();
 				}	
 
                 // sync and close the backup conatiner. Incase of a stub, 
                 // it is already synced and closed while doing the copy.
                 if(!isStub) {
-                    backupRaf.getFD().sync();
-                    backupRaf.close();
-                    backupRaf = null;
+                    backupFileOut.getFD().sync();
+                    backupFileOut.close();
+                    backupFileOut = null;
+                    versionFileOut.getFD().sync();
+                    versionFileOut.close();
+                    versionFileOut = null;
                 }
                 
                 // backup of the conatiner is complete. 
@@ -1180,16 +1318,42 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
                     page = null;
                 }
 
+                if (baseVersions != null) {
+                    try {
+                        baseVersions.close();
+                    } catch (IOException ioe) {
+                        // only read from, nothing is lost
+                    }
+                    baseVersions = null;
+                }
+
+                if (!backupCompleted && versionFile != null) {
+                    if (versionFileOut != null) {
+                        try {
+                            versionFileOut.close();
+                            versionFileOut = null;
+                        } catch (IOException ioe) {
+                            throw StandardException.newException(
+                                            SQLState.BACKUP_FILE_IO_ERROR,
+                                            ioe,
+                                            versionFile);
+                        }
+                    }
+
+                    removeFile(versionFile);
+                    versionFile = null;
+                }
+
                 // if backup of container is not complete, close the file
                 // handles and  remove the container file from the backup 
                 // if it exists
                 if (!backupCompleted && backupFile != null) 
                 {
-                    if (backupRaf != null) 
+                    if (backupFileOut != null) 
                     {
 						try {
-                            backupRaf.close();
-                            backupRaf = null;
+                            backupFileOut.close();
+                            backupFileOut = null;
                         } catch (IOException ioe){
                             throw StandardException.newException(
                                             SQLState.BACKUP_FILE_IO_ERROR, 
@@ -1303,6 +1467,60 @@ class RAFContainer extends FileContainer implements PrivilegedExceptionAction<Ob
         }
     }
 
+    /**
+     * Open the page versions recorded for this container by a base backup.
+     * @param file the page versions file of the base backup
+     * @return a stream of the versions, or null if the base backup did not
+     * record any for this container
+     * @throws IOException if the file cannot be opened
+     */
+    private DataInputStream openBaseVersions(final File file)
+            throws IOException {
+        try {
+            return AccessController.doPrivileged(
+                new PrivilegedExceptionAction<DataInputStream>() {
+                    public DataInputStream run() throws IOException {
+                        if (!file.exists()) {
+                            return null;
+                        }
+                        return new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(file)));
+                    }
+                });
+        } catch (PrivilegedActionException pae) {
+            throw (IOException) pae.getCause();
+        }
+    }
+
+    /**
+     * Get a FileOutputStream for writing a new file of a backup. The stream
+     * is opened on the file itself, since wrapping the descriptor of a
+     * RandomAccessFile needs a permission Derby is not granted.
+     * @param file the file to write
+     * @return a FileOutputStream
+     * @throws FileNotFoundException if {@code file} cannot be opened for
+     * writing
+     * @throws IOException if some other I/O error happens
+     */
+    private FileOutputStream getFileOutputStream(final File file)
+            throws IOException {
+        try {
+            return AccessController.doPrivileged(
+                new PrivilegedExceptionAction<FileOutputStream>() {
+                    public FileOutputStream run() throws IOException {
+                        boolean preExisting = file.exists();
+                        FileOutputStream out = new FileOutputStream(file);
+                        if (!preExisting) {
+                            FileUtil.limitAccessToOwner(file);
+                        }
+                        return out;
+                    }
+                });
+        } catch (PrivilegedActionException pae) {
+            throw (IOException) pae.getCause();
+        }
+    }
+
     /**
      * Get a RandomAccessFile for accessing a file in read-write mode.
      * @param file the file to access
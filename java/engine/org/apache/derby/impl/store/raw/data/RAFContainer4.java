@@ -23,6 +23,7 @@ package org.apache.derby.impl.store.raw.data;
 
 
 import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.reference.Limits;
 import org.apache.derby.iapi.reference.SQLState;
 import org.apache.derby.shared.common.sanity.SanityManager;
 
@@ -31,13 +32,25 @@ import org.apache.derby.iapi.util.InterruptStatus;
 import org.apache.derby.iapi.util.InterruptDetectedException;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import org.apache.derby.io.StorageFile;
 import org.apache.derby.io.StorageRandomAccessFile;
 
 /**
@@ -115,6 +128,119 @@ class RAFContainer4 extends RAFContainer {
      */
     private int iosInProgress = 0; // protected by monitor on "this"
 
+    /**
+     * Read-only mappings of the container file, used to serve page reads
+     * without a read system call when the database is read-only and
+     * derby.storage.mapReadOnlyContainers is set. The file is mapped in
+     * chunks of {@code 1 << mapChunkShift} bytes, since a single mapping
+     * cannot exceed 2GB. A chunk size that is a power of two larger than any
+     * page size guarantees that no page straddles two chunks.
+     * {@code null} if the file is not mapped.
+     * Protected by monitor on "this".
+     */
+    private MappedByteBuffer[] mappedChunks;
+
+    /**
+     * Set if mapping the file failed, so that we don't try again on every
+     * read. Reset when the container is closed.
+     * Protected by monitor on "this".
+     */
+    private boolean mapFailed;
+
+    private static final int MAP_CHUNK_SHIFT = 30;
+
+    /**
+     * The chunk size the file in {@link #mappedChunks} was mapped with, as
+     * a shift. Set together with {@code mappedChunks} and not changed while
+     * the file is mapped.
+     */
+    private int mapChunkShift;
+
+    /**
+     * Debug flag which maps container files in 64KB chunks, so that small
+     * test databases get pages in more than one chunk. Still a power of two
+     * larger than any page size.
+     */
+    public static final String TEST_SMALL_MAP_CHUNKS =
+        SanityManager.DEBUG ? "TEST_SMALL_MAP_CHUNKS" : null;
+
+    /**
+     * Debug flag which traces whether the containers read and write their
+     * pages with direct I/O, when it has been asked for.
+     */
+    public static final String DIRECT_IO_TRACE =
+        SanityManager.DEBUG ? "DirectIOTrace" : null;
+
+    /**
+     * Second channel on the container file, opened with O_DIRECT when
+     * derby.storage.directIO is set. Whole pages are read and written
+     * through it so that they bypass the operating system's file cache;
+     * everything else (the container header, embryonic pages, size changes
+     * and syncs) still goes through {@code ourChannel}, which refers to
+     * the same file. {@code null} if direct I/O is not used or the channel
+     * has not been opened yet.
+     * Protected by monitor on "this".
+     */
+    private FileChannel directChannel;
+
+    /**
+     * Set if direct I/O is not possible for this container, so that we
+     * don't try to open the direct channel again on every page I/O. Reset
+     * when the container is closed.
+     * Protected by monitor on "this".
+     */
+    private boolean directFailed;
+
+    /**
+     * Block size of the file system holding the container file, valid
+     * while {@code directChannel} is open.
+     * Protected by monitor on "this".
+     */
+    private int directBlockSize;
+
+    /**
+     * {@code com.sun.nio.file.ExtendedOpenOption.DIRECT}, or {@code null}
+     * if the runtime does not have it. Looked up reflectively, like the
+     * two methods below, since none of them exist before Java 10.
+     */
+    private static final OpenOption DIRECT_OPTION;
+
+    /** {@code ByteBuffer.alignedSlice(int)}, or {@code null}. */
+    private static final Method ALIGNED_SLICE;
+
+    /** {@code FileStore.getBlockSize()}, or {@code null}. */
+    private static final Method GET_BLOCK_SIZE;
+
+    static {
+        OpenOption direct = null;
+        Method alignedSlice = null;
+        Method getBlockSize = null;
+        try {
+            direct = (OpenOption) Class.forName(
+                    "com.sun.nio.file.ExtendedOpenOption")
+                .getField("DIRECT").get(null);
+            alignedSlice =
+                ByteBuffer.class.getMethod("alignedSlice", Integer.TYPE);
+            getBlockSize = FileStore.class.getMethod("getBlockSize");
+        } catch (Exception e) {
+            // Not supported by this runtime, direct I/O is never used.
+            direct = null;
+        }
+        DIRECT_OPTION = direct;
+        ALIGNED_SLICE = alignedSlice;
+        GET_BLOCK_SIZE = getBlockSize;
+    }
+
+    /**
+     * Per-thread buffer for direct I/O. O_DIRECT needs the memory address,
+     * the file offset and the length of each transfer to be multiples of
+     * the block size of the file system. Offsets and lengths are multiples
+     * of the page size, and the buffer is aligned to the largest page
+     * size, which is a multiple of every block size we accept.
+     */
+    private static final ThreadLocal<ByteBuffer> directBuffers =
+        new ThreadLocal<ByteBuffer>();
+
     public RAFContainer4(BaseDataFileFactory factory) {
         super(factory);
     }
@@ -181,6 +307,8 @@ class RAFContainer4 extends RAFContainer {
                     + "This should not happen.");
             SanityManager.ASSERT(fileData == null, "fileData isn't null");
             SanityManager.ASSERT(ourChannel == null, "ourChannel isn't null");
+            SanityManager.ASSERT(directChannel == null,
+                                 "directChannel isn't null");
         }
 
         currentIdentity = newIdentity;
@@ -199,6 +327,8 @@ class RAFContainer4 extends RAFContainer {
                     + "This should not happen.");
             SanityManager.ASSERT(fileData == null, "fileData isn't null");
             SanityManager.ASSERT(ourChannel == null, "ourChannel isn't null");
+            SanityManager.ASSERT(directChannel == null,
+                                 "directChannel isn't null");
         }
 
         currentIdentity = newIdentity;
@@ -208,9 +338,16 @@ class RAFContainer4 extends RAFContainer {
     /**
      * When the existing channel ({@code ourChannel}) has been closed due to
      * interrupt, we need to reopen the underlying RAF to get a fresh channel
-     * so we can resume IO.
+     * so we can resume IO. If only {@code directChannel} was closed, it is
+     * enough to drop it, it will be opened again by the next page IO.
      */
     private void reopen() throws StandardException {
+        if (directChannel != null && !directChannel.isOpen()) {
+            directChannel = null;
+            if (ourChannel.isOpen()) {
+                return;
+            }
+        }
         if (SanityManager.DEBUG) {
             SanityManager.ASSERT(!ourChannel.isOpen());
         }
@@ -232,6 +369,20 @@ class RAFContainer4 extends RAFContainer {
                     "Container closed while IO operations are in progress. "
                     + " This should not happen.");
         }
+        mappedChunks = null;
+        mapFailed = false;
+        directFailed = false;
+
+        if (directChannel != null) {
+            try {
+                directChannel.close();
+            } catch (IOException e) {
+                // nevermind.
+            } finally {
+                directChannel = null;
+            }
+        }
+
         if(ourChannel != null) {
             try {
                 ourChannel.close();
@@ -395,6 +546,9 @@ class RAFContainer4 extends RAFContainer {
          throws IOException, StandardException
     {
         FileChannel ioChannel;
+        FileChannel directIOChannel = null;
+        MappedByteBuffer[] chunks;
+        int chunkShift;
         synchronized (this) {
             if (SanityManager.DEBUG) {
                 if (pageNumber != -1L) {
@@ -402,6 +556,16 @@ class RAFContainer4 extends RAFContainer {
                 } // else: can happen from getEmbryonicPage
             }
             ioChannel = getChannel();
+            chunks = getMappedChunks(ioChannel);
+            chunkShift = mapChunkShift;
+            if (offset == -1L) {
+                directIOChannel = getDirectChannel(ioChannel);
+            }
+        }
+
+        if (chunks != null && offset == -1L &&
+                readMappedPage(chunks, chunkShift, pageNumber, pageData)) {
+            return;
         }
 
         if (SanityManager.DEBUG) {
@@ -431,7 +595,10 @@ class RAFContainer4 extends RAFContainer {
                 if (offset == -1L) {
                     // Normal page read doesn't specify offset,
                     // so use one computed from page number.
-                    readFull(pageBuf, ioChannel, pageOffset);
+                    if (directIOChannel == null ||
+                        !readDirect(directIOChannel, pageData, pageOffset)) {
+                        readFull(pageBuf, ioChannel, pageOffset);
+                    }
                 } else {
                     // getEmbryonicPage specifies it own offset, so use that
                     if (SanityManager.DEBUG) {
@@ -456,6 +623,11 @@ class RAFContainer4 extends RAFContainer {
             {
                 decryptPage(pageData, pageSize);
             }
+
+            if (pageNumber != -1L /* getEmbryonicPage */)
+            {
+                decompressPage(pageNumber, pageData);
+            }
         }
         else
         { // iochannel was not initialized, fall back to original method.
@@ -464,6 +636,285 @@ class RAFContainer4 extends RAFContainer {
     }
 
 
+    /**
+     * Map the container file into memory if the database is read-only and
+     * mapped reads have been asked for. Must be called with the monitor on
+     * "this" held.
+     *
+     * @param ioChannel the channel of the container file
+     * @return the mappings of the file, or {@code null} if the file is not
+     * (and cannot be) mapped
+     */
+    private MappedByteBuffer[] getMappedChunks(FileChannel ioChannel) {
+        if (mappedChunks == null && !mapFailed && ioChannel != null &&
+                dataFactory.mapReadOnlyContainers()) {
+            int shift = MAP_CHUNK_SHIFT;
+            if (SanityManager.DEBUG) {
+                if (SanityManager.DEBUG_ON(TEST_SMALL_MAP_CHUNKS)) {
+                    shift = 16;
+                }
+            }
+            try {
+                long size = ioChannel.size();
+                long chunkSize = 1L << shift;
+                MappedByteBuffer[] chunks = new MappedByteBuffer[
+                        (int) ((size + chunkSize - 1) >> shift)];
+                for (int i = 0; i < chunks.length; i++) {
+                    long start = ((long) i) << shift;
+                    chunks[i] = ioChannel.map(FileChannel.MapMode.READ_ONLY,
+                            start, Math.min(chunkSize, size - start));
+                }
+                mapChunkShift = shift;
+                mappedChunks = chunks;
+            } catch (IOException ioe) {
+                // Not fatal, just keep reading through the channel.
+                mapFailed = true;
+            }
+        }
+        return mappedChunks;
+    }
+
+    /**
+     * Copy a page out of the mapped container file, and decrypt it if
+     * needed.
+     *
+     * @param chunks the mappings of the file
+     * @param shift the chunk size of the mappings, as a shift
+     * @param pageNumber the page to read
+     * @param pageData the buffer to read data into
+     * @return {@code true} if the page was read, {@code false} if it lies
+     * outside the mapped part of the file
+     * @exception StandardException Standard Derby error policy
+     */
+    private boolean readMappedPage(
+            MappedByteBuffer[] chunks, int shift, long pageNumber,
+            byte[] pageData)
+         throws StandardException
+    {
+        long pageOffset = pageNumber * pageSize;
+        int chunk = (int) (pageOffset >> shift);
+        if (chunk >= chunks.length) {
+            return false;
+        }
+
+        // Use a private view of the mapping, the position of a buffer
+        // must not be shared between concurrent readers.
+        ByteBuffer src = chunks[chunk].duplicate();
+        int position = (int) (pageOffset - (((long) chunk) << shift));
+        if (position + pageSize > src.limit()) {
+            return false;
+        }
+        src.position(position);
+        src.get(pageData, 0, pageSize);
+
+        if (dataFactory.databaseEncrypted() &&
+            pageNumber != FIRST_ALLOC_PAGE_NUMBER)
+        {
+            decryptPage(pageData, pageSize);
+        }
+
+        decompressPage(pageNumber, pageData);
+        return true;
+    }
+
+    /**
+     * Get the direct I/O channel of the container file, opening it first if
+     * direct I/O has been asked for and has not failed for this container.
+     * Must be called with the monitor on "this" held.
+     *
+     * @param ioChannel the normal channel of the container file
+     * @return the direct channel, or {@code null} if pages should be read
+     * and written through {@code ioChannel}
+     */
+    private FileChannel getDirectChannel(FileChannel ioChannel) {
+        if (directFailed || ioChannel == null || DIRECT_OPTION == null ||
+                !dataFactory.directIO()) {
+            return null;
+        }
+
+        if (directChannel == null) {
+            try {
+                directChannel = AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<FileChannel>() {
+                        public FileChannel run() throws Exception {
+                            return openDirectChannel();
+                        }
+                    });
+            } catch (PrivilegedActionException pae) {
+                // Not fatal, just keep using the normal channel.
+            } catch (RuntimeException re) {
+                // Same, e.g. the file store does not know its block size.
+            }
+
+            if (directChannel == null) {
+                directFailed = true;
+            }
+
+            if (SanityManager.DEBUG) {
+                if (SanityManager.DEBUG_ON(DIRECT_IO_TRACE)) {
+                    SanityManager.DEBUG(DIRECT_IO_TRACE,
+                        (directChannel == null ?
+                            "normal I/O for " + currentIdentity :
+                            "direct I/O for " + currentIdentity +
+                            " block size " + directBlockSize));
+                }
+            }
+        }
+        return directChannel;
+    }
+
+    /**
+     * Open the container file with O_DIRECT. Must be called with the monitor
+     * on "this" held, inside a privileged block.
+     *
+     * @return the channel, or {@code null} if the container file is not on
+     * a local file system whose block size divides the page size
+     * @throws Exception if the file cannot be opened for direct I/O
+     */
+    private FileChannel openDirectChannel() throws Exception {
+        StorageFile file = dataFactory.getContainerPath(currentIdentity, false);
+        if (!file.exists()) {
+            file = dataFactory.getAlternateContainerPath(
+                    currentIdentity, false);
+        }
+        if (!(file instanceof File)) {
+            return null;
+        }
+
+        Path path = ((File) file).toPath();
+        long blockSize = ((Long) GET_BLOCK_SIZE.invoke(
+                Files.getFileStore(path))).longValue();
+        if (blockSize <= 0 || blockSize > pageSize ||
+                pageSize % blockSize != 0) {
+            return null;
+        }
+
+        FileChannel channel = dataFactory.isReadOnly() ?
+            FileChannel.open(path, StandardOpenOption.READ, DIRECT_OPTION) :
+            FileChannel.open(path, StandardOpenOption.READ,
+                             StandardOpenOption.WRITE, DIRECT_OPTION);
+        directBlockSize = (int) blockSize;
+        return channel;
+    }
+
+    /**
+     * Stop using direct I/O for this container after a transfer through
+     * {@code channel} failed, for instance because the file system accepted
+     * O_DIRECT when the file was opened but rejects the I/O itself. The
+     * channel is left open, since other threads may be using it; it is
+     * closed with the container.
+     *
+     * @param channel the direct channel the transfer failed on
+     */
+    private synchronized void disableDirectIO(FileChannel channel) {
+        if (channel == directChannel) {
+            directFailed = true;
+
+            if (SanityManager.DEBUG) {
+                if (SanityManager.DEBUG_ON(DIRECT_IO_TRACE)) {
+                    SanityManager.DEBUG(DIRECT_IO_TRACE,
+                        "direct I/O failed for " + currentIdentity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get this thread's buffer for direct I/O, ready for a transfer of
+     * {@code length} bytes.
+     *
+     * @param length the number of bytes to transfer, at most the largest
+     * page size
+     * @return an aligned direct buffer with position 0 and limit
+     * {@code length}
+     * @throws IOException if the buffer cannot be aligned
+     */
+    private static ByteBuffer getDirectBuffer(int length)
+            throws IOException {
+        ByteBuffer buf = directBuffers.get();
+        if (buf == null) {
+            try {
+                buf = (ByteBuffer) ALIGNED_SLICE.invoke(
+                        ByteBuffer.allocateDirect(2 * Limits.DB2_MAX_PAGE_SIZE),
+                        Integer.valueOf(Limits.DB2_MAX_PAGE_SIZE));
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            directBuffers.set(buf);
+        }
+        buf.clear();
+        buf.limit(length);
+        return buf;
+    }
+
+    /**
+     * Read a page through the direct I/O channel.
+     *
+     * @param channel the direct channel of the container file
+     * @param pageData the buffer to read data into
+     * @param pageOffset the offset of the page in the file
+     * @return {@code true} if the page was read, {@code false} if direct
+     * I/O failed and the page must be read through the normal channel
+     * @throws IOException if the channel was closed or the page lies
+     * beyond the end of the file
+     * @throws StandardException if thread is interrupted
+     */
+    private boolean readDirect(
+            FileChannel channel, byte[] pageData, long pageOffset)
+         throws IOException, StandardException
+    {
+        ByteBuffer buf;
+        try {
+            buf = getDirectBuffer(pageSize);
+            readFull(buf, channel, pageOffset);
+        } catch (ClosedChannelException cce) {
+            throw cce;
+        } catch (EOFException eofe) {
+            throw eofe;
+        } catch (IOException ioe) {
+            disableDirectIO(channel);
+            return false;
+        }
+
+        buf.flip();
+        buf.get(pageData, 0, pageSize);
+        return true;
+    }
+
+    /**
+     * Write a page through the direct I/O channel. The number of bytes
+     * written is rounded up to a whole number of file system blocks.
+     *
+     * @param channel the direct channel of the container file
+     * @param dataToWrite the page image to write
+     * @param writeLength the number of bytes of the image to write
+     * @param blockSize the block size of the file system
+     * @param pageOffset the offset of the page in the file
+     * @return {@code true} if the page was written, {@code false} if direct
+     * I/O failed and the page must be written through the normal channel
+     * @throws IOException if the channel was closed
+     */
+    private boolean writeDirect(FileChannel channel, byte[] dataToWrite,
+                                int writeLength, int blockSize,
+                                long pageOffset)
+         throws IOException
+    {
+        int length = Math.min(pageSize,
+                ((writeLength + blockSize - 1) / blockSize) * blockSize);
+        try {
+            ByteBuffer buf = getDirectBuffer(length);
+            buf.put(dataToWrite, 0, length);
+            buf.flip();
+            writeFull(buf, channel, pageOffset);
+        } catch (ClosedChannelException cce) {
+            throw cce;
+        } catch (IOException ioe) {
+            disableDirectIO(channel);
+            return false;
+        }
+        return true;
+    }
+
     /**
      *  Write a page from the supplied array.
      *  <p/>
@@ -476,6 +927,37 @@ class RAFContainer4 extends RAFContainer {
      */
     protected void writePage(long pageNumber, byte[] pageData, boolean syncPage)
          throws IOException, StandardException
+    {
+        writePages(pageNumber, new byte[][] { pageData }, syncPage);
+    }
+
+    /**
+     *  Write a run of pages which are next to each other in the container
+     *  with a single write.
+     *  <p/>
+     *  override of FileContainer#writePages
+     *  <p/>
+     *  <BR> MT - thread safe
+     *
+     *  @exception StandardException Standard Derby error policy
+     *  @exception IOException IO error accessing page
+     */
+    protected void writePages(long firstPageNumber, byte[][] pageData)
+         throws IOException, StandardException
+    {
+        writePages(firstPageNumber, pageData, false);
+    }
+
+    /**
+     *  Write one page, or a run of pages next to each other in the
+     *  container, from the supplied arrays.
+     *
+     *  @exception StandardException Standard Derby error policy
+     *  @exception IOException IO error accessing page
+     */
+    private void writePages(long firstPageNumber, byte[][] pageData,
+                            boolean syncPage)
+         throws IOException, StandardException
     {
         // Interrupt recovery "stealthMode": If this thread holds a monitor on
         //
@@ -530,7 +1012,9 @@ class RAFContainer4 extends RAFContainer {
       try {
         while (!success) {
             try {
-                if (pageNumber == FIRST_ALLOC_PAGE_NUMBER) {
+                if (pageData.length > 1) {
+                    writePages0(firstPageNumber, pageData);
+                } else if (firstPageNumber == FIRST_ALLOC_PAGE_NUMBER) {
                     // If this is the first alloc page, there may be
                     // another thread accessing the container information
                     // in the borrowed space on the same page. In that
@@ -541,10 +1025,10 @@ class RAFContainer4 extends RAFContainer {
                     // will access different pages and therefore don't
                     // interfere with each other.
                     synchronized (this) {
-                        writePage0(pageNumber, pageData, syncPage);
+                        writePage0(firstPageNumber, pageData[0], syncPage);
                     }
                 } else {
-                    writePage0(pageNumber, pageData, syncPage);
+                    writePage0(firstPageNumber, pageData[0], syncPage);
                 }
 
                 success = true;
@@ -902,7 +1386,9 @@ class RAFContainer4 extends RAFContainer {
                     if (SanityManager.DEBUG) {
                         SanityManager.ASSERT(ourChannel != null,
                                              "ourChannel is null");
-                        SanityManager.ASSERT(!ourChannel.isOpen(),
+                        SanityManager.ASSERT(!ourChannel.isOpen() ||
+                                             (directChannel != null &&
+                                              !directChannel.isOpen()),
                                              "ourChannel is open");
                     }
                 }
@@ -950,16 +1436,98 @@ class RAFContainer4 extends RAFContainer {
         return true;
     }
 
+    /**
+     * Write a run of pages with a single write through the channel. Pages
+     * that go through direct I/O, or are stored compressed, are written
+     * one by one instead.
+     *
+     * @param firstPageNumber the page number of the first page of the run
+     * @param pageData the page data arrays of the pages, in page order
+     */
+    private void writePages0(long firstPageNumber, byte[][] pageData)
+         throws IOException, StandardException
+    {
+        if (SanityManager.DEBUG) {
+            SanityManager.ASSERT(firstPageNumber != FIRST_ALLOC_PAGE_NUMBER,
+                    "the first alloc page must be written by itself");
+        }
+
+        FileChannel ioChannel;
+        FileChannel directIOChannel;
+        synchronized (this) {
+            // committed and dropped, do nothing.
+            // This file container may only be a stub
+            if (getCommittedDropState())
+                return;
+            ioChannel = getChannel();
+            directIOChannel = getDirectChannel(ioChannel);
+        }
+
+        if (ioChannel == null || directIOChannel != null ||
+                writesCompressedPages()) {
+            for (int i = 0; i < pageData.length; i++) {
+                writePage0(firstPageNumber + i, pageData[i], false);
+            }
+            return;
+        }
+
+        byte[] encryptionBuf = null;
+        if (dataFactory.databaseEncrypted()) {
+            encryptionBuf = new byte[pageSize];
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(pageData.length * pageSize);
+        for (int i = 0; i < pageData.length; i++) {
+            buf.put(updatePageArray(firstPageNumber + i, pageData[i],
+                                    encryptionBuf, false),
+                    0, pageSize);
+        }
+        buf.flip();
+
+        dataFactory.writeInProgress();
+        try {
+            if (SanityManager.DEBUG) {
+                synchronized(this) {
+                    iosInProgress++;
+                }
+            }
+            writeFull(buf, ioChannel, firstPageNumber * pageSize);
+        } catch (ClosedChannelException ioe) {
+            synchronized(this) {
+                // Dropped in the meantime, see writePage0().
+                if (getCommittedDropState()) {
+                    return;
+                }
+                throw ioe;
+            }
+        } finally {
+            if (SanityManager.DEBUG) {
+                synchronized(this) {
+                    iosInProgress--;
+                }
+            }
+            dataFactory.writeFinished();
+        }
+
+        synchronized(this) {
+            needsSync = true;
+        }
+    }
+
     private void writePage0(long pageNumber, byte[] pageData, boolean syncPage)
          throws IOException, StandardException
     {
         FileChannel ioChannel;
+        FileChannel directIOChannel;
+        int blockSize;
         synchronized (this) {
             // committed and dropped, do nothing.
             // This file container may only be a stub
             if (getCommittedDropState())
                 return;
             ioChannel = getChannel();
+            directIOChannel = getDirectChannel(ioChannel);
+            blockSize = directBlockSize;
         }
 
         if (SanityManager.DEBUG) {
@@ -1000,7 +1568,7 @@ class RAFContainer4 extends RAFContainer {
                         "RAFContainer4: dataToWrite is null after updatePageArray()");
             }
 
-            ByteBuffer writeBuffer = ByteBuffer.wrap(dataToWrite);
+            int writeLength = getStoredPageLength(pageNumber, dataToWrite);
 
             dataFactory.writeInProgress();
             try {
@@ -1010,7 +1578,20 @@ class RAFContainer4 extends RAFContainer {
                     }
                 }
 
-                writeFull(writeBuffer, ioChannel, pageOffset);
+                // Only the head of a compressed page needs to be written, but
+                // the whole page slot must exist in the file so that it can
+                // be read back in full.
+                if (writeLength < pageSize &&
+                        ioChannel.size() < pageOffset + pageSize) {
+                    writeLength = pageSize;
+                }
+
+                if (directIOChannel == null ||
+                    !writeDirect(directIOChannel, dataToWrite,
+                                 writeLength, blockSize, pageOffset)) {
+                    writeFull(ByteBuffer.wrap(dataToWrite, 0, writeLength),
+                              ioChannel, pageOffset);
+                }
             } catch (ClosedChannelException ioe) {
                 synchronized(this) {
                     /* If the write failed because the container has been closed
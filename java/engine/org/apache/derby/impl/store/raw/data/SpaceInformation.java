@@ -37,6 +37,7 @@ public class SpaceInformation implements SpaceInfo
     private long numFreePages;
     private long numUnfilledPages;
     private int pageSize;
+    private double compressionRatio = 1.0;
 
     public SpaceInformation(
         long numAllocatedPages,
@@ -87,4 +88,20 @@ public class SpaceInformation implements SpaceInfo
     {
         this.pageSize = pageSize;
     }
+
+    /*
+    Get the estimated compression ratio of the conglomerate's pages.
+    */
+    public double getCompressionRatio()
+    {
+        return compressionRatio;
+    }
+
+    /*
+    record the estimated compression ratio of the conglomerate's pages.
+    */
+    public void setCompressionRatio(double compressionRatio)
+    {
+        this.compressionRatio = compressionRatio;
+    }
 }
@@ -30,6 +30,7 @@ import java.io.ObjectInput;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 import org.apache.derby.iapi.error.StandardException;
 import org.apache.derby.iapi.reference.MessageId;
@@ -37,6 +38,7 @@ import org.apache.derby.iapi.reference.SQLState;
 import org.apache.derby.iapi.services.io.ArrayInputStream;
 import org.apache.derby.iapi.services.io.ArrayOutputStream;
 import org.apache.derby.iapi.services.io.CompressedNumber;
+import org.apache.derby.iapi.services.io.CRC32C;
 import org.apache.derby.iapi.services.io.DataInputUtil;
 import org.apache.derby.iapi.services.io.DynamicByteArrayOutputStream;
 import org.apache.derby.iapi.services.io.ErrorObjectInput;
@@ -164,7 +166,10 @@ import org.apache.derby.iapi.util.ByteArray;
     left empty.
     <BR><B>Checksum</B><BR>
     8 bytes of a java.util.zip.CRC32 checksum of the entire's page contents 
-    without the 8 bytes representing the checksum.
+    without the 8 bytes representing the checksum.  A CRC32 checksum only
+    uses the low 4 bytes.  Pages written with 
+    derby.storage.checksumAlgorithm=CRC32C instead have a CRC-32C checksum
+    in the low 4 bytes, and CRC32C_CHECKSUM_TAG in the high 4 bytes.
 
     <P><B>Page Access</B>
     The page data is accessed in this class by one of three methods.
@@ -272,6 +277,18 @@ public class StoredPage extends CachedPage
      **/
     protected static final int CHECKSUM_SIZE    = 8;
 
+    /**
+     * High 4 bytes of the stored checksum of a page checksummed with
+     * CRC-32C ("C32C").  They are always 0 for a CRC32 checksum, so the
+     * two can be told apart on every page.
+     **/
+    private static final long CRC32C_CHECKSUM_TAG = 0x4333324300000000L;
+
+    /**
+     * Mask of the tag bits of the stored checksum.
+     **/
+    private static final long CHECKSUM_TAG_MASK   = 0xFFFFFFFF00000000L;
+
     /**
      * OVERFLOW_POINTER_SIZE - Number of bytes to reserve for overflow pointer
      * 
@@ -400,6 +417,11 @@ public class StoredPage extends CachedPage
      **/
     private CRC32       checksum;
 
+    /**
+     * holder for the CRC-32C checksum, only created once needed.
+     **/
+    private Checksum    crc32cChecksum;
+
     /**
      * Minimum space to reserve for record portion length of row.
      * <p>
@@ -781,10 +803,16 @@ public class StoredPage extends CachedPage
         // if it is null, assume spareSpace and minimumRecordSize is the
         // same.  We would only call initFromData after a restore then.
 
+        // with derby.storage.verifyChecksumOnFirstRead a page that has been
+        // verified before is trusted.
+        boolean verify = 
+            (myContainer == null) ||
+            myContainer.needsChecksumVerification(newIdentity.getPageNumber());
 
         try
         {
-            validateChecksum(newIdentity);
+            if (verify)
+                validateChecksum(newIdentity);
         }
         catch (StandardException se)
         {
@@ -845,6 +873,9 @@ public class StoredPage extends CachedPage
             }
         }
 
+        if (verify && myContainer != null)
+            myContainer.checksumVerified(newIdentity.getPageNumber());
+
         try 
         {
             readPageHeader();
@@ -892,9 +923,15 @@ public class StoredPage extends CachedPage
                     SQLState.DATA_CORRUPT_PAGE, ioe, id));
         }
 
+        // The tag tells which algorithm the page was written with.
+        boolean crc32c = 
+            ((onDiskChecksum & CHECKSUM_TAG_MASK) == CRC32C_CHECKSUM_TAG);
+        long tag = crc32c ? CRC32C_CHECKSUM_TAG : 0;
+
         // Force the checksum to be recalculated based on the current page.
-        checksum.reset();
-        checksum.update(pageData, 0, getPageSize() - CHECKSUM_SIZE);
+        Checksum pageChecksum = getChecksum(crc32c);
+        pageChecksum.reset();
+        pageChecksum.update(pageData, 0, getPageSize() - CHECKSUM_SIZE);
         
         // force a bad checksum error
         if (SanityManager.DEBUG)
@@ -906,18 +943,18 @@ public class StoredPage extends CachedPage
             }
         }
 
-        if (onDiskChecksum != checksum.getValue())
+        if (onDiskChecksum != (tag | pageChecksum.getValue()))
         {
             // try again using new checksum object to be doubly sure
-            CRC32 newChecksum = new CRC32();
+            Checksum newChecksum = crc32c ? CRC32C.newInstance() : new CRC32();
             newChecksum.reset();
             newChecksum.update(pageData, 0, getPageSize()-CHECKSUM_SIZE);
-            if (onDiskChecksum != newChecksum.getValue())
+            if (onDiskChecksum != (tag | newChecksum.getValue()))
             {
                 throw StandardException.newException(
                     SQLState.FILE_BAD_CHECKSUM,
                     id, 
-                    checksum.getValue(), 
+                    tag | pageChecksum.getValue(), 
                     onDiskChecksum, 
                     pagedataToHexDump(pageData));
             }
@@ -927,26 +964,50 @@ public class StoredPage extends CachedPage
                 if (SanityManager.DEBUG)
                     SanityManager.THROWASSERT("old checksum gets wrong value");
 
-                checksum = newChecksum;
+                if (crc32c)
+                    crc32cChecksum = newChecksum;
+                else
+                    checksum = (CRC32) newChecksum;
             }
         }
     }
 
+    /**
+     * Get the checksum object of an algorithm.
+     *
+     * @param crc32c true for CRC-32C, false for CRC32
+     **/
+    private Checksum getChecksum(boolean crc32c)
+    {
+        if (!crc32c)
+            return checksum;
+
+        if (crc32cChecksum == null)
+            crc32cChecksum = CRC32C.newInstance();
+
+        return crc32cChecksum;
+    }
+
     /**
      * Recalculate checksum and write it to the page array.
      * <p>
      * Recalculate the checksum of the page, and write the result back into
      * the last bytes of the page.
      *
+     * @param crc32c    true to checksum the page with CRC-32C, false to
+     *                  use CRC32
+     *
      * @exception  IOException  if writing to end of array fails.
      **/
-    protected void updateChecksum() throws IOException
+    protected void updateChecksum(boolean crc32c) throws IOException
     {
-        checksum.reset();
-        checksum.update(pageData, 0, getPageSize() - CHECKSUM_SIZE);
+        Checksum pageChecksum = getChecksum(crc32c);
+        pageChecksum.reset();
+        pageChecksum.update(pageData, 0, getPageSize() - CHECKSUM_SIZE);
 
         rawDataOut.setPosition(getPageSize() - CHECKSUM_SIZE);
-        logicalDataOut.writeLong(checksum.getValue());
+        logicalDataOut.writeLong(
+            (crc32c ? CRC32C_CHECKSUM_TAG : 0) | pageChecksum.getValue());
     }
 
     /**
@@ -1009,7 +1070,7 @@ public class StoredPage extends CachedPage
                 updatePageVersion();
             }
 
-            updateChecksum();
+            updateChecksum(dataFactory.useCRC32CChecksums());
 
         } 
         catch (IOException ioe) 
@@ -1299,6 +1360,28 @@ public class StoredPage extends CachedPage
         return (allowInsert() && (freeSpace > (getPageSize() / 2)));
     }
 
+    /**
+     * Get the free space class of this page.
+     * <p>
+     * A page which is relatively unfilled (see unfilled()) is 
+     * PAGE_UNFILLED.  A page which has less than 1/2 but more than 1/4 of
+     * its space free, and room for a minimum size row, is 
+     * PAGE_PARTLY_FILLED.  Any other page is PAGE_FILLED.
+     *
+     * @return the AllocExtent space class of the page.
+     **/
+    protected int getSpaceClass()
+    {
+        if (!allowInsert())
+            return AllocExtent.PAGE_FILLED;
+        else if (freeSpace > (getPageSize() / 2))
+            return AllocExtent.PAGE_UNFILLED;
+        else if (freeSpace > (getPageSize() / 4))
+            return AllocExtent.PAGE_PARTLY_FILLED;
+        else
+            return AllocExtent.PAGE_FILLED;
+    }
+
     /**
      * Is there enough space on the page to insert a minimum size row?
      * <p>
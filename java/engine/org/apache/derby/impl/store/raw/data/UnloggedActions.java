@@ -0,0 +1,201 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.data.UnloggedActions
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.data;
+
+import org.apache.derby.iapi.services.io.FormatableBitSet;
+import org.apache.derby.iapi.services.io.DynamicByteArrayOutputStream;
+
+import org.apache.derby.iapi.error.StandardException;
+
+import org.apache.derby.iapi.store.access.conglomerate.LogicalUndo;
+
+import org.apache.derby.iapi.store.raw.RecordHandle;
+import org.apache.derby.iapi.store.raw.xact.RawTransaction;
+
+/**
+	The page actions of a user transaction changing an unlogged container.
+	<p>
+	Changes to the pages the transaction allocated itself are not logged,
+	the transaction logs their allocation and a rollback deallocates them,
+	see UnloggedPages.  Changes to all the other pages, which may hold
+	committed rows, are logged so that a rollback undoes them like for any
+	other container.  Overflow pages are never allocated as unlogged pages,
+	since the head of their rows may be on a logged page.
+*/
+final class UnloggedActions implements PageActions
+{
+	private final UnloggedPages pages;
+	private final PageActions loggedActions;
+	private final PageActions directActions = new DirectActions();
+
+	UnloggedActions(UnloggedPages pages, PageActions loggedActions)
+	{
+		this.pages = pages;
+		this.loggedActions = loggedActions;
+	}
+
+	/**
+		A page has been allocated by the transaction.
+	*/
+	void pageAdded(long pageNumber)
+	{
+		pages.add(pageNumber);
+	}
+
+	/** The actions to change a page with. */
+	private PageActions actionsFor(BasePage page)
+	{
+		return pages.contains(page.getPageNumber()) ?
+			directActions : loggedActions;
+	}
+
+	public void actionDelete(
+    RawTransaction  t,
+    BasePage        page,
+    int             slot,
+    int             recordId,
+    boolean         delete,
+    LogicalUndo     undo)
+		throws StandardException
+	{
+		actionsFor(page).actionDelete(t, page, slot, recordId, delete, undo);
+	}
+
+	public int actionUpdate(
+    RawTransaction                  t,
+    BasePage                        page,
+    int                             slot,
+    int                             recordId,
+    Object[]                        row,
+    FormatableBitSet                validColumns,
+    int                             realStartColumn,
+    DynamicByteArrayOutputStream    logBuffer,
+    int                             realSpaceOnPage,
+    RecordHandle                    headRowHandle)
+		throws StandardException
+	{
+		return actionsFor(page).actionUpdate(
+			t, page, slot, recordId, row, validColumns, realStartColumn,
+			logBuffer, realSpaceOnPage, headRowHandle);
+	}
+
+	public void actionPurge(
+    RawTransaction  t,
+    BasePage        page,
+    int             slot,
+    int             num_rows,
+    int[]           recordIds,
+	boolean         logData)
+		throws StandardException
+	{
+		actionsFor(page).actionPurge(
+			t, page, slot, num_rows, recordIds, logData);
+	}
+
+	public void actionUpdateField(
+    RawTransaction          t,
+    BasePage                page,
+    int                     slot,
+    int                     recordId,
+    int                     fieldId,
+    Object                  newValue,
+    LogicalUndo             undo)
+		throws StandardException
+	{
+		actionsFor(page).actionUpdateField(
+			t, page, slot, recordId, fieldId, newValue, undo);
+	}
+
+	public int actionInsert(
+    RawTransaction          t,
+    BasePage                page,
+    int                     slot,
+    int                     recordId,
+    Object[]                row,
+    FormatableBitSet        validColumns,
+    LogicalUndo             undo,
+    byte                    insertFlag,
+    int                     startColumn,
+    boolean                 isLongColumn,
+    int                     realStartColumn,
+    DynamicByteArrayOutputStream  logBuffer,
+    int                     realSpaceOnPage,
+    int                     overflowThreshold)
+		throws StandardException
+	{
+		return actionsFor(page).actionInsert(
+			t, page, slot, recordId, row, validColumns, undo, insertFlag,
+			startColumn, isLongColumn, realStartColumn, logBuffer,
+			realSpaceOnPage, overflowThreshold);
+	}
+
+	/**
+		The rows only change the destination page, which decides whether
+		the copy is logged.
+	*/
+	public void actionCopyRows(
+    RawTransaction  t,
+    BasePage        destPage,
+    BasePage        srcPage,
+    int             destSlot,
+    int             numRows,
+    int             srcSlot,
+    int[]           recordIds)
+		throws StandardException
+	{
+		actionsFor(destPage).actionCopyRows(
+			t, destPage, srcPage, destSlot, numRows, srcSlot, recordIds);
+	}
+
+	public void actionInvalidatePage(
+    RawTransaction  t,
+    BasePage        page)
+		 throws StandardException
+	{
+		actionsFor(page).actionInvalidatePage(t, page);
+	}
+
+	public void actionInitPage(
+    RawTransaction  t,
+    BasePage        page,
+    int             initFlag,
+    int             pageFormatId,
+    long            pageOffset)
+		 throws StandardException
+	{
+		actionsFor(page).actionInitPage(
+			t, page, initFlag, pageFormatId, pageOffset);
+	}
+
+	public void actionShrinkReservedSpace(
+    RawTransaction  t,
+    BasePage        page,
+    int             slot,
+    int             recordId,
+    int             newValue,
+    int             oldValue)
+		 throws StandardException
+	{
+		actionsFor(page).actionShrinkReservedSpace(
+			t, page, slot, recordId, newValue, oldValue);
+	}
+}
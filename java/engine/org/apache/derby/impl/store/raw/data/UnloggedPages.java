@@ -0,0 +1,136 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.data.UnloggedPages
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.derby.iapi.services.monitor.DerbyObservable;
+import org.apache.derby.iapi.services.monitor.DerbyObserver;
+
+import org.apache.derby.iapi.store.raw.ContainerKey;
+import org.apache.derby.iapi.store.raw.xact.RawTransaction;
+
+import org.apache.derby.shared.common.sanity.SanityManager;
+
+/**
+	The pages of an unlogged container which the user transaction changing
+	it has allocated, in the order they were allocated.
+	<p>
+	Only these pages are changed without logging, see UnloggedActions.
+	Nothing on them was committed, and the transaction logged their
+	allocation, so a rollback deallocates them as a whole, while the
+	changes to the older pages of the container are logged and rolled back
+	as usual.  Each ContainerOperation.UNLOGGED log record remembers how
+	many pages had been allocated when it was logged, and undoing it
+	forgets the pages allocated after that, which the rollback has
+	deallocated by then.
+	<p>
+	The pages of a transaction are kept by the data factory until the
+	transaction commits or aborts.
+
+	<BR> MT - the container is locked exclusively by the transaction, but
+	the transaction can be used by more than one thread in turn.
+*/
+final class UnloggedPages implements DerbyObserver
+{
+	private final BaseDataFileFactory factory;
+	private final ContainerKey identity;
+
+	/** The pages, in the order they were allocated. */
+	private long[] pages = new long[16];
+	private int count;
+
+	/** The pages, for lookup. */
+	private final BitSet lookup = new BitSet();
+
+	UnloggedPages(BaseDataFileFactory factory, ContainerKey identity)
+	{
+		this.factory = factory;
+		this.identity = identity;
+	}
+
+	/** The number of pages allocated so far. */
+	synchronized int size()
+	{
+		return count;
+	}
+
+	/**
+		Remember a page allocated by the transaction.  Page numbers which
+		do not fit the lookup are not remembered, changes to such pages are
+		simply logged.
+	*/
+	synchronized void add(long pageNumber)
+	{
+		if (pageNumber > Integer.MAX_VALUE)
+			return;
+
+		if (count == pages.length)
+			pages = Arrays.copyOf(pages, count * 2);
+		pages[count++] = pageNumber;
+		lookup.set((int) pageNumber);
+	}
+
+	/** Was a page allocated by the transaction. */
+	synchronized boolean contains(long pageNumber)
+	{
+		return pageNumber <= Integer.MAX_VALUE && lookup.get((int) pageNumber);
+	}
+
+	/**
+		Forget the pages allocated after the first <code>position</code>
+		ones.
+	*/
+	synchronized void removeFrom(int position)
+	{
+		if (SanityManager.DEBUG)
+		{
+			SanityManager.ASSERT(position <= count,
+				"position " + position + " after " + count + " pages");
+		}
+
+		for (int i = position; i < count; i++)
+			lookup.clear((int) pages[i]);
+		count = Math.min(position, count);
+	}
+
+	/**
+		The transaction has committed or aborted, its pages are no longer
+		special.  The undo of an abort only needs the log.
+	*/
+	public void update(DerbyObservable obj, Object arg)
+	{
+		if (SanityManager.DEBUG)
+		{
+			if (arg == null)
+				SanityManager.THROWASSERT("still on observer list " + this);
+		}
+
+		if (arg.equals(RawTransaction.COMMIT) ||
+			arg.equals(RawTransaction.ABORT))
+		{
+			factory.forgetUnloggedPages(identity, this);
+			obj.deleteObserver(this);
+		}
+	}
+}
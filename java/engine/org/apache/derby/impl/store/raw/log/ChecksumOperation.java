@@ -45,6 +45,7 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.IOException;
 import org.apache.derby.iapi.services.io.LimitObjectInput;
+import org.apache.derby.iapi.services.io.CRC32C;
 
 import java.util.zip.Checksum;
 import java.util.zip.CRC32;
@@ -82,12 +83,23 @@ public class ChecksumOperation implements Loggable
 	 * constant values for algorithm that are used to perform the checksum.
 	 */
     public static final byte CRC32_ALGORITHM  = (byte) 0x1; //java.util.zip.CRC32
+    public static final byte CRC32C_ALGORITHM = (byte) 0x2; //CRC-32C, 10.14 and up
 	
 	private static final int formatLength = FormatIdUtil.getFormatIdByteLength(StoredFormatIds.LOGOP_CHECKSUM);
 	
 	public void init()
 	{
-		this.checksumAlgo = CRC32_ALGORITHM;
+		init(CRC32_ALGORITHM);
+	}
+
+	/**
+	 * Initialize the operation to checksum with the given algorithm.
+	 *
+	 * @param checksumAlgo CRC32_ALGORITHM or CRC32C_ALGORITHM
+	 */
+	public void init(byte checksumAlgo)
+	{
+		this.checksumAlgo = checksumAlgo;
 		initializeChecksumAlgo();
 		dataLength = 0;
 	}
@@ -113,6 +125,8 @@ public class ChecksumOperation implements Loggable
 	{
 		if(checksumAlgo == CRC32_ALGORITHM)
 			this.checksum = new CRC32();
+		else if(checksumAlgo == CRC32C_ALGORITHM)
+			this.checksum = CRC32C.newInstance();
 	}
 
 
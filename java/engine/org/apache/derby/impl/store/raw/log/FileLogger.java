@@ -125,6 +125,9 @@ public class FileLogger implements Logger {
 
 	private LogToFile logFactory;	// actually writes the log records.
 
+	// compresses large log records, created when first needed
+	private LogCompressor compressor;
+
 	/**
 		Make a new Logger with its own log record buffers
 		MT - not needed for constructor
@@ -174,6 +177,12 @@ public class FileLogger implements Logger {
 		logicalOut = null;
 
 		logRecord = null;
+
+		if (compressor != null)
+		{
+			compressor.close();
+			compressor = null;
+		}
 	}
 
 	/*
@@ -289,6 +298,35 @@ public class FileLogger implements Logger {
 			logicalOut.writeInt(optionalDataLength);
 			completeLength = logOutputBuffer.getPosition() + optionalDataLength;
 
+			// the log record, or its header if the optional data is
+			// written from preparedLog
+			byte[] recordBuffer = logOutputBuffer.getByteArray();
+
+			int compressionThreshold = logFactory.getLogCompressionThreshold();
+			if (compressionThreshold > 0 &&
+				completeLength >= compressionThreshold)
+			{
+				if (compressor == null)
+					compressor = new LogCompressor();
+
+				int compressedLength = 
+					compressor.compress(operation.group(), recordBuffer,
+										completeLength - optionalDataLength,
+										preparedLog, optionalDataOffset,
+										optionalDataLength);
+				if (compressedLength > 0)
+				{
+					// log the compressed record instead, the optional data
+					// is in it.  doMe still reads the optional data from
+					// logIn, uncompressed.
+					recordBuffer = compressor.getBuffer();
+					completeLength = compressedLength;
+					preparedLog = null;
+					optionalDataOffset = 0;
+					optionalDataLength = 0;
+				}
+			}
+
 
 			LogInstant logInstant = null;
 			int encryptedLength = 0; // in case of encryption, we need to pad
@@ -307,7 +345,7 @@ public class FileLogger implements Logger {
 						encryptionBuffer.length < encryptedLength)
 						encryptionBuffer = new byte[encryptedLength];
 
-					System.arraycopy(logOutputBuffer.getByteArray(), 0, 
+					System.arraycopy(recordBuffer, 0, 
 									 encryptionBuffer, 0, completeLength-optionalDataLength);
 
 					if (optionalDataLength > 0)
@@ -343,7 +381,7 @@ public class FileLogger implements Logger {
 						else
 						{
 							instant = logFactory.
-								appendLogRecord(logOutputBuffer.getByteArray(),
+								appendLogRecord(recordBuffer,
 												0, completeLength, preparedLog,
 												optionalDataOffset,
 												optionalDataLength);
@@ -368,7 +406,7 @@ public class FileLogger implements Logger {
 					else
 					{
 						instant = logFactory.
-							appendLogRecord(logOutputBuffer.getByteArray(), 0,
+							appendLogRecord(recordBuffer, 0,
 											completeLength, preparedLog,
 											optionalDataOffset,
 											optionalDataLength); 
@@ -1107,6 +1145,8 @@ public class FileLogger implements Logger {
 		@param transFactory     - the transaction factory
 		@param redoLWM          - if checkpoint seen, starting from this point
                                   on, apply redo if necessary
+		@param parallelRedo     - applies page level log records on worker
+                                  threads, or null to apply them all here
 
 		@return the log instant of the next log record (or the instant just
 		after the last log record).  This is used to determine where the log
@@ -1123,7 +1163,8 @@ public class FileLogger implements Logger {
     TransactionFactory  transFactory,
     StreamLogScan       redoScan,
     long                redoLWM,
-    long                ttabInstant)
+    long                ttabInstant,
+    ParallelRedo        parallelRedo)
 		 throws IOException, StandardException, ClassNotFoundException
 	{
 		// begin debug info
@@ -1392,7 +1433,14 @@ public class FileLogger implements Logger {
 					 	"recovery transaction handles post termination work");
                 }
 
-				if (op.needsRedo(recoveryTransaction))
+				// page level operations are redone by the worker of their
+				// container, which finds out itself whether the page needs
+				// the change.  Operations that change container files wait
+				// until the workers have caught up.
+				boolean inParallel =
+					parallelRedo != null && parallelRedo.beforeRedo(op);
+
+				if (inParallel || op.needsRedo(recoveryTransaction))
 				{
 					redoCount++;
 
@@ -1478,11 +1526,18 @@ public class FileLogger implements Logger {
 					// for some reasons, the log factory's corruption will stop
 					// the corrupt page from flushing to disk.
 
-					op.doMe(
-                        recoveryTransaction, 
-                        new LogCounter(instant), logIn);
+					if (inParallel)
+					{
+						parallelRedo.redo(op, instant, logIn);
+					}
+					else
+					{
+						op.doMe(
+                            recoveryTransaction, 
+                            new LogCounter(instant), logIn);
 
-					op.releaseResource(recoveryTransaction);
+						op.releaseResource(recoveryTransaction);
+					}
 
 					op = null;
 				}
@@ -1511,6 +1566,10 @@ public class FileLogger implements Logger {
 				}
 			} // while redoScan.getNextRecord() != null
 
+			// the log ends here, so the workers must be done with it too
+			if (parallelRedo != null)
+				parallelRedo.drain();
+
             // If the scan ended in an empty file, update logEnd to reflect that
             // in order to avoid to continue logging to an older file
             long end = redoScan.getLogRecordEnd(); 
@@ -1522,6 +1581,14 @@ public class FileLogger implements Logger {
 		}
 		catch (StandardException se)
 		{
+			// an error from a worker already names the operation that
+			// failed, the operation read here has nothing to do with it
+			if (parallelRedo != null &&
+				SQLState.LOG_REDO_FAILED.equals(se.getMessageId()))
+			{
+				throw se;
+			}
+
             throw StandardException.newException(
                     SQLState.LOG_REDO_FAILED, se, op);
 		}
@@ -193,6 +193,26 @@ public class FlushedScan implements StreamLogScan {
 
 				lr = (LogRecord) input.readObject();
 
+				// the transaction id of a compressed log record can only be
+				// looked at once the whole record is read in and inflated
+				if (lr.isCompressed())
+				{
+					if (readAmount > 0 && readAmount < nextRecordLength)
+					{
+						int inputPosition = input.getPosition();
+
+						scan.readFully(data, readAmount,
+									   nextRecordLength-readAmount);
+
+						input.setLimit(0, nextRecordLength);
+						input.setPosition(inputPosition);
+						readAmount = nextRecordLength;
+					}
+
+					logFactory.getLogCompressor().inflate(
+						input, nextRecordLength);
+				}
+
 				if (groupmask != 0 || tranId != null)
 				{
 					if (groupmask != 0 && (groupmask & lr.group()) == 0)
@@ -78,9 +78,31 @@ import org.apache.derby.iapi.util.InterruptStatus;
     the disk and comparing it to the the value stored in the checksum log
     record. 
 
+    Log records that fit in a buffer are written in two steps. While the
+    caller holds the log factory's monitor, reserveLogRecord() assigns the
+    record its place in the current buffer. The record is then copied into
+    that place by copyLogRecord() after the monitor has been released, so
+    that transactions can copy their log records in parallel. A buffer is
+    not checksummed or written until all the records reserved in it have
+    been copied, see switchLogBuffer().
+
 */
 public class LogAccessFile 
 {
+    /**
+     * Room reserved in a log buffer for a single log record.
+     */
+    static final class LogSlot
+    {
+        final LogAccessFileBuffer buffer;
+        final int position;
+
+        LogSlot(LogAccessFileBuffer buffer, int position)
+        {
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
 
     /**
      * The fixed size of a log record is 16 bytes:
@@ -98,6 +120,8 @@ public class LogAccessFile
 	private LinkedList<LogAccessFileBuffer>    dirtyBuffers; //list of dirty buffers to flush
 	private  LogAccessFileBuffer currentBuffer; //current active buffer
 	private boolean flushInProgress = false;
+	private boolean waitingForWriters = false; //is a buffer switch waiting
+	                                           //for log records to be copied
 	
 	private final StorageRandomAccessFile  log;
 
@@ -177,7 +201,7 @@ public class LogAccessFile
 			 * for a group of log records are being written to the disk. 
 			 */
 			checksumLogOperation = new ChecksumOperation();
-			checksumLogOperation.init();
+			checksumLogOperation.init(logFactory.getChecksumAlgorithm());
 			checksumLogRecord = new LogRecord();
 
 			// Note: Checksum log records are not related any particular transaction, 
@@ -343,6 +367,128 @@ public class LogAccessFile
         }
     }
 
+    /**
+     * Reserve room for a log record in the current log buffer. The record
+     * must then be copied into the buffer with copyLogRecord(). Until
+     * that has happened, the buffer will not be switched out.
+     * <p>
+     * MT - the caller must hold the monitor of the log factory, which
+     * serializes all the reservations and gives them their instants.
+     *
+     * @param length    (data + optional_data) length of the log record
+     * @param instant   the log address of the log record
+     *
+     * @return the reserved room, or null if the log record is too big to
+     * fit in a buffer. Such a record has to be written with
+     * writeLogRecord() instead, without releasing the monitor.
+     **/
+    public LogSlot reserveLogRecord(int length, long instant)
+    {
+        int total_log_record_length = length + LOG_RECORD_FIXED_OVERHEAD_SIZE;
+
+        if (total_log_record_length > currentBuffer.bytes_free)
+            return null;
+
+        LogSlot slot = new LogSlot(currentBuffer, currentBuffer.position);
+
+        currentBuffer.position += total_log_record_length;
+        currentBuffer.bytes_free -= total_log_record_length;
+        currentBuffer.greatest_instant = instant;
+
+        synchronized (this)
+        {
+            currentBuffer.writers++;
+        }
+
+        if (SanityManager.DEBUG) {
+            int normalizedPosition = currentBuffer.position;
+            if (writeChecksum) {
+                normalizedPosition -= checksumLogRecordSize;
+            }
+            SanityManager.ASSERT(
+                currentBuffer.bytes_free + normalizedPosition ==
+                currentBuffer.length,
+                "free_bytes and position do not add up to the total " +
+                "length of the buffer");
+        }
+
+        return slot;
+    }
+
+    /**
+     * Copy a log record into the room reserved for it by
+     * reserveLogRecord(). Called without holding the log factory's
+     * monitor, so that several threads can copy their records at once.
+     *
+     * @see LogAccessFile#writeLogRecord
+     **/
+    public void copyLogRecord(
+    LogSlot slot,
+    int     length,
+    long    instant,
+    byte[]  data,
+    int     data_offset,
+    byte[]  optional_data,
+    int     optional_data_offset,
+    int     optional_data_length)
+    {
+        try
+        {
+            int newpos = appendLogRecordToBuffer(slot.buffer.buffer,
+                                                 slot.position,
+                                                 length, 
+                                                 instant, 
+                                                 data, 
+                                                 data_offset,
+                                                 optional_data,
+                                                 optional_data_offset,
+                                                 optional_data_length);
+
+            if (SanityManager.DEBUG)
+            {
+                SanityManager.ASSERT(
+                    newpos == slot.position + length +
+                        LOG_RECORD_FIXED_OVERHEAD_SIZE,
+                    "log record does not fill its reserved room");
+            }
+        }
+        finally
+        {
+            // Release the buffer even if the copy failed, or it could
+            // never be switched.
+            synchronized (this)
+            {
+                if (--slot.buffer.writers == 0 && waitingForWriters)
+                {
+                    waitingForWriters = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until all the log records reserved in a buffer have been
+     * copied into it.
+     * <p>
+     * MT - caller must hold the monitor of this object.
+     */
+    private void waitForWriters(LogAccessFileBuffer buf)
+    {
+        while (buf.writers > 0)
+        {
+            waitingForWriters = true;
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException ie)
+            {
+                InterruptStatus.setInterrupted();
+            }
+        }
+    }
+
     /**
      * Append a log record to a byte[]. Typically, the byte[] will be
      * currentBuffer, but if a log record that is too big to fit in a
@@ -588,6 +734,10 @@ public class LogAccessFile
 			if(currentBuffer.position == checksumLogRecordSize)
 				return;
 
+			// the records reserved in the buffer must be in place before
+			// the buffer is checksummed and queued for writing
+			waitForWriters(currentBuffer);
+
 			// calculate the checksum for the current log buffer 
 			// and write the record to the space reserverd in 
 			// the beginning of the buffer. 
@@ -609,6 +759,14 @@ public class LogAccessFile
 				//because this is only methods removes items from 
 				//free buffers and removal is in synchronized block. 
 			}
+			else
+			{
+				//let the log writer thread, if there is one, write the
+				//dirty buffers while the free ones are being filled
+				LogWriter writer = logFactory.getLogWriter();
+				if (writer != null)
+					writer.wakeUp(this);
+			}
 
 
 			// there should be free buffer available at this point.
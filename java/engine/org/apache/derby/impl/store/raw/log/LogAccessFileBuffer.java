@@ -42,6 +42,11 @@ final class LogAccessFileBuffer
 	protected int       length;
     protected long      greatest_instant;
 
+    // number of threads that have reserved room for a log record in the
+    // buffer and not finished copying it in yet. Protected by the monitor
+    // of the LogAccessFile that owns the buffer.
+    protected int       writers;
+
     LogAccessFileBuffer next;
     LogAccessFileBuffer prev;
 
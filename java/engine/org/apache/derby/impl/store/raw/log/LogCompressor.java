@@ -0,0 +1,245 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.log.LogCompressor
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.log;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.derby.iapi.services.io.ArrayInputStream;
+import org.apache.derby.iapi.services.io.ArrayOutputStream;
+import org.apache.derby.iapi.services.io.CompressedNumber;
+import org.apache.derby.iapi.store.raw.Loggable;
+
+/**
+ * Compresses and inflates the data of large log records
+ * (derby.storage.logCompressionThreshold).
+ * <p>
+ * Everything in a log record after the group value is compressed, that is
+ * the transaction id, the operation, the length of the optional data and
+ * the optional data itself. The format id and the group are left as they
+ * are, so that a log scan can still tell from the group that the record is
+ * compressed. A compressed log record has the following layout:
+ * <PRE>
+ *   format id      LOG_RECORD, as in any log record
+ *   CompressedInt  the group of the operation, with Loggable.COMPRESSED set
+ *   4 bytes int    length of the rest of the record, uncompressed
+ *   n bytes        the rest of the record, compressed with deflate
+ * </PRE>
+ * Compression happens before encryption when the log is written, and the
+ * log scans inflate a record after decrypting it, so a scan returns the
+ * record in the same form whether it was compressed or not. Records that
+ * do not get at least an eighth smaller are logged uncompressed.
+ * <p>
+ * MT - Each <code>FileLogger</code> compresses with its own instance, which
+ * is not thread safe. Inflating is synchronized, so the log factory can
+ * share one instance between its scans.
+ */
+final class LogCompressor {
+
+    /** The most a compressed record may be, in eighths of the original. */
+    private static final int MAX_RATIO_EIGHTHS = 7;
+
+    private Deflater deflater;
+    private Inflater inflater;
+
+    /** The rest of the record to compress, put together in one array. */
+    private byte[] rawBuffer;
+
+    /** The compressed record, as returned by {@link #getBuffer()}. */
+    private byte[] buffer;
+
+    private final ArrayOutputStream headerOut = new ArrayOutputStream();
+
+    /**
+     * Compress a log record, if it is worth it.
+     *
+     * @param group the group of the operation in the record, without the
+     * <code>COMPRESSED</code> flag
+     * @param record the record as written by the logger, up to and
+     * including the length of the optional data
+     * @param recordLength the number of bytes in <code>record</code>
+     * @param optionalData the optional data of the record, or null
+     * @param optionalDataOffset where the optional data starts
+     * @param optionalDataLength the length of the optional data
+     * @return the length of the compressed record in
+     * {@link #getBuffer()}, or -1 if the record should be logged as it is
+     * @exception IOException error writing the header of the record
+     */
+    int compress(int group, byte[] record, int recordLength,
+                 byte[] optionalData, int optionalDataOffset,
+                 int optionalDataLength)
+        throws IOException
+    {
+        int skip = LogRecord.formatOverhead() + CompressedNumber.sizeInt(group);
+        int flagged = group | Loggable.COMPRESSED;
+        int headerLength =
+            LogRecord.formatOverhead() + CompressedNumber.sizeInt(flagged) + 4;
+
+        int completeLength = recordLength + optionalDataLength;
+        int rawLength = completeLength - skip;
+        int room = (completeLength / 8) * MAX_RATIO_EIGHTHS - headerLength;
+        if (room <= 0) {
+            return -1;
+        }
+
+        if (rawBuffer == null || rawBuffer.length < rawLength) {
+            rawBuffer = new byte[rawLength];
+        }
+        System.arraycopy(record, skip, rawBuffer, 0, recordLength - skip);
+        if (optionalDataLength > 0) {
+            System.arraycopy(optionalData, optionalDataOffset, rawBuffer,
+                             recordLength - skip, optionalDataLength);
+        }
+
+        if (buffer == null || buffer.length < headerLength + room) {
+            buffer = new byte[headerLength + room];
+        }
+
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true /* nowrap */);
+        }
+        deflater.reset();
+        deflater.setInput(rawBuffer, 0, rawLength);
+        deflater.finish();
+        int length = deflater.deflate(buffer, headerLength, room);
+        if (!deflater.finished()) {
+            return -1;
+        }
+
+        System.arraycopy(record, 0, buffer, 0, LogRecord.formatOverhead());
+        headerOut.setData(buffer);
+        headerOut.setPosition(LogRecord.formatOverhead());
+        CompressedNumber.writeInt(headerOut, flagged);
+        writeInt(buffer, headerLength - 4, rawLength);
+
+        return headerLength + length;
+    }
+
+    /**
+     * Get the buffer holding the record compressed by the last call to
+     * {@link #compress}.
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Inflate a compressed log record in a log scan's input buffer. The
+     * input must be positioned right after the group of the record. On
+     * return the rest of the record follows in the buffer, uncompressed,
+     * with the position unchanged and the limit at the end of the record.
+     * The buffer is replaced with a bigger one if needed.
+     *
+     * @param input the input holding the whole record, decrypted
+     * @param recordLength the length of the record in the buffer
+     * @exception IOException the compressed data is corrupt
+     */
+    void inflate(ArrayInputStream input, int recordLength)
+        throws IOException
+    {
+        byte[] data = input.getData();
+        int position = input.getPosition();
+        int rawLength = readInt(data, position);
+        int dataStart = position + 4;
+        if (rawLength <= 0 || dataStart > recordLength) {
+            throw new IOException(
+                "bad compressed log record length " + rawLength);
+        }
+
+        byte[] target;
+        byte[] compressed;
+        int compressedOffset;
+        if (data.length >= position + rawLength) {
+            // Inflate into the same buffer, which needs the compressed
+            // data out of the way first.
+            target = data;
+            compressed = new byte[recordLength - dataStart];
+            System.arraycopy(data, dataStart, compressed, 0,
+                             compressed.length);
+            compressedOffset = 0;
+        } else {
+            target = new byte[position + rawLength];
+            System.arraycopy(data, 0, target, 0, position);
+            compressed = data;
+            compressedOffset = dataStart;
+        }
+
+        synchronized (this) {
+            if (inflater == null) {
+                inflater = new Inflater(true /* nowrap */);
+            }
+            inflater.reset();
+            // An encrypted record may be followed by padding, which the
+            // inflater leaves alone at the end of the stream.
+            inflater.setInput(compressed, compressedOffset,
+                              recordLength - dataStart);
+            try {
+                int read = inflater.inflate(target, position, rawLength);
+                if (read != rawLength || !inflater.finished()) {
+                    throw new IOException(
+                        "compressed log record expanded to " + read +
+                        " bytes instead of " + rawLength);
+                }
+            } catch (DataFormatException dfe) {
+                IOException ioe = new IOException(dfe.getMessage());
+                ioe.initCause(dfe);
+                throw ioe;
+            }
+        }
+
+        if (target != data) {
+            input.setData(target);
+        }
+        input.setLimit(0, position + rawLength);
+        input.setPosition(position);
+    }
+
+    /**
+     * Release the native resources held by the codecs. The compressor must
+     * not be used afterwards.
+     */
+    synchronized void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    private static int readInt(byte[] a, int offset) {
+        return ((a[offset] & 0xff) << 24) |
+               ((a[offset + 1] & 0xff) << 16) |
+               ((a[offset + 2] & 0xff) << 8) |
+               (a[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] a, int offset, int value) {
+        a[offset]     = (byte) (value >>> 24);
+        a[offset + 1] = (byte) (value >>> 16);
+        a[offset + 2] = (byte) (value >>> 8);
+        a[offset + 3] = (byte) value;
+    }
+}
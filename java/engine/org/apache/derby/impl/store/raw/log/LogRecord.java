@@ -62,6 +62,8 @@ import java.io.IOException;
 		loggable group(CompressedInt)	the loggable's group value
 		xactId(TransactionId)			The Transaction this log belongs to
 		op(Loggable)					the log operation
+	If the group has Loggable.COMPRESSED set, everything after the group
+	is compressed, see LogCompressor.
 	@derby.endFormat
 	</PRE>
 
@@ -311,4 +313,12 @@ public class LogRecord implements Formatable {
 	public boolean isChecksum()	{
 		return ((group & Loggable.CHECKSUM) != 0);
 	}
+
+	/**
+		Is the rest of this log record compressed? If so, the log scan must
+		inflate it before the transaction id or the loggable can be read.
+	*/
+	public boolean isCompressed()	{
+		return ((group & Loggable.COMPRESSED) != 0);
+	}
 }
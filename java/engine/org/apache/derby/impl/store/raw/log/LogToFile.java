@@ -26,6 +26,7 @@ import org.apache.derby.iapi.services.diag.Performance;
 import org.apache.derby.iapi.services.info.ProductVersionHolder;
 
 import org.apache.derby.iapi.reference.MessageId;
+import org.apache.derby.iapi.reference.Module;
 import org.apache.derby.iapi.reference.Property;
 import org.apache.derby.iapi.reference.SQLState;
 
@@ -66,9 +67,11 @@ import org.apache.derby.iapi.store.replication.slave.SlaveFactory;
 import org.apache.derby.iapi.services.io.ArrayInputStream;
 
 import org.apache.derby.iapi.store.access.DatabaseInstant;
+import org.apache.derby.mbeans.LogMBean;
 import org.apache.derby.iapi.services.property.PropertyUtil;
 import org.apache.derby.iapi.reference.Attribute;
 import org.apache.derby.iapi.services.io.FileUtil;
+import org.apache.derby.iapi.services.jmx.ManagementService;
 
 import org.apache.derby.io.WritableStorageFactory;
 import org.apache.derby.io.StorageFile;
@@ -257,6 +260,8 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 	private static final int CHECKPOINT_INTERVAL_MIN     = 100000;
 	private static final int CHECKPOINT_INTERVAL_MAX     = 128*1024*1024;
 	private static final int DEFAULT_CHECKPOINT_INTERVAL = 10*1024*1024;
+	private static final int LOG_COMMIT_DELAY_MAX        = 1000000;
+	private static final int RECOVERY_REDO_THREADS_MAX = 64;
 
 	//log buffer size values
 	private static final int DEFAULT_LOG_BUFFER_SIZE = 32768; //32K
@@ -300,9 +305,37 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 	private int     logSwitchInterval   = DEFAULT_LOG_SWITCH_INTERVAL;
 	private int     checkpointInterval  = DEFAULT_CHECKPOINT_INTERVAL;
 
+	// the rate in pages per second at which checkpoints taken by the
+	// checkpoint daemon write dirty pages, 0 means no limit
+	private int     checkpointWriteRate = 0;
+
 	String dataDirectory; 					// where files are stored
     private WritableStorageFactory logStorageFactory;
     
+	// the maximum time in microseconds to hold back a log sync to let
+	// other committers join it, 0 means no delay
+	private int     commitDelay = 0;
+
+	// group commit statistics (access of the variables should sync on this)
+	private long flushRequests;      // flush calls which needed a log sync
+	private long syncCount;          // log syncs done for flush calls
+	private int  pendingFlushRequests; // flush calls waiting for next sync
+	private int  lastSyncGroupSize;  // flush calls served by the last sync
+
+	// identifier of the registered LogMBean, if any
+	private Object mbean;
+
+	// background thread writing full log buffers, null if log buffers
+	// are written by the threads that fill them
+	private volatile LogWriter logWriter;
+
+	// log records at least this long are logged compressed, 0 if log
+	// records are never compressed
+	private int logCompressionThreshold;
+
+	// inflates the compressed log records for the log scans
+	private final LogCompressor logCompressor = new LogCompressor();
+
 	private boolean logBeingFlushed; // is the log in the middle of a flush
 									 // (access of the variable should sync on this)
 
@@ -440,6 +473,14 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 	// DEBUG DEBUG - do not truncate log files
 	private boolean keepAllLogs;
 
+	// checksum log blocks with CRC32C rather than CRC32, if the database
+	// version allows it
+	private boolean crc32cChecksums;
+
+	// the log is kept in memory and derby.storage.nonDurableInMemory is set,
+	// commits do not flush the log
+	private boolean nonDurableInMemory;
+
 	// if database is encrypted, the content of the log files are encrypted
 	private boolean databaseEncrypted; 
 
@@ -447,6 +488,9 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 	// states
 	private boolean			 recoveryNeeded = true; // log needs to be recovered
 	private boolean			 inCheckpoint = false; 	// in the middle of a checkpoint
+	private boolean			 inThrottledCheckpoint = false;
+								// the checkpoint in progress is writing
+								// pages at a limited rate
 	private boolean			 inRedo = false;        // in the middle of redo loop
 	private boolean          inLogSwitch = false;
 
@@ -544,7 +588,9 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 	*/
 	public LogToFile() {
 		keepAllLogs = PropertyUtil.getSystemBoolean(RawStoreFactory.KEEP_TRANSACTION_LOG);
-		
+		crc32cChecksums = RawStoreFactory.CHECKSUM_ALGORITHM_CRC32C.equalsIgnoreCase(
+			PropertyUtil.getSystemProperty(RawStoreFactory.CHECKSUM_ALGORITHM_PARAMETER));
+
 
 		if (Performance.MEASURE)
 			mon_LogSyncStatistics = PropertyUtil.getSystemBoolean(LOG_SYNC_STATISTICS);
@@ -913,10 +959,34 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 				//
 				inRedo = true;	
 
-				long logEnd = 
-                    logger.redo(
-                        recoveryTransaction, tf, redoScan, redoLWM, 
-                        ttabInstant);
+				// Optionally apply the page level log records on worker
+				// threads, one or more containers per thread. Not while
+				// replicating, since redo runs until failover then.
+				ParallelRedo parallelRedo = null;
+				int redoThreads = PropertyUtil.getSystemInt(
+                    org.apache.derby.iapi.reference.Property.RECOVERY_REDO_THREADS,
+                    0, RECOVERY_REDO_THREADS_MAX, 0);
+				if (redoThreads > 0 && !inReplicationSlaveMode)
+				{
+					parallelRedo = new ParallelRedo(
+                        tf, rawStoreFactory, dataFactory,
+                        getContextService(), getMonitor(), redoThreads);
+					parallelRedo.start();
+				}
+
+				long logEnd;
+				try
+				{
+					logEnd = 
+                        logger.redo(
+                            recoveryTransaction, tf, redoScan, redoLWM, 
+                            ttabInstant, parallelRedo);
+				}
+				finally
+				{
+					if (parallelRedo != null)
+						parallelRedo.stop();
+				}
 
 				inRedo = false;
 				
@@ -1504,7 +1574,7 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 		}
 
 		// call checkpoint with no pre-started transaction
-		boolean done = checkpointWithTran(null, rsf, df, tf, wait);
+		boolean done = checkpointWithTran(null, rsf, df, tf, wait, 0);
 
 		return done;
 	}
@@ -1519,6 +1589,10 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
                             wait=true then this routine will wait for the 
                             checkpoint to complete and the do another checkpoint
                             and wait for it to finish before returning.
+        @param writeRate    The maximum number of dirty pages to write per
+                            second, or 0 for no limit. A limited checkpoint
+                            switches to full speed if another thread asks
+                            for a checkpoint while it is in progress.
 
 		@exception StandardException Derby Standard Error Policy 
 	*/
@@ -1527,7 +1601,8 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
     RawStoreFactory     rsf,
     DataFactory         df,
     TransactionFactory  tf,
-    boolean             wait)
+    boolean             wait,
+    int                 writeRate)
 		 throws StandardException
 	{
 		LogInstant  redoLWM;
@@ -1568,7 +1643,12 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
                 }
                 else
                 {
-                    // There is a checkpoint in progress.
+                    // There is a checkpoint in progress. If it is writing
+                    // its pages slowly to stay out of the way of user
+                    // transactions, tell it to hurry up, since someone is
+                    // now waiting for a checkpoint to be done.
+                    if (inThrottledCheckpoint)
+                        df.hurryCheckpoint();
 
                     if (wait)
                     {
@@ -1707,7 +1787,33 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 			/////////////////////////////////////////////////////
 			// clean the buffer cache
 			/////////////////////////////////////////////////////
-			df.checkpoint();
+			// The redo LWM is already fixed, so an incremental checkpoint 
+			// which spreads these writes out over time is as good as one 
+			// which writes everything at once. Recovery keeps starting from 
+			// the redo LWM of the current checkpoint until this one has
+			// written its checkpoint record below.
+			if (writeRate > 0)
+			{
+				synchronized (this)
+				{
+					inThrottledCheckpoint = true;
+				}
+				try
+				{
+					df.checkpoint(writeRate);
+				}
+				finally
+				{
+					synchronized (this)
+					{
+						inThrottledCheckpoint = false;
+					}
+				}
+			}
+			else
+			{
+				df.checkpoint();
+			}
 
 
 			/////////////////////////////////////////////////////
@@ -3271,6 +3377,18 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
             }
         }
 
+        // A log kept in memory does not outlive the JVM.  Do not sync it,
+        // as for derby.system.durability=test, which also marks the log as
+        // not durable, and on top of that let commits skip flushing it.
+        if (logStorageFactory.isFast() &&
+            PropertyUtil.getSystemBoolean(
+                RawStoreFactory.NON_DURABLE_IN_MEMORY))
+        {
+            nonDurableInMemory = true;
+            logNotSynced = true;
+            isWriteSynced = false;
+        }
+
 		// try to access the log
 		// if it doesn't exist, create it.
 		// if it does exist, run recovery
@@ -3486,6 +3604,37 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 			maxLogFileNumber = LogCounter.DERBY_10_0_MAX_LOGFILE_NUMBER;
 
 		bootTimeLogFileNumber = logFileNumber;
+
+		if (!ReadOnlyDB &&
+			PropertyUtil.getSystemBoolean(
+                org.apache.derby.iapi.reference.Property.LOG_WRITER_THREAD))
+		{
+			LogWriter writer = new LogWriter(this);
+			writer.start(
+                getMonitor().getDaemonThread(writer, "derby.logWriter", false));
+			logWriter = writer;
+		}
+
+		// older versions cannot read compressed log records
+		if (checkVersion(RawStoreFactory.DERBY_STORE_MAJOR_VERSION_10,
+						 RawStoreFactory.DERBY_STORE_MINOR_VERSION_14))
+		{
+			logCompressionThreshold = PropertyUtil.getSystemInt(
+				org.apache.derby.iapi.reference.Property.LOG_COMPRESSION_THRESHOLD,
+				0, Integer.MAX_VALUE, 0);
+		}
+
+        // Register an MBean that allows users to monitor the log.
+        ManagementService managementService =
+            (ManagementService) getSystemModule(Module.JMX);
+        if (managementService != null)
+        {
+            mbean = managementService.registerMBean(
+                new LogMBeanImpl(this),
+                LogMBean.class,
+                "type=Log,db=" +
+                    managementService.quotePropertyValue(dataDirectory));
+        }
 	} // end of boot
 
     private void getLogStorageFactory() throws StandardException
@@ -3519,6 +3668,14 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 	*/
 	public  void stop() {
 
+        if (mbean != null)
+        {
+            ManagementService managementService =
+                (ManagementService) getSystemModule(Module.JMX);
+            if (managementService != null)
+                managementService.unregisterMBean(mbean);
+            mbean = null;
+        }
 
 		// stop our checkpoint 
 		if (checkpointDaemon != null) {
@@ -3526,6 +3683,13 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 			checkpointDaemon.stop();
 		}
 
+		// stop the log writer, the last buffers are written below
+		LogWriter writer = logWriter;
+		if (writer != null) {
+			logWriter = null;
+			writer.stop();
+		}
+
 		synchronized(this)
 		{
 			stopped = true;
@@ -3541,6 +3705,8 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 			}
 		}
 
+		logCompressor.close();
+
 	  
 		if (SanityManager.DEBUG &&
             Performance.MEASURE &&
@@ -3663,14 +3829,20 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 	{
 		String lsInterval;
 		String cpInterval;
+		String cpWriteRate;
+		String cmtDelay;
 		if(set == null)
 		{
 			lsInterval=PropertyUtil.getSystemProperty(org.apache.derby.iapi.reference.Property.LOG_SWITCH_INTERVAL);
 			cpInterval=PropertyUtil.getSystemProperty(org.apache.derby.iapi.reference.Property.CHECKPOINT_INTERVAL);
+			cpWriteRate=PropertyUtil.getSystemProperty(org.apache.derby.iapi.reference.Property.CHECKPOINT_WRITE_RATE);
+			cmtDelay=PropertyUtil.getSystemProperty(org.apache.derby.iapi.reference.Property.LOG_COMMIT_DELAY);
 		}else
 		{
 			lsInterval = PropertyUtil.getServiceProperty(set, org.apache.derby.iapi.reference.Property.LOG_SWITCH_INTERVAL);
 			cpInterval = PropertyUtil.getServiceProperty(set, org.apache.derby.iapi.reference.Property.CHECKPOINT_INTERVAL);
+			cpWriteRate = PropertyUtil.getServiceProperty(set, org.apache.derby.iapi.reference.Property.CHECKPOINT_WRITE_RATE);
+			cmtDelay = PropertyUtil.getServiceProperty(set, org.apache.derby.iapi.reference.Property.LOG_COMMIT_DELAY);
 		}
 
 		/* log switch interval */
@@ -3693,6 +3865,17 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 			else if(checkpointInterval  > CHECKPOINT_INTERVAL_MAX)
 				checkpointInterval = CHECKPOINT_INTERVAL_MAX;
 		}
+
+		/* checkpoint write rate */
+		checkpointWriteRate =
+            (cpWriteRate == null) ? 0 : Math.max(0, Integer.parseInt(cpWriteRate));
+
+		/* group commit delay */
+		int delay = (cmtDelay == null) ? 0 : Integer.parseInt(cmtDelay);
+		synchronized (this)
+		{
+			commitDelay = Math.min(Math.max(delay, 0), LOG_COMMIT_DELAY_MAX);
+		}
 	}
 
 	public int performWork(ContextManager context)
@@ -3727,8 +3910,15 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 			}
 
 			// checkpoint will start its own internal transaction on the current
-			// context.
-			rawStoreFactory.checkpoint();
+			// context. Nobody waits for the checkpoints taken here, so they
+			// may write their pages at a limited rate.
+			if (!inReplicationSlavePreMode)
+			{
+				checkpointWithTran(
+                    null, rawStoreFactory, dataFactory,
+                    rawStoreFactory.getXactFactory(), true, 
+                    checkpointWriteRate);
+			}
 		}
 		catch (StandardException se)
 		{
@@ -3779,6 +3969,11 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 		long instant;
 		boolean testIncompleteLogWrite = false;
 
+		// where the log record is copied after the monitor is released,
+		// null if it has been written while holding the monitor
+		LogAccessFile out = null;
+		LogAccessFile.LogSlot slot = null;
+
 		if (ReadOnlyDB)
         {
 			throw StandardException.newException(
@@ -3875,10 +4070,6 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 				instant = 
                     LogCounter.makeLogInstantAsLong(logFileNumber, endPosition);
 
-                logOut.writeLogRecord(
-                    length, instant, data, offset, 
-                    optionalData, optionalDataOffset, optionalDataLength);
-
 				if (optionalDataLength != 0) 
                 {
 					if (SanityManager.DEBUG)
@@ -3897,8 +4088,32 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 					}
 				}
 
+				// Only reserve room for the log record here, and copy it
+				// into the log buffer after the monitor is released, so
+				// that other threads can reserve room for their records
+				// meanwhile. Records too big for a log buffer are written
+				// right away.
+				slot = logOut.reserveLogRecord(length, instant);
+				if (slot == null)
+				{
+					logOut.writeLogRecord(
+                        length, instant, data, offset, 
+                        optionalData, optionalDataOffset, optionalDataLength);
+				}
+				else
+				{
+					out = logOut;
+				}
+
 				setEndPosition( endPosition + (length + LOG_RECORD_OVERHEAD) );
 			}
+
+			if (slot != null)
+			{
+				out.copyLogRecord(
+                    slot, length, instant, data, offset, 
+                    optionalData, optionalDataOffset, optionalDataLength);
+			}
 		}
 		catch (IOException ioe)
 		{
@@ -3940,6 +4155,88 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 		return logFileNumber;
 	}
 
+	/**
+		Get the background thread which writes full log buffers.
+
+		@return the log writer, or null if there is none
+	*/
+	LogWriter getLogWriter()
+	{
+		return logWriter;
+	}
+
+	/**
+		Get the length from which log records are logged compressed.
+
+		@return the threshold, or 0 if log records are never compressed
+	*/
+	int getLogCompressionThreshold()
+	{
+		return logCompressionThreshold;
+	}
+
+	/**
+		Get the compressor which the log scans use to inflate compressed
+		log records.
+	*/
+	LogCompressor getLogCompressor()
+	{
+		return logCompressor;
+	}
+
+	/**
+		Wait up to commitDelay microseconds before syncing the log, to let
+		other transactions commit and share the sync.
+
+		<P>MT - caller must hold the monitor of this, which is released
+		while waiting
+	*/
+	private void delayFlush()
+	{
+		long deadline = System.nanoTime() + commitDelay * 1000L;
+		long remaining;
+		while (corrupt == null && !stopped &&
+			   (remaining = deadline - System.nanoTime()) > 0)
+		{
+			try
+			{
+				wait(remaining / 1000000L, (int) (remaining % 1000000L));
+			}
+			catch (InterruptedException ie)
+			{
+				InterruptStatus.setInterrupted();
+				return;
+			}
+		}
+	}
+
+	/**
+		Get the number of flush requests which needed the log to be synced.
+		@see LogMBean#getFlushRequestCount
+	*/
+	synchronized long getFlushRequestCount()
+	{
+		return flushRequests;
+	}
+
+	/**
+		Get the number of log syncs done to satisfy flush requests.
+		@see LogMBean#getSyncCount
+	*/
+	synchronized long getSyncCount()
+	{
+		return syncCount;
+	}
+
+	/**
+		Get the group commit delay in microseconds.
+		@see LogMBean#getCommitDelay
+	*/
+	synchronized int getCommitDelay()
+	{
+		return commitDelay;
+	}
+
 	/** 
 		Get the first valid log instant - this is the beginning of the first
 		log file
@@ -3974,6 +4271,8 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 			try
 			{
 				boolean waited;
+				boolean counted = false; // counted in the flush statistics
+				boolean delayed = false; // held back for group commit
 				do
 				{
 					// THIS CORRUPT CHECK MUST BE FIRST, before any check that
@@ -4041,6 +4340,13 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
                         }
 					}
 
+					if (!counted)
+					{
+						counted = true;
+						flushRequests++;
+						pendingFlushRequests++;
+					}
+
 					// There could be multiple threads who wants to flush the 
                     // log file, see if I can be the one.
 					if (logBeingFlushed)
@@ -4063,6 +4369,27 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
                             InterruptStatus.setInterrupted();
 						}
 					}
+					else if (!delayed && commitDelay > 0 && lastSyncGroupSize > 1)
+					{
+						// Group commit. Other transactions have recently
+						// shared syncs with us, so hold this one back for a
+						// little while to let more of them append their
+						// commit records. They queue up behind
+						// logBeingFlushed meanwhile, and get synced along
+						// with us. Then go round the loop again, the checks
+						// above may have changed while we waited.
+						waited = true;
+						delayed = true;
+						logBeingFlushed = true;
+						try
+						{
+							delayFlush();
+						}
+						finally
+						{
+							logBeingFlushed = false;
+						}
+					}
 					else
 					{
 						waited = false;
@@ -4081,6 +4408,12 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 
 						potentialLastFlush = endPosition; // we will flush to to the end
 
+						// everyone who has asked for a flush so far will be
+						// satisfied by this sync
+						syncCount++;
+						lastSyncGroupSize = pendingFlushRequests;
+						pendingFlushRequests = 0;
+
 						// once logBeingFlushed is set, need to release
 						// the logBeingFlushed flag in finally block.
 						logBeingFlushed = true;	
@@ -4534,6 +4867,38 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
 		return logArchived;
 	}
 
+	/**
+	 * Can user transactions commit without flushing the log?
+	 * <p>
+	 * True for a log in memory with derby.storage.nonDurableInMemory set,
+	 * unless the log is archived or shipped to a replication slave, which
+	 * need every commit in the log.  Such a log is not synced, as with
+	 * derby.system.durability=test, which still writes the log out at every
+	 * commit.  The log is still flushed when a buffer
+	 * fills up, before a data page is written, and at checkpoints, so a
+	 * reboot in the same JVM finds a consistent database, but it may have
+	 * lost the last commits if the database was not shut down cleanly.
+	 */
+	public boolean isNonDurable()
+	{
+		return nonDurableInMemory && !logArchived &&
+			!inReplicationMasterMode();
+	}
+
+	/**
+	   Get the algorithm to checksum log blocks with.  CRC32C is only used
+	   once the database is at 10.14, older versions cannot read it.
+	   @return ChecksumOperation.CRC32C_ALGORITHM or CRC32_ALGORITHM
+	**/
+	byte getChecksumAlgorithm()
+	{
+		return (crc32cChecksums &&
+				checkVersion(RawStoreFactory.DERBY_STORE_MAJOR_VERSION_10,
+							 RawStoreFactory.DERBY_STORE_MINOR_VERSION_14)) ?
+			ChecksumOperation.CRC32C_ALGORITHM :
+			ChecksumOperation.CRC32_ALGORITHM;
+	}
+
 	/**
 	   Check to see if a database has been upgraded to the required
 	   level in order to use a store feature.
@@ -6017,6 +6382,24 @@ public final class LogToFile implements LogFactory, ModuleControl, ModuleSupport
         }
     }
 
+    /**
+     * Privileged lookup of a system module. Must be private so that user
+     * code can't call this entry point.
+     */
+    private static  Object getSystemModule( final String factoryInterface )
+    {
+        return AccessController.doPrivileged
+            (
+             new PrivilegedAction<Object>()
+             {
+                 public Object run()
+                 {
+                     return Monitor.getSystemModule( factoryInterface );
+                 }
+             }
+             );
+    }
+
     /**
      * Privileged module lookup. Must be private so that user code
      * can't call this entry point.
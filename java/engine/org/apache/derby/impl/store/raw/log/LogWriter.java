@@ -0,0 +1,130 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.log.LogWriter
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.log;
+
+import java.io.IOException;
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.reference.SQLState;
+import org.apache.derby.iapi.util.InterruptStatus;
+
+/**
+ * A background thread which writes full log buffers to the log file.
+ * <p>
+ * Without it, the log buffers which fill up are written by the thread that
+ * happens to need a free buffer, so one transaction pays for writing out
+ * what many others logged. When a <code>LogAccessFile</code> switches to a
+ * new buffer, it hands itself to this writer instead, and the writer
+ * writes its dirty buffers while the transactions go on filling the free
+ * ones. A transaction then only waits for a write if all the buffers are
+ * full, or when it commits and needs the log synced.
+ * <p>
+ * The writer does not sync the log. Syncs are still done on demand by
+ * <code>LogToFile.flush()</code>, which also writes any dirty buffers the
+ * writer has not got to yet.
+ */
+final class LogWriter implements Runnable {
+
+    private final LogToFile logFactory;
+
+    /** The thread running this writer. */
+    private Thread thread;
+
+    // The state below is protected by synchronization on this.
+
+    /** The log file which has dirty buffers to write, if any. */
+    private LogAccessFile pending;
+
+    private boolean stopped;
+
+    LogWriter(LogToFile logFactory) {
+        this.logFactory = logFactory;
+    }
+
+    /**
+     * Start the writer on a thread of its own.
+     *
+     * @param thread a daemon thread which runs this writer, not started
+     */
+    void start(Thread thread) {
+        this.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * Ask the writer to write the dirty buffers of a log file.
+     *
+     * @param logFile the log file with buffers to write
+     */
+    synchronized void wakeUp(LogAccessFile logFile) {
+        pending = logFile;
+        notify();
+    }
+
+    /**
+     * Stop the writer and wait for it to finish. Buffers that are still
+     * dirty are left to be written by the caller.
+     */
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+            pending = null;
+            notify();
+        }
+
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                InterruptStatus.setInterrupted();
+            }
+        }
+    }
+
+    /** Write dirty log buffers as they are handed over, until stopped. */
+    public void run() {
+        while (true) {
+            LogAccessFile logFile;
+            synchronized (this) {
+                while (pending == null && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        InterruptStatus.setInterrupted();
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                logFile = pending;
+                pending = null;
+            }
+
+            try {
+                logFile.flushDirtyBuffers();
+            } catch (IOException ioe) {
+                // Same as when a transaction fails to write the log.
+                logFactory.markCorrupt(
+                    StandardException.newException(SQLState.LOG_FULL, ioe));
+            }
+        }
+    }
+}
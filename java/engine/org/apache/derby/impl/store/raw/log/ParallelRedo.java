@@ -0,0 +1,385 @@
+/*
+
+   Derby - Class org.apache.derby.impl.store.raw.log.ParallelRedo
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.impl.store.raw.log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import org.apache.derby.iapi.error.StandardException;
+import org.apache.derby.iapi.services.context.ContextManager;
+import org.apache.derby.iapi.services.context.ContextService;
+import org.apache.derby.iapi.services.io.ArrayInputStream;
+import org.apache.derby.iapi.services.monitor.ModuleFactory;
+import org.apache.derby.iapi.store.raw.Loggable;
+import org.apache.derby.iapi.store.raw.PageKey;
+import org.apache.derby.iapi.store.raw.RawStoreFactory;
+import org.apache.derby.iapi.store.raw.data.DataFactory;
+import org.apache.derby.iapi.store.raw.xact.RawTransaction;
+import org.apache.derby.iapi.store.raw.xact.TransactionFactory;
+import org.apache.derby.iapi.util.InterruptStatus;
+import org.apache.derby.shared.common.reference.SQLState;
+import org.apache.derby.shared.common.sanity.SanityManager;
+
+/**
+ * Applies the page level log records of the redo pass of recovery on a
+ * pool of worker threads.
+ * <p>
+ * Redo of a page level operation only reads and changes its own page, and
+ * a page must see its changes in log order. The records are therefore
+ * partitioned by container: all the records of a container go to the same
+ * worker, which applies them in the order it gets them. Workers on
+ * different containers don't depend on each other, so recovery of a
+ * database with many busy tables and indexes uses as many cores as there
+ * are workers.
+ * <p>
+ * The redo thread keeps reading the log, keeps track of the transactions
+ * and rebuilds the undo operations of compensation records, since all of
+ * that needs the log scans and the recovery transaction. It applies all
+ * the records which are not page level itself. Before a record which
+ * creates, drops, truncates or replaces container files, it waits for
+ * the workers to apply everything they have been given, so that no worker
+ * has a container open while its file changes.
+ * <p>
+ * Each worker has a context manager and an internal transaction of its
+ * own, made a recovery transaction, in which it opens the containers. If
+ * a worker fails, redo stops at the next record and reports the error with
+ * the operation that failed.
+ */
+final class ParallelRedo {
+
+    /** Debug flag which traces the number of records each worker redid. */
+    public static final String TRACE_FLAG =
+            SanityManager.DEBUG ? "ParallelRedo" : null;
+
+    /**
+     * The maximum number of records waiting for a worker. Bounds the memory
+     * used by copies of the log records, and how far the redo thread can be
+     * ahead of a worker.
+     */
+    private static final int MAX_QUEUED = 1024;
+
+    private final TransactionFactory transFactory;
+    private final RawStoreFactory rawStoreFactory;
+    private final DataFactory dataFactory;
+    private final ContextService contextService;
+
+    private final Worker[] workers;
+
+    /** The first error a worker ran into, or null. */
+    private volatile StandardException error;
+
+    /**
+     * Create the workers. No threads are running until {@link #start()} is
+     * called.
+     *
+     * @param transFactory the transaction factory to start the transactions
+     * of the workers in
+     * @param rawStoreFactory the raw store
+     * @param dataFactory the data factory that tells the page of a log
+     * record
+     * @param contextService the context service used to give each thread
+     * its own context manager
+     * @param monitor the monitor used to create the threads
+     * @param threads the number of worker threads
+     */
+    ParallelRedo(TransactionFactory transFactory,
+                 RawStoreFactory rawStoreFactory, DataFactory dataFactory,
+                 ContextService contextService, ModuleFactory monitor,
+                 int threads) {
+        this.transFactory = transFactory;
+        this.rawStoreFactory = rawStoreFactory;
+        this.dataFactory = dataFactory;
+        this.contextService = contextService;
+
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker();
+            workers[i].thread = monitor.getDaemonThread(
+                    workers[i], "derby.redo-" + i, false);
+        }
+    }
+
+    /** Start the workers. */
+    void start() {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].thread.start();
+        }
+    }
+
+    /**
+     * Decide who redoes a log record, before redo looks at it. If the
+     * record is page level, it is for a worker. If it changes container
+     * files, wait until the workers have applied all the records given to
+     * them so far.
+     *
+     * @param op the operation in the log record
+     * @return <code>true</code> if the record should be handed to
+     * {@link #redo}, <code>false</code> if the redo thread applies it
+     * @exception StandardException if a worker has failed
+     */
+    boolean beforeRedo(Loggable op) throws StandardException {
+        checkError();
+        if (dataFactory.getRedoPage(op) != null) {
+            return true;
+        }
+        if (dataFactory.redoChangesContainers(op)) {
+            drain();
+        }
+        return false;
+    }
+
+    /**
+     * Hand a page level log record to the worker of its container. Waits
+     * if the worker has too many records queued already.
+     *
+     * @param op the operation, with the undo operation set if it is a
+     * compensation operation
+     * @param instant the instant of the log record
+     * @param in the optional data of the operation, limited to its length.
+     * It is copied, so the caller can reuse the stream.
+     * @exception StandardException if a worker has failed
+     * @exception IOException if the optional data cannot be read
+     */
+    void redo(Loggable op, long instant, ArrayInputStream in)
+            throws StandardException, IOException {
+        checkError();
+
+        byte[] data = new byte[in.available()];
+        in.readFully(data);
+
+        PageKey key = dataFactory.getRedoPage(op);
+        int hash = key.getContainerId().hashCode();
+        Worker w = workers[(hash & Integer.MAX_VALUE) % workers.length];
+
+        // Nothing may throw once the worker has the record, or the
+        // caller would release the resources of an operation the worker
+        // is using.
+        w.add(new Record(op, instant, data));
+    }
+
+    /**
+     * Wait until the workers have applied all the records given to them.
+     *
+     * @exception StandardException if a worker has failed
+     */
+    void drain() throws StandardException {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].waitUntilIdle();
+        }
+        checkError();
+    }
+
+    /**
+     * Stop the workers and wait for them to finish. Records they have not
+     * got to yet are dropped, so call {@link #drain()} first unless redo
+     * has failed.
+     */
+    void stop() {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].stop();
+        }
+        for (int i = 0; i < workers.length; i++) {
+            while (workers[i].thread.isAlive()) {
+                try {
+                    workers[i].thread.join();
+                } catch (InterruptedException ie) {
+                    InterruptStatus.setInterrupted();
+                }
+            }
+        }
+
+        if (SanityManager.DEBUG) {
+            if (SanityManager.DEBUG_ON(TRACE_FLAG)) {
+                StringBuilder sb = new StringBuilder("Records redone by ");
+                sb.append(workers.length).append(" workers:");
+                for (int i = 0; i < workers.length; i++) {
+                    sb.append(' ').append(workers[i].redone);
+                }
+                SanityManager.DEBUG(TRACE_FLAG, sb.toString());
+            }
+        }
+    }
+
+    /** Throw the error of a failed worker, if there is one. */
+    private void checkError() throws StandardException {
+        StandardException se = error;
+        if (se != null) {
+            throw se;
+        }
+    }
+
+    /** Record the first error of a worker. */
+    private synchronized void setError(Throwable t, Loggable op) {
+        if (error == null) {
+            error = StandardException.newException(
+                    SQLState.LOG_REDO_FAILED, t, op);
+        }
+    }
+
+    /** A log record waiting for a worker. */
+    private static final class Record {
+        final Loggable op;
+        final long instant;
+        final byte[] data;
+
+        Record(Loggable op, long instant, byte[] data) {
+            this.op = op;
+            this.instant = instant;
+            this.data = data;
+        }
+    }
+
+    /**
+     * A worker thread, which applies the records of its containers in the
+     * order it is given them. The queue and the flags are protected by
+     * synchronization on the worker.
+     */
+    private final class Worker implements Runnable {
+
+        Thread thread;
+
+        private final ArrayDeque<Record> queue = new ArrayDeque<Record>();
+
+        /** Is the worker applying a record taken off the queue. */
+        private boolean busy;
+
+        /** Is the worker waiting for records. */
+        private boolean waiting;
+
+        /** Is the redo thread waiting for the worker. */
+        private boolean redoWaiting;
+
+        private boolean stopped;
+
+        /** Has the thread finished, normally or not. */
+        private boolean finished;
+
+        /**
+         * The number of records which needed redo, for tracing. Only
+         * read once the thread has finished.
+         */
+        int redone;
+
+        synchronized void add(Record r) {
+            while (queue.size() >= MAX_QUEUED && !finished) {
+                redoWaiting = true;
+                waitUninterruptibly();
+            }
+            redoWaiting = false;
+            queue.addLast(r);
+            if (waiting) {
+                notifyAll();
+            }
+        }
+
+        synchronized void waitUntilIdle() {
+            while ((busy || !queue.isEmpty()) && !finished) {
+                redoWaiting = true;
+                waitUninterruptibly();
+            }
+            redoWaiting = false;
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            queue.clear();
+            notifyAll();
+        }
+
+        /**
+         * Take the next record off the queue, waiting for one if needed.
+         *
+         * @return the record, or <code>null</code> if stopped
+         */
+        private synchronized Record next() {
+            busy = false;
+            if (redoWaiting) {
+                notifyAll();
+            }
+            while (!stopped && queue.isEmpty()) {
+                waiting = true;
+                waitUninterruptibly();
+            }
+            waiting = false;
+            if (stopped) {
+                return null;
+            }
+            busy = true;
+            return queue.removeFirst();
+        }
+
+        private synchronized void finish() {
+            finished = true;
+            busy = false;
+            notifyAll();
+        }
+
+        private void waitUninterruptibly() {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                InterruptStatus.setInterrupted();
+            }
+        }
+
+        public void run() {
+            ContextManager cm = contextService.newContextManager();
+            contextService.setCurrentContextManager(cm);
+            RawTransaction xact = null;
+            Loggable op = null;
+            try {
+                xact = transFactory.startInternalTransaction(
+                        rawStoreFactory, cm);
+                xact.recoveryTransaction();
+
+                Record r;
+                while ((r = next()) != null) {
+                    op = r.op;
+                    if (op.needsRedo(xact)) {
+                        redone++;
+                        op.doMe(xact, new LogCounter(r.instant),
+                                new ArrayInputStream(r.data));
+                    }
+                    op.releaseResource(xact);
+                    op = null;
+                }
+                xact.commit();
+            } catch (Throwable t) {
+                // Errors of every kind have to reach the redo thread, or
+                // recovery would go on without the changes of this worker.
+                setError(t, op);
+            } finally {
+                if (op != null) {
+                    op.releaseResource(xact);
+                }
+                if (xact != null) {
+                    try {
+                        xact.destroy();
+                    } catch (Throwable t) {
+                        setError(t, null);
+                    }
+                }
+                contextService.resetCurrentContextManager(cm);
+                finish();
+            }
+        }
+    }
+}
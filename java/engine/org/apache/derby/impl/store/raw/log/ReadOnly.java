@@ -282,6 +282,14 @@ public class ReadOnly implements LogFactory, ModuleSupportable {
 		return (logArchiveDirectory != null);
 	}
 
+	/**
+	 * A read only database has no commits to flush.
+	 */
+	public boolean isNonDurable()
+	{
+		return false;
+	}
+
 	/**
 		Get JBMS properties relevant to the log factory
 	 */
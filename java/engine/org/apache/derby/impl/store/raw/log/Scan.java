@@ -463,6 +463,13 @@ public class Scan implements StreamLogScan {
 
 			lr = (LogRecord) input.readObject();
 
+			// the transaction id of a compressed log record can only be
+			// looked at once the record is inflated
+			if (lr.isCompressed())
+			{
+				readAmount = inflateRecord(input, readAmount, recordLength);
+			}
+
 			// skip the checksum log records, there is no need to look at them 
 			// during backward scans. They are used only in forwardscan during recovery. 
 			if(lr.isChecksum())
@@ -871,6 +878,17 @@ public class Scan implements StreamLogScan {
 			}
 
 			lr = (LogRecord) input.readObject();
+
+			// A compressed log record is inflated once the length after it
+			// shows that it was completely written, unless its transaction
+			// id is needed for the filter.
+			boolean inflate = lr.isCompressed();
+			if (inflate && tranId != null)
+			{
+				readAmount = inflateRecord(input, readAmount, recordLength);
+				inflate = false;
+			}
+
 			if (groupmask != 0 || tranId != null)
 			{
 				if (groupmask != 0 && (groupmask & lr.group()) == 0)
@@ -968,6 +986,12 @@ public class Scan implements StreamLogScan {
 
 			}
 
+			if (inflate && candidate)
+			{
+				// the whole record has been read in by now
+				logFactory.getLogCompressor().inflate(input, recordLength);
+			}
+
 			// next record start position is right after this record
 			recordStartPosition += recordLength + LogToFile.LOG_RECORD_OVERHEAD;
 			knownGoodLogEnd = LogCounter.makeLogInstantAsLong
@@ -1081,6 +1105,39 @@ public class Scan implements StreamLogScan {
 		return lr;
 	}
 
+	/**
+		Inflate the compressed log record in the input buffer.  If only the
+		start of it has been read to peek at the group, read the rest of it
+		from the log file first.  The input must be positioned right after
+		the group of the record.
+
+		@param input the input buffer holding the log record
+		@param readAmount the number of bytes of the record read so far, or
+		-1 if it has been read in whole
+		@param recordLength the length of the record
+		@return the number of bytes of the record read in
+		@exception IOException error reading the log file, or the
+		compressed data is corrupt
+	*/
+	private int inflateRecord(ArrayInputStream input, int readAmount,
+							  int recordLength)
+		 throws IOException
+	{
+		if (readAmount > 0 && readAmount < recordLength)
+		{
+			int inputPosition = input.getPosition();
+
+			scan.readFully(input.getData(), readAmount,
+						   recordLength - readAmount);
+
+			input.setLimit(0, recordLength);
+			input.setPosition(inputPosition);
+		}
+
+		logFactory.getLogCompressor().inflate(input, recordLength);
+		return recordLength;
+	}
+
 
 	/**
 		Reset the scan to the given LogInstant.
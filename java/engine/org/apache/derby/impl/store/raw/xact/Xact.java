@@ -2313,11 +2313,12 @@ public class Xact extends RawTransaction implements Limit, LockOwner {
  	 *
  	 * @return true if this transaction is a user transaction
  	 */
- 	private boolean isUserTransaction()
+ 	public boolean isUserTransaction()
  	{
         String context_id = getContextId();
 
         return(
+            !recoveryTransaction &&
             (context_id == XactFactory.USER_CONTEXT_ID          ||
              context_id.equals(XactFactory.USER_CONTEXT_ID)));
  	}
@@ -318,7 +318,9 @@ public class XactFactory implements TransactionFactory, ModuleControl, ModuleSup
                 USER_CONTEXT_ID, 
                 transName, 
                 true,               // user xact always excluded during quiesce
-                true));             // user xact default flush on xact end
+                !logFactory.isNonDurable())); // user xact default flush on 
+                                    // xact end, unless the database is in
+                                    // memory and need not be durable
 	}
 
 	public RawTransaction startNestedReadOnlyUserTransaction(
@@ -66,6 +66,25 @@ public interface CacheManagerMBean {
      */
     long getMissCount();
 
+    /**
+     * Get the part of the cache accesses that found the requested object in
+     * the cache, that is, the hit count divided by the sum of the hit count
+     * and the miss count. Like those counts, it is only updated while
+     * {@link #getCollectAccessCounts() CollectAccessCounts} is true.
+     *
+     * @return the hit ratio, a number between 0 and 1 (0 if no accesses
+     * have been counted)
+     */
+    double getHitRatio();
+
+    /**
+     * Get the name of the replacement algorithm used by the cache to pick
+     * the objects to evict, for instance "clock" or "2Q".
+     *
+     * @return the name of the replacement policy
+     */
+    String getReplacementPolicy();
+
     /**
      * Get the number of cached objects that have been evicted from the
      * cache in order to make room for other objects.
@@ -96,4 +115,31 @@ public interface CacheManagerMBean {
      * @return the number of objects in the cache
      */
     long getUsedEntries();
+
+    /**
+     * Get the number of shards the cache is partitioned into. Each shard
+     * holds a fixed part of the entries of the cache, and replaces its
+     * entries independently of the other shards.
+     *
+     * @return the number of shards, 1 if the cache is not partitioned
+     */
+    int getShardCount();
+
+    /**
+     * Get the number of entries currently allocated in each shard of the
+     * cache.
+     *
+     * @return an array with the number of allocated entries per shard
+     * @see #getAllocatedEntries()
+     */
+    long[] getShardAllocatedEntries();
+
+    /**
+     * Get the number of cached objects that have been evicted from each
+     * shard of the cache.
+     *
+     * @return an array with the number of evicted objects per shard
+     * @see #getEvictionCount()
+     */
+    long[] getShardEvictionCounts();
 }
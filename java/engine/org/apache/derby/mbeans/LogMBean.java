@@ -0,0 +1,71 @@
+/*
+
+   Derby - Class org.apache.derby.mbeans.LogMBean
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derby.mbeans;
+
+/**
+ * This is an MBean that provides information about the transaction log of
+ * a database.
+ * <P>
+ * Key properties for registered MBean:
+ * <UL>
+ * <LI> <code>type=Log</code>
+ * <LI> <code>db=</code><em>database name</em>
+ * </UL>
+ */
+public interface LogMBean {
+    /**
+     * Get the number of requests to make the log durable up to some point,
+     * which could not be satisfied without syncing the log. Most of them
+     * come from committing transactions.
+     *
+     * @return the number of flush requests
+     */
+    long getFlushRequestCount();
+
+    /**
+     * Get the number of times the log has been synced to satisfy flush
+     * requests.
+     *
+     * @return the number of log syncs
+     */
+    long getSyncCount();
+
+    /**
+     * Get the average number of flush requests that have been satisfied
+     * by a single sync of the log, that is, the flush request count
+     * divided by the sync count. Values above 1 mean that concurrent
+     * commits are grouped into one sync.
+     *
+     * @return the number of flush requests per sync (0 if the log has not
+     * been synced)
+     */
+    double getFlushRequestsPerSync();
+
+    /**
+     * Get the maximum time, in microseconds, that a log sync is held back
+     * to let other committing transactions join it
+     * (derby.storage.logCommitDelay).
+     *
+     * @return the commit delay in microseconds, 0 if disabled
+     */
+    int getCommitDelay();
+}
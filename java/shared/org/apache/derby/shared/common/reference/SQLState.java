@@ -387,6 +387,7 @@ public interface SQLState {
     String BACKUP_BLOCKING_OPERATIONS_IN_PROGRESS               = "XSRSA.S";
     String BACKUP_OPERATIONS_NOT_ALLOWED                        = "XSRSB.S";
     String RAWSTORE_CANNOT_BACKUP_INTO_DATABASE_DIRECTORY       = "XSRSC.S";
+    String BACKUP_BASE_NOT_USABLE                               = "XSRSD.S";
 
 	/*
 	** RawStore - Log.Generic statement exceptions
@@ -1443,6 +1444,7 @@ public interface SQLState {
 	String LANG_CANT_INSTANTIATE_CLASS                                = "X0Y90.S";
     String LANG_SET_CONSTRAINT_NOT_DEFERRABLE                         = "X0Y91.S";
     String LANG_CANNOT_CHANGE_COLUMN_NAMES                         = "X0Y92.S";
+    String LANG_NO_INDEX_ON_UNLOGGED_TABLE                         = "X0Y94.S";
 
 	// TEMPORARY EXECUTION RESTRICTIONS
 
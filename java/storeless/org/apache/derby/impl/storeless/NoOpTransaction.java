@@ -206,6 +206,10 @@ class NoOpTransaction implements TransactionController {
 
     }
 
+    public void purgeConglomerates(long[] conglomIds)
+            throws StandardException {
+    }
+
     public void compressConglomerate(long conglomId) throws StandardException {
         // Auto-generated method stub
 
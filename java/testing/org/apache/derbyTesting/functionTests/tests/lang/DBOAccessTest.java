@@ -67,6 +67,7 @@ public class DBOAccessTest extends GeneratedColumnsHelper
     private static  final   String      SYSCS_CHECKPOINT_DATABASE = "SYSCS_UTIL.SYSCS_CHECKPOINT_DATABASE";
     private static  final   String      SYSCS_BACKUP_DATABASE = "SYSCS_UTIL.SYSCS_BACKUP_DATABASE";
     private static  final   String      SYSCS_BACKUP_DATABASE_NOWAIT = "SYSCS_UTIL.SYSCS_BACKUP_DATABASE_NOWAIT";
+    private static  final   String      SYSCS_BACKUP_DATABASE_INCREMENTAL = "SYSCS_UTIL.SYSCS_BACKUP_DATABASE_INCREMENTAL";
     private static  final   String      SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE = "SYSCS_UTIL.SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE";
     private static  final   String      SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE_NOWAIT = "SYSCS_UTIL.SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE_NOWAIT";
     private static  final   String      SYSCS_DISABLE_LOG_ARCHIVE_MODE = "SYSCS_UTIL.SYSCS_DISABLE_LOG_ARCHIVE_MODE";
@@ -312,6 +313,7 @@ public class DBOAccessTest extends GeneratedColumnsHelper
         vet6616( dboConnection, janetConnection, SYSCS_CHECKPOINT_DATABASE, false );
         vet6616( dboConnection, janetConnection, SYSCS_BACKUP_DATABASE, false );
         vet6616( dboConnection, janetConnection, SYSCS_BACKUP_DATABASE_NOWAIT, false );
+        vet6616( dboConnection, janetConnection, SYSCS_BACKUP_DATABASE_INCREMENTAL, false );
         vet6616( dboConnection, janetConnection, SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE, false );
         vet6616( dboConnection, janetConnection, SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE_NOWAIT, false );
         vet6616( dboConnection, janetConnection, SYSCS_DISABLE_LOG_ARCHIVE_MODE, false );
@@ -439,6 +441,14 @@ public class DBOAccessTest extends GeneratedColumnsHelper
             }
             catch (SQLException se) { vetError( NULL_BACKUP_DIRECTORY, se ); }
         }
+        else if ( SYSCS_BACKUP_DATABASE_INCREMENTAL.equals( routineName ) )
+        {
+            try {
+                SystemProcedures.SYSCS_BACKUP_DATABASE_INCREMENTAL( null, null );
+                fail();
+            }
+            catch (SQLException se) { vetError( NULL_BACKUP_DIRECTORY, se ); }
+        }
         else if (SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE.equals( routineName ) )
         {
             try {
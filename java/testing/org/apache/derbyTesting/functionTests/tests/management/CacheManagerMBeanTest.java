@@ -45,8 +45,10 @@ public class CacheManagerMBeanTest extends MBeanTest {
     private final static int DEFAULT_STATEMENT_CACHE_SIZE = 100;
 
     private static String[] ALL_ATTRIBUTES = {
-        "CollectAccessCounts", "HitCount", "MissCount", "EvictionCount",
-        "MaxEntries", "AllocatedEntries", "UsedEntries"
+        "CollectAccessCounts", "HitCount", "MissCount", "HitRatio",
+        "ReplacementPolicy", "EvictionCount", "MaxEntries",
+        "AllocatedEntries", "UsedEntries", "ShardCount",
+        "ShardAllocatedEntries", "ShardEvictionCounts"
     };
 
     public CacheManagerMBeanTest(String name) {
@@ -168,6 +170,7 @@ public class CacheManagerMBeanTest extends MBeanTest {
         assertLongAttribute(0, name, "MissCount");
         assertLongAttribute(0, name, "EvictionCount");
         assertLongAttribute(DEFAULT_PAGE_CACHE_SIZE, name, "MaxEntries");
+        assertEquals("clock", getAttribute(name, "ReplacementPolicy"));
         // Cannot reliably tell how many entries to expect.
         // More than 0 for sure.
         Long allocated = (Long) getAttribute(name, "AllocatedEntries");
@@ -175,6 +178,14 @@ public class CacheManagerMBeanTest extends MBeanTest {
         Long used = (Long) getAttribute(name, "UsedEntries");
         assertTrue("Used entries: " + used, used > 0);
 
+        // The page cache is not partitioned into shards unless asked to,
+        // expect a single count.
+        assertEquals(1, getAttribute(name, "ShardCount"));
+        assertEquals(1,
+                ((long[]) getAttribute(name, "ShardAllocatedEntries")).length);
+        assertEquals(1,
+                ((long[]) getAttribute(name, "ShardEvictionCounts")).length);
+
         // Execute a statement against a table, so that the cache will be
         // accessed.
         PreparedStatement ps = prepareStatement(
@@ -194,6 +205,7 @@ public class CacheManagerMBeanTest extends MBeanTest {
         JDBC.assertDrainResults(ps.executeQuery());
         assertLongAttribute(1, name, "HitCount");
         assertLongAttribute(0, name, "MissCount");
+        assertEquals(1.0, getAttribute(name, "HitRatio"));
 
         // Disable the access counts.
         setAttribute(name, "CollectAccessCounts", Boolean.FALSE);
@@ -242,6 +254,8 @@ public class CacheManagerMBeanTest extends MBeanTest {
         assertLongAttribute(0, name, "MissCount");
         assertLongAttribute(0, name, "EvictionCount");
         assertLongAttribute(DEFAULT_STATEMENT_CACHE_SIZE, name, "MaxEntries");
+        // The statement cache is not sharded.
+        assertEquals(1, getAttribute(name, "ShardCount"));
         // The statement cache is initially empty
         assertLongAttribute(0, name, "AllocatedEntries");
         assertLongAttribute(0, name, "UsedEntries");
@@ -0,0 +1,125 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.management.LogMBeanTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package org.apache.derbyTesting.functionTests.tests.management;
+
+import java.sql.Statement;
+import java.util.Hashtable;
+import java.util.Set;
+import javax.management.ObjectName;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Test cases for {@code LogMBean}.
+ */
+public class LogMBeanTest extends MBeanTest {
+
+    public LogMBeanTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return MBeanTest.suite(LogMBeanTest.class, "LogMBeanTest");
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        // Set up management.
+        super.setUp();
+
+        // Start every test case with a freshly booted database, so that
+        // the counters start at zero. shutdownDatabase() fails if the
+        // database is not already booted, so get a connection first.
+        getConnection().close();
+        TestConfiguration.getCurrent().shutdownDatabase();
+    }
+
+    /**
+     * Create an {@code ObjectName} pattern that matches the
+     * {@code LogMBean} of all databases.
+     */
+    private ObjectName createObjectName() throws Exception {
+        Hashtable<String, String> props = new Hashtable<String, String>();
+        props.put("type", "Log");
+        props.put("db", "*");
+        return getDerbyMBeanName(props);
+    }
+
+    /**
+     * Test that the {@code LogMBean} starts when the database is booted,
+     * and stops when it is shut down.
+     */
+    public void testMBeanStartedAndStopped() throws Exception {
+        ObjectName pattern = createObjectName();
+        Set<ObjectName> names = queryMBeans(pattern);
+        if (!names.isEmpty()) {
+            fail("Should not find MBeans before boot, found: " + names);
+        }
+
+        getConnection();
+        assertEquals(1, queryMBeans(pattern).size());
+
+        TestConfiguration.getCurrent().shutdownDatabase();
+        names = queryMBeans(pattern);
+        if (!names.isEmpty()) {
+            fail("Should not find MBeans after shutdown, found: " + names);
+        }
+    }
+
+    /**
+     * Test that commits are counted as flush requests, and that every
+     * sync of the log serves at least one of them.
+     */
+    public void testFlushCounts() throws Exception {
+        getConnection(); // boot the database
+        Set<ObjectName> names = queryMBeans(createObjectName());
+        assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        // Group commit is disabled by default.
+        assertIntAttribute(0, name, "CommitDelay");
+
+        long requests = (Long) getAttribute(name, "FlushRequestCount");
+        long syncs = (Long) getAttribute(name, "SyncCount");
+
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t(x int)");
+        commit();
+        for (int i = 0; i < 10; i++) {
+            s.executeUpdate("insert into t values " + i);
+            commit();
+        }
+
+        long newRequests = (Long) getAttribute(name, "FlushRequestCount");
+        long newSyncs = (Long) getAttribute(name, "SyncCount");
+        assertTrue("requests: " + newRequests, newRequests >= requests + 11);
+        assertTrue("syncs: " + newSyncs, newSyncs > syncs);
+        assertTrue(newSyncs <= newRequests);
+
+        double perSync = (Double) getAttribute(name, "FlushRequestsPerSync");
+        assertTrue("requests per sync: " + perSync, perSync >= 1.0);
+
+        s.execute("drop table t");
+        commit();
+    }
+}
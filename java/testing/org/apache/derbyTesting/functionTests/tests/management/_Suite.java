@@ -61,6 +61,7 @@ public class _Suite extends BaseTestCase {
             suite.addTest(NetworkServerMBeanTest.suite());
             suite.addTest(CustomMBeanServerBuilderTest.suite());
             suite.addTest(CacheManagerMBeanTest.suite());
+            suite.addTest(LogMBeanTest.suite());
         }
 
         return suite;
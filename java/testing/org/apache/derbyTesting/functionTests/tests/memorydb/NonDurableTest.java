@@ -0,0 +1,194 @@
+/*
+   Derby - Class org.apache.derbyTesting.functionTests.tests.memorydb.NonDurableTest
+
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.
+ */
+
+package org.apache.derbyTesting.functionTests.tests.memorydb;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derby.shared.common.sanity.SanityManager;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.BaseTestSuite;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+
+/**
+ * Tests an in-memory database whose commits are not durable
+ * (derby.storage.nonDurableInMemory).
+ * <p>
+ * The log flushes are seen through the log trace of sane builds.
+ */
+public class NonDurableTest extends BaseJDBCTestCase {
+
+    private static final MemoryDbManager dbm =
+            MemoryDbManager.getSharedInstance();
+
+    private static final int ROWS = 2000;
+
+    private static final String NON_DURABLE =
+            "derby.storage.nonDurableInMemory";
+    private static final String DURABILITY = "derby.system.durability";
+
+    /** Debug flag which traces, among others, the flushes of the log. */
+    private static final String TRACE_FLAG = "LogTrace";
+
+    public NonDurableTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.nonDurableInMemory", "true");
+        // Run only in embedded-mode for now.
+        return new SystemPropertyTestSetup(
+                new BaseTestSuite(NonDurableTest.class), props, true);
+    }
+
+    public void tearDown() throws Exception {
+        dbm.cleanUp();
+        super.tearDown();
+    }
+
+    /**
+     * Commits, rollbacks and a clean shutdown and reboot work as usual.
+     */
+    public void testCommitRollbackReboot() throws SQLException {
+        Connection con = dbm.createDatabase("nonDurableDb");
+        Statement s = dbm.createStatement(con);
+        s.execute("create table t(id int primary key, x varchar(100))");
+
+        PreparedStatement ps = dbm.prepareStatement(con,
+                "insert into t values (?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "row " + i);
+            ps.executeUpdate();
+        }
+
+        // rollback still finds the undo information in the log
+        con.setAutoCommit(false);
+        assertUpdateCount(s, ROWS / 2,
+                "delete from t where id < " + ROWS / 2);
+        assertUpdateCount(s, ROWS / 2, "update t set x = 'updated'");
+        con.rollback();
+        con.setAutoCommit(true);
+        checkTable(s, ROWS);
+
+        assertUpdateCount(s, ROWS / 4,
+                "delete from t where id < " + ROWS / 4);
+
+        try {
+            DriverManager.getConnection(
+                    "jdbc:derby:memory:nonDurableDb;shutdown=true");
+            fail("Database shutdown should have raised exception.");
+        } catch (SQLException sqle) {
+            assertSQLState("08006", sqle);
+        }
+
+        con = dbm.getConnection("nonDurableDb");
+        s = dbm.createStatement(con);
+        checkTable(s, ROWS - ROWS / 4);
+    }
+
+    /**
+     * Unlike with derby.system.durability=test, commits do not write out
+     * the log, only full log buffers do.
+     */
+    public void testCommitsDoNotFlushLog() throws SQLException {
+        Connection con = dbm.createDatabase("nonDurableDb");
+        int nonDurableFlushes = countCommitFlushes(con);
+
+        int testModeFlushes;
+        removeSystemProperty(NON_DURABLE);
+        setSystemProperty(DURABILITY, "test");
+        try {
+            con = dbm.createDatabase("testModeDb");
+            testModeFlushes = countCommitFlushes(con);
+        } finally {
+            removeSystemProperty(DURABILITY);
+            setSystemProperty(NON_DURABLE, "true");
+        }
+
+        if (SanityManager.DEBUG) {
+            assertTrue("durability=test flushes: " + testModeFlushes,
+                       testModeFlushes >= ROWS);
+            assertTrue("non-durable flushes: " + nonDurableFlushes,
+                       nonDurableFlushes < ROWS / 10);
+        }
+    }
+
+    /**
+     * Insert rows, committing each of them, and count the log flushes.
+     *
+     * @return the flushes, 0 in insane builds
+     */
+    private int countCommitFlushes(Connection con) throws SQLException {
+        Statement s = dbm.createStatement(con);
+        s.execute("create table t(id int, x varchar(100))");
+        PreparedStatement ps = dbm.prepareStatement(con,
+                "insert into t values (?, ?)");
+
+        StringWriter trace = new StringWriter();
+        PrintWriter oldStream = null;
+        if (SanityManager.DEBUG) {
+            oldStream = SanityManager.GET_DEBUG_STREAM();
+            SanityManager.SET_DEBUG_STREAM(new PrintWriter(trace, true));
+            SanityManager.DEBUG_SET(TRACE_FLAG);
+        }
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, "row " + i);
+                ps.executeUpdate();
+            }
+        } finally {
+            if (SanityManager.DEBUG) {
+                SanityManager.DEBUG_CLEAR(TRACE_FLAG);
+                SanityManager.SET_DEBUG_STREAM(oldStream);
+            }
+        }
+        checkTable(s, ROWS);
+
+        int flushes = 0;
+        for (String line : trace.toString().split("\n")) {
+            if (line.indexOf("Flush log to") >= 0) {
+                flushes++;
+            }
+        }
+        return flushes;
+    }
+
+    private void checkTable(Statement s, int rows) throws SQLException {
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t"),
+                Integer.toString(rows));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+    }
+}
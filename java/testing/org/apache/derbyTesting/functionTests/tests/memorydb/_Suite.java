@@ -48,6 +48,7 @@ public class _Suite extends BaseTestCase  {
             suite.addTest(BasicInMemoryDbTest.suite());
             suite.addTest(Derby6662Test.suite());
             suite.addTest(MogTest.suite());
+            suite.addTest(NonDurableTest.suite());
         }
         return suite;
     }
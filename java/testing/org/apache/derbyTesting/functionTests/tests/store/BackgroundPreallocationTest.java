@@ -0,0 +1,237 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.BackgroundPreallocationTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derby.shared.common.sanity.SanityManager;
+import org.apache.derbyTesting.functionTests.util.PrivilegedFileOpsForTests;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests containers that are extended ahead of the inserts by the background
+ * preallocation thread (derby.storage.preallocateExtents).
+ * <p>
+ * The thread must have kept the container file ahead of the allocated pages
+ * by more than the extent newPage preallocates inline, and sane builds
+ * trace that the pages it wrote were recorded in the alloc pages.
+ */
+public class BackgroundPreallocationTest extends BaseJDBCTestCase {
+
+    private static final int THREADS = 4;
+    private static final int ROWS = 2000;
+
+    /** Pages newPage preallocates inline, FileContainer's default. */
+    private static final int INLINE_PAGES = 8;
+
+    /** Debug flag which traces the background preallocation. */
+    private static final String TRACE_FLAG = "PreallocTrace";
+
+    /** Trace output, while tracing. */
+    private StringWriter trace;
+    private PrintWriter oldStream;
+
+    public BackgroundPreallocationTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.preallocateExtents", "4");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(
+                        BackgroundPreallocationTest.class)),
+                props, true);
+    }
+
+    protected void tearDown() throws Exception {
+        stopTrace();
+        super.tearDown();
+    }
+
+    private void startTrace() throws SQLException {
+        // Boot the database first, booting sets the debug stream.
+        getConnection();
+        if (SanityManager.DEBUG) {
+            trace = new StringWriter();
+            oldStream = SanityManager.GET_DEBUG_STREAM();
+            SanityManager.SET_DEBUG_STREAM(new PrintWriter(trace, true));
+            SanityManager.DEBUG_SET(TRACE_FLAG);
+        }
+    }
+
+    /**
+     * Stop tracing, and get the trace lines written while tracing.
+     */
+    private String[] stopTrace() {
+        String[] lines = new String[0];
+        if (SanityManager.DEBUG && trace != null) {
+            SanityManager.DEBUG_CLEAR(TRACE_FLAG);
+            SanityManager.SET_DEBUG_STREAM(oldStream);
+            lines = trace.toString().split("\\n");
+            trace = null;
+        }
+        return lines;
+    }
+
+    /**
+     * Get the number of pages in the file of a table, past the pages it
+     * has allocated.  The pages of a heap which has only seen inserts are
+     * the alloc page followed by the allocated pages.
+     */
+    private int pagesAhead(Statement s, String table) throws SQLException {
+        ResultSet rs = s.executeQuery(
+                "select c.conglomeratenumber, d.numallocatedpages, " +
+                "d.numfreepages, d.pagesize " +
+                "from sys.systables t, sys.sysconglomerates c, " +
+                "table (syscs_diag.space_table('APP', '" + table + "')) d " +
+                "where t.tablename = '" + table + "' " +
+                "and c.tableid = t.tableid and c.isindex = false " +
+                "and d.isindex = 0");
+        assertTrue(rs.next());
+        long conglomerate = rs.getLong(1);
+        long pages = 1 + rs.getLong(2) + rs.getLong(3);
+        int pageSize = rs.getInt(4);
+        rs.close();
+
+        TestConfiguration config = getTestConfiguration();
+        File file = new File(config.getDatabasePath(
+                config.getDefaultDatabaseName()),
+                "seg0" + File.separator + "c" +
+                Long.toHexString(conglomerate) + ".dat");
+        return (int) (PrivilegedFileOpsForTests.length(file) / pageSize -
+                      pages);
+    }
+
+    /**
+     * Let a few threads grow two tables at the same time, then compress one
+     * of them, which must not race with the preallocation thread, and check
+     * that everything survives a reboot.
+     */
+    public void testConcurrentInserts() throws Exception {
+        startTrace();
+        Statement s = createStatement();
+        s.execute("create table t1(id int, x varchar(1000))");
+        s.execute("create table t2(id int, x varchar(1000))");
+        s.execute("create index t1_id on t1(id)");
+
+        final Exception[] failures = new Exception[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            final Connection c = openDefaultConnection();
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        insertRows(c, "T" + (1 + thread % 2), thread * ROWS);
+                        c.close();
+                    } catch (Exception e) {
+                        failures[thread] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+            if (failures[i] != null) {
+                throw failures[i];
+            }
+        }
+
+        // Give the thread a moment to write the pages it has reserved last.
+        int ahead = pagesAhead(s, "T1");
+        for (int i = 0; i < 50 && ahead <= INLINE_PAGES; i++) {
+            Thread.sleep(100);
+            ahead = pagesAhead(s, "T1");
+        }
+        assertTrue("file of T1 only " + ahead + " pages ahead",
+                   ahead > INLINE_PAGES);
+
+        String[] lines = stopTrace();
+        if (SanityManager.DEBUG) {
+            boolean recorded = false;
+            for (String line : lines) {
+                recorded |= line.indexOf(
+                        "recorded background preallocation") >= 0;
+            }
+            assertTrue("no background preallocation recorded", recorded);
+        }
+
+        assertEquals(ROWS, s.executeUpdate(
+                "delete from t2 where mod(id, 2) = 0"));
+        s.execute("call syscs_util.syscs_inplace_compress_table" +
+                  "('APP', 'T2', 1, 1, 1)");
+        insertRows(getConnection(), "T2", -ROWS);
+
+        getTestConfiguration().shutdownDatabase();
+
+        s = createStatement();
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("select count(*) from t1"),
+            Integer.toString(2 * ROWS));
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("select count(*) from t2"),
+            Integer.toString(2 * ROWS));
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("values syscs_util.syscs_check_table('APP', 'T1')"),
+            "1");
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("values syscs_util.syscs_check_table('APP', 'T2')"),
+            "1");
+        dropTable("T1");
+        dropTable("T2");
+    }
+
+    private static void insertRows(Connection c, String table, int firstId)
+            throws SQLException {
+        char[] pad = new char[900];
+        Arrays.fill(pad, 'x');
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        PreparedStatement ps = c.prepareStatement(
+                "insert into " + table + " values (?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, firstId + i);
+            ps.setString(2, new String(pad));
+            ps.executeUpdate();
+            if (i % 50 == 49) {
+                c.commit();
+            }
+        }
+        ps.close();
+        c.commit();
+        c.setAutoCommit(autoCommit);
+    }
+}
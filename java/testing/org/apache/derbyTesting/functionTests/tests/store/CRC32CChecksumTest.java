@@ -0,0 +1,106 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.CRC32CChecksumTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.zip.Checksum;
+import junit.framework.Test;
+import org.apache.derby.iapi.services.io.CRC32C;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests a database whose pages and log are checksummed with CRC-32C
+ * (derby.storage.checksumAlgorithm=CRC32C), and whose page checksums are
+ * only verified on the first read (derby.storage.verifyChecksumOnFirstRead).
+ */
+public class CRC32CChecksumTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 10000;
+
+    public CRC32CChecksumTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.checksumAlgorithm", "CRC32C");
+        props.setProperty("derby.storage.verifyChecksumOnFirstRead", "true");
+        // a small page cache, so that the scans read the pages again
+        props.setProperty("derby.storage.pageCacheSize", "40");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(CRC32CChecksumTest.class)),
+                props, true);
+    }
+
+    /**
+     * Check the checksum of the standard test input.
+     */
+    public void testCheckValue() {
+        byte[] b = { '1', '2', '3', '4', '5', '6', '7', '8', '9' };
+        Checksum checksum = CRC32C.newInstance();
+        checksum.update(b, 0, b.length);
+        assertEquals(0xE3069283L, checksum.getValue());
+
+        checksum.reset();
+        for (int i = 0; i < b.length; i++) {
+            checksum.update(b[i]);
+        }
+        assertEquals(0xE3069283L, checksum.getValue());
+    }
+
+    public void testReadAfterReboot() throws SQLException {
+        Statement s = createStatement();
+        s.execute("create table t(id int, x varchar(200))");
+
+        setAutoCommit(false);
+        PreparedStatement ps = prepareStatement("insert into t values (?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "row " + i + " checksummed with CRC-32C");
+            ps.executeUpdate();
+        }
+        ps.close();
+        commit();
+        setAutoCommit(true);
+
+        getTestConfiguration().shutdownDatabase();
+
+        // scan the table a few times, verifying the pages the first time
+        s = createStatement();
+        for (int i = 0; i < 3; i++) {
+            JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t where x like 'row%'"),
+                Integer.toString(ROWS));
+        }
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+        dropTable("T");
+    }
+}
@@ -0,0 +1,246 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.CleanOrderTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.Test;
+import org.apache.derby.shared.common.sanity.SanityManager;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that the background cleaner and checkpoints write the dirty pages
+ * of the page cache in (container, page) order, and that pages which are
+ * next to each other in a container are written with a single write.
+ * <p>
+ * The writes are seen through the trace which sane builds print for each
+ * group of pages cleaned together. The test does nothing in insane builds.
+ */
+public class CleanOrderTest extends BaseJDBCTestCase {
+
+    /** Debug flag which traces the groups of pages cleaned together. */
+    private static final String TRACE_FLAG = "CleanGroup";
+
+    /** The writes of a group: segment.container:first-last. */
+    private static final Pattern WRITE =
+            Pattern.compile("(\\d+)\\.(\\d+):(\\d+)-(\\d+)");
+
+    private static final int ROWS = 10000;
+
+    /** Trace output, while tracing. */
+    private StringWriter trace;
+    private PrintWriter oldStream;
+
+    public CleanOrderTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.pageCacheSize", "100");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(CleanOrderTest.class)),
+                props, true);
+    }
+
+    protected void tearDown() throws Exception {
+        stopTrace();
+        dropTable("T1");
+        dropTable("T2");
+        commit();
+        super.tearDown();
+    }
+
+    private void startTrace() throws SQLException {
+        // Boot the database first, booting sets the debug stream.
+        getConnection();
+        if (SanityManager.DEBUG) {
+            trace = new StringWriter();
+            oldStream = SanityManager.GET_DEBUG_STREAM();
+            SanityManager.SET_DEBUG_STREAM(new PrintWriter(trace, true));
+            SanityManager.DEBUG_SET(TRACE_FLAG);
+        }
+    }
+
+    /**
+     * Stop tracing, and get the groups cleaned while tracing.
+     *
+     * @return one list of writes per group, each write being {segment,
+     * container, first page, last page}
+     */
+    private ArrayList<ArrayList<long[]>> stopTrace() {
+        ArrayList<ArrayList<long[]>> groups =
+                new ArrayList<ArrayList<long[]>>();
+        if (SanityManager.DEBUG && trace != null) {
+            SanityManager.DEBUG_CLEAR(TRACE_FLAG);
+            SanityManager.SET_DEBUG_STREAM(oldStream);
+            for (String line : trace.toString().split("\n")) {
+                int start = line.indexOf("Cleaned group:");
+                if (start < 0) {
+                    continue;
+                }
+                ArrayList<long[]> writes = new ArrayList<long[]>();
+                Matcher m = WRITE.matcher(line.substring(start));
+                while (m.find()) {
+                    writes.add(new long[] {
+                        Long.parseLong(m.group(1)), Long.parseLong(m.group(2)),
+                        Long.parseLong(m.group(3)), Long.parseLong(m.group(4)),
+                    });
+                }
+                groups.add(writes);
+            }
+            trace = null;
+        }
+        return groups;
+    }
+
+    /**
+     * Fill two tables at the same time, so that the dirty pages of the
+     * two containers are mixed in the cache.
+     */
+    private void fillTables() throws SQLException {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t1(id int, x varchar(200))");
+        s.execute("create table t2(id int, x varchar(200))");
+        PreparedStatement ins1 = prepareStatement("insert into t1 values (?,?)");
+        PreparedStatement ins2 = prepareStatement("insert into t2 values (?,?)");
+        for (int i = 0; i < ROWS; i++) {
+            String x = "row " + i + " of one of two tables which are filled " +
+                       "at the same time, and written out in page order";
+            ins1.setInt(1, i);
+            ins1.setString(2, x);
+            ins1.executeUpdate();
+            ins2.setInt(1, i);
+            ins2.setString(2, x);
+            ins2.executeUpdate();
+        }
+        commit();
+    }
+
+    /**
+     * Check that the writes of each group are in (container, page) order
+     * and do not overlap, and count the pages that were written together
+     * with other pages.
+     *
+     * @param groups the groups cleaned
+     * @return the number of pages written by writes of more than one page
+     */
+    private static int checkOrder(ArrayList<ArrayList<long[]>> groups) {
+        int coalesced = 0;
+        for (ArrayList<long[]> writes : groups) {
+            long[] previous = null;
+            for (long[] w : writes) {
+                assertTrue(w[3] >= w[2]);
+                if (previous != null) {
+                    boolean sameContainer =
+                        w[0] == previous[0] && w[1] == previous[1];
+                    assertTrue("Out of order: " + describe(writes),
+                            w[0] > previous[0] ||
+                            (w[0] == previous[0] && w[1] > previous[1]) ||
+                            (sameContainer && w[2] > previous[3]));
+                }
+                if (w[3] > w[2]) {
+                    coalesced += w[3] - w[2] + 1;
+                }
+                previous = w;
+            }
+        }
+        return coalesced;
+    }
+
+    private static String describe(ArrayList<long[]> writes) {
+        StringBuilder sb = new StringBuilder();
+        for (long[] w : writes) {
+            sb.append(' ').append(w[0]).append('.').append(w[1]).append(':')
+              .append(w[2]).append('-').append(w[3]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A checkpoint writes the dirty pages in order, and writes pages which
+     * are next to each other together.
+     */
+    public void testCheckpoint() throws SQLException {
+        fillTables();
+
+        // Dirty pages of both tables, spread over the cache.
+        Statement s = createStatement();
+        s.executeUpdate("update t1 set x = 'updated' where mod(id, 2) = 0");
+        s.executeUpdate("update t2 set x = 'updated' where mod(id, 3) = 0");
+        commit();
+
+        startTrace();
+        s.execute("call syscs_util.syscs_checkpoint_database()");
+        ArrayList<ArrayList<long[]>> groups = stopTrace();
+
+        if (SanityManager.DEBUG) {
+            assertFalse("No pages cleaned", groups.isEmpty());
+            assertTrue("No pages written together", checkOrder(groups) > 0);
+        }
+
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t1 where x = 'updated'"),
+                Integer.toString(ROWS / 2));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T2')"),
+                "1");
+    }
+
+    /**
+     * The background cleaner, which writes pages so that the cache can
+     * make room for others, writes each batch in order, and writes pages
+     * which are next to each other together.
+     */
+    public void testBackgroundCleaner() throws SQLException {
+        startTrace();
+        fillTables();
+        ArrayList<ArrayList<long[]>> groups = stopTrace();
+
+        if (SanityManager.DEBUG) {
+            assertFalse("No pages cleaned", groups.isEmpty());
+            assertTrue("No pages written together", checkOrder(groups) > 0);
+        }
+
+        Statement s = createStatement();
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T1')"),
+                "1");
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T2')"),
+                "1");
+    }
+}
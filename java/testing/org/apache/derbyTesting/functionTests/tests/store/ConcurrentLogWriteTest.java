@@ -0,0 +1,147 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.ConcurrentLogWriteTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.BaseTestSuite;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that log records appended by many transactions at the same time,
+ * which are copied into the log buffers in parallel, all make it to the
+ * log intact. Runs both with and without the background log writer
+ * (derby.storage.logWriterThread).
+ */
+public class ConcurrentLogWriteTest extends BaseJDBCTestCase {
+
+    private static final int THREADS = 8;
+    private static final int ROWS_PER_THREAD = 2000;
+
+    public ConcurrentLogWriteTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        BaseTestSuite suite = new BaseTestSuite("ConcurrentLogWriteTest");
+        suite.addTest(TestConfiguration.singleUseDatabaseDecorator(
+                TestConfiguration.embeddedSuite(
+                    ConcurrentLogWriteTest.class)));
+
+        // Once more with full log buffers written by a background thread.
+        Properties props = new Properties();
+        props.setProperty("derby.storage.logWriterThread", "true");
+        suite.addTest(new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(
+                        ConcurrentLogWriteTest.class)),
+                props, true));
+        return suite;
+    }
+
+    /**
+     * Insert rows of varying size from several threads, then reboot and
+     * check that the data and the indexes are consistent.
+     */
+    public void testParallelInserts() throws Exception {
+        Statement s = createStatement();
+        s.execute("create table t(thread int, id int, x varchar(32000), " +
+                  "primary key (thread, id))");
+
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            final Connection c = openDefaultConnection();
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        insertRows(c, thread);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+        }
+        if (!errors.isEmpty()) {
+            fail("Insert failed", errors.get(0));
+        }
+
+        getTestConfiguration().shutdownDatabase();
+
+        s = createStatement();
+        JDBC.assertFullResultSet(
+                s.executeQuery("select count(*), count(distinct thread) " +
+                               "from t"),
+                new String[][] {{
+                    Integer.toString(THREADS * ROWS_PER_THREAD),
+                    Integer.toString(THREADS)}});
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+        dropTable("T");
+    }
+
+    private static void insertRows(Connection c, int thread)
+            throws SQLException {
+        c.setAutoCommit(false);
+        PreparedStatement ps = c.prepareStatement(
+                "insert into t values (?, ?, ?)");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ROWS_PER_THREAD; i++) {
+            sb.setLength(0);
+            // Thread 0 writes every 100th row long enough to be spread
+            // over several pages and log records.
+            int length = (thread == 0 && i % 100 == 0) ? 12000 : i % 200;
+            for (int j = 0; j < length; j++) {
+                sb.append((char) (0x800 + (j % 64)));
+            }
+            ps.setInt(1, thread);
+            ps.setInt(2, i);
+            ps.setString(3, sb.toString());
+            ps.executeUpdate();
+            if (i % 50 == 49) {
+                c.commit();
+            }
+        }
+        c.commit();
+        ps.close();
+        c.close();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.DirectIOTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedExceptionAction;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derby.shared.common.sanity.SanityManager;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests a database whose pages are read and written with direct I/O
+ * (derby.storage.directIO). Where the runtime or the file system does not
+ * support O_DIRECT the containers fall back to normal I/O, so the results
+ * must be the same everywhere.
+ * <p>
+ * Sane builds trace whether each container uses direct I/O. Where the
+ * test can open a file next to the database with O_DIRECT itself, the
+ * containers must have used it, and elsewhere they must have fallen back.
+ */
+public class DirectIOTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 10000;
+
+    /** Debug flag which traces whether the containers use direct I/O. */
+    private static final String TRACE_FLAG = "DirectIOTrace";
+
+    /** Trace output, while tracing. */
+    private StringWriter trace;
+    private PrintWriter oldStream;
+
+    public DirectIOTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.directIO", "true");
+        // a small page cache, so that pages are written and read again
+        props.setProperty("derby.storage.pageCacheSize", "40");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(DirectIOTest.class)),
+                props, true);
+    }
+
+    protected void tearDown() throws Exception {
+        stopTrace();
+        super.tearDown();
+    }
+
+    private void startTrace() throws SQLException {
+        // Boot the database first, booting sets the debug stream.
+        getConnection();
+        if (SanityManager.DEBUG) {
+            trace = new StringWriter();
+            oldStream = SanityManager.GET_DEBUG_STREAM();
+            SanityManager.SET_DEBUG_STREAM(new PrintWriter(trace, true));
+            SanityManager.DEBUG_SET(TRACE_FLAG);
+        }
+    }
+
+    /**
+     * Stop tracing, and get the trace lines written while tracing.
+     */
+    private String[] stopTrace() {
+        String[] lines = new String[0];
+        if (SanityManager.DEBUG && trace != null) {
+            SanityManager.DEBUG_CLEAR(TRACE_FLAG);
+            SanityManager.SET_DEBUG_STREAM(oldStream);
+            lines = trace.toString().split("\n");
+            trace = null;
+        }
+        return lines;
+    }
+
+    /**
+     * Can a file in the directory be opened with O_DIRECT? Needs Java 10
+     * or later, and a file system which supports it.
+     */
+    private static boolean directIOSupported(final File dir) {
+        try {
+            final OpenOption direct = (OpenOption) Class.forName(
+                    "com.sun.nio.file.ExtendedOpenOption")
+                    .getField("DIRECT").get(null);
+            return AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<Boolean>() {
+                public Boolean run() throws IOException {
+                    File probe = new File(dir, "directio.probe");
+                    try {
+                        FileChannel.open(probe.toPath(),
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE, direct).close();
+                        return Boolean.TRUE;
+                    } finally {
+                        probe.delete();
+                    }
+                }
+            }).booleanValue();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check that the containers used direct I/O if this platform supports
+     * it, and normal I/O if it does not.
+     */
+    private void checkDirectIO(String[] lines) {
+        int direct = 0;
+        int normal = 0;
+        for (String line : lines) {
+            if (line.indexOf("direct I/O failed") >= 0) {
+                fail(line);
+            } else if (line.indexOf("direct I/O for") >= 0) {
+                direct++;
+            } else if (line.indexOf("normal I/O for") >= 0) {
+                normal++;
+            }
+        }
+
+        TestConfiguration config = getTestConfiguration();
+        File seg0 = new File(config.getDatabasePath(
+                config.getDefaultDatabaseName()), "seg0");
+        if (directIOSupported(seg0)) {
+            assertTrue("no container used direct I/O", direct > 0);
+            assertEquals("containers not using direct I/O", 0, normal);
+        } else {
+            assertEquals("containers using direct I/O", 0, direct);
+        }
+    }
+
+    public void testReadAfterReboot() throws SQLException {
+        checkTable("T", null);
+    }
+
+    /**
+     * The largest page size is a multiple of every block size for which
+     * direct I/O is used, check that it works as well.
+     */
+    public void testLargePages() throws SQLException {
+        checkTable("T32K", "32768");
+    }
+
+    private void checkTable(String table, String pageSize)
+            throws SQLException {
+        startTrace();
+        Statement s = createStatement();
+        if (pageSize != null) {
+            s.execute("call syscs_util.syscs_set_database_property(" +
+                      "'derby.storage.pageSize', '" + pageSize + "')");
+        }
+        s.execute("create table " + table + "(id int, x varchar(200))");
+        s.execute("create index " + table + "_ID on " + table + "(id)");
+        if (pageSize != null) {
+            s.execute("call syscs_util.syscs_set_database_property(" +
+                      "'derby.storage.pageSize', null)");
+        }
+
+        setAutoCommit(false);
+        PreparedStatement ps = prepareStatement(
+                "insert into " + table + " values (?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "row " + i + " written with direct I/O");
+            ps.executeUpdate();
+        }
+        ps.close();
+        commit();
+        assertEquals(ROWS / 2, s.executeUpdate(
+                "update " + table + " set x = 'updated ' || x " +
+                "where mod(id, 2) = 0"));
+        commit();
+        setAutoCommit(true);
+
+        String[] lines = stopTrace();
+        if (SanityManager.DEBUG) {
+            checkDirectIO(lines);
+        }
+
+        getTestConfiguration().shutdownDatabase();
+
+        s = createStatement();
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("select count(*) from " + table +
+                           " where x like 'row%'"),
+            Integer.toString(ROWS / 2));
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("select count(*) from " + table +
+                           " where x like 'updated%'"),
+            Integer.toString(ROWS / 2));
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("values syscs_util.syscs_check_table('APP', '" +
+                           table + "')"),
+            "1");
+        dropTable(table);
+    }
+}
@@ -20,6 +20,8 @@
 package org.apache.derbyTesting.functionTests.tests.store;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -27,6 +29,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
 import javax.sql.DataSource;
 import junit.framework.Test;
 import org.apache.derbyTesting.functionTests.util.PrivilegedFileOpsForTests;
@@ -56,6 +60,11 @@ import org.apache.derbyTesting.junit.TestConfiguration;
  * <li>Case 5.x	give external encryptionKey instead of bootpassword
  *     Not converted from original old harness test (aes.sql), for also 
  *     covered in junit test EncryptionKeyAESTest.
+ * <li>Case 6.x	default algorithm set by derby.storage.defaultEncryptionAlgorithm
+ *     with a boot password and with an external key, and reconnecting
+ *     without the property
+ * <li>Case 7.x	pages of an encrypted database cleaned on several threads
+ *     (derby.storage.pageCacheCleanerThreads)
  * <p>
  */
 //@NotThreadSafe
@@ -278,11 +287,141 @@ extends BaseJDBCTestCase {
         }
     }
 
+    /**
+     * Case 6.x
+     * Test that a database created without an encryption algorithm gets
+     * the one of derby.storage.defaultEncryptionAlgorithm, and that it is
+     * recorded, so that the database boots without the property.
+     * Case 6.1 uses a boot password, case 6.2 an external key.
+     */
+    public void testDefaultAlgorithmProperty()
+    throws IOException, SQLException {
+        String[][] cases = {
+            {"defaultAlgBootPasswordDB", "bootPassword=Thursday"},
+            {"defaultAlgExternalKeyDB",
+             "encryptionKey=6162636465666768696a6b6c6d6e6f70"}};
+        for (int i = 0; i < cases.length; i++) {
+            String dbName = cases[i][0];
+            setSystemProperty("derby.storage.defaultEncryptionAlgorithm",
+                              "AES/CBC/NoPadding");
+            DataSource ds =
+                JDBCDataSource.getDataSource(obtainDbName(dbName));
+            JDBCDataSource.setBeanProperty(ds, "CreateDatabase", "create");
+            JDBCDataSource.setBeanProperty(ds, "connectionAttributes",
+                    "dataEncryption=true;" + cases[i][1]);
+            Connection con = ds.getConnection();
+            Statement stmt = con.createStatement();
+            stmt.executeUpdate("CREATE TABLE " + TABLE +
+                    " (id int NOT NULL, val int NOT NULL, PRIMARY KEY(id))");
+            PreparedStatement ps = con.prepareStatement("INSERT INTO " +
+                    TABLE + " (id, val) VALUES (?,?)");
+            for (int j = 0; j < DATA.length; j++) {
+                ps.setInt(1, j);
+                ps.setInt(2, DATA[j]);
+                ps.executeUpdate();
+            }
+            ps.close();
+            stmt.close();
+            con.close();
+            shutdown(dbName);
+            removeSystemProperty("derby.storage.defaultEncryptionAlgorithm");
+
+            Properties service = new Properties();
+            InputStream in = PrivilegedFileOpsForTests.getFileInputStream(
+                    new File(obtainDbName(dbName), "service.properties"));
+            try {
+                service.load(in);
+            } finally {
+                in.close();
+            }
+            assertEquals("AES/CBC/NoPadding",
+                         service.getProperty("encryptionAlgorithm"));
+
+            ds = JDBCDataSource.getDataSource(obtainDbName(dbName));
+            JDBCDataSource.setBeanProperty(
+                    ds, "connectionAttributes", cases[i][1]);
+            con = ds.getConnection();
+            validateDBContents(con);
+            con.close();
+            shutdown(dbName);
+        }
+    }
+
+    /**
+     * Case 7.x
+     * Test that the pages of an encrypted database can be cleaned on
+     * several threads, each encrypting with a Cipher of its own, and that
+     * the database shuts down and boots again with the pages intact.
+     */
+    public void testParallelCleaning() throws SQLException {
+        String dbName = "parallelCleaningDB";
+        setSystemProperty("derby.storage.pageCacheCleanerThreads", "4");
+        setSystemProperty("derby.storage.pageCacheSize", "40");
+        boolean workers;
+        try {
+            Connection con = getConnection(dbName, "AES/CBC/NoPadding",
+                    new String[] {"bootPassword=Thursday"});
+            Statement stmt = con.createStatement();
+            stmt.executeUpdate("CREATE TABLE T7 (id int, x varchar(1000))");
+            PreparedStatement ps =
+                con.prepareStatement("INSERT INTO T7 VALUES (?,?)");
+            char[] filler = new char[1000];
+            Arrays.fill(filler, 'x');
+            for (int i = 0; i < 2000; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, new String(filler));
+                ps.executeUpdate();
+            }
+            ps.close();
+
+            // the table is much larger than the page cache, so the
+            // background cleaner has written pages on its workers
+            workers = hasThread("derby.cacheCleaner");
+            stmt.close();
+            con.close();
+            shutdown(dbName);
+        } finally {
+            removeSystemProperty("derby.storage.pageCacheCleanerThreads");
+            removeSystemProperty("derby.storage.pageCacheSize");
+        }
+        assertTrue("no cache cleaner workers", workers);
+
+        Connection con = getConnection(dbName, "AES/CBC/NoPadding",
+                new String[] {"bootPassword=Thursday"});
+        Statement stmt = con.createStatement();
+        JDBC.assertSingleValueResultSet(
+                stmt.executeQuery("SELECT COUNT(*) FROM T7"), "2000");
+        JDBC.assertSingleValueResultSet(
+                stmt.executeQuery(
+                    "VALUES SYSCS_UTIL.SYSCS_CHECK_TABLE('APP', 'T7')"),
+                "1");
+        stmt.close();
+        con.close();
+        shutdown(dbName);
+    }
+
     /* ********************************************************************* *
      *                     H E L P E R  M E T H O D S                        *
      * ********************************************************************* */
 
     
+    /**
+     * Is there a live thread with the given name in the thread group of
+     * the current thread, or in one of its subgroups, which include the
+     * one Derby's daemons run in?
+     */
+    private static boolean hasThread(String name) {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        Thread[] threads = new Thread[group.activeCount() + 10];
+        int count = group.enumerate(threads, true);
+        for (int i = 0; i < count; i++) {
+            if (name.equals(threads[i].getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Obtain absolute path for the specified database name.
      * <p>
@@ -0,0 +1,118 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.FreeSpaceMapTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that inserts reuse the space freed by purging deleted rows, both
+ * while the database is up and after a restart, instead of growing the
+ * heap.
+ */
+public class FreeSpaceMapTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 21000;
+
+    public FreeSpaceMapTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return TestConfiguration.singleUseDatabaseDecorator(
+                TestConfiguration.embeddedSuite(FreeSpaceMapTest.class));
+    }
+
+    public void testReuseFreedSpace() throws SQLException {
+        Statement s = createStatement();
+        s.execute("create table t(id int, x varchar(200))");
+        insertRows(0, ROWS);
+        long pages = getAllocatedPages();
+
+        // Leave a third of every page free, then fill it again.
+        assertUpdateCount(s, ROWS / 3, "delete from t where mod(id, 3) = 0");
+        purge();
+        insertRows(ROWS, ROWS / 4);
+        assertEquals(pages, getAllocatedPages());
+        checkTable(s, ROWS - ROWS / 3 + ROWS / 4);
+
+        assertUpdateCount(s, ROWS / 4, "delete from t where id >= " + ROWS);
+        purge();
+
+        // The free space classes of the pages outlive a restart.
+        getTestConfiguration().shutdownDatabase();
+        insertRows(ROWS, ROWS / 4);
+        assertEquals(pages, getAllocatedPages());
+
+        s = createStatement();
+        checkTable(s, ROWS - ROWS / 3 + ROWS / 4);
+        dropTable("T");
+    }
+
+    private void purge() throws SQLException {
+        createStatement().execute(
+            "call syscs_util.syscs_inplace_compress_table('APP', 'T', 1, 0, 0)");
+    }
+
+    private long getAllocatedPages() throws SQLException {
+        ResultSet rs = createStatement().executeQuery(
+            "select numallocatedpages from " +
+            "table(syscs_diag.space_table('APP', 'T')) t where isindex = 0");
+        assertTrue(rs.next());
+        long pages = rs.getLong(1);
+        rs.close();
+        return pages;
+    }
+
+    private void checkTable(Statement s, int rows) throws SQLException {
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t"),
+                Integer.toString(rows));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+    }
+
+    private void insertRows(int firstId, int rows) throws SQLException {
+        setAutoCommit(false);
+        PreparedStatement ps = prepareStatement("insert into t values (?, ?)");
+        StringBuilder sb = new StringBuilder();
+        for (int i = firstId; i < firstId + rows; i++) {
+            sb.setLength(0);
+            for (int j = 50 + i % 150; j > 0; j--) {
+                sb.append((char) ('a' + (j % 26)));
+            }
+            ps.setInt(1, i);
+            ps.setString(2, sb.toString());
+            ps.executeUpdate();
+        }
+        ps.close();
+        commit();
+        setAutoCommit(true);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.IncrementalBackupTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.io.File;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Properties;
+import javax.sql.DataSource;
+import junit.framework.Test;
+import org.apache.derbyTesting.functionTests.util.PrivilegedFileOpsForTests;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.BaseTestSuite;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.JDBCDataSource;
+import org.apache.derbyTesting.junit.SupportFilesSetup;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+import org.apache.derbyTesting.junit.Utilities;
+
+/**
+ * Test SYSCS_UTIL.SYSCS_BACKUP_DATABASE_INCREMENTAL and restoring from a
+ * chain of incremental backups, both with backups copied by one thread and
+ * with backups compressed and copied by several threads.
+ */
+public class IncrementalBackupTest
+    extends BaseJDBCTestCase {
+
+    private static final String COMPRESSION =
+        "derby.storage.backupCompression";
+
+    public IncrementalBackupTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Take a full backup and two incremental backups on top of it, with
+     * inserts, updates, a dropped table and an in place compress in between,
+     * and check that restoring from each of them gives the database as it
+     * was when that backup was taken.
+     */
+    public void testRestoreFromIncrements()
+            throws SQLException {
+        Statement s = createStatement();
+        s.execute("create table t(id int primary key, v varchar(100))");
+        s.execute("create table dropped(id int)");
+        s.execute("insert into dropped values 1, 2, 3");
+        insertRows("t", 0, 5000, "first");
+
+        String full = backup(null, "full");
+        String[][] fullRows = selectAll();
+
+        s.executeUpdate("update t set v = 'changed' where id < 500");
+        insertRows("t", 5000, 6000, "second");
+        s.execute("drop table dropped");
+
+        String inc1 = backup(full, "inc1");
+        String[][] inc1Rows = selectAll();
+
+        // the changed pages go to incseg0 in place of a full seg0
+        File incSeg = new File(inc1, "incseg0");
+        assertTrue(PrivilegedFileOpsForTests.exists(incSeg));
+        assertFalse(PrivilegedFileOpsForTests.exists(new File(inc1, "seg0")));
+
+        s.executeUpdate("delete from t where id >= 3000");
+        s.execute("call SYSCS_UTIL.SYSCS_INPLACE_COMPRESS_TABLE(" +
+                  "'APP', 'T', 1, 1, 1)");
+        insertRows("t", 3000, 3500, "third");
+
+        String inc2 = backup(inc1, "inc2");
+        String[][] inc2Rows = selectAll();
+        s.close();
+
+        assertRestored(inc2, inc2Rows, false);
+        assertRestored(inc1, inc1Rows, false);
+        assertRestored(full, fullRows, true);
+    }
+
+    /**
+     * With derby.storage.backupCompression the container copies of both full
+     * and incremental backups are compressed.
+     */
+    public void testCompressedCopies()
+            throws SQLException {
+        Statement s = createStatement();
+        s.execute("create table compressed" +
+                  "(id int primary key, v varchar(100))");
+        s.close();
+        insertRows("compressed", 0, 1000, "first");
+
+        String full = backup(null, "full");
+        insertRows("compressed", 1000, 2000, "second");
+        String inc = backup(full, "inc");
+
+        boolean compressed =
+            Boolean.parseBoolean(getSystemProperty(COMPRESSION));
+        assertCopies(new File(full, "seg0"), compressed);
+        assertCopies(new File(inc, "incseg0"), compressed);
+    }
+
+    private static void assertCopies(File dir, boolean compressed) {
+        File[] copies = PrivilegedFileOpsForTests.listFiles(dir);
+        assertTrue(copies.length > 0);
+        for (int i = 0; i < copies.length; i++) {
+            String name = copies[i].getName();
+            if (name.startsWith("c")) {
+                assertEquals(name, compressed, name.endsWith(".gz"));
+            }
+        }
+    }
+
+    /**
+     * An increment needs a base which recorded its page versions, and must
+     * not replace the backup it is taken on top of.
+     */
+    public void testUnusableBase()
+            throws SQLException {
+        String backups = SupportFilesSetup.getReadWrite("incbackups").getPath();
+        assertBackupFails(backups + File.separator + "inc", backups);
+
+        String full = backup(null, "full");
+        assertBackupFails(new File(full).getParent(), full);
+    }
+
+    private void assertBackupFails(String dir, String base)
+            throws SQLException {
+        CallableStatement cs = prepareCall(
+            "CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE_INCREMENTAL(?, ?)");
+        cs.setString(1, dir);
+        cs.setString(2, base);
+        assertStatementError("XSRSD", cs);
+        cs.close();
+    }
+
+    private void insertRows(String table, int from, int to, String tag)
+            throws SQLException {
+        PreparedStatement ps = prepareStatement(
+            "insert into " + table + " values (?, ?)");
+        for (int i = from; i < to; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, tag + " " + i);
+            ps.executeUpdate();
+        }
+        ps.close();
+    }
+
+    private String[][] selectAll() throws SQLException {
+        Statement s = createStatement();
+        ResultSet rs = s.executeQuery("select * from t order by id");
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        while (rs.next()) {
+            rows.add(new String[] { rs.getString(1), rs.getString(2) });
+        }
+        rs.close();
+        s.close();
+        return rows.toArray(new String[rows.size()][]);
+    }
+
+    /**
+     * Back up the database into a directory of its own, on top of base if
+     * that is not null, and return the path of the backup copy.
+     */
+    private String backup(String base, String name) throws SQLException {
+        String dir = SupportFilesSetup.getReadWrite(
+            "incbackups" + File.separator + name).getPath();
+        CallableStatement cs;
+        if (base == null) {
+            cs = prepareCall("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)");
+            cs.setString(1, dir);
+        } else {
+            cs = prepareCall(
+                "CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE_INCREMENTAL(?, ?)");
+            cs.setString(1, dir);
+            cs.setString(2, base);
+        }
+        cs.execute();
+        cs.close();
+
+        String tmp[] = Utilities.split(
+                getTestConfiguration().getDefaultDatabaseName(), '/');
+        return dir + File.separator + tmp[tmp.length - 1];
+    }
+
+    private void assertRestored(String backup, String[][] rows,
+                                boolean hasDropped)
+            throws SQLException {
+        getTestConfiguration().shutdownEngine();
+
+        DataSource ds = JDBCDataSource.getDataSource();
+        JDBCDataSource.setBeanProperty(ds, "connectionAttributes", 
+                ("restoreFrom=" + backup));
+        Connection c = ds.getConnection();
+        Statement s = c.createStatement();
+        JDBC.assertFullResultSet(
+            s.executeQuery("select * from t order by id"), rows);
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("values SYSCS_UTIL.SYSCS_CHECK_TABLE('APP', 'T')"),
+            "1");
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery("select count(*) from sys.systables " +
+                           "where tablename = 'DROPPED'"),
+            hasDropped ? "1" : "0");
+        s.close();
+        c.close();
+    }
+
+    /**
+     * Returns a suite running with a single use database with the embedded
+     * driver only, once with the default backup settings and once with
+     * compressed backups copied by four threads.
+     *
+     * @return A test suite.
+     */
+    public static Test suite() {
+        BaseTestSuite suite = new BaseTestSuite("IncrementalBackupTest");
+        suite.addTest(new SupportFilesSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    new BaseTestSuite(IncrementalBackupTest.class))));
+
+        Properties props = new Properties();
+        props.setProperty("derby.storage.backupThreads", "4");
+        props.setProperty(COMPRESSION, "true");
+        suite.addTest(new SystemPropertyTestSetup(
+                new SupportFilesSetup(
+                    TestConfiguration.singleUseDatabaseDecorator(
+                        new BaseTestSuite(IncrementalBackupTest.class,
+                                          "parallel compressed"))),
+                props, true));
+        return suite;
+    }
+}
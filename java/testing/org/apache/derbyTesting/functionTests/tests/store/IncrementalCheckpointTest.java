@@ -0,0 +1,110 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.IncrementalCheckpointTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that checkpoints which write their pages at a limited rate
+ * (derby.storage.checkpointWriteRate) leave the database consistent, and
+ * that they don't hold up explicit checkpoints or shutdown.
+ */
+public class IncrementalCheckpointTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 5000;
+
+    public IncrementalCheckpointTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        // Slow enough that a checkpoint of a few hundred dirty pages would
+        // take minutes if nothing made it hurry up.
+        props.setProperty("derby.storage.checkpointWriteRate", "2");
+        props.setProperty("derby.storage.checkpointInterval", "100000");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(
+                        IncrementalCheckpointTest.class)),
+                props, true);
+    }
+
+    protected void setUp() throws SQLException {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t(id int primary key, n int, x varchar(100))");
+        PreparedStatement ps =
+            prepareStatement("insert into t values (?, 0, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "row number " + i + " of the checkpoint table");
+            ps.executeUpdate();
+        }
+        commit();
+    }
+
+    protected void tearDown() throws Exception {
+        dropTable("T");
+        commit();
+        super.tearDown();
+    }
+
+    /**
+     * Updates made while the checkpoint daemon is running throttled
+     * checkpoints survive an explicit checkpoint and a reboot.
+     */
+    public void testUpdatesAndReboot() throws SQLException {
+        Statement s = createStatement();
+        for (int round = 1; round <= 3; round++) {
+            assertUpdateCount(s, ROWS, "update t set n = n + 1");
+            commit();
+        }
+
+        // Waits for any throttled checkpoint in progress, which must
+        // switch to full speed.
+        s.execute("call syscs_util.syscs_checkpoint_database()");
+
+        assertUpdateCount(s, ROWS, "update t set n = n + 1");
+        commit();
+
+        getTestConfiguration().shutdownDatabase();
+        setAutoCommit(false);
+        s = createStatement();
+        JDBC.assertFullResultSet(
+                s.executeQuery("select count(*), sum(n) from t"),
+                new String[][] {{
+                    Integer.toString(ROWS), Integer.toString(4 * ROWS)}});
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+        commit();
+    }
+}
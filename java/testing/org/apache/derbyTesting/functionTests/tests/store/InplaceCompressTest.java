@@ -0,0 +1,150 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.InplaceCompressTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests the purge pass of SYSCS_INPLACE_COMPRESS_TABLE run on several
+ * threads and held to a page rate, and the SYSCS_DIAG.COMPRESS_PROGRESS
+ * table which shows it.
+ */
+public class InplaceCompressTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 6000;
+
+    public InplaceCompressTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return TestConfiguration.singleUseDatabaseDecorator(
+                TestConfiguration.embeddedSuite(InplaceCompressTest.class));
+    }
+
+    protected void tearDown() throws Exception {
+        setProperty("derby.storage.inplaceCompressThreads", null);
+        setProperty("derby.storage.inplaceCompressRate", null);
+        super.tearDown();
+    }
+
+    /**
+     * Purge a table and its indexes on three threads, with a rate limit.
+     */
+    public void testParallelPurge() throws SQLException {
+        Statement s = createStatement();
+        createTable(s);
+
+        assertUpdateCount(s, ROWS - ROWS / 3,
+                "delete from t where mod(id, 3) <> 0");
+
+        setProperty("derby.storage.inplaceCompressThreads", "3");
+        setProperty("derby.storage.inplaceCompressRate", "2000");
+        s.execute(
+            "call syscs_util.syscs_inplace_compress_table('APP', 'T', 1, 0, 0)");
+
+        checkTable(s, ROWS / 3);
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery(
+                "select count(*) from t --DERBY-PROPERTIES index=TK\n" +
+                " where k >= 0"),
+            Integer.toString(ROWS / 3));
+
+        // Nothing is in progress once the compress has returned.
+        ResultSet rs = s.executeQuery(
+            "select * from syscs_diag.compress_progress");
+        JDBC.assertColumnNames(rs, new String[] {
+            "CONGLOMERATENUMBER", "PHASE", "PAGES_DONE", "ESTIMATED_PAGES",
+            "STARTED", "PAGES_PER_SECOND" });
+        JDBC.assertEmpty(rs);
+
+        dropTable("T");
+    }
+
+    /**
+     * Rows the caller deleted but did not commit yet are left alone by the
+     * purge of the indexes, rather than waited for. Fewer rows than the
+     * lock escalation threshold are deleted, since a table lock held by the
+     * caller would block the purge altogether.
+     */
+    public void testUncommittedDeletes() throws SQLException {
+        Statement s = createStatement();
+        createTable(s);
+
+        setAutoCommit(false);
+        assertUpdateCount(s, ROWS - ROWS / 3,
+                "delete from t where mod(id, 3) <> 0");
+        s.execute(
+            "call syscs_util.syscs_inplace_compress_table('APP', 'T', 1, 0, 0)");
+        commit();
+        setAutoCommit(true);
+
+        s.execute(
+            "call syscs_util.syscs_inplace_compress_table('APP', 'T', 1, 0, 0)");
+        checkTable(s, ROWS / 3);
+        dropTable("T");
+    }
+
+    private void createTable(Statement s) throws SQLException {
+        s.execute("create table t(id int, k int, x varchar(200))");
+        s.execute("create index ti on t(id)");
+        s.execute("create index tk on t(k, x)");
+
+        setAutoCommit(false);
+        PreparedStatement ps =
+            prepareStatement("insert into t values (?, ?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, i % 977);
+            ps.setString(3, "row " + i + " of the table to compress");
+            ps.executeUpdate();
+        }
+        ps.close();
+        commit();
+        setAutoCommit(true);
+    }
+
+    private void setProperty(String key, String value) throws SQLException {
+        PreparedStatement ps = prepareStatement(
+            "call syscs_util.syscs_set_database_property(?, ?)");
+        ps.setString(1, key);
+        ps.setString(2, value);
+        ps.execute();
+        ps.close();
+    }
+
+    private void checkTable(Statement s, int rows) throws SQLException {
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t"),
+                Integer.toString(rows));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+    }
+}
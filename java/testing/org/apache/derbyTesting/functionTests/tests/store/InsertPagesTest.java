@@ -0,0 +1,248 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.InsertPagesTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.Test;
+import org.apache.derby.shared.common.sanity.SanityManager;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests concurrent inserts into a heap which hands out an insert page per
+ * thread (derby.storage.insertPages), both into new pages and into the
+ * space left by deleted rows.
+ * <p>
+ * Sane builds trace the switch to multi-page insert mode and each insert
+ * page handed to a slot, which shows that the threads inserted into pages
+ * of their own.
+ */
+public class InsertPagesTest extends BaseJDBCTestCase {
+
+    private static final int THREADS = 8;
+    private static final int ROWS_PER_THREAD = 2000;
+
+    /** Debug flag which traces the insert pages of the slots. */
+    private static final String TRACE_FLAG = "InsertPagesTrace";
+
+    /** An insert page: slot, page and the insert pages of all slots. */
+    private static final Pattern INSERT_PAGE = Pattern.compile(
+            "insert page .* slot (\\d+) page (\\d+) " +
+            "slots \\[([-0-9, ]*)\\]");
+
+    /** Trace output, while tracing. */
+    private StringWriter trace;
+    private PrintWriter oldStream;
+
+    public InsertPagesTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.insertPages", "4");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(InsertPagesTest.class)),
+                props, true);
+    }
+
+    protected void tearDown() throws Exception {
+        stopTrace();
+        super.tearDown();
+    }
+
+    private void startTrace() throws SQLException {
+        // Boot the database first, booting sets the debug stream.
+        getConnection();
+        if (SanityManager.DEBUG) {
+            trace = new StringWriter();
+            oldStream = SanityManager.GET_DEBUG_STREAM();
+            SanityManager.SET_DEBUG_STREAM(new PrintWriter(trace, true));
+            SanityManager.DEBUG_SET(TRACE_FLAG);
+        }
+    }
+
+    /**
+     * Stop tracing, and get the trace lines written while tracing.
+     */
+    private String[] stopTrace() {
+        String[] lines = new String[0];
+        if (SanityManager.DEBUG && trace != null) {
+            SanityManager.DEBUG_CLEAR(TRACE_FLAG);
+            SanityManager.SET_DEBUG_STREAM(oldStream);
+            lines = trace.toString().split("\n");
+            trace = null;
+        }
+        return lines;
+    }
+
+    /**
+     * Check that the container switched to multi-page insert mode, that
+     * more than one slot was handed insert pages and that no page was the
+     * insert page of two slots at the same time.
+     *
+     * @param lines the trace of the inserts
+     * @param switched whether the switch must be in the trace, it is only
+     *        made once
+     */
+    private static void checkInsertPages(String[] lines, boolean switched) {
+        boolean sawSwitch = false;
+        Set<String> slots = new HashSet<String>();
+        Set<String> pages = new HashSet<String>();
+        for (String line : lines) {
+            if (line.indexOf("multi-page insert mode") >= 0) {
+                sawSwitch = true;
+            }
+            Matcher m = INSERT_PAGE.matcher(line);
+            if (!m.find()) {
+                continue;
+            }
+            int slot = Integer.parseInt(m.group(1));
+            String page = m.group(2);
+            slots.add(m.group(1));
+            pages.add(page);
+            String[] all = m.group(3).split(", ");
+            for (int i = 0; i < all.length; i++) {
+                assertFalse("page " + page + " of slot " + slot +
+                            " is also the insert page of slot " + i +
+                            ": " + line,
+                            i != slot && all[i].equals(page));
+            }
+        }
+        if (switched) {
+            assertTrue("no switch to multi-page insert mode", sawSwitch);
+        }
+        assertTrue("insert pages handed to slots " + slots,
+                   slots.size() > 1);
+        assertTrue("insert pages " + pages, pages.size() > 1);
+    }
+
+    public void testParallelInserts() throws Exception {
+        Statement s = createStatement();
+        s.execute("create table t(thread int, id int, x varchar(1000))");
+
+        startTrace();
+        insertInParallel(0);
+        String[] lines = stopTrace();
+        if (SanityManager.DEBUG) {
+            checkInsertPages(lines, true);
+        }
+        checkTable(s, THREADS * ROWS_PER_THREAD);
+
+        // Free space on every page, then fill it again.
+        assertUpdateCount(s, THREADS * ROWS_PER_THREAD / 2,
+                          "delete from t where mod(id, 2) = 0");
+        startTrace();
+        insertInParallel(ROWS_PER_THREAD);
+        lines = stopTrace();
+        if (SanityManager.DEBUG) {
+            checkInsertPages(lines, false);
+        }
+        checkTable(s, THREADS * ROWS_PER_THREAD * 3 / 2);
+
+        getTestConfiguration().shutdownDatabase();
+
+        s = createStatement();
+        checkTable(s, THREADS * ROWS_PER_THREAD * 3 / 2);
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(distinct thread) from t"),
+                Integer.toString(THREADS));
+        dropTable("T");
+    }
+
+    private void checkTable(Statement s, int rows) throws SQLException {
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t"),
+                Integer.toString(rows));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+    }
+
+    private void insertInParallel(final int firstId) throws Exception {
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            final Connection c = openDefaultConnection();
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        insertRows(c, thread, firstId);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+        }
+        if (!errors.isEmpty()) {
+            fail("Insert failed", errors.get(0));
+        }
+    }
+
+    private static void insertRows(Connection c, int thread, int firstId)
+            throws SQLException {
+        c.setAutoCommit(false);
+        PreparedStatement ps = c.prepareStatement(
+                "insert into t values (?, ?, ?)");
+        StringBuilder sb = new StringBuilder();
+        for (int i = firstId; i < firstId + ROWS_PER_THREAD; i++) {
+            sb.setLength(0);
+            for (int j = i % 300; j >= 0; j--) {
+                sb.append((char) ('a' + (j % 26)));
+            }
+            ps.setInt(1, thread);
+            ps.setInt(2, i);
+            ps.setString(3, sb.toString());
+            ps.executeUpdate();
+            if (i % 50 == 49) {
+                c.commit();
+            }
+        }
+        c.commit();
+        ps.close();
+        c.close();
+    }
+}
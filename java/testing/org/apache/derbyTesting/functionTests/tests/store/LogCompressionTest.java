@@ -0,0 +1,136 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.LogCompressionTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.CleanDatabaseTestSetup;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that rollback and crash recovery give the right result when large
+ * log records are logged compressed
+ * (derby.storage.logCompressionThreshold).
+ */
+public class LogCompressionTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 200;
+
+    public LogCompressionTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.logCompressionThreshold", "1000");
+        return new SystemPropertyTestSetup(
+                new CleanDatabaseTestSetup(
+                    TestConfiguration.embeddedSuite(LogCompressionTest.class)),
+                props, true);
+    }
+
+    /** A long value which compresses well. */
+    private static String value(int id, int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append("value ").append(id).append(' ');
+        }
+        return sb.substring(0, length);
+    }
+
+    /**
+     * Load a table with long values, roll back an update of it, have a
+     * forked JVM change it without shutting down, and check that recovery
+     * restores the committed changes only.
+     */
+    public void testRecovery() throws Exception {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t(id int primary key, x varchar(30000), " +
+                  "c clob)");
+        PreparedStatement ps =
+            prepareStatement("insert into t values (?, ?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, value(i, 20000));
+            ps.setString(3, value(i, 100000));
+            ps.executeUpdate();
+        }
+        commit();
+
+        // Rollback reads the compressed log records backwards.
+        assertUpdateCount(s, ROWS / 2,
+                          "update t set x = 'short' where id < " + ROWS / 2);
+        rollback();
+        checkTable(s, 20000L * ROWS);
+        s.close();
+        commit();
+        TestConfiguration.getCurrent().shutdownDatabase();
+
+        assertLaunchedJUnitTestMethod("org.apache.derbyTesting." +
+                "functionTests.tests.store.LogCompressionTest.launchUpdates");
+
+        setAutoCommit(false);
+        s = createStatement();
+        // Every other row was made 3 characters longer and committed, the
+        // other updates must be rolled back.
+        checkTable(s, 20000L * ROWS + 3 * (ROWS / 2));
+
+        dropTable("T");
+        commit();
+    }
+
+    private void checkTable(Statement s, long xLength) throws SQLException {
+        JDBC.assertFullResultSet(
+                s.executeQuery("select count(*), sum(length(x)), " +
+                               "sum(length(c)) from t"),
+                new String[][] {{
+                    Integer.toString(ROWS),
+                    Long.toString(xLength),
+                    Long.toString(100000L * ROWS)}});
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+    }
+
+    /**
+     * Run in a forked JVM. Changes the database and exits without shutting
+     * it down, so that the next boot has to recover.
+     */
+    public void launchUpdates() throws SQLException {
+        // The database is booted by the first connection below.
+        setSystemProperty("derby.storage.logCompressionThreshold", "1000");
+        setAutoCommit(false);
+        Statement s = createStatement();
+        assertUpdateCount(s, ROWS / 2,
+                          "update t set x = x || 'abc' where mod(id, 2) = 0");
+        commit();
+        s.executeUpdate("update t set x = 'lost' where id < 10");
+        s.executeUpdate("delete from t where id >= " + ROWS / 2);
+    }
+}
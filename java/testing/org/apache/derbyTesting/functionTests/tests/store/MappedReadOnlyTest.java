@@ -0,0 +1,218 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.MappedReadOnlyTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derby.shared.common.sanity.SanityManager;
+import org.apache.derbyTesting.functionTests.util.PrivilegedFileOpsForTests;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests reads from a read-only database whose container files are mapped
+ * into memory (derby.storage.mapReadOnlyContainers).
+ * <p>
+ * Sane builds map the files in 64KB chunks instead of 1GB chunks, so that
+ * the pages of the test tables lie in many chunks.
+ */
+public class MappedReadOnlyTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 3000;
+
+    /** Debug flag which makes the mapped chunks small. */
+    private static final String SMALL_CHUNKS = "TEST_SMALL_MAP_CHUNKS";
+
+    public MappedReadOnlyTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.mapReadOnlyContainers", "true");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(MappedReadOnlyTest.class)),
+                props, true);
+    }
+
+    protected void setUp() {
+        if (SanityManager.DEBUG) {
+            SanityManager.DEBUG_SET(SMALL_CHUNKS);
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        if (SanityManager.DEBUG) {
+            SanityManager.DEBUG_CLEAR(SMALL_CHUNKS);
+        }
+        super.tearDown();
+    }
+
+    /** A long value which differs from row to row. */
+    private static String value(int id) {
+        StringBuilder sb = new StringBuilder();
+        int length = 200 + id % 300;
+        while (sb.length() < length) {
+            sb.append("row ").append(id).append(' ');
+        }
+        return sb.substring(0, length);
+    }
+
+    /**
+     * Fill a table, make the database files read-only, and read the table
+     * back with a heap scan, an index scan and lookups in random order.
+     */
+    public void testReadMapped() throws Exception {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t(id int primary key, x varchar(1000), " +
+                  "c clob)");
+        PreparedStatement ins =
+            prepareStatement("insert into t values (?, ?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ins.setInt(1, i);
+            ins.setString(2, value(i));
+            // long columns are kept on pages of their own
+            ins.setString(3, i % 100 == 0 ? value(i) + value(i + 1) : null);
+            ins.executeUpdate();
+        }
+        commit();
+        s.close();
+        TestConfiguration.getCurrent().shutdownDatabase();
+
+        final File dbDir = new File(TestConfiguration.getCurrent()
+                .getDatabasePath(TestConfiguration.getCurrent()
+                    .getDefaultDatabaseName()));
+        setReadOnly(dbDir, true);
+        try {
+            s = createStatement();
+            try {
+                s.executeUpdate("insert into t values (-1, 'x', null)");
+                // As root, for instance.
+                alarm("Read-only files can be modified. " +
+                      "Skipping MappedReadOnlyTest.");
+                return;
+            } catch (SQLException sqle) {
+                assertSQLState("25502", sqle);
+            }
+
+            checkTable(s);
+            s.close();
+            commit();
+            TestConfiguration.getCurrent().shutdownDatabase();
+        } finally {
+            setReadOnly(dbDir, false);
+        }
+    }
+
+    private void checkTable(Statement s) throws SQLException {
+        int rows = 0;
+        ResultSet rs = s.executeQuery(
+                "select id, x from t --derby-properties index=null\n");
+        while (rs.next()) {
+            assertEquals(value(rs.getInt(1)), rs.getString(2));
+            rows++;
+        }
+        rs.close();
+        assertEquals(ROWS, rows);
+
+        JDBC.assertFullResultSet(
+                s.executeQuery("select count(*), sum(length(c)) from t " +
+                               "where id >= 0"),
+                new String[][] {{
+                    Integer.toString(ROWS),
+                    Long.toString(sumOfClobLengths()) }});
+
+        // Jump back and forth through the file.
+        PreparedStatement ps =
+            prepareStatement("select x from t where id = ?");
+        for (int i = 0; i < ROWS; i += 97) {
+            int id = (i % 2 == 0) ? i : ROWS - 1 - i;
+            ps.setInt(1, id);
+            JDBC.assertSingleValueResultSet(ps.executeQuery(), value(id));
+        }
+        ps.close();
+
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+    }
+
+    private static long sumOfClobLengths() {
+        long sum = 0;
+        for (int i = 0; i < ROWS; i += 100) {
+            sum += value(i).length() + value(i + 1).length();
+        }
+        return sum;
+    }
+
+    /**
+     * Make the files of a database read-only, or writable again. A read-only
+     * lock file is put in place, since the lock file of a database that has
+     * been shut down is gone, and the directory itself stays writable.
+     *
+     * @param dbDir the database directory
+     * @param readOnly whether the files should be read-only
+     */
+    private static void setReadOnly(final File dbDir, final boolean readOnly)
+            throws IOException {
+        if (readOnly) {
+            File lock = new File(dbDir, "db.lck");
+            if (!PrivilegedFileOpsForTests.exists(lock)) {
+                PrivilegedFileOpsForTests.getFileOutputStream(lock).close();
+            }
+            assertTrue("Failed to change files in " + dbDir + " to read-only",
+                    OSReadOnlyTest.changeDirectoryToReadOnly(dbDir));
+        } else {
+            AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                public Void run() {
+                    makeWritable(dbDir);
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static void makeWritable(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    makeWritable(f);
+                } else {
+                    f.setWritable(true);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.PageBufferPoolTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that pages are served correctly from the off-heap page buffer pool
+ * (derby.storage.pageBufferPoolSize) when the page cache is too small to
+ * hold the tables, and that the pool does not hand out old copies of pages
+ * after the container has been dropped or truncated.
+ */
+public class PageBufferPoolTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 5000;
+
+    public PageBufferPoolTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.pageBufferPoolSize", "8");
+        props.setProperty("derby.storage.pageCacheSize", "40");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(PageBufferPoolTest.class)),
+                props, true);
+    }
+
+    protected void setUp() throws SQLException {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t(id int primary key, n int, x varchar(100))");
+        PreparedStatement ps =
+            prepareStatement("insert into t values (?, 0, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "row number " + i + " of the buffer pool table");
+            ps.executeUpdate();
+        }
+        commit();
+    }
+
+    protected void tearDown() throws Exception {
+        dropTable("T");
+        commit();
+        super.tearDown();
+    }
+
+    /**
+     * Pages that are updated after they have been brought back from the
+     * pool are written and read back with the updates.
+     */
+    public void testUpdates() throws SQLException {
+        Statement s = createStatement();
+        for (int round = 1; round <= 3; round++) {
+            assertUpdateCount(s, ROWS / 2,
+                    "update t set n = n + 1 where mod(id, 2) = 0");
+            commit();
+            JDBC.assertFullResultSet(
+                    s.executeQuery("select count(*), sum(n) from t " +
+                                   "--derby-properties index=null\n"),
+                    new String[][] {{
+                        Integer.toString(ROWS),
+                        Integer.toString(round * ROWS / 2)}});
+        }
+
+        getTestConfiguration().shutdownDatabase();
+        setAutoCommit(false);
+        s = createStatement();
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select sum(n) from t where id >= 0"),
+                Integer.toString(3 * ROWS / 2));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+        commit();
+    }
+
+    /**
+     * The pages of a container that has been truncated by an in-place
+     * compress, or dropped and replaced by compress, are not taken from
+     * the pool.
+     */
+    public void testCompress() throws SQLException {
+        Statement s = createStatement();
+        s.executeUpdate("delete from t where id >= " + (ROWS / 2));
+        commit();
+        s.execute("call syscs_util.syscs_inplace_compress_table" +
+                  "('APP', 'T', 1, 1, 1)");
+        commit();
+
+        // Grow the table again into the truncated pages.
+        PreparedStatement ps = prepareStatement("insert into t values (?,?,?)");
+        for (int i = ROWS / 2; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setInt(2, 1);
+            ps.setString(3, "new row " + i);
+            ps.executeUpdate();
+        }
+        commit();
+        JDBC.assertFullResultSet(
+                s.executeQuery("select count(*), sum(n) from t " +
+                               "--derby-properties index=null\n"),
+                new String[][] {{
+                    Integer.toString(ROWS), Integer.toString(ROWS / 2)}});
+
+        s.execute("call syscs_util.syscs_compress_table('APP', 'T', 1)");
+        commit();
+        JDBC.assertFullResultSet(
+                s.executeQuery("select count(*), sum(n) from t where id >= 0"),
+                new String[][] {{
+                    Integer.toString(ROWS), Integer.toString(ROWS / 2)}});
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+        commit();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.PageCacheMonitor
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedExceptionAction;
+import java.sql.Connection;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import junit.framework.Assert;
+
+/**
+ * Reads the {@code CacheManagerMBean} of the page cache of an embedded
+ * database from the platform MBean server, so that store tests can check
+ * what happened in the page cache and not only that the results were right.
+ * <p>
+ * The bean is registered again each time the database boots, so a monitor
+ * must be created after the database has been (re)booted.
+ */
+final class PageCacheMonitor {
+
+    private final MBeanServer server;
+    private final ObjectName name;
+
+    /**
+     * Find the page cache bean of the database a connection is connected to.
+     *
+     * @param conn an embedded connection to the database
+     */
+    PageCacheMonitor(Connection conn) throws Exception {
+        server = AccessController.doPrivileged(
+                new PrivilegedAction<MBeanServer>() {
+                    public MBeanServer run() {
+                        return ManagementFactory.getPlatformMBeanServer();
+                    }
+                });
+
+        // The db key is the full path of the database directory, match
+        // it against the database name in the URL.
+        String url = conn.getMetaData().getURL();
+        String dbName = url.substring("jdbc:derby:".length());
+        int attributes = dbName.indexOf(';');
+        if (attributes >= 0) {
+            dbName = dbName.substring(0, attributes);
+        }
+        dbName = File.separator + dbName.replace('/', File.separatorChar);
+
+        ObjectName found = null;
+        for (ObjectName on : queryNames(new ObjectName(
+                "org.apache.derby:type=CacheManager,name=PageCache,*"))) {
+            if (ObjectName.unquote(on.getKeyProperty("db")).endsWith(dbName)) {
+                Assert.assertNull("Two page caches for " + dbName, found);
+                found = on;
+            }
+        }
+        Assert.assertNotNull("No page cache for " + dbName, found);
+        name = found;
+    }
+
+    private ObjectName[] queryNames(final ObjectName pattern) {
+        return AccessController.doPrivileged(
+                new PrivilegedAction<ObjectName[]>() {
+                    public ObjectName[] run() {
+                        return server.queryNames(pattern, null)
+                                .toArray(new ObjectName[0]);
+                    }
+                });
+    }
+
+    /**
+     * Get the value of an attribute of the page cache bean.
+     *
+     * @param attribute the name of the attribute
+     * @return the value of the attribute
+     */
+    Object getAttribute(final String attribute) throws Exception {
+        return AccessController.doPrivileged(
+                new PrivilegedExceptionAction<Object>() {
+                    public Object run() throws Exception {
+                        return server.getAttribute(name, attribute);
+                    }
+                });
+    }
+
+    /**
+     * Get the value of a {@code long} attribute of the page cache bean.
+     *
+     * @param attribute the name of the attribute
+     * @return the value of the attribute
+     */
+    long getLong(String attribute) throws Exception {
+        return ((Long) getAttribute(attribute)).longValue();
+    }
+
+    /**
+     * Turn collection of hit and miss counts on or off.
+     *
+     * @param collect whether or not to count hits and misses
+     */
+    void collectAccessCounts(boolean collect) throws Exception {
+        final Attribute attribute =
+                new Attribute("CollectAccessCounts", Boolean.valueOf(collect));
+        AccessController.doPrivileged(
+                new PrivilegedExceptionAction<Void>() {
+                    public Void run() throws Exception {
+                        server.setAttribute(name, attribute);
+                        return null;
+                    }
+                });
+    }
+}
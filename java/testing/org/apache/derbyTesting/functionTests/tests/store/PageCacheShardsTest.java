@@ -0,0 +1,121 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.PageCacheShardsTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests a page cache which is partitioned into shards
+ * (derby.storage.pageCacheShards), each with its own part of the cache.
+ */
+public class PageCacheShardsTest extends BaseJDBCTestCase {
+
+    private static final int SHARDS = 4;
+    private static final int CACHE_SIZE = 200;
+    private static final int ROWS = 5000;
+
+    /** Makes the table take up a few hundred pages. */
+    private static final String PADDING = " of a table which does not fit " +
+            "in the page cache, padded out to some two hundred characters " +
+            "so that only a dozen or so rows fit on a page of four kilobytes";
+
+    public PageCacheShardsTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.pageCacheShards",
+                          Integer.toString(SHARDS));
+        props.setProperty("derby.storage.pageCacheSize",
+                          Integer.toString(CACHE_SIZE));
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(PageCacheShardsTest.class)),
+                props, true);
+    }
+
+    /**
+     * Read a table which is larger than the page cache, and check that its
+     * pages were spread over all the shards, that no shard grew beyond its
+     * part of the cache, and that pages were evicted from every shard.
+     */
+    public void testSpreadAndEviction() throws Exception {
+        PageCacheMonitor cache = new PageCacheMonitor(getConnection());
+        assertEquals(SHARDS,
+                ((Integer) cache.getAttribute("ShardCount")).intValue());
+        cache.collectAccessCounts(true);
+
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t(id int primary key, x varchar(300))");
+        PreparedStatement ps = prepareStatement("insert into t values (?,?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "row number " + i + PADDING);
+            ps.executeUpdate();
+        }
+        commit();
+
+        for (int i = 0; i < 2; i++) {
+            JDBC.assertSingleValueResultSet(
+                    s.executeQuery("select count(*) from t " +
+                                   "--derby-properties index=null\n"),
+                    Integer.toString(ROWS));
+        }
+
+        long[] allocated = (long[]) cache.getAttribute("ShardAllocatedEntries");
+        long[] evicted = (long[]) cache.getAttribute("ShardEvictionCounts");
+        String counts = "allocated " + Arrays.toString(allocated) +
+                        ", evicted " + Arrays.toString(evicted);
+        assertEquals(SHARDS, allocated.length);
+        assertEquals(SHARDS, evicted.length);
+
+        long allocatedSum = 0;
+        long evictedSum = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            assertTrue(counts, allocated[i] > 0);
+            assertTrue(counts, allocated[i] <= CACHE_SIZE / SHARDS);
+            assertTrue(counts, evicted[i] > 0);
+            allocatedSum += allocated[i];
+            evictedSum += evicted[i];
+        }
+        assertEquals(allocatedSum, cache.getLong("AllocatedEntries"));
+        assertEquals(evictedSum, cache.getLong("EvictionCount"));
+        assertTrue(counts, cache.getLong("UsedEntries") <= CACHE_SIZE);
+        cache.collectAccessCounts(false);
+
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+        dropTable("T");
+        commit();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.PageCompressionTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests for tables whose pages are stored compressed on disk
+ * (derby.storage.pageCompression).
+ */
+public class PageCompressionTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 5000;
+
+    public PageCompressionTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return TestConfiguration.singleUseDatabaseDecorator(
+                TestConfiguration.embeddedSuite(PageCompressionTest.class));
+    }
+
+    /**
+     * Create table COMPRESSED with page compression, and table PLAIN
+     * without, and fill both with the same rows.
+     */
+    private void createTables() throws SQLException {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("call syscs_util.syscs_set_database_property" +
+                  "('derby.storage.pageCompression', 'true')");
+        s.execute("create table compressed(id int primary key, " +
+                  "x varchar(100))");
+        s.execute("call syscs_util.syscs_set_database_property" +
+                  "('derby.storage.pageCompression', null)");
+        s.execute("create table plain(id int primary key, x varchar(100))");
+
+        PreparedStatement ps1 =
+            prepareStatement("insert into compressed values (?,?)");
+        PreparedStatement ps2 =
+            prepareStatement("insert into plain values (?,?)");
+        for (int i = 0; i < ROWS; i++) {
+            String x = "archived row of group " + (i % 10);
+            ps1.setInt(1, i);
+            ps1.setString(2, x);
+            ps1.executeUpdate();
+            ps2.setInt(1, i);
+            ps2.setString(2, x);
+            ps2.executeUpdate();
+        }
+        commit();
+    }
+
+    protected void tearDown() throws Exception {
+        dropTable("COMPRESSED");
+        dropTable("PLAIN");
+        commit();
+        super.tearDown();
+    }
+
+    /**
+     * Get the compression ratio reported by SPACE_TABLE for the heap of a
+     * table.
+     */
+    private double getCompressionRatio(String table) throws SQLException {
+        PreparedStatement ps = prepareStatement(
+            "select compressionratio from " +
+            "table(syscs_diag.space_table('APP', ?)) t where isindex = 0");
+        ps.setString(1, table);
+        ResultSet rs = ps.executeQuery();
+        assertTrue(rs.next());
+        double ratio = rs.getDouble(1);
+        assertFalse(rs.next());
+        rs.close();
+        return ratio;
+    }
+
+    /**
+     * Check that both tables hold the rows inserted by createTables().
+     */
+    private void checkTables() throws SQLException {
+        Statement s = createStatement();
+        ResultSet rs = s.executeQuery(
+                "select count(*), sum(cast(id as bigint)) from plain");
+        assertTrue(rs.next());
+        String[][] expected = {{ rs.getString(1), rs.getString(2) }};
+        rs.close();
+        JDBC.assertFullResultSet(
+            s.executeQuery(
+                "select count(*), sum(cast(id as bigint)) from compressed"),
+            expected);
+        JDBC.assertEmpty(s.executeQuery(
+            "select * from compressed except select * from plain"));
+        JDBC.assertSingleValueResultSet(
+            s.executeQuery(
+                "values syscs_util.syscs_check_table('APP', 'COMPRESSED')"),
+            "1");
+        commit();
+    }
+
+    /**
+     * Rows in a compressed table can be read back, and SPACE_TABLE reports
+     * that its pages take less space than those of an uncompressed table.
+     */
+    public void testCompressedPages() throws SQLException {
+        createTables();
+        createStatement().execute(
+            "call syscs_util.syscs_checkpoint_database()");
+
+        assertTrue(getCompressionRatio("COMPRESSED") > 1.0);
+        assertEquals(1.0, getCompressionRatio("PLAIN"), 0.0);
+
+        checkTables();
+    }
+
+    /**
+     * Compressed pages can be read after a reboot, and the table stays
+     * compressed when it is rebuilt by SYSCS_COMPRESS_TABLE.
+     */
+    public void testRebootAndCompressTable() throws SQLException {
+        createTables();
+        getTestConfiguration().shutdownDatabase();
+        setAutoCommit(false);
+
+        checkTables();
+        assertTrue(getCompressionRatio("COMPRESSED") > 1.0);
+
+        Statement s = createStatement();
+        s.executeUpdate("delete from compressed where mod(id, 2) = 0");
+        s.executeUpdate("delete from plain where mod(id, 2) = 0");
+        commit();
+        s.execute("call syscs_util.syscs_compress_table" +
+                  "('APP', 'COMPRESSED', 1)");
+        commit();
+        getTestConfiguration().shutdownDatabase();
+        setAutoCommit(false);
+
+        checkTables();
+        assertTrue(getCompressionRatio("COMPRESSED") > 1.0);
+    }
+}
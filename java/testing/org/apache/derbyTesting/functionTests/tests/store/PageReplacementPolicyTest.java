@@ -0,0 +1,186 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.PageReplacementPolicyTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that the page cache works with the scan resistant 2Q replacement
+ * policy (derby.storage.pageReplacementPolicy=2Q), when the cache is much
+ * smaller than the tables so that pages are evicted all the time.
+ */
+public class PageReplacementPolicyTest extends BaseJDBCTestCase {
+
+    /** The number of rows in BIG, a power of two. */
+    private static final int ROWS = 8192;
+
+    public PageReplacementPolicyTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.pageReplacementPolicy", "2Q");
+        props.setProperty("derby.storage.pageCacheSize", "100");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(
+                        PageReplacementPolicyTest.class)),
+                props, true);
+    }
+
+    protected void setUp() throws SQLException {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table big(id int primary key, x varchar(200))");
+        s.execute("insert into big values (0, 'a row of a table which is " +
+                  "several times larger than the page cache')");
+        for (int rows = 1; rows < ROWS; rows *= 2) {
+            s.executeUpdate("insert into big select id + " + rows +
+                            ", x from big");
+        }
+        s.execute("create table hot(id int primary key, x int)");
+        s.executeUpdate("insert into hot select id, 0 from big where id < 100");
+        commit();
+    }
+
+    protected void tearDown() throws Exception {
+        dropTable("HOT");
+        dropTable("BIG");
+        commit();
+        super.tearDown();
+    }
+
+    /**
+     * Updates of a small table interleaved with full scans of a large one
+     * see the right data, also after the dirty pages have been written out
+     * to make room for other pages.
+     */
+    public void testHotTableAndScans() throws SQLException {
+        Statement s = createStatement();
+        PreparedStatement upd =
+            prepareStatement("update hot set x = x + 1 where id = ?");
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                upd.setInt(1, i);
+                assertUpdateCount(upd, 1);
+            }
+            commit();
+            JDBC.assertSingleValueResultSet(
+                    s.executeQuery("select count(*) from big " +
+                                   "--derby-properties index=null\n"),
+                    Integer.toString(ROWS));
+        }
+
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select min(x) from hot"), "5");
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select max(x) from hot"), "5");
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("values syscs_util.syscs_check_table" +
+                               "('APP', 'BIG')"),
+                "1");
+        commit();
+    }
+
+    /**
+     * Pages which are read again and again stay in the cache while a table
+     * larger than the cache is scanned, since pages seen once are evicted
+     * before pages seen more than once.
+     */
+    public void testWorkingSetSurvivesScans() throws Exception {
+        Statement s = createStatement();
+        s.execute("create table warm(id int, x varchar(200))");
+        s.executeUpdate("insert into warm select * from big where id < 300");
+        s.execute("create table other(id int constraint other_pk " +
+                  "primary key, x varchar(200))");
+        s.executeUpdate("insert into other select * from big " +
+                        "where id < 3000");
+        commit();
+
+        PreparedStatement warmScan =
+            prepareStatement("select count(*) from warm");
+        PreparedStatement rangeScan =
+            prepareStatement("select count(x) from other " +
+                             "--derby-properties constraint=other_pk\n" +
+                             "where id between ? and ?");
+        PreparedStatement bigScan =
+            prepareStatement("select count(*) from big " +
+                             "--derby-properties index=null\n");
+
+        // WARM is read twice with other work in between (a range of OTHER
+        // read through the index), which makes its pages part of the
+        // working set, before each full scan of BIG.
+        for (int i = 0; i < 3; i++) {
+            JDBC.assertSingleValueResultSet(warmScan.executeQuery(), "300");
+            rangeScan.setInt(1, 600 * i);
+            rangeScan.setInt(2, 600 * (i + 1) - 1);
+            JDBC.assertSingleValueResultSet(rangeScan.executeQuery(), "600");
+            JDBC.assertSingleValueResultSet(warmScan.executeQuery(), "300");
+            JDBC.assertSingleValueResultSet(
+                    bigScan.executeQuery(), Integer.toString(ROWS));
+        }
+
+        // The pages of WARM were all still in the cache after the last scan
+        // of BIG.
+        PageCacheMonitor cache = new PageCacheMonitor(getConnection());
+        cache.collectAccessCounts(true);
+        JDBC.assertSingleValueResultSet(warmScan.executeQuery(), "300");
+        cache.collectAccessCounts(false);
+        assertEquals(0, cache.getLong("MissCount"));
+        assertTrue(cache.getLong("HitCount") > 0);
+
+        s.execute("drop table warm");
+        s.execute("drop table other");
+        commit();
+    }
+
+    /**
+     * Pages of a dropped table are removed from the cache, and their
+     * entries are reused for other pages.
+     */
+    public void testDropAndRecreate() throws SQLException {
+        Statement s = createStatement();
+        for (int i = 0; i < 3; i++) {
+            s.execute("create table tmp as select * from big with no data");
+            s.executeUpdate("insert into tmp select * from big");
+            commit();
+            s.execute("drop table tmp");
+            commit();
+            JDBC.assertSingleValueResultSet(
+                    s.executeQuery("select count(*) from big where id >= 0"),
+                    Integer.toString(ROWS));
+        }
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("values syscs_util.syscs_check_table" +
+                               "('APP', 'BIG')"),
+                "1");
+        commit();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.RedoPrefetchTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derby.shared.common.sanity.SanityManager;
+import org.apache.derbyTesting.functionTests.util.PrivilegedFileOpsForTests;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.CleanDatabaseTestSetup;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that crash recovery gives the right result when the page level
+ * log records are redone by worker threads, one or more containers each
+ * (derby.storage.recoveryRedoThreads).
+ */
+public class ParallelRedoTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 5000;
+    private static final int THREADS = 4;
+
+    /** The trace written when the workers are done, in sane builds. */
+    private static final String TRACE =
+            "Records redone by " + THREADS + " workers:";
+
+    public ParallelRedoTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.recoveryRedoThreads",
+                          Integer.toString(THREADS));
+        // Small enough that redo has to read pages back from disk.
+        props.setProperty("derby.storage.pageCacheSize", "40");
+        props.setProperty("derby.debug.true", "ParallelRedo");
+        return new SystemPropertyTestSetup(
+                new CleanDatabaseTestSetup(
+                    TestConfiguration.embeddedSuite(ParallelRedoTest.class)),
+                props, true);
+    }
+
+    /**
+     * Load a table, have a forked JVM change it and a couple of other
+     * containers without shutting down, and check that recovery restores
+     * the committed changes only, with more than one worker applying them.
+     */
+    public void testRecovery() throws Exception {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t(id int primary key, n int, x varchar(100))");
+        s.execute("create table dropped(x int)");
+        PreparedStatement ps =
+            prepareStatement("insert into t values (?, 0, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "row number " + i + " of the redo table");
+            ps.executeUpdate();
+        }
+        commit();
+        s.close();
+        TestConfiguration.getCurrent().shutdownDatabase();
+
+        assertLaunchedJUnitTestMethod("org.apache.derbyTesting." +
+                "functionTests.tests.store.ParallelRedoTest.launchUpdates");
+
+        setAutoCommit(false);
+        s = createStatement();
+
+        if (SanityManager.DEBUG) {
+            // The records are spread over the workers by container. The
+            // table, the other tables and the catalogs changed by the
+            // forked JVM can't all have gone to the same worker.
+            String[] counts = lastTrace().trim().split(" ");
+            assertEquals(THREADS, counts.length);
+            int working = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (Integer.parseInt(counts[i]) > 0) {
+                    working++;
+                }
+            }
+            assertTrue("Redo on one thread only: " + lastTrace(),
+                       working > 1);
+        }
+
+        // Two committed updates of all rows, one committed update of every
+        // third row, and one uncommitted update which must be rolled back.
+        JDBC.assertFullResultSet(
+                s.executeQuery("select count(*), sum(n) from t"),
+                new String[][] {{
+                    Integer.toString(ROWS),
+                    Integer.toString(2 * ROWS + (ROWS + 2) / 3)}});
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from created"), "3");
+        assertStatementError("42X05", s, "select * from dropped");
+
+        dropTable("T");
+        dropTable("CREATED");
+        commit();
+    }
+
+    /**
+     * Get what the last trace of the redo workers in derby.log says after
+     * the number of workers.
+     */
+    private static String lastTrace() throws IOException {
+        BufferedReader in = new BufferedReader(
+                PrivilegedFileOpsForTests.getFileReader(
+                    new File(DEFAULT_DB_DIR, DERBY_LOG)));
+        String last = null;
+        try {
+            for (String line; (line = in.readLine()) != null; ) {
+                int pos = line.indexOf(TRACE);
+                if (pos >= 0) {
+                    last = line.substring(pos + TRACE.length());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        assertNotNull("No trace of the redo workers", last);
+        return last;
+    }
+
+    /**
+     * Run in a forked JVM. Changes the database and exits without shutting
+     * it down, so that the next boot has to recover.
+     */
+    public void launchUpdates() throws SQLException {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        for (int round = 0; round < 2; round++) {
+            assertUpdateCount(s, ROWS, "update t set n = n + 1");
+            commit();
+        }
+        // Container level operations, which the workers must not overlap
+        // with.
+        s.execute("drop table dropped");
+        s.execute("create table created(x int)");
+        s.execute("insert into created values 1, 2, 3");
+        commit();
+        s.execute("call syscs_util.syscs_compress_table('APP', 'CREATED', 1)");
+        commit();
+        s.executeUpdate("update t set n = n + 1 where mod(id, 3) = 0");
+        commit();
+        s.executeUpdate("update t set n = n + 100 where id < 100");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.ReadAheadTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.SystemPropertyTestSetup;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests that heap and B-tree scans return the right results when pages are
+ * read ahead of the scan by the background read-ahead thread
+ * (derby.storage.readAheadPages).
+ */
+public class ReadAheadTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 5000;
+
+    public ReadAheadTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Run the tests with read-ahead enabled and a page cache that is too
+     * small to hold the table, so that read-ahead actually has to go to disk.
+     */
+    public static Test suite() {
+        Properties props = new Properties();
+        props.setProperty("derby.storage.readAheadPages", "16");
+        props.setProperty("derby.storage.pageCacheSize", "100");
+        return new SystemPropertyTestSetup(
+                TestConfiguration.singleUseDatabaseDecorator(
+                    TestConfiguration.embeddedSuite(ReadAheadTest.class)),
+                props, true);
+    }
+
+    protected void setUp() throws SQLException {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table t(id int primary key, x varchar(100))");
+        PreparedStatement ps = prepareStatement("insert into t values (?,?)");
+        for (int i = 0; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "row number " + i + " of the read-ahead table");
+            ps.executeUpdate();
+        }
+        commit();
+    }
+
+    protected void tearDown() throws Exception {
+        dropTable("T");
+        commit();
+        super.tearDown();
+    }
+
+    /** Full heap scan and full index scan see every row. */
+    public void testFullScans() throws SQLException {
+        Statement s = createStatement();
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t " +
+                               "--derby-properties index=null\n"),
+                Integer.toString(ROWS));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t where id >= 0"),
+                Integer.toString(ROWS));
+        commit();
+    }
+
+    /**
+     * A scan of a table which is not in the page cache gets the pages ahead
+     * of it read into the cache by the read-ahead thread, before the scan
+     * asks for them itself.
+     */
+    public void testPagesReadAhead() throws Exception {
+        // Start with none of the pages of the table in the cache.
+        TestConfiguration.getCurrent().shutdownDatabase();
+        PageCacheMonitor cache = new PageCacheMonitor(getConnection());
+        setAutoCommit(false);
+
+        PreparedStatement ps = prepareStatement(
+                "select id from t --derby-properties index=null\n");
+        long before = cache.getLong("UsedEntries");
+
+        // Read the rows of the first few pages, so that the scan is seen
+        // to be sequential.
+        ResultSet rs = ps.executeQuery();
+        int rows = 0;
+        while (rows < ROWS / 20) {
+            assertTrue(rs.next());
+            rows++;
+        }
+
+        // The scan itself has been through five pages at most, read-ahead
+        // brings in the next 16. Give the read-ahead thread some time.
+        long used = cache.getLong("UsedEntries");
+        for (int i = 0; i < 300 && used < before + 12; i++) {
+            Thread.sleep(100);
+            used = cache.getLong("UsedEntries");
+        }
+        assertTrue("Pages cached before the scan: " + before +
+                   ", after reading " + rows + " rows: " + used,
+                   used >= before + 12);
+
+        while (rs.next()) {
+            rows++;
+        }
+        rs.close();
+        assertEquals(ROWS, rows);
+        commit();
+    }
+
+    /**
+     * Scans still work after pages have been deallocated and the file has
+     * been truncated by an in-place compress, which leaves pages behind that
+     * the read-ahead thread must not bring back into the cache.
+     */
+    public void testScanAfterCompress() throws SQLException {
+        Statement s = createStatement();
+        s.executeUpdate("delete from t where id >= " + (ROWS / 2));
+        commit();
+        s.execute("call syscs_util.syscs_inplace_compress_table" +
+                  "('APP', 'T', 1, 1, 1)");
+        commit();
+
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t " +
+                               "--derby-properties index=null\n"),
+                Integer.toString(ROWS / 2));
+
+        // Grow the table again into the truncated pages.
+        PreparedStatement ps = prepareStatement("insert into t values (?,?)");
+        for (int i = ROWS / 2; i < ROWS; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "new row " + i);
+            ps.executeUpdate();
+        }
+        commit();
+
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from t where id >= 0"),
+                Integer.toString(ROWS));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery(
+                    "values syscs_util.syscs_check_table('APP', 'T')"),
+                "1");
+        commit();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.functionTests.tests.store.UnloggedTableTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.derbyTesting.functionTests.tests.store;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import junit.framework.Test;
+import org.apache.derbyTesting.junit.BaseJDBCTestCase;
+import org.apache.derbyTesting.junit.CleanDatabaseTestSetup;
+import org.apache.derbyTesting.junit.JDBC;
+import org.apache.derbyTesting.junit.TestConfiguration;
+
+/**
+ * Tests tables created with NOT LOGGED: committed changes survive a clean
+ * shutdown, rollbacks and the recovery of a transaction that changed the
+ * table, while the changes of the transactions rolled back are gone.
+ */
+public class UnloggedTableTest extends BaseJDBCTestCase {
+
+    private static final int ROWS = 200;
+
+    public UnloggedTableTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new CleanDatabaseTestSetup(
+                TestConfiguration.embeddedSuite(UnloggedTableTest.class));
+    }
+
+    private void load(String table, int from, int count) throws SQLException {
+        load(getConnection(), table, from, count);
+    }
+
+    private static void load(Connection c, String table, int from, int count)
+            throws SQLException {
+        PreparedStatement ps = c.prepareStatement(
+                "insert into " + table + "(id, x, c) values (?, ?, ?)");
+        for (int i = from; i < from + count; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, "value " + i);
+            ps.setString(3, i % 10 == 0 ? new String(new char[40000]) : "c");
+            ps.executeUpdate();
+        }
+        ps.close();
+    }
+
+    private void checkTable(Statement s, String table, int rows)
+            throws SQLException {
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("select count(*) from " + table),
+                Integer.toString(rows));
+        JDBC.assertSingleValueResultSet(
+                s.executeQuery("values syscs_util.syscs_check_table('APP', '" +
+                               table + "')"),
+                "1");
+    }
+
+    /**
+     * Commit, roll back and fail statements against an unlogged table, and
+     * check that the committed rows survive.
+     */
+    public void testRollback() throws SQLException {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table u(id int check (id >= 0), " +
+                  "x varchar(100), c clob) not logged");
+        s.execute("create table l(id int, x varchar(100), c clob)");
+        commit();
+
+        load("u", 0, ROWS);
+        load("l", 0, ROWS);
+        commit();
+        checkTable(s, "U", ROWS);
+
+        // A rollback undoes the changes to the committed rows.
+        assertUpdateCount(s, 10, "update u set x = 'short' where id < 10");
+        assertUpdateCount(s, 20, "delete from u where id >= 180");
+        rollback();
+        checkTable(s, "U", ROWS);
+        checkTable(s, "L", ROWS);
+        JDBC.assertSingleValueResultSet(s.executeQuery(
+                "select count(*) from u where x = 'value ' || rtrim(char(id))"),
+                Integer.toString(ROWS));
+
+        // Rows inserted on pages the transaction allocated are thrown
+        // away with the pages.
+        load("u", ROWS, ROWS);
+        checkTable(s, "U", 2 * ROWS);
+        rollback();
+        checkTable(s, "U", ROWS);
+
+        // A failing statement keeps the committed rows.
+        assertStatementError("23513", s, "insert into u values (-1, 'x', 'y')");
+        checkTable(s, "U", ROWS);
+        commit();
+
+        // A failing statement that had inserted rows keeps the rows of the
+        // statements before it in the transaction.
+        load("u", ROWS, ROWS);
+        assertStatementError("23513", s,
+                "insert into u select " + (ROWS / 2) + " - id, x, c from l");
+        checkTable(s, "U", 2 * ROWS);
+        commit();
+        checkTable(s, "U", 2 * ROWS);
+
+        // A rollback after a failing statement undoes the rest of the
+        // transaction only.
+        assertUpdateCount(s, ROWS, "delete from u where id >= " + ROWS);
+        assertStatementError("23513", s, "update u set id = -id where id = 1");
+        rollback();
+        checkTable(s, "U", 2 * ROWS);
+
+        dropTable("U");
+        dropTable("L");
+        commit();
+    }
+
+    /**
+     * Indexes cannot be created on an unlogged table, neither directly nor
+     * for a constraint.
+     */
+    public void testNoIndexes() throws SQLException {
+        Statement s = createStatement();
+        s.execute("create table u(id int) not logged");
+        assertStatementError("X0Y94", s, "create index ui on u(id)");
+        assertStatementError("X0Y94", s,
+                "create table p(id int primary key) not logged");
+        assertStatementError("X0Y94", s,
+                "alter table u add constraint uu unique(id)");
+        dropTable("U");
+    }
+
+    /**
+     * Have a forked JVM change an unlogged table without shutting down,
+     * and check that recovery rolls back the changes and keeps the
+     * committed rows, of that table and of one that was not changed.
+     */
+    public void testRecovery() throws Exception {
+        setAutoCommit(false);
+        Statement s = createStatement();
+        s.execute("create table u1(id int, x varchar(100), c clob) not logged");
+        s.execute("create table u2(id int, x varchar(100), c clob) not logged");
+        commit();
+        load("u1", 0, ROWS);
+        load("u2", 0, ROWS);
+        commit();
+        s.close();
+        TestConfiguration.getCurrent().shutdownDatabase();
+
+        assertLaunchedJUnitTestMethod("org.apache.derbyTesting." +
+                "functionTests.tests.store.UnloggedTableTest.launchUpdates");
+
+        setAutoCommit(false);
+        s = createStatement();
+        checkTable(s, "U1", ROWS);
+        checkTable(s, "U2", ROWS);
+        JDBC.assertSingleValueResultSet(s.executeQuery(
+                "select count(*) from u1 where x = 'changed'"), "0");
+
+        load("u1", ROWS, ROWS);
+        commit();
+        checkTable(s, "U1", 2 * ROWS);
+
+        dropTable("U1");
+        dropTable("U2");
+        commit();
+    }
+
+    /**
+     * Run in a forked JVM. Changes an unlogged table and exits without
+     * committing or shutting down the database, so that the next boot has
+     * to recover. The changes are made on a connection of their own, which
+     * the tear down does not roll back, and a checkpoint writes them to
+     * disk.
+     */
+    public void launchUpdates() throws SQLException {
+        Connection c = openDefaultConnection();
+        c.setAutoCommit(false);
+        Statement s = c.createStatement();
+        assertUpdateCount(s, 10, "update u1 set x = 'changed' where id < 10");
+        load(c, "u1", ROWS, ROWS);
+
+        createStatement().execute(
+                "call syscs_util.syscs_checkpoint_database()");
+    }
+}
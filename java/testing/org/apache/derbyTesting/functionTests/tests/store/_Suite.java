@@ -63,6 +63,7 @@ public class _Suite extends BaseTestCase  {
         suite.addTest(PositionedStoreStreamTest.suite());
         suite.addTest(OSReadOnlyTest.suite());
         suite.addTest(BackupRestoreTest.suite());
+        suite.addTest(IncrementalBackupTest.suite());
         suite.addTest(OfflineBackupTest.suite());
         suite.addTest(LiveLockTest.suite());
         suite.addTest(ClobReclamationTest.suite());
@@ -86,6 +87,24 @@ public class _Suite extends BaseTestCase  {
         suite.addTest(StoreScriptsTest.suite());
         suite.addTest(Derby4923Test.suite());
         suite.addTest(SpaceTableTest.suite());
+        suite.addTest(ReadAheadTest.suite());
+        suite.addTest(MappedReadOnlyTest.suite());
+        suite.addTest(PageCompressionTest.suite());
+        suite.addTest(PageReplacementPolicyTest.suite());
+        suite.addTest(PageCacheShardsTest.suite());
+        suite.addTest(CleanOrderTest.suite());
+        suite.addTest(PageBufferPoolTest.suite());
+        suite.addTest(IncrementalCheckpointTest.suite());
+        suite.addTest(ParallelRedoTest.suite());
+        suite.addTest(ConcurrentLogWriteTest.suite());
+        suite.addTest(LogCompressionTest.suite());
+        suite.addTest(UnloggedTableTest.suite());
+        suite.addTest(InsertPagesTest.suite());
+        suite.addTest(FreeSpaceMapTest.suite());
+        suite.addTest(InplaceCompressTest.suite());
+        suite.addTest(CRC32CChecksumTest.suite());
+        suite.addTest(DirectIOTest.suite());
+        suite.addTest(BackgroundPreallocationTest.suite());
         
         /* Tests that only run in sane builds */
         if (SanityManager.DEBUG) {
@@ -160,6 +160,43 @@ public class BlockedByteArrayTest
         assertEquals(0L, src.length());
     }
 
+    /**
+     * Writes and reads back data spanning several blocks kept off the heap,
+     * and checks that it is the same as with blocks on the heap.
+     *
+     * @throws IOException if something goes wrong
+     */
+    public void testOffHeap()
+            throws IOException {
+        int size = 65*1024 + 37;
+        BlockedByteArray onHeap = createBlockedByteArray(size);
+        BlockedByteArray offHeap = new BlockedByteArray(true);
+        byte[] buf = new byte[2567];
+        long pos = 0;
+        while (pos < size) {
+            int read = onHeap.read(pos, buf, 0, buf.length);
+            assertEquals(read, offHeap.writeBytes(pos, buf, 0, read));
+            pos += read;
+        }
+        assertEquals(onHeap.length(), offHeap.length());
+        byte[] expected = new byte[4*1024];
+        byte[] actual = new byte[4*1024];
+        for (pos = 0; pos < size; pos += actual.length) {
+            int read = onHeap.read(pos, expected, 0, expected.length);
+            assertEquals(read, offHeap.read(pos, actual, 0, actual.length));
+            assertTrue(Arrays.equals(expected, actual));
+        }
+        offHeap.writeByte(size, (byte)9);
+        assertEquals(9, offHeap.read(size));
+        assertEquals(-1, offHeap.read(size + 1));
+        offHeap.setLength(44444);
+        assertEquals(44444L, offHeap.length());
+        assertEquals(onHeap.read(44443), offHeap.read(44443));
+        offHeap.setLength(0);
+        assertEquals(0L, offHeap.length());
+        assertEquals(-1, offHeap.read(0));
+    }
+
     public static Test suite() {
         return new BaseTestSuite(BlockedByteArrayTest.class);
     }
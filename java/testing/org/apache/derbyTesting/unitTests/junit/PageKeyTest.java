@@ -0,0 +1,102 @@
+/*
+
+   Derby - Class org.apache.derbyTesting.unitTests.junit.PageKeyTest
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to you under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.derbyTesting.unitTests.junit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.derby.iapi.store.raw.ContainerKey;
+import org.apache.derby.iapi.store.raw.PageKey;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for the ordering of PageKey, which is the order in which the
+ * page cache writes pages out.
+ */
+public class PageKeyTest extends TestCase {
+
+    public PageKeyTest(String name) {
+        super(name);
+    }
+
+    private static PageKey key(long segment, long container, long page) {
+        return new PageKey(new ContainerKey(segment, container), page);
+    }
+
+    /**
+     * Keys are ordered by segment, then container, then page number.
+     */
+    public void testOrder() {
+        PageKey[] ordered = {
+            key(0, 0, 0),
+            key(0, 0, 1),
+            key(0, 0, Long.MAX_VALUE),
+            key(0, 1, 0),
+            key(0, 1, 7),
+            key(0, Long.MAX_VALUE, 0),
+            key(1, 0, 0),
+            key(1, 0, 3),
+        };
+
+        for (int i = 0; i < ordered.length; i++) {
+            for (int j = 0; j < ordered.length; j++) {
+                int c = ordered[i].compareTo(ordered[j]);
+                String msg = ordered[i] + " vs " + ordered[j];
+                if (i < j) {
+                    assertTrue(msg, c < 0);
+                } else if (i > j) {
+                    assertTrue(msg, c > 0);
+                } else {
+                    assertEquals(msg, 0, c);
+                }
+            }
+        }
+
+        List<PageKey> keys = new ArrayList<PageKey>();
+        for (int i = ordered.length - 1; i >= 0; i--) {
+            keys.add(ordered[(i * 3) % ordered.length]);
+        }
+        Collections.sort(keys);
+        for (int i = 0; i < ordered.length; i++) {
+            assertEquals(ordered[i], keys.get(i));
+        }
+    }
+
+    /**
+     * Keys which compare as equal are equal, and have the same hash code.
+     */
+    public void testConsistentWithEquals() {
+        PageKey a = key(0, 42, 17);
+        PageKey b = key(0, 42, 17);
+        assertEquals(0, a.compareTo(b));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        // Large numbers must not overflow when compared.
+        assertTrue(key(0, 0, Long.MIN_VALUE).compareTo(
+                       key(0, 0, Long.MAX_VALUE)) < 0);
+        assertTrue(key(0, Long.MAX_VALUE, 0).compareTo(
+                       key(0, -1, 0)) > 0);
+    }
+}
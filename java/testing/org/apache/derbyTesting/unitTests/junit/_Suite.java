@@ -59,6 +59,7 @@ public class _Suite extends BaseTestCase {
         suite.addTest(DataInputUtilTest.suite());
         suite.addTest(DerbyVersionTest.suite());
         suite.addTest(MissingPermissionsTest.suite());
+        suite.addTestSuite(PageKeyTest.class);
 
         return suite;
     }